@@ -0,0 +1,78 @@
+package com.slack.kaldb;
+
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
+import com.slack.kaldb.histogram.HistogramBucket;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures counting timestamps into a histogram, like a stats collector does for every matching
+ * document, and merging histograms, like the reduce of the collectors and the aggregation of the
+ * search results do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistogramBenchmark {
+  private static final int TIMESTAMP_COUNT = 100_000;
+
+  @Param({"60", "1000"})
+  private int bucketCount;
+
+  private long startTimeMs;
+  private long endTimeMs;
+  private long[] timestamps;
+  private FixedIntervalHistogramImpl histogram;
+  private List<HistogramBucket> buckets;
+
+  @Setup(Level.Trial)
+  public void createTimestamps() {
+    Random random = new Random(0);
+    endTimeMs = System.currentTimeMillis();
+    startTimeMs = endTimeMs - TimeUnit.HOURS.toMillis(1);
+
+    timestamps = new long[TIMESTAMP_COUNT];
+    histogram = new FixedIntervalHistogramImpl(startTimeMs, endTimeMs, bucketCount);
+    for (int i = 0; i < TIMESTAMP_COUNT; i++) {
+      timestamps[i] = startTimeMs + (long) (random.nextDouble() * (endTimeMs - startTimeMs));
+      histogram.add(timestamps[i]);
+    }
+    buckets = histogram.getBuckets();
+  }
+
+  @Benchmark
+  public FixedIntervalHistogramImpl add() {
+    FixedIntervalHistogramImpl result =
+        new FixedIntervalHistogramImpl(startTimeMs, endTimeMs, bucketCount);
+    for (long timestamp : timestamps) {
+      result.add(timestamp);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public FixedIntervalHistogramImpl merge() {
+    FixedIntervalHistogramImpl result =
+        new FixedIntervalHistogramImpl(startTimeMs, endTimeMs, bucketCount);
+    result.merge(histogram);
+    return result;
+  }
+
+  @Benchmark
+  public FixedIntervalHistogramImpl mergeBuckets() {
+    FixedIntervalHistogramImpl result =
+        new FixedIntervalHistogramImpl(startTimeMs, endTimeMs, bucketCount);
+    result.mergeHistogram(buckets);
+    return result;
+  }
+}
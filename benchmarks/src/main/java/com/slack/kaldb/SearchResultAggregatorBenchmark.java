@@ -0,0 +1,72 @@
+package com.slack.kaldb;
+
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.SearchResultAggregatorImpl;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the aggregation of the hits of many nodes, like the query service does for a search, or
+ * of many chunks, like a search node does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchResultAggregatorBenchmark {
+  private static final String INDEX_NAME = "testindex";
+
+  @Param({"10", "100"})
+  private int searchResultCount;
+
+  @Param({"100", "500"})
+  private int hitsPerSearchResult;
+
+  @Param({"100", "500"})
+  private int howMany;
+
+  private List<SearchResult<LogMessage>> searchResults;
+  private SearchResultAggregatorImpl<LogMessage> aggregator;
+
+  @Setup(Level.Trial)
+  public void createSearchResults() {
+    Random random = new Random(0);
+    long endTimeMs = System.currentTimeMillis();
+    long startTimeMs = endTimeMs - TimeUnit.HOURS.toMillis(1);
+
+    searchResults = new ArrayList<>(searchResultCount);
+    for (int i = 0; i < searchResultCount; i++) {
+      List<LogMessage> hits = new ArrayList<>(hitsPerSearchResult);
+      for (int j = 0; j < hitsPerSearchResult; j++) {
+        long timestamp = startTimeMs + (long) (random.nextDouble() * (endTimeMs - startTimeMs));
+        hits.add(new LogMessage(INDEX_NAME, "INFO", i + "-" + j, Map.of(), timestamp));
+      }
+      // The hits of every search result are sorted by time, newest first.
+      hits.sort(Comparator.comparingLong((LogMessage hit) -> hit.timeSinceEpochMilli).reversed());
+      searchResults.add(new SearchResult<>(hits, 1, hits.size(), List.of(), 0, 1, 1, 0));
+    }
+
+    aggregator =
+        new SearchResultAggregatorImpl<>(
+            new SearchQuery(INDEX_NAME, "", startTimeMs, endTimeMs, howMany, 0));
+  }
+
+  @Benchmark
+  public SearchResult<LogMessage> aggregate() {
+    return aggregator.aggregate(searchResults);
+  }
+}
@@ -0,0 +1,57 @@
+package com.slack.kaldb;
+
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.util.TimestampParser;
+import java.time.Instant;
+import java.util.Random;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the per message costs of parsing the @timestamp field and validating the index name,
+ * using the JDK and the fast paths in TimestampParser and LogMessage.isValidIndexName.
+ */
+@State(Scope.Thread)
+public class TimestampParsingBenchmark {
+
+  private static final int COUNT = 1024;
+
+  private final String[] timestamps = new String[COUNT];
+  private final String[] indexNames = new String[COUNT];
+  private int next;
+
+  @Setup(Level.Iteration)
+  public void createTimestamps() {
+    Random random = new Random();
+    long now = Instant.now().toEpochMilli();
+    for (int i = 0; i < COUNT; i++) {
+      timestamps[i] = Instant.ofEpochMilli(now - random.nextInt(Integer.MAX_VALUE)).toString();
+      indexNames[i] = "hhvm_api_log_" + random.nextInt(16);
+    }
+    next = 0;
+  }
+
+  private int nextIndex() {
+    next = (next + 1) & (COUNT - 1);
+    return next;
+  }
+
+  @Benchmark
+  public long measureInstantParse() {
+    return Instant.parse(timestamps[nextIndex()]).toEpochMilli();
+  }
+
+  @Benchmark
+  public long measureTimestampParser() {
+    return TimestampParser.parseEpochMillis(timestamps[nextIndex()]);
+  }
+
+  @Benchmark
+  public boolean measureIndexNameRegex() {
+    return LogMessage.INDEX_NAME_PATTERN.matcher(indexNames[nextIndex()]).matches();
+  }
+
+  @Benchmark
+  public boolean measureIndexNameCache() {
+    return LogMessage.isValidIndexName(indexNames[nextIndex()]);
+  }
+}
@@ -24,4 +24,9 @@ public interface Chunk<T> extends Closeable {
 
   /** Return true if the chunk contains data within that time range (epoch ms). */
   boolean containsDataInTimeRange(long startTs, long endTs);
+
+  /**
+   * Return false if the chunk doesn't contain any span of the trace, true if it may contain some.
+   */
+  boolean mayContainTrace(String traceId);
 }
@@ -2,7 +2,11 @@ package com.slack.kaldb.chunk;
 
 import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
 
+import com.google.common.collect.ImmutableMap;
 import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -14,33 +18,63 @@ import java.util.Objects;
  * metadata related to searching once the chunk is immutable. In future, consider separating this
  * code into multiple, classes.
  *
+ * <p>The data time range and the max offset are updated concurrently by the indexing threads, so
+ * they are guarded by the lock on this object.
+ *
+ * <p>The chunk also keeps a catalog of the indexes it contains, with the number of documents of
+ * each index. The catalog is published with the snapshot of the chunk, so the queries for an index
+ * can skip the chunks that don't contain it. To keep the snapshot metadata small, the catalog is
+ * dropped once the chunk contains too many indexes, and the chunk is treated as containing all of
+ * them, like the chunks created before the catalog was added.
+ *
  * <p>TODO: Have a read only chunk info for read only chunks so we don't accidentally update it.
  */
 public class ChunkInfo {
   public static final long MAX_FUTURE_TIME = Long.MAX_VALUE;
   public static final int DEFAULT_MAX_OFFSET = 0;
+  public static final int MAX_CATALOG_INDEXES = 1000;
 
   public static ChunkInfo fromSnapshotMetadata(SnapshotMetadata snapshotMetadata) {
-    return new ChunkInfo(
-        snapshotMetadata.snapshotId,
-        snapshotMetadata.startTimeEpochMs,
-        snapshotMetadata.endTimeEpochMs,
-        snapshotMetadata.startTimeEpochMs,
-        snapshotMetadata.endTimeEpochMs,
-        snapshotMetadata.endTimeEpochMs,
-        snapshotMetadata.maxOffset,
-        snapshotMetadata.partitionId,
-        snapshotMetadata.snapshotPath);
+    ChunkInfo chunkInfo =
+        new ChunkInfo(
+            snapshotMetadata.snapshotId,
+            snapshotMetadata.startTimeEpochMs,
+            snapshotMetadata.endTimeEpochMs,
+            snapshotMetadata.startTimeEpochMs,
+            snapshotMetadata.endTimeEpochMs,
+            snapshotMetadata.endTimeEpochMs,
+            snapshotMetadata.maxOffset,
+            snapshotMetadata.partitionId,
+            snapshotMetadata.snapshotPath);
+    chunkInfo.updateIndexDocCounts(snapshotMetadata.indexDocCounts);
+    return chunkInfo;
   }
 
+  // The live snapshots are published before the chunk has any data, so they have an empty schema
+  // and index catalog.
   public static SnapshotMetadata toSnapshotMetadata(ChunkInfo chunkInfo, String chunkPrefix) {
+    return toSnapshotMetadata(chunkInfo, chunkPrefix, ImmutableMap.of(), ImmutableMap.of());
+  }
+
+  public static SnapshotMetadata toSnapshotMetadata(
+      ChunkInfo chunkInfo, String chunkPrefix, Map<String, FieldType> schema) {
+    return toSnapshotMetadata(chunkInfo, chunkPrefix, schema, chunkInfo.getIndexDocCounts());
+  }
+
+  private static SnapshotMetadata toSnapshotMetadata(
+      ChunkInfo chunkInfo,
+      String chunkPrefix,
+      Map<String, FieldType> schema,
+      Map<String, Long> indexDocCounts) {
     return new SnapshotMetadata(
         chunkPrefix + chunkInfo.chunkId,
         chunkInfo.snapshotPath,
         chunkInfo.getDataStartTimeEpochMs(),
         chunkInfo.getDataEndTimeEpochMs(),
-        chunkInfo.maxOffset,
-        chunkInfo.kafkaPartitionId);
+        chunkInfo.getMaxOffset(),
+        chunkInfo.kafkaPartitionId,
+        schema,
+        indexDocCounts);
   }
 
   /* A unique identifier for a the chunk. */
@@ -76,6 +110,11 @@ public class ChunkInfo {
   // Path to S3 snapshot.
   private String snapshotPath;
 
+  // The number of documents of each index in the chunk.
+  private final Map<String, Long> indexDocCounts = new HashMap<>();
+  // Set once the chunk contains too many indexes to keep a catalog of them.
+  private boolean indexCatalogDropped;
+
   public ChunkInfo(
       String chunkId, long chunkCreationTimeEpochMs, String kafkaPartitionId, String snapshotPath) {
     // TODO: Should we set the snapshot time to creation time also?
@@ -126,11 +165,11 @@ public class ChunkInfo {
     this.chunkSnapshotTimeEpochMs = chunkSnapshotTimeEpochMs;
   }
 
-  public long getDataStartTimeEpochMs() {
+  public synchronized long getDataStartTimeEpochMs() {
     return dataStartTimeEpochMs;
   }
 
-  public long getDataEndTimeEpochMs() {
+  public synchronized long getDataEndTimeEpochMs() {
     return dataEndTimeEpochMs;
   }
 
@@ -138,7 +177,7 @@ public class ChunkInfo {
     return chunkCreationTimeEpochMs;
   }
 
-  public long getMaxOffset() {
+  public synchronized long getMaxOffset() {
     return maxOffset;
   }
 
@@ -162,14 +201,45 @@ public class ChunkInfo {
     return snapshotPath;
   }
 
-  public void updateMaxOffset(long newOffset) {
+  public synchronized void updateMaxOffset(long newOffset) {
     maxOffset = Math.max(maxOffset, newOffset);
   }
 
+  /** Adds the documents of each index to the catalog of the chunk. */
+  public synchronized void updateIndexDocCounts(Map<String, Long> newIndexDocCounts) {
+    if (indexCatalogDropped) {
+      return;
+    }
+    newIndexDocCounts.forEach(
+        (indexName, docCount) -> indexDocCounts.merge(indexName, docCount, Long::sum));
+    if (indexDocCounts.size() > MAX_CATALOG_INDEXES) {
+      indexCatalogDropped = true;
+      indexDocCounts.clear();
+    }
+  }
+
+  /**
+   * Returns the number of documents of each index in the chunk. Returns an empty map if the indexes
+   * in the chunk are not known.
+   */
+  public synchronized Map<String, Long> getIndexDocCounts() {
+    return ImmutableMap.copyOf(indexDocCounts);
+  }
+
+  /**
+   * Returns true if the catalog of the chunk shows that it has documents of other indexes besides
+   * this one, so the documents of the chunk need to be filtered by index. If the indexes in the
+   * chunk are not known, the chunk is searched as a whole like before.
+   */
+  public synchronized boolean needsIndexFilter(String indexName) {
+    return !indexDocCounts.isEmpty()
+        && !(indexDocCounts.size() == 1 && indexDocCounts.containsKey(indexName));
+  }
+
   // Return true if chunk contains data in this time range.
   public boolean containsDataInTimeRange(long startTimeMs, long endTimeMs) {
     return containsDataInTimeRange(
-        dataStartTimeEpochMs, dataEndTimeEpochMs, startTimeMs, endTimeMs);
+        getDataStartTimeEpochMs(), getDataEndTimeEpochMs(), startTimeMs, endTimeMs);
   }
 
   public static boolean containsDataInTimeRange(
@@ -190,7 +260,7 @@ public class ChunkInfo {
   /*
    * Update the max and min data time range of the chunk given a new timestamp.
    */
-  public void updateDataTimeRange(long messageTimeStampMs) {
+  public synchronized void updateDataTimeRange(long messageTimeStampMs) {
     if (dataEndTimeEpochMs == MAX_FUTURE_TIME) {
       dataStartTimeEpochMs = Math.min(dataStartTimeEpochMs, messageTimeStampMs);
       dataEndTimeEpochMs = messageTimeStampMs;
@@ -222,6 +292,8 @@ public class ChunkInfo {
         + chunkSnapshotTimeEpochMs
         + ", snapshotPath='"
         + snapshotPath
+        + ", indexDocCounts="
+        + indexDocCounts
         + '}';
   }
 
@@ -238,7 +310,8 @@ public class ChunkInfo {
         && chunkSnapshotTimeEpochMs == chunkInfo.chunkSnapshotTimeEpochMs
         && Objects.equals(chunkId, chunkInfo.chunkId)
         && Objects.equals(kafkaPartitionId, chunkInfo.kafkaPartitionId)
-        && Objects.equals(snapshotPath, chunkInfo.snapshotPath);
+        && Objects.equals(snapshotPath, chunkInfo.snapshotPath)
+        && Objects.equals(indexDocCounts, chunkInfo.indexDocCounts);
   }
 
   @Override
@@ -252,6 +325,7 @@ public class ChunkInfo {
         dataStartTimeEpochMs,
         dataEndTimeEpochMs,
         chunkSnapshotTimeEpochMs,
-        snapshotPath);
+        snapshotPath,
+        indexDocCounts);
   }
 }
@@ -62,7 +62,7 @@ public class IndexingChunkImpl<T> extends ReadWriteChunk<T> {
   public void postSnapshot() {
     LOG.info("Start post snapshot chunk {}", chunkInfo);
     // Publish a persistent snapshot for this chunk.
-    SnapshotMetadata nonLiveSnapshotMetadata = toSnapshotMetadata(chunkInfo, "");
+    SnapshotMetadata nonLiveSnapshotMetadata = toSnapshotMetadata(chunkInfo, "", getSchema());
     snapshotMetadataStore.createSync(nonLiveSnapshotMetadata);
 
     // Update the live snapshot. Keep the same snapshotId and snapshotPath to
@@ -2,8 +2,10 @@ package com.slack.kaldb.chunk;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.slack.kaldb.logstore.IdBloomFilter;
 import com.slack.kaldb.logstore.search.LogIndexSearcher;
 import com.slack.kaldb.logstore.search.LogIndexSearcherImpl;
+import com.slack.kaldb.logstore.search.QueryPlan;
 import com.slack.kaldb.logstore.search.SearchQuery;
 import com.slack.kaldb.logstore.search.SearchResult;
 import com.slack.kaldb.metadata.cache.CacheSlotMetadata;
@@ -29,6 +31,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +49,8 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
 
   private ChunkInfo chunkInfo;
   private LogIndexSearcher<T> logSearcher;
+  // Null if the snapshot has no id filter.
+  private IdBloomFilter idFilter;
   private SearchMetadata searchMetadata;
   private Path dataDirectory;
   private Metadata.CacheSlotMetadata.CacheSlotState cacheSlotLastKnownState;
@@ -60,6 +65,8 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
   private final SearchMetadataStore searchMetadataStore;
   private final MeterRegistry meterRegistry;
   private final ExecutorService executorService;
+  // Called with the id of a chunk when it's evicted from this slot.
+  private final Consumer<String> chunkEvictionListener;
 
   public static final String CHUNK_ASSIGNMENT_TIMER = "chunk_assignment_timer";
   public static final String CHUNK_EVICTION_TIMER = "chunk_eviction_timer";
@@ -80,10 +87,36 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
       SearchMetadataStore searchMetadataStore,
       ChunkDownloaderFactory chunkDownloaderFactory)
       throws Exception {
+    this(
+        metadataStore,
+        meterRegistry,
+        searchContext,
+        dataDirectoryPrefix,
+        cacheSlotMetadataStore,
+        replicaMetadataStore,
+        snapshotMetadataStore,
+        searchMetadataStore,
+        chunkDownloaderFactory,
+        (chunkId) -> {});
+  }
+
+  public ReadOnlyChunkImpl(
+      MetadataStore metadataStore,
+      MeterRegistry meterRegistry,
+      SearchContext searchContext,
+      String dataDirectoryPrefix,
+      CacheSlotMetadataStore cacheSlotMetadataStore,
+      ReplicaMetadataStore replicaMetadataStore,
+      SnapshotMetadataStore snapshotMetadataStore,
+      SearchMetadataStore searchMetadataStore,
+      ChunkDownloaderFactory chunkDownloaderFactory,
+      Consumer<String> chunkEvictionListener)
+      throws Exception {
     String slotId = UUID.randomUUID().toString();
     this.meterRegistry = meterRegistry;
     this.dataDirectoryPrefix = dataDirectoryPrefix;
     this.chunkDownloaderFactory = chunkDownloaderFactory;
+    this.chunkEvictionListener = chunkEvictionListener;
 
     // we use a single thread executor to allow operations for this chunk to queue,
     // guaranteeing that they are executed in the order they were received
@@ -196,9 +229,13 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
       }
 
       this.chunkInfo = ChunkInfo.fromSnapshotMetadata(snapshotMetadata);
+      this.idFilter = IdBloomFilter.readFrom(dataDirectory);
       this.logSearcher =
           (LogIndexSearcher<T>)
-              new LogIndexSearcherImpl(LogIndexSearcherImpl.searcherManagerFromPath(dataDirectory));
+              new LogIndexSearcherImpl(
+                  LogIndexSearcherImpl.searcherManagerFromPath(dataDirectory),
+                  snapshotMetadata.schema,
+                  snapshotMetadata.analyzerVersion);
 
       // we first mark the slot LIVE before registering the search metadata as available
       if (!setChunkMetadataState(Metadata.CacheSlotMetadata.CacheSlotState.LIVE)) {
@@ -241,9 +278,13 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
       if (logSearcher != null) {
         logSearcher.close();
       }
+      if (chunkInfo != null) {
+        chunkEvictionListener.accept(chunkInfo.chunkId);
+      }
 
       chunkInfo = null;
       logSearcher = null;
+      idFilter = null;
 
       cleanDirectory();
       if (!setChunkMetadataState(Metadata.CacheSlotMetadata.CacheSlotState.FREE)) {
@@ -312,6 +353,12 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
     return false;
   }
 
+  @Override
+  public boolean mayContainTrace(String traceId) {
+    IdBloomFilter idFilter = this.idFilter;
+    return idFilter == null || idFilter.mightContainTrace(traceId);
+  }
+
   @Override
   public void close() throws IOException {
     // Attempt to forcibly shutdown the executor service. This prevents any further downloading of
@@ -337,13 +384,18 @@ public class ReadOnlyChunkImpl<T> implements Chunk<T> {
   @Override
   public SearchResult<T> query(SearchQuery query) {
     if (logSearcher != null) {
+      QueryPlan queryPlan = query.getQueryPlan();
+      ChunkInfo chunkInfo = this.chunkInfo;
+      if (chunkInfo != null && chunkInfo.needsIndexFilter(queryPlan.indexName)) {
+        queryPlan = queryPlan.withIndexFilter();
+      }
       return logSearcher.search(
-          query.indexName,
-          query.queryStr,
-          query.startTimeEpochMs,
-          query.endTimeEpochMs,
+          queryPlan,
           query.howMany,
-          query.bucketCount);
+          query.bucketCount,
+          query.termsAggregation,
+          query.metricsAggregation,
+          query.getRemainingTime());
     } else {
       return (SearchResult<T>) SearchResult.empty();
     }
@@ -6,24 +6,35 @@ import static com.slack.kaldb.logstore.BlobFsUtils.createURI;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.slack.kaldb.blobfs.BlobFs;
+import com.slack.kaldb.logstore.IdBloomFilter;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.LogStore;
 import com.slack.kaldb.logstore.LuceneIndexStoreImpl;
+import com.slack.kaldb.logstore.SpanDocumentBuilder;
 import com.slack.kaldb.logstore.search.LogIndexSearcher;
 import com.slack.kaldb.logstore.search.LogIndexSearcherImpl;
+import com.slack.kaldb.logstore.search.QueryPlan;
 import com.slack.kaldb.logstore.search.SearchQuery;
 import com.slack.kaldb.logstore.search.SearchResult;
 import com.slack.kaldb.metadata.search.SearchMetadata;
 import com.slack.kaldb.metadata.search.SearchMetadataStore;
 import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
 import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import com.slack.service.murron.trace.Trace;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexCommit;
 import org.slf4j.Logger;
 
@@ -60,6 +71,8 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
   public static final String INDEX_FILES_UPLOAD = "index_files_upload";
   public static final String INDEX_FILES_UPLOAD_FAILED = "index_files_upload_failed";
   public static final String SNAPSHOT_TIMER = "snapshot.timer";
+  public static final String SNAPSHOT_SEGMENT_COUNT = "snapshot_segment_count";
+  public static final String SNAPSHOT_SIZE_BYTES = "snapshot_size_bytes";
   public static final String LIVE_SNAPSHOT_PREFIX = SnapshotMetadata.LIVE_SNAPSHOT_PATH + "_";
 
   private final LogStore<T> logStore;
@@ -78,7 +91,11 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
   // TODO: Add chunk info as tags?.
 
   // TODO: Move this flag into LogStore?.
-  private boolean readOnly;
+  // Volatile since the flag is set by the roll over and read by all the indexing threads.
+  private volatile boolean readOnly;
+
+  // The filter of the ids in the chunk, built when the chunk is snapshotted.
+  private volatile IdBloomFilter idFilter;
 
   protected ReadWriteChunk(
       LogStore<T> logStore,
@@ -93,7 +110,9 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
     this.logStore = logStore;
     String logStoreId = ((LuceneIndexStoreImpl) logStore).getId();
     this.logSearcher =
-        (LogIndexSearcher<T>) new LogIndexSearcherImpl(logStore.getSearcherManager());
+        (LogIndexSearcher<T>)
+            new LogIndexSearcherImpl(
+                logStore.getSearcherManager(), logStore.getSchema().getFieldTypes());
 
     // Create chunk metadata
     Instant chunkCreationTime = Instant.now();
@@ -133,13 +152,7 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
 
   /** Index the message in the logstore and update the chunk data time range. */
   public void addMessage(T message, String kafkaPartitionId, long offset) {
-    if (!this.kafkaPartitionId.equals(kafkaPartitionId)) {
-      throw new IllegalArgumentException(
-          "All messages for this chunk should belong to partition: "
-              + this.kafkaPartitionId
-              + " not "
-              + kafkaPartitionId);
-    }
+    ensurePartition(kafkaPartitionId);
     if (!readOnly) {
       logStore.addMessage(message);
       // Update the chunk with the time range of the data in the chunk.
@@ -148,12 +161,114 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
       if (message instanceof LogMessage) {
         chunkInfo.updateDataTimeRange(((LogMessage) message).timeSinceEpochMilli);
         chunkInfo.updateMaxOffset(offset);
+        chunkInfo.updateIndexDocCounts(Map.of(((LogMessage) message).getIndex(), 1L));
       }
     } else {
       throw new IllegalStateException(String.format("Chunk %s is read only", chunkInfo));
     }
   }
 
+  /**
+   * Index a batch of messages in the logstore. The checks and the updates to the chunk data time
+   * range and max offset are done once for the whole batch.
+   */
+  public void addMessages(List<T> messages, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    ensurePartition(kafkaPartitionId);
+    if (readOnly) {
+      throw new IllegalStateException(String.format("Chunk %s is read only", chunkInfo));
+    }
+
+    logStore.addMessages(messages);
+    long minTimestampMs = Long.MAX_VALUE;
+    long maxTimestampMs = Long.MIN_VALUE;
+    IndexDocCounter indexDocCounter = new IndexDocCounter();
+    for (T message : messages) {
+      if (message instanceof LogMessage) {
+        long timestampMs = ((LogMessage) message).timeSinceEpochMilli;
+        minTimestampMs = Math.min(minTimestampMs, timestampMs);
+        maxTimestampMs = Math.max(maxTimestampMs, timestampMs);
+        indexDocCounter.add(((LogMessage) message).getIndex());
+      }
+    }
+    if (minTimestampMs <= maxTimestampMs) {
+      chunkInfo.updateDataTimeRange(minTimestampMs);
+      chunkInfo.updateDataTimeRange(maxTimestampMs);
+      chunkInfo.updateMaxOffset(maxOffset);
+      chunkInfo.updateIndexDocCounts(indexDocCounter.getCounts());
+    }
+  }
+
+  /**
+   * Index a batch of spans in the logstore. The chunk data time range is computed from the span
+   * start times.
+   */
+  public void addSpans(List<Trace.Span> spans, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    ensurePartition(kafkaPartitionId);
+    if (readOnly) {
+      throw new IllegalStateException(String.format("Chunk %s is read only", chunkInfo));
+    }
+
+    logStore.addSpans(spans);
+    if (!spans.isEmpty()) {
+      long minTimestampMs = Long.MAX_VALUE;
+      long maxTimestampMs = Long.MIN_VALUE;
+      IndexDocCounter indexDocCounter = new IndexDocCounter();
+      for (Trace.Span span : spans) {
+        long timestampMs = span.getStartTimestampMicros() / 1000;
+        minTimestampMs = Math.min(minTimestampMs, timestampMs);
+        maxTimestampMs = Math.max(maxTimestampMs, timestampMs);
+        indexDocCounter.add(LogMessage.computedIndexName(SpanDocumentBuilder.getServiceName(span)));
+      }
+      chunkInfo.updateDataTimeRange(minTimestampMs);
+      chunkInfo.updateDataTimeRange(maxTimestampMs);
+      chunkInfo.updateMaxOffset(maxOffset);
+      chunkInfo.updateIndexDocCounts(indexDocCounter.getCounts());
+    }
+  }
+
+  /**
+   * Counts the documents of each index in a batch. The messages of a batch are usually from a few
+   * indexes, so the count of the current run of an index is only added to the map when the index
+   * changes.
+   */
+  private static class IndexDocCounter {
+    private final Map<String, Long> counts = new HashMap<>();
+    private String runIndexName = null;
+    private long runDocCount = 0;
+
+    void add(String indexName) {
+      if (!indexName.equals(runIndexName)) {
+        flushRun();
+        runIndexName = indexName;
+      }
+      runDocCount++;
+    }
+
+    Map<String, Long> getCounts() {
+      flushRun();
+      return counts;
+    }
+
+    private void flushRun() {
+      if (runDocCount > 0) {
+        counts.merge(runIndexName, runDocCount, Long::sum);
+        runDocCount = 0;
+      }
+    }
+  }
+
+  private void ensurePartition(String kafkaPartitionId) {
+    if (!this.kafkaPartitionId.equals(kafkaPartitionId)) {
+      throw new IllegalArgumentException(
+          "All messages for this chunk should belong to partition: "
+              + this.kafkaPartitionId
+              + " not "
+              + kafkaPartitionId);
+    }
+  }
+
   @Override
   public ChunkInfo info() {
     return chunkInfo;
@@ -164,6 +279,12 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
     return chunkInfo.containsDataInTimeRange(startTs, endTs);
   }
 
+  @Override
+  public boolean mayContainTrace(String traceId) {
+    IdBloomFilter idFilter = this.idFilter;
+    return idFilter == null || idFilter.mightContainTrace(traceId);
+  }
+
   @Override
   public void close() throws IOException {
     preClose();
@@ -198,9 +319,27 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
     logger.info("Finished RW chunk pre-snapshot {}", chunkInfo);
   }
 
+  /**
+   * Merges the index of the chunk down to at most maxSegments segments and commits it, so the
+   * snapshot has fewer segments to search. Called after preSnapshot, once the chunk is read only.
+   *
+   * @return true if the index was merged, false if the merge was aborted after the timeout.
+   */
+  public boolean forceMerge(int maxSegments, Duration timeout) {
+    logger.info("Started RW chunk force merge to {} segments {}", maxSegments, chunkInfo);
+    boolean merged = logStore.forceMerge(maxSegments, timeout);
+    logger.info("Finished RW chunk force merge {}, merged: {}", chunkInfo, merged);
+    return merged;
+  }
+
   /** postSnapshot method is called after a snapshot is persisted in a blobstore. */
   public abstract void postSnapshot();
 
+  /** Returns the types of the dynamically mapped fields in the chunk. */
+  public Map<String, FieldType> getSchema() {
+    return logStore.getSchema().getFieldTypes();
+  }
+
   /**
    * Copy the files from log store to S3 to a given bucket, prefix.
    *
@@ -213,17 +352,28 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
     try {
       Path dirPath = logStore.getDirectory().toAbsolutePath();
       indexCommit = logStore.getIndexCommit();
-      Collection<String> activeFiles = indexCommit.getFileNames();
+      Collection<String> activeFiles = new ArrayList<>(indexCommit.getFileNames());
+      IdBloomFilter idFilter = buildIdFilter(indexCommit, dirPath);
+      if (idFilter != null) {
+        activeFiles.add(IdBloomFilter.FILE_NAME);
+      }
       logger.info("{} active files in {} in index", activeFiles.size(), dirPath);
       for (String fileName : activeFiles) {
         logger.debug("File name is {}}", fileName);
       }
       this.fileUploadAttempts.increment(activeFiles.size());
+      long snapshotSizeBytes = 0;
+      for (String fileName : activeFiles) {
+        snapshotSizeBytes += indexCommit.getDirectory().fileLength(fileName);
+      }
+      meterRegistry.summary(SNAPSHOT_SEGMENT_COUNT).record(indexCommit.getSegmentCount());
+      meterRegistry.summary(SNAPSHOT_SIZE_BYTES).record(snapshotSizeBytes);
       Timer.Sample snapshotTimer = Timer.start(meterRegistry);
       final int success = copyToS3(dirPath, activeFiles, bucket, prefix, blobFs);
       snapshotTimer.stop(meterRegistry.timer(SNAPSHOT_TIMER));
       this.fileUploadFailures.increment(activeFiles.size() - success);
       chunkInfo.setSnapshotPath(createURI(bucket, prefix, "").toString());
+      this.idFilter = idFilter;
       logger.info("Finished RW chunk snapshot to S3 {}.", chunkInfo);
       return true;
     } catch (Exception e) {
@@ -234,6 +384,22 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
     }
   }
 
+  /**
+   * Builds the filter of the ids in the index commit and writes it to the index directory, so it's
+   * uploaded with the index files. The filter only speeds up trace lookups, so the snapshot is
+   * uploaded without it if it can't be built.
+   */
+  private IdBloomFilter buildIdFilter(IndexCommit indexCommit, Path dirPath) {
+    try (DirectoryReader reader = DirectoryReader.open(indexCommit)) {
+      IdBloomFilter idFilter = IdBloomFilter.build(reader);
+      idFilter.writeTo(dirPath);
+      return idFilter;
+    } catch (Exception e) {
+      logger.warn("Failed to build the id filter of RW chunk {}", chunkInfo, e);
+      return null;
+    }
+  }
+
   @VisibleForTesting
   public void setLogSearcher(LogIndexSearcher<T> logSearcher) {
     this.logSearcher = logSearcher;
@@ -250,12 +416,17 @@ public abstract class ReadWriteChunk<T> implements Chunk<T> {
 
   @Override
   public SearchResult<T> query(SearchQuery query) {
+    logStore.refreshIfStale();
+    QueryPlan queryPlan = query.getQueryPlan();
+    if (chunkInfo.needsIndexFilter(queryPlan.indexName)) {
+      queryPlan = queryPlan.withIndexFilter();
+    }
     return logSearcher.search(
-        query.indexName,
-        query.queryStr,
-        query.startTimeEpochMs,
-        query.endTimeEpochMs,
+        queryPlan,
         query.howMany,
-        query.bucketCount);
+        query.bucketCount,
+        query.termsAggregation,
+        query.metricsAggregation,
+        query.getRemainingTime());
   }
 }
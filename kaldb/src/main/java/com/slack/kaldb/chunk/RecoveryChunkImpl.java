@@ -50,7 +50,7 @@ public class RecoveryChunkImpl<T> extends ReadWriteChunk<T> {
   public void postSnapshot() {
     LOG.info("Start post snapshot for recovery chunk {}", chunkInfo);
     // Publish a persistent snapshot for this chunk.
-    SnapshotMetadata nonLiveSnapshotMetadata = toSnapshotMetadata(chunkInfo, "");
+    SnapshotMetadata nonLiveSnapshotMetadata = toSnapshotMetadata(chunkInfo, "", getSchema());
     snapshotMetadataStore.createSync(nonLiveSnapshotMetadata);
     LOG.info("Post snapshot operation completed for recovery chunk {}", chunkInfo);
   }
@@ -1,18 +1,23 @@
 package com.slack.kaldb.chunkManager;
 
 import com.slack.kaldb.blobfs.BlobFs;
+import com.slack.kaldb.chunk.Chunk;
 import com.slack.kaldb.chunk.ChunkDownloaderFactory;
 import com.slack.kaldb.chunk.ReadOnlyChunkImpl;
 import com.slack.kaldb.chunk.SearchContext;
 import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.SearchResult;
 import com.slack.kaldb.metadata.cache.CacheSlotMetadataStore;
 import com.slack.kaldb.metadata.replica.ReplicaMetadataStore;
 import com.slack.kaldb.metadata.search.SearchMetadataStore;
 import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
 import com.slack.kaldb.metadata.zookeeper.MetadataStore;
 import com.slack.kaldb.proto.config.KaldbConfigs;
+import com.slack.service.murron.trace.Trace;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +38,8 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
   private SnapshotMetadataStore snapshotMetadataStore;
   private SearchMetadataStore searchMetadataStore;
   private CacheSlotMetadataStore cacheSlotMetadataStore;
+  // Null when the query result cache is disabled.
+  private final ChunkQueryResultCache<T> queryResultCache;
 
   public CachingChunkManager(
       MeterRegistry registry,
@@ -41,12 +48,34 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
       String dataDirectoryPrefix,
       int slotCountPerInstance,
       ChunkDownloaderFactory chunkDownloaderFactory) {
+    this(
+        registry,
+        metadataStore,
+        searchContext,
+        dataDirectoryPrefix,
+        slotCountPerInstance,
+        chunkDownloaderFactory,
+        0);
+  }
+
+  public CachingChunkManager(
+      MeterRegistry registry,
+      MetadataStore metadataStore,
+      SearchContext searchContext,
+      String dataDirectoryPrefix,
+      int slotCountPerInstance,
+      ChunkDownloaderFactory chunkDownloaderFactory,
+      long queryResultCacheSizeBytes) {
     this.meterRegistry = registry;
     this.metadataStore = metadataStore;
     this.searchContext = searchContext;
     this.dataDirectoryPrefix = dataDirectoryPrefix;
     this.slotCountPerInstance = slotCountPerInstance;
     this.chunkDownloaderFactory = chunkDownloaderFactory;
+    this.queryResultCache =
+        queryResultCacheSizeBytes > 0
+            ? new ChunkQueryResultCache<>(queryResultCacheSizeBytes, registry)
+            : null;
   }
 
   @Override
@@ -69,7 +98,22 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
               replicaMetadataStore,
               snapshotMetadataStore,
               searchMetadataStore,
-              chunkDownloaderFactory));
+              chunkDownloaderFactory,
+              this::onChunkEviction));
+    }
+  }
+
+  @Override
+  protected SearchResult<T> queryChunk(Chunk<T> chunk, SearchQuery query) {
+    if (queryResultCache == null) {
+      return chunk.query(query);
+    }
+    return queryResultCache.query(chunk, query);
+  }
+
+  private void onChunkEviction(String chunkId) {
+    if (queryResultCache != null) {
+      queryResultCache.invalidateChunk(chunkId);
     }
   }
 
@@ -110,7 +154,8 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
         SearchContext.fromConfig(cacheConfig.getServerConfig()),
         cacheConfig.getDataDirectory(),
         cacheConfig.getSlotsPerInstance(),
-        chunkDownloaderFactory);
+        chunkDownloaderFactory,
+        cacheConfig.getQueryResultCacheSizeBytes());
   }
 
   @Override
@@ -119,4 +164,20 @@ public class CachingChunkManager<T> extends ChunkManagerBase<T> {
     throw new UnsupportedOperationException(
         "Adding messages is not supported on caching chunk manager");
   }
+
+  @Override
+  public void addSpans(
+      List<Trace.Span> spans, long totalBytes, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    throw new UnsupportedOperationException(
+        "Adding spans is not supported on caching chunk manager");
+  }
+
+  @Override
+  public void addMessages(
+      List<T> messages, long totalBytes, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    throw new UnsupportedOperationException(
+        "Adding messages is not supported on caching chunk manager");
+  }
 }
@@ -2,10 +2,51 @@ package com.slack.kaldb.chunkManager;
 
 import com.slack.kaldb.logstore.search.SearchQuery;
 import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.service.murron.trace.Trace;
 import java.io.IOException;
+import java.util.List;
 
 public interface ChunkManager<T> {
   void addMessage(T message, long msgSize, String kafkaPartitionId, long offset) throws IOException;
 
+  /**
+   * Add a batch of messages read from a single kafka partition. The batch is indexed with one call
+   * to the active chunk and the roll over is only checked once per batch.
+   *
+   * @param messages Messages to be ingested
+   * @param totalBytes Serialized size of the raw messages in bytes.
+   * @param kafkaPartitionId Kafka partition the messages are read from.
+   * @param maxOffset Largest kafka offset of the messages in the batch.
+   */
+  void addMessages(List<T> messages, long totalBytes, String kafkaPartitionId, long maxOffset)
+      throws IOException;
+
+  /**
+   * Add a batch of spans read from a single kafka partition. The spans are converted directly into
+   * lucene documents, instead of being converted into messages first. Otherwise, this API behaves
+   * like addMessages.
+   *
+   * @param spans Spans to be ingested
+   * @param totalBytes Serialized size of the raw spans in bytes.
+   * @param kafkaPartitionId Kafka partition the spans are read from.
+   * @param maxOffset Largest kafka offset of the spans in the batch.
+   */
+  void addSpans(List<Trace.Span> spans, long totalBytes, String kafkaPartitionId, long maxOffset)
+      throws IOException;
+
   SearchResult<T> query(SearchQuery query);
+
+  /**
+   * Hold the roll overs of the active chunk until releaseRollOvers is called. A chunk that becomes
+   * full in between stays active. The kafka consumer holds the roll overs while it indexes the
+   * batches of a poll concurrently, since a chunk rolled over by a batch with higher offsets would
+   * miss the records of a batch with lower offsets that is still being indexed, even though its
+   * snapshot covers their offsets.
+   */
+  default void holdRollOvers() {}
+
+  /**
+   * Release the roll overs and roll over the active chunk if it became full while they were held.
+   */
+  default void releaseRollOvers() {}
 }
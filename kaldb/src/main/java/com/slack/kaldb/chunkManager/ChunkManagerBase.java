@@ -1,7 +1,5 @@
 package com.slack.kaldb.chunkManager;
 
-import static com.slack.kaldb.server.KaldbConfig.LOCAL_QUERY_TIMEOUT_DURATION;
-
 import brave.Tracing;
 import brave.propagation.CurrentTraceContext;
 import com.google.common.annotations.VisibleForTesting;
@@ -13,6 +11,7 @@ import com.slack.kaldb.logstore.search.SearchResult;
 import com.slack.kaldb.logstore.search.SearchResultAggregator;
 import com.slack.kaldb.logstore.search.SearchResultAggregatorImpl;
 import com.spotify.futures.CompletableFutures;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
@@ -35,6 +34,11 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
 
   private static final ExecutorService queryExecutorService = queryThreadPool();
 
+  // The chunk searches stop at the timeout of the query and return the results found until then.
+  // The chunk queries are given this much more time to finish, so these partial results aren't
+  // dropped.
+  private static final Duration QUERY_TIMEOUT_GRACE = Duration.ofMillis(100);
+
   /*
    * We want to provision the chunk query capacity such that we can almost saturate the CPU. In the event we allow
    * these to saturate the CPU it can result in the container being killed due to failed healthchecks.
@@ -58,6 +62,10 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
   public SearchResult<T> query(SearchQuery query) {
     SearchResult<T> errorResult =
         new SearchResult<>(new ArrayList<>(), 0, 0, new ArrayList<>(), 0, 0, 1, 0);
+    long timeoutMs = query.getRemainingTime().plus(QUERY_TIMEOUT_GRACE).toMillis();
+
+    // The pages of a search stream skip the chunks newer than the hits they search after.
+    long endTimeEpochMs = Math.min(query.endTimeEpochMs, query.searchAfterTimeEpochMs);
 
     CurrentTraceContext currentTraceContext = Tracing.current().currentTraceContext();
     List<CompletableFuture<SearchResult<T>>> queries =
@@ -65,15 +73,15 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
             .stream()
             .filter(
                 chunk ->
-                    chunk.containsDataInTimeRange(query.startTimeEpochMs, query.endTimeEpochMs))
+                    chunk.containsDataInTimeRange(query.startTimeEpochMs, endTimeEpochMs)
+                        && (query.chunkIds.isEmpty() || query.chunkIds.contains(chunk.id()))
+                        && (query.traceId == null || chunk.mayContainTrace(query.traceId)))
             .map(
                 (chunk) ->
                     CompletableFuture.supplyAsync(
-                            () -> chunk.query(query),
+                            () -> queryChunk(chunk, query),
                             currentTraceContext.executorService(queryExecutorService))
-                        // TODO: this will not cancel lucene query. Use ExitableDirectoryReader
-                        //  in the future and pass this timeout
-                        .orTimeout(LOCAL_QUERY_TIMEOUT_DURATION.toMillis(), TimeUnit.MILLISECONDS))
+                        .orTimeout(timeoutMs, TimeUnit.MILLISECONDS))
             .map(
                 chunkFuture ->
                     chunkFuture.exceptionally(
@@ -98,7 +106,7 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
         CompletableFutures.allAsList(queries);
     try {
       List<SearchResult<T>> searchResults =
-          searchResultFuture.get(LOCAL_QUERY_TIMEOUT_DURATION.toMillis(), TimeUnit.MILLISECONDS);
+          searchResultFuture.get(timeoutMs, TimeUnit.MILLISECONDS);
       //noinspection unchecked
       SearchResult<T> aggregatedResults =
           ((SearchResultAggregator<T>) new SearchResultAggregatorImpl<>(query))
@@ -115,6 +123,11 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
     }
   }
 
+  /** Queries a single chunk. Chunk managers can override it to cache the results of a chunk. */
+  protected SearchResult<T> queryChunk(Chunk<T> chunk, SearchQuery query) {
+    return chunk.query(query);
+  }
+
   private SearchResult<T> incrementNodeCount(SearchResult<T> searchResult) {
     return new SearchResult<>(
         searchResult.hits,
@@ -124,7 +137,10 @@ public abstract class ChunkManagerBase<T> extends AbstractIdleService implements
         searchResult.failedNodes,
         searchResult.totalNodes + 1,
         searchResult.totalSnapshots,
-        searchResult.snapshotsWithReplicas);
+        searchResult.snapshotsWithReplicas,
+        searchResult.timedOutSnapshots,
+        searchResult.terms,
+        searchResult.metrics);
   }
 
   @VisibleForTesting
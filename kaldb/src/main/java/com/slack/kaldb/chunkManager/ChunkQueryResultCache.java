@@ -0,0 +1,278 @@
+package com.slack.kaldb.chunkManager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.slack.kaldb.chunk.Chunk;
+import com.slack.kaldb.chunk.ChunkInfo;
+import com.slack.kaldb.logstore.Message;
+import com.slack.kaldb.logstore.StoredSource;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.aggregations.MetricsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.MetricsResult;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.TermsResult;
+import com.slack.kaldb.util.JsonUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the search results of read only chunks. The chunks of a cache node don't change once
+ * they are loaded, so a query that is repeated, like a dashboard that refreshes every few seconds,
+ * returns the same results from the old chunks every time. Caching these results saves running the
+ * query and decoding the hits again.
+ *
+ * <p>The results are cached per chunk and query. When the query doesn't ask for a histogram, its
+ * time range is clamped to the data of the chunk, so queries whose range moves with the current
+ * time still find the results of the chunks they cover entirely. The buckets of a histogram depend
+ * on the exact time range, so histogram queries only share results with the same range. The pages
+ * of a search stream are keyed the same way, with their range ending at their search-after time.
+ *
+ * <p>The cache is bounded by the approximate size of the cached results in bytes, and evicts the
+ * least recently used results first. The results of a chunk are dropped when the chunk is evicted.
+ * Results that timed out or failed are not cached.
+ */
+class ChunkQueryResultCache<T> {
+  public static final String QUERY_RESULT_CACHE_HITS = "chunk_query_result_cache_hits";
+  public static final String QUERY_RESULT_CACHE_MISSES = "chunk_query_result_cache_misses";
+  public static final String QUERY_RESULT_CACHE_EVICTIONS = "chunk_query_result_cache_evictions";
+  public static final String QUERY_RESULT_CACHE_SIZE_BYTES = "chunk_query_result_cache_size_bytes";
+
+  // The approximate size of a histogram bucket, of a term count without its term, of metrics
+  // without the buckets of their sketch and of the fields of a key and a result.
+  private static final int BUCKET_SIZE_BYTES = 32;
+  private static final int TERM_COUNT_SIZE_BYTES = 48;
+  private static final int METRICS_SIZE_BYTES = 96;
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+  private final Cache<QueryKey, CachedResult<T>> cache;
+  private final AtomicLong sizeBytes = new AtomicLong();
+
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter evictions;
+
+  ChunkQueryResultCache(long maxSizeBytes, MeterRegistry meterRegistry) {
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxSizeBytes)
+            .<QueryKey, CachedResult<T>>weigher((key, value) -> value.sizeBytes)
+            .removalListener(this::onRemoval)
+            .build();
+    this.hits = meterRegistry.counter(QUERY_RESULT_CACHE_HITS);
+    this.misses = meterRegistry.counter(QUERY_RESULT_CACHE_MISSES);
+    this.evictions = meterRegistry.counter(QUERY_RESULT_CACHE_EVICTIONS);
+    meterRegistry.gauge(QUERY_RESULT_CACHE_SIZE_BYTES, sizeBytes);
+  }
+
+  /** Returns the cached result of the query on the chunk, or queries the chunk and caches it. */
+  SearchResult<T> query(Chunk<T> chunk, SearchQuery query) {
+    ChunkInfo chunkInfo = chunk.info();
+    if (chunkInfo == null) {
+      return chunk.query(query);
+    }
+
+    QueryKey key = QueryKey.of(chunkInfo, query);
+    CachedResult<T> cachedResult = cache.getIfPresent(key);
+    if (cachedResult != null) {
+      hits.increment();
+      return cachedResult.result;
+    }
+
+    misses.increment();
+    SearchResult<T> result = chunk.query(query);
+    // Skip the result if the slot was assigned another chunk while it was being queried.
+    if (result.timedOutSnapshots == 0 && result.failedNodes == 0 && chunk.info() == chunkInfo) {
+      CachedResult<T> newResult = new CachedResult<>(result, estimateSizeBytes(key, result));
+      sizeBytes.addAndGet(newResult.sizeBytes);
+      cache.put(key, newResult);
+    }
+    return result;
+  }
+
+  /** Drops the cached results of an evicted chunk. */
+  void invalidateChunk(String chunkId) {
+    cache.asMap().keySet().removeIf(key -> key.chunkId.equals(chunkId));
+  }
+
+  @VisibleForTesting
+  long getSizeBytes() {
+    return sizeBytes.get();
+  }
+
+  private void onRemoval(RemovalNotification<QueryKey, CachedResult<T>> notification) {
+    sizeBytes.addAndGet(-notification.getValue().sizeBytes);
+    if (notification.wasEvicted()) {
+      evictions.increment();
+    }
+  }
+
+  private static <T> int estimateSizeBytes(QueryKey key, SearchResult<T> result) {
+    long sizeBytes =
+        ENTRY_OVERHEAD_BYTES
+            + 2L * (key.indexName.length() + key.queryStr.length())
+            + (long) BUCKET_SIZE_BYTES * result.buckets.size();
+    for (TermsResult termsResult : result.terms) {
+      for (TermsResult.TermCount termCount : termsResult.terms) {
+        sizeBytes += TERM_COUNT_SIZE_BYTES + 2L * termCount.term.length();
+      }
+    }
+    for (MetricsResult metricsResult : result.metrics) {
+      sizeBytes += METRICS_SIZE_BYTES;
+      if (metricsResult.sketch != null) {
+        sizeBytes +=
+            8L
+                * (metricsResult.sketch.getPositive().getCounts().length
+                    + metricsResult.sketch.getNegative().getCounts().length);
+      }
+    }
+    for (T hit : result.hits) {
+      sizeBytes += estimateSizeBytes(hit);
+    }
+    return (int) Math.min(sizeBytes, Integer.MAX_VALUE);
+  }
+
+  /**
+   * A hit is weighed by the size of the stored source it's decoded from, so weighing it doesn't
+   * decode a lazily decoded source. Other hits are weighed by their json size.
+   */
+  private static long estimateSizeBytes(Object hit) {
+    if (hit instanceof Message) {
+      int storedSizeBytes = StoredSource.storedSizeBytes(((Message) hit).source);
+      if (storedSizeBytes >= 0) {
+        return storedSizeBytes;
+      }
+    }
+    try {
+      return JsonUtil.writeAsString(hit).length();
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static class CachedResult<T> {
+    private final SearchResult<T> result;
+    private final int sizeBytes;
+
+    private CachedResult(SearchResult<T> result, int sizeBytes) {
+      this.result = result;
+      this.sizeBytes = sizeBytes;
+    }
+  }
+
+  @VisibleForTesting
+  static class QueryKey {
+    final String chunkId;
+    final String indexName;
+    final String queryStr;
+    final long startTimeEpochMs;
+    final long endTimeEpochMs;
+    final int howMany;
+    final int bucketCount;
+    // Null if the query doesn't count terms.
+    final TermsAggregation termsAggregation;
+    // Null if the query doesn't compute metrics.
+    final MetricsAggregation metricsAggregation;
+
+    private QueryKey(
+        String chunkId,
+        String indexName,
+        String queryStr,
+        long startTimeEpochMs,
+        long endTimeEpochMs,
+        int howMany,
+        int bucketCount,
+        TermsAggregation termsAggregation,
+        MetricsAggregation metricsAggregation) {
+      this.chunkId = chunkId;
+      this.indexName = indexName;
+      this.queryStr = queryStr;
+      this.startTimeEpochMs = startTimeEpochMs;
+      this.endTimeEpochMs = endTimeEpochMs;
+      this.howMany = howMany;
+      this.bucketCount = bucketCount;
+      this.termsAggregation = termsAggregation;
+      this.metricsAggregation = metricsAggregation;
+    }
+
+    static QueryKey of(ChunkInfo chunkInfo, SearchQuery query) {
+      long startTimeEpochMs = query.startTimeEpochMs;
+      long endTimeEpochMs = query.endTimeEpochMs;
+      if (query.bucketCount == 0) {
+        startTimeEpochMs = Math.max(startTimeEpochMs, chunkInfo.getDataStartTimeEpochMs());
+        endTimeEpochMs = Math.min(endTimeEpochMs, chunkInfo.getDataEndTimeEpochMs());
+        // The hits of a page of a search stream are the hits of the range up to its search-after
+        // time.
+        endTimeEpochMs = Math.min(endTimeEpochMs, query.searchAfterTimeEpochMs);
+      }
+      return new QueryKey(
+          chunkInfo.chunkId,
+          query.indexName,
+          normalizeQuery(query.queryStr),
+          startTimeEpochMs,
+          endTimeEpochMs,
+          query.howMany,
+          query.bucketCount,
+          query.termsAggregation,
+          query.metricsAggregation);
+    }
+
+    // Trims the query and collapses the whitespace between its terms, leaving quoted phrases as is.
+    static String normalizeQuery(String queryStr) {
+      StringBuilder normalized = new StringBuilder(queryStr.length());
+      boolean quoted = false;
+      boolean pendingSpace = false;
+      for (int i = 0; i < queryStr.length(); i++) {
+        char c = queryStr.charAt(i);
+        if (!quoted && Character.isWhitespace(c)) {
+          pendingSpace = normalized.length() > 0;
+          continue;
+        }
+        if (pendingSpace) {
+          normalized.append(' ');
+          pendingSpace = false;
+        }
+        if (c == '"' && (i == 0 || queryStr.charAt(i - 1) != '\\')) {
+          quoted = !quoted;
+        }
+        normalized.append(c);
+      }
+      return normalized.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      QueryKey that = (QueryKey) o;
+      return startTimeEpochMs == that.startTimeEpochMs
+          && endTimeEpochMs == that.endTimeEpochMs
+          && howMany == that.howMany
+          && bucketCount == that.bucketCount
+          && chunkId.equals(that.chunkId)
+          && indexName.equals(that.indexName)
+          && queryStr.equals(that.queryStr)
+          && Objects.equal(termsAggregation, that.termsAggregation)
+          && Objects.equal(metricsAggregation, that.metricsAggregation);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(
+          chunkId,
+          indexName,
+          queryStr,
+          startTimeEpochMs,
+          endTimeEpochMs,
+          howMany,
+          bucketCount,
+          termsAggregation,
+          metricsAggregation);
+    }
+  }
+}
@@ -2,7 +2,9 @@ package com.slack.kaldb.chunkManager;
 
 import com.slack.kaldb.blobfs.BlobFs;
 import com.slack.kaldb.chunk.ReadWriteChunk;
+import com.slack.kaldb.proto.config.KaldbConfigs;
 import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
 
 /**
  * A chunk rollover factory creates a rollover chunk task.
@@ -14,20 +16,30 @@ public class ChunkRolloverFactory {
   private final BlobFs blobFs;
   private final String s3Bucket;
   private final MeterRegistry meterRegistry;
+  private final KaldbConfigs.LuceneConfig luceneConfig;
 
   public ChunkRolloverFactory(
       ChunkRollOverStrategy chunkRollOverStrategy,
       BlobFs blobFs,
       String s3Bucket,
-      MeterRegistry registry) {
+      MeterRegistry registry,
+      KaldbConfigs.LuceneConfig luceneConfig) {
     this.chunkRolloverStrategy = chunkRollOverStrategy;
     this.blobFs = blobFs;
     this.s3Bucket = s3Bucket;
     this.meterRegistry = registry;
+    this.luceneConfig = luceneConfig;
   }
 
   public RollOverChunkTask getRollOverChunkTask(ReadWriteChunk chunk, String chunkId) {
-    return new RollOverChunkTask<>(chunk, meterRegistry, blobFs, s3Bucket, chunkId);
+    return new RollOverChunkTask<>(
+        chunk,
+        meterRegistry,
+        blobFs,
+        s3Bucket,
+        chunkId,
+        luceneConfig.getForceMergeMaxSegments(),
+        Duration.ofSeconds(luceneConfig.getForceMergeTimeoutSecs()));
   }
 
   public ChunkRollOverStrategy getChunkRolloverStrategy() {
@@ -23,16 +23,21 @@ import com.slack.kaldb.metadata.search.SearchMetadataStore;
 import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
 import com.slack.kaldb.metadata.zookeeper.MetadataStore;
 import com.slack.kaldb.proto.config.KaldbConfigs;
+import com.slack.service.murron.trace.Trace;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,7 +64,14 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
   private final MetadataStore metadataStore;
   private final SearchContext searchContext;
   private final KaldbConfigs.IndexerConfig indexerConfig;
-  private ReadWriteChunk<T> activeChunk;
+  private volatile ReadWriteChunk<T> activeChunk;
+
+  /**
+   * Messages may be added to the active chunk from several indexing threads at once. Those threads
+   * share the read lock, while a roll over takes the write lock so that all the in-flight writes to
+   * a chunk finish before it is marked read only and snapshotted.
+   */
+  private final ReadWriteLock activeChunkLock = new ReentrantReadWriteLock();
 
   private final MeterRegistry meterRegistry;
   private final AtomicLong liveMessagesIndexedGauge;
@@ -79,7 +91,11 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
    * hot path. (b) This field is only set once in the same thread and then entire VM stops
    * afterwards.
    */
-  private boolean stopIngestion;
+  private volatile boolean stopIngestion;
+
+  // Set while roll overs are held, see holdRollOvers. A full chunk is only rolled over on release.
+  private volatile boolean rollOversHeld;
+  private final AtomicBoolean rollOverPending = new AtomicBoolean();
 
   /** Declare all the data stores used by Chunk manager here. */
   private SnapshotMetadataStore snapshotMetadataStore;
@@ -148,8 +164,8 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
    * shouldRollOver function to check if the chunk is full. 4. If the chunk is full, initiate the
    * roll over of the active chunk.
    *
-   * <p>We assume that there is a single chunk manager per process and only one thread is writing to
-   * this class. We allow several readers though.
+   * <p>We assume that there is a single chunk manager per process. Several indexing threads may
+   * write to this class concurrently and we allow several readers.
    *
    * @param message Message to be ingested
    * @param msgSize Serialized size of raw message in bytes.
@@ -159,32 +175,144 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
    */
   public void addMessage(final T message, long msgSize, String kafkaPartitionId, long offset)
       throws IOException {
+    ensureIngestionRunning();
+
+    // find the active chunk and add a message to it
+    ReadWriteChunk<T> currentChunk;
+    long currentIndexedMessages;
+    long currentIndexedBytes;
+    activeChunkLock.readLock().lock();
+    try {
+      currentChunk = getOrCreateActiveChunk(kafkaPartitionId, indexerConfig);
+      currentChunk.addMessage(message, kafkaPartitionId, offset);
+      currentIndexedMessages = liveMessagesIndexedGauge.incrementAndGet();
+      currentIndexedBytes = liveBytesIndexedGauge.addAndGet(msgSize);
+    } finally {
+      activeChunkLock.readLock().unlock();
+    }
+
+    // If active chunk is full roll it over.
+    rollOverIfFull(currentChunk, currentIndexedMessages, currentIndexedBytes);
+  }
+
+  /**
+   * Ingest a batch of messages into the active chunk. The live message and byte gauges are updated
+   * and the roll over strategy is checked once for the whole batch, so a chunk may exceed the roll
+   * over limits by at most one batch.
+   */
+  @Override
+  public void addMessages(
+      final List<T> messages, long totalBytes, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    if (messages.isEmpty()) return;
+    addBatch(
+        messages.size(),
+        totalBytes,
+        kafkaPartitionId,
+        chunk -> chunk.addMessages(messages, kafkaPartitionId, maxOffset));
+  }
+
+  /** Ingest a batch of spans into the active chunk. Behaves like addMessages. */
+  @Override
+  public void addSpans(
+      final List<Trace.Span> spans, long totalBytes, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    if (spans.isEmpty()) return;
+    addBatch(
+        spans.size(),
+        totalBytes,
+        kafkaPartitionId,
+        chunk -> chunk.addSpans(spans, kafkaPartitionId, maxOffset));
+  }
+
+  // Adds a batch to the active chunk.
+  @FunctionalInterface
+  private interface ChunkIndexer<T> {
+    void index(ReadWriteChunk<T> chunk) throws IOException;
+  }
+
+  private void addBatch(
+      int batchSize, long totalBytes, String kafkaPartitionId, ChunkIndexer<T> indexer)
+      throws IOException {
+    ensureIngestionRunning();
+
+    ReadWriteChunk<T> currentChunk;
+    long currentIndexedMessages;
+    long currentIndexedBytes;
+    activeChunkLock.readLock().lock();
+    try {
+      currentChunk = getOrCreateActiveChunk(kafkaPartitionId, indexerConfig);
+      indexer.index(currentChunk);
+      currentIndexedMessages = liveMessagesIndexedGauge.addAndGet(batchSize);
+      currentIndexedBytes = liveBytesIndexedGauge.addAndGet(totalBytes);
+    } finally {
+      activeChunkLock.readLock().unlock();
+    }
+
+    rollOverIfFull(currentChunk, currentIndexedMessages, currentIndexedBytes);
+  }
+
+  private void rollOverIfFull(
+      ReadWriteChunk<T> currentChunk, long currentIndexedMessages, long currentIndexedBytes) {
+    if (!chunkRollOverStrategy.shouldRollOver(currentIndexedBytes, currentIndexedMessages)) {
+      return;
+    }
+    if (rollOversHeld) {
+      rollOverPending.set(true);
+      return;
+    }
+    rollOverIfActive(currentChunk, currentIndexedMessages, currentIndexedBytes);
+  }
+
+  @Override
+  public void holdRollOvers() {
+    rollOversHeld = true;
+  }
+
+  @Override
+  public void releaseRollOvers() {
+    rollOversHeld = false;
+    if (rollOverPending.getAndSet(false)) {
+      ReadWriteChunk<T> currentChunk = activeChunk;
+      if (currentChunk != null) {
+        rollOverIfActive(currentChunk, liveMessagesIndexedGauge.get(), liveBytesIndexedGauge.get());
+      }
+    }
+  }
+
+  private void ensureIngestionRunning() {
     if (stopIngestion) {
       // Currently, this flag is set on only a chunkRollOverException.
       LOG.warn("Stopping ingestion due to a chunk roll over exception.");
       throw new ChunkRollOverException("Stopping ingestion due to chunk roll over exception.");
     }
+  }
 
-    // find the active chunk and add a message to it
-    ReadWriteChunk<T> currentChunk = getOrCreateActiveChunk(kafkaPartitionId, indexerConfig);
-    currentChunk.addMessage(message, kafkaPartitionId, offset);
-    long currentIndexedMessages = liveMessagesIndexedGauge.incrementAndGet();
-    long currentIndexedBytes = liveBytesIndexedGauge.addAndGet(msgSize);
-
-    // If active chunk is full roll it over.
-    if (chunkRollOverStrategy.shouldRollOver(currentIndexedBytes, currentIndexedMessages)) {
+  /**
+   * Roll over the given chunk if it is still the active chunk. When several indexing threads see a
+   * full chunk at the same time, only the first one to take the write lock rolls it over.
+   */
+  private void rollOverIfActive(
+      ReadWriteChunk<T> currentChunk, long currentIndexedMessages, long currentIndexedBytes) {
+    activeChunkLock.writeLock().lock();
+    try {
+      if (activeChunk != currentChunk) {
+        return;
+      }
       LOG.info(
           "After {} messages and {} bytes rolling over chunk {}.",
           currentIndexedMessages,
           currentIndexedBytes,
           currentChunk.id());
       doRollover(currentChunk);
+    } finally {
+      activeChunkLock.writeLock().unlock();
     }
   }
 
   /**
    * This method initiates a roll over of the active chunk. In future, consider moving the some of
-   * the roll over logic into ChunkImpl.
+   * the roll over logic into ChunkImpl. The caller should hold the write lock.
    */
   private void doRollover(ReadWriteChunk<T> currentChunk) {
     // Set activeChunk to null first, so we can initiate the roll over.
@@ -196,7 +324,17 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
 
     RollOverChunkTask<T> rollOverChunkTask =
         new RollOverChunkTask<>(
-            currentChunk, meterRegistry, blobFs, s3Bucket, currentChunk.info().chunkId);
+            currentChunk,
+            meterRegistry,
+            blobFs,
+            s3Bucket,
+            currentChunk.info().chunkId,
+            indexerConfig.getLuceneConfig().getForceMergeMaxSegments(),
+            getForceMergeTimeout(
+                Duration.ofSeconds(indexerConfig.getLuceneConfig().getForceMergeTimeoutSecs()),
+                Duration.ofMillis(
+                    currentChunk.info().getChunkLastUpdatedTimeEpochMs()
+                        - currentChunk.info().getChunkCreationTimeEpochMs())));
 
     if ((rolloverFuture == null) || rolloverFuture.isDone()) {
       rolloverFuture = rolloverExecutorService.submit(rollOverChunkTask);
@@ -233,7 +371,12 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
    */
   public void rollOverActiveChunk() {
     LOG.info("Rolling over active chunk");
-    doRollover(getActiveChunk());
+    activeChunkLock.writeLock().lock();
+    try {
+      doRollover(getActiveChunk());
+    } finally {
+      activeChunkLock.writeLock().unlock();
+    }
   }
 
   @VisibleForTesting
@@ -241,6 +384,20 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
     return activeChunk;
   }
 
+  /**
+   * Since a second roll over can't start while one is in progress, the force merge of a chunk can
+   * take at most half the time it took to fill the chunk. This leaves the other half for the
+   * upload, so the roll over finishes before the next chunk is full.
+   */
+  @VisibleForTesting
+  static Duration getForceMergeTimeout(Duration configuredTimeout, Duration chunkFillDuration) {
+    Duration timeout = chunkFillDuration.dividedBy(2);
+    if (timeout.isNegative()) {
+      return Duration.ZERO;
+    }
+    return timeout.compareTo(configuredTimeout) < 0 ? timeout : configuredTimeout;
+  }
+
   /**
    * getChunk returns the active chunk. If no chunk is active because of roll over or this is the
    * first message, create one chunk and set is as active.
@@ -248,9 +405,21 @@ public class IndexingChunkManager<T> extends ChunkManagerBase<T> {
    * <p>NOTE: Currently, this logic assumes that we are indexing live data. So, the startTime of the
    * data in the chunk is set as system time. However, this assumption may not be true always. In
    * future, set the start time of the chunk based on the timestamp from the message.
+   *
+   * <p>The caller should hold the read lock. Creation is synchronized so that concurrent indexing
+   * threads create only one chunk.
    */
   private ReadWriteChunk<T> getOrCreateActiveChunk(
       String kafkaPartitionId, KaldbConfigs.IndexerConfig indexerConfig) throws IOException {
+    ReadWriteChunk<T> currentChunk = activeChunk;
+    if (currentChunk != null) {
+      return currentChunk;
+    }
+    return createActiveChunk(kafkaPartitionId, indexerConfig);
+  }
+
+  private synchronized ReadWriteChunk<T> createActiveChunk(
+      String kafkaPartitionId, KaldbConfigs.IndexerConfig indexerConfig) throws IOException {
     if (activeChunk == null) {
       @SuppressWarnings("unchecked")
       LogStore<T> logStore =
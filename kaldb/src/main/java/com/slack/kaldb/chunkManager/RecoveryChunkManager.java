@@ -10,9 +10,11 @@ import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.metadata.search.SearchMetadataStore;
 import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
 import com.slack.kaldb.proto.config.KaldbConfigs;
+import com.slack.service.murron.trace.Trace;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -70,10 +72,7 @@ public class RecoveryChunkManager<T> extends ChunkManagerBase<T> {
 
   public void addMessage(final T message, long msgSize, String kafkaPartitionId, long offset)
       throws IOException {
-    if (readOnly) {
-      LOG.warn("Ingestion is stopped since the chunk is in read only mode.");
-      throw new IllegalStateException("Ingestion is stopped since chunk is read only.");
-    }
+    ensureWritable();
 
     // find the active chunk and add a message to it
     ReadWriteChunk<T> currentChunk = getOrCreateActiveChunk(kafkaPartitionId);
@@ -82,6 +81,39 @@ public class RecoveryChunkManager<T> extends ChunkManagerBase<T> {
     liveBytesIndexedGauge.addAndGet(msgSize);
   }
 
+  @Override
+  public void addMessages(
+      final List<T> messages, long totalBytes, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    if (messages.isEmpty()) return;
+    ensureWritable();
+
+    ReadWriteChunk<T> currentChunk = getOrCreateActiveChunk(kafkaPartitionId);
+    currentChunk.addMessages(messages, kafkaPartitionId, maxOffset);
+    liveMessagesIndexedGauge.addAndGet(messages.size());
+    liveBytesIndexedGauge.addAndGet(totalBytes);
+  }
+
+  @Override
+  public void addSpans(
+      final List<Trace.Span> spans, long totalBytes, String kafkaPartitionId, long maxOffset)
+      throws IOException {
+    if (spans.isEmpty()) return;
+    ensureWritable();
+
+    ReadWriteChunk<T> currentChunk = getOrCreateActiveChunk(kafkaPartitionId);
+    currentChunk.addSpans(spans, kafkaPartitionId, maxOffset);
+    liveMessagesIndexedGauge.addAndGet(spans.size());
+    liveBytesIndexedGauge.addAndGet(totalBytes);
+  }
+
+  private void ensureWritable() {
+    if (readOnly) {
+      LOG.warn("Ingestion is stopped since the chunk is in read only mode.");
+      throw new IllegalStateException("Ingestion is stopped since chunk is read only.");
+    }
+  }
+
   /** This method initiates a roll over of the active chunk. */
   private void doRollover(ReadWriteChunk<T> currentChunk) {
     // Set activeChunk to null first, so we can initiate the roll over.
@@ -218,7 +250,11 @@ public class RecoveryChunkManager<T> extends ChunkManagerBase<T> {
 
     ChunkRolloverFactory chunkRolloverFactory =
         new ChunkRolloverFactory(
-            new NeverRolloverChunkStrategyImpl(), blobFs, s3Config.getS3Bucket(), meterRegistry);
+            new NeverRolloverChunkStrategyImpl(),
+            blobFs,
+            s3Config.getS3Bucket(),
+            meterRegistry,
+            indexerConfig.getLuceneConfig());
 
     return new RecoveryChunkManager<>(recoveryChunkFactory, chunkRolloverFactory, meterRegistry);
   }
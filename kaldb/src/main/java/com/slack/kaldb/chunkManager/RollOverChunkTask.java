@@ -5,6 +5,7 @@ import com.slack.kaldb.chunk.ReadWriteChunk;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.concurrent.Callable;
 import org.slf4j.Logger;
@@ -14,6 +15,10 @@ import org.slf4j.LoggerFactory;
  * This class performs the roll over of a chunk. During a rollover, we run the preSnapshot, snapshot
  * and postOperations operations in that order on the chunk.
  *
+ * <p>If forceMergeMaxSegments is set, the chunk is merged down to that many segments after the
+ * preSnapshot, since the snapshot is searched many times by the cache nodes. If the merge doesn't
+ * finish within the timeout, it's aborted and the chunk is uploaded as is.
+ *
  * <p>In case of failures, an error is logged and a failure counter is incremented.
  */
 public class RollOverChunkTask<T> implements Callable<Boolean> {
@@ -23,24 +28,32 @@ public class RollOverChunkTask<T> implements Callable<Boolean> {
   public static final String ROLLOVERS_FAILED = "rollovers_failed";
   public static final String ROLLOVERS_INITIATED = "rollovers_initiated";
   public static final String ROLLOVER_TIMER = "rollover_timer";
+  public static final String ROLLOVER_FORCE_MERGES_COMPLETED = "rollover_force_merges_completed";
+  public static final String ROLLOVER_FORCE_MERGES_ABORTED = "rollover_force_merges_aborted";
 
   private final Counter rolloversInitiatedCounter;
   private final Counter rolloversCompletedCounter;
   private final Counter rolloversFailedCounter;
   private final Timer rollOverTimer;
+  private final Counter forceMergesCompletedCounter;
+  private final Counter forceMergesAbortedCounter;
 
   private final ReadWriteChunk<T> chunk;
   private final String s3Bucket;
   private final String s3BucketPrefix;
   private final BlobFs blobFs;
   private final MeterRegistry meterRegistry;
+  private final int forceMergeMaxSegments;
+  private final Duration forceMergeTimeout;
 
   public RollOverChunkTask(
       ReadWriteChunk<T> chunk,
       MeterRegistry meterRegistry,
       BlobFs blobFs,
       String s3Bucket,
-      String s3BucketPrefix) {
+      String s3BucketPrefix,
+      int forceMergeMaxSegments,
+      Duration forceMergeTimeout) {
     this.chunk = chunk;
     this.blobFs = blobFs;
     this.s3Bucket = s3Bucket;
@@ -50,6 +63,10 @@ public class RollOverChunkTask<T> implements Callable<Boolean> {
     rolloversCompletedCounter = meterRegistry.counter(ROLLOVERS_COMPLETED);
     rolloversFailedCounter = meterRegistry.counter(ROLLOVERS_FAILED);
     rollOverTimer = meterRegistry.timer(ROLLOVER_TIMER);
+    forceMergesCompletedCounter = meterRegistry.counter(ROLLOVER_FORCE_MERGES_COMPLETED);
+    forceMergesAbortedCounter = meterRegistry.counter(ROLLOVER_FORCE_MERGES_ABORTED);
+    this.forceMergeMaxSegments = forceMergeMaxSegments;
+    this.forceMergeTimeout = forceMergeTimeout;
   }
 
   @Override
@@ -63,6 +80,14 @@ public class RollOverChunkTask<T> implements Callable<Boolean> {
       rolloversInitiatedCounter.increment();
       // Run pre-snapshot and upload chunk to blob store.
       chunk.preSnapshot();
+      if (forceMergeMaxSegments > 0) {
+        if (!forceMergeTimeout.isZero()
+            && chunk.forceMerge(forceMergeMaxSegments, forceMergeTimeout)) {
+          forceMergesCompletedCounter.increment();
+        } else {
+          forceMergesAbortedCounter.increment();
+        }
+      }
       if (!chunk.snapshotToS3(s3Bucket, s3BucketPrefix, blobFs)) {
         LOG.warn("Failed to snapshot the chunk to S3");
         rolloversFailedCounter.increment();
@@ -3,7 +3,6 @@ package com.slack.kaldb.elasticsearchApi;
 import brave.ScopedSpan;
 import brave.Tracing;
 import com.google.common.collect.ImmutableMap;
-import com.google.protobuf.ByteString;
 import com.linecorp.armeria.common.HttpResponse;
 import com.linecorp.armeria.common.HttpStatus;
 import com.linecorp.armeria.common.MediaType;
@@ -13,13 +12,20 @@ import com.linecorp.armeria.server.annotation.Param;
 import com.linecorp.armeria.server.annotation.Path;
 import com.linecorp.armeria.server.annotation.Post;
 import com.slack.kaldb.elasticsearchApi.searchRequest.EsSearchRequest;
+import com.slack.kaldb.elasticsearchApi.searchRequest.aggregations.MetricAggregation;
 import com.slack.kaldb.elasticsearchApi.searchRequest.aggregations.SearchRequestAggregation;
+import com.slack.kaldb.elasticsearchApi.searchRequest.aggregations.TermsAggregation;
 import com.slack.kaldb.elasticsearchApi.searchResponse.AggregationBucketResponse;
 import com.slack.kaldb.elasticsearchApi.searchResponse.AggregationResponse;
 import com.slack.kaldb.elasticsearchApi.searchResponse.EsSearchResponse;
 import com.slack.kaldb.elasticsearchApi.searchResponse.HitsMetadata;
 import com.slack.kaldb.elasticsearchApi.searchResponse.SearchResponseHit;
 import com.slack.kaldb.elasticsearchApi.searchResponse.SearchResponseMetadata;
+import com.slack.kaldb.elasticsearchApi.searchResponse.TermsBucketResponse;
+import com.slack.kaldb.histogram.HistogramBucket;
+import com.slack.kaldb.logstore.search.SearchResultUtils;
+import com.slack.kaldb.logstore.search.aggregations.MetricsResult;
+import com.slack.kaldb.logstore.search.aggregations.TermsResult;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.server.KaldbQueryServiceBase;
 import com.slack.kaldb.util.JsonUtil;
@@ -28,6 +34,7 @@ import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -65,10 +72,20 @@ public class ElasticsearchApiService {
     LOG.debug("Search request: {}", postBody);
 
     List<EsSearchRequest> requests = EsSearchRequest.parse(postBody);
-    List<EsSearchResponse> responses = new ArrayList<>();
+    List<KaldbSearch.SearchRequest> searchRequests = new ArrayList<>(requests.size());
+    try {
+      for (EsSearchRequest request : requests) {
+        searchRequests.add(request.toKaldbSearchRequest());
+      }
+    } catch (IllegalArgumentException e) {
+      // The aggregations that can't be computed are rejected, instead of being left out.
+      LOG.info("Rejected search request: {}", e.getMessage());
+      return HttpResponse.of(HttpStatus.BAD_REQUEST, MediaType.PLAIN_TEXT_UTF_8, e.getMessage());
+    }
 
-    for (EsSearchRequest request : requests) {
-      responses.add(doSearch(request));
+    List<EsSearchResponse> responses = new ArrayList<>();
+    for (int i = 0; i < requests.size(); i++) {
+      responses.add(doSearch(requests.get(i), searchRequests.get(i)));
     }
 
     SearchResponseMetadata responseMetadata = new SearchResponseMetadata(0, responses);
@@ -76,9 +93,9 @@ public class ElasticsearchApiService {
         HttpStatus.OK, MediaType.JSON_UTF_8, JsonUtil.writeAsString(responseMetadata));
   }
 
-  private EsSearchResponse doSearch(EsSearchRequest request) throws IOException {
+  private EsSearchResponse doSearch(
+      EsSearchRequest request, KaldbSearch.SearchRequest searchRequest) throws IOException {
     ScopedSpan span = Tracing.currentTracer().startScopedSpan("ElasticsearchApiService.doSearch");
-    KaldbSearch.SearchRequest searchRequest = request.toKaldbSearchRequest();
     KaldbSearch.SearchResult searchResult = searcher.doSearch(searchRequest);
 
     span.tag("requestIndexName", searchRequest.getIndexName());
@@ -88,7 +105,7 @@ public class ElasticsearchApiService {
     span.tag("requestHowMany", String.valueOf(searchRequest.getHowMany()));
     span.tag("resultTotalCount", String.valueOf(searchResult.getTotalCount()));
     span.tag("resultHitsCount", String.valueOf(searchResult.getHitsCount()));
-    span.tag("resultBucketCount", String.valueOf(searchResult.getBucketsCount()));
+    span.tag("resultBucketCount", String.valueOf(searchResult.getHistogram().getCountsCount()));
     span.tag("resultTookMicros", String.valueOf(searchResult.getTookMicros()));
     span.tag("resultFailedNodes", String.valueOf(searchResult.getFailedNodes()));
     span.tag("resultTotalNodes", String.valueOf(searchResult.getTotalNodes()));
@@ -115,11 +132,10 @@ public class ElasticsearchApiService {
     }
   }
 
-  private HitsMetadata getHits(KaldbSearch.SearchResult searchResult) throws IOException {
-    List<ByteString> hitsByteList = searchResult.getHitsList().asByteStringList();
-    List<SearchResponseHit> responseHits = new ArrayList<>(hitsByteList.size());
-    for (ByteString bytes : hitsByteList) {
-      responseHits.add(SearchResponseHit.fromByteString(bytes));
+  private HitsMetadata getHits(KaldbSearch.SearchResult searchResult) {
+    List<SearchResponseHit> responseHits = new ArrayList<>(searchResult.getHitsCount());
+    for (KaldbSearch.SearchHit hit : searchResult.getHitsList()) {
+      responseHits.add(SearchResponseHit.fromSearchHit(hit));
     }
 
     return new HitsMetadata.Builder()
@@ -130,26 +146,73 @@ public class ElasticsearchApiService {
 
   private Map<String, AggregationResponse> getAggregations(
       List<SearchRequestAggregation> aggregations, KaldbSearch.SearchResult searchResult) {
-    // todo - we currently are only supporting a single aggregation of type `date_histogram` and
-    //  assume it is the always the first aggregation requested
+    // todo - we currently are only supporting a single aggregation of type `date_histogram`, with
+    //  optional nested terms and metric aggregations, or a single aggregation of type `terms`,
+    //  along with the metric aggregations of a single field, and assume it is the always the first
+    //  aggregation requested
     //  this will need to be refactored when we support more aggregation types
-    Optional<SearchRequestAggregation> aggregationRequest = aggregations.stream().findFirst();
-
     Map<String, AggregationResponse> aggregationResponseMap = new HashMap<>();
+    List<MetricsResult> metricsResults =
+        SearchResultUtils.fromMetricsResultProtos(searchResult.getMetricsList());
+    List<MetricAggregation> metricAggregations = MetricAggregation.ofSingleField(aggregations);
+    putMetricAggregations(
+        aggregationResponseMap,
+        metricAggregations,
+        metricsResults.isEmpty() ? null : metricsResults.get(0));
+
+    Optional<SearchRequestAggregation> aggregationRequest =
+        aggregations
+            .stream()
+            .filter(aggregation -> !(aggregation instanceof MetricAggregation))
+            .findFirst();
     if (aggregationRequest.isPresent()) {
-      List<AggregationBucketResponse> buckets =
-          new ArrayList<>(searchResult.getBucketsList().size());
-      searchResult
-          .getBucketsList()
-          .forEach(
-              histogramBucket -> {
-                // our response from kaldb has the start and end of the bucket, but we only need the
-                // midpoint for the response object
-                double getKey =
-                    histogramBucket.getLow()
-                        + ((histogramBucket.getHigh() - histogramBucket.getLow()) / 2);
-                buckets.add(new AggregationBucketResponse(getKey, histogramBucket.getCount()));
-              });
+      List<TermsResult> termsResults =
+          SearchResultUtils.fromTermsResultProtos(searchResult.getTermsList());
+      if (aggregationRequest.get() instanceof TermsAggregation) {
+        TermsAggregation termsAggregation = (TermsAggregation) aggregationRequest.get();
+        aggregationResponseMap.put(
+            termsAggregation.getAggregationKey(),
+            getTermsAggregation(
+                termsAggregation, termsResults.isEmpty() ? null : termsResults.get(0)));
+        return aggregationResponseMap;
+      }
+
+      Optional<TermsAggregation> termsAggregation =
+          aggregationRequest
+              .get()
+              .getSubAggregations()
+              .stream()
+              .filter(TermsAggregation.class::isInstance)
+              .map(TermsAggregation.class::cast)
+              .findFirst();
+      // The metrics are only per bucket when they aren't requested on their own.
+      List<MetricAggregation> bucketMetricAggregations =
+          metricAggregations.isEmpty()
+              ? MetricAggregation.ofSingleField(aggregationRequest.get().getSubAggregations())
+              : List.of();
+      List<HistogramBucket> histogramBuckets =
+          SearchResultUtils.fromPackedHistogramProto(searchResult.getHistogram());
+      List<AggregationBucketResponse> buckets = new ArrayList<>(histogramBuckets.size());
+      for (int i = 0; i < histogramBuckets.size(); i++) {
+        HistogramBucket histogramBucket = histogramBuckets.get(i);
+        // our response from kaldb has the start and end of the bucket, but we only need the
+        // midpoint for the response object
+        double getKey =
+            histogramBucket.getLow() + ((histogramBucket.getHigh() - histogramBucket.getLow()) / 2);
+        Map<String, AggregationResponse> subAggregations = new HashMap<>();
+        if (termsAggregation.isPresent()) {
+          subAggregations.put(
+              termsAggregation.get().getAggregationKey(),
+              getTermsAggregation(
+                  termsAggregation.get(), i < termsResults.size() ? termsResults.get(i) : null));
+        }
+        putMetricAggregations(
+            subAggregations,
+            bucketMetricAggregations,
+            i < metricsResults.size() ? metricsResults.get(i) : null);
+        buckets.add(
+            new AggregationBucketResponse(getKey, histogramBucket.getCount(), subAggregations));
+      }
       aggregationResponseMap.put(
           aggregationRequest.get().getAggregationKey(), new AggregationResponse(buckets));
     }
@@ -157,6 +220,63 @@ public class ElasticsearchApiService {
     return aggregationResponseMap;
   }
 
+  private void putMetricAggregations(
+      Map<String, AggregationResponse> aggregationResponseMap,
+      List<MetricAggregation> metricAggregations,
+      MetricsResult metricsResult) {
+    MetricsResult metrics = metricsResult != null ? metricsResult : MetricsResult.EMPTY;
+    for (MetricAggregation metricAggregation : metricAggregations) {
+      aggregationResponseMap.put(
+          metricAggregation.getAggregationKey(), getMetricAggregation(metricAggregation, metrics));
+    }
+  }
+
+  // Like Elasticsearch, the metrics of no values are null, except the count and the sum.
+  private AggregationResponse getMetricAggregation(
+      MetricAggregation metricAggregation, MetricsResult metrics) {
+    boolean noValues = metrics.count == 0;
+    switch (metricAggregation.getType()) {
+      case "avg":
+        return AggregationResponse.ofValue(noValues ? null : metrics.avg());
+      case "max":
+        return AggregationResponse.ofValue(noValues ? null : metrics.max);
+      case "min":
+        return AggregationResponse.ofValue(noValues ? null : metrics.min);
+      case "sum":
+        return AggregationResponse.ofValue(metrics.sum);
+      case "stats":
+        return AggregationResponse.ofStats(
+            metrics.count,
+            noValues ? null : metrics.min,
+            noValues ? null : metrics.max,
+            noValues ? null : metrics.avg(),
+            metrics.sum);
+      default:
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (double percent : metricAggregation.getPercents()) {
+          double value = metrics.percentile(percent);
+          values.put(String.valueOf(percent), Double.isNaN(value) ? null : value);
+        }
+        return AggregationResponse.ofPercentiles(values);
+    }
+  }
+
+  // The terms results have the top shard size terms, so they are cut down to the requested size.
+  private AggregationResponse getTermsAggregation(
+      TermsAggregation termsAggregation, TermsResult termsResult) {
+    if (termsResult == null) {
+      return new AggregationResponse(List.of(), 0, 0);
+    }
+
+    TermsResult topTerms = TermsResult.merge(List.of(termsResult), termsAggregation.getSize());
+    List<TermsBucketResponse> buckets = new ArrayList<>(topTerms.terms.size());
+    for (TermsResult.TermCount termCount : topTerms.terms) {
+      buckets.add(new TermsBucketResponse(termCount.term, termCount.count));
+    }
+    return new AggregationResponse(
+        buckets, topTerms.docCountErrorUpperBound, topTerms.otherDocCount);
+  }
+
   /**
    * Mapping API
    *
@@ -5,11 +5,17 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
+import com.slack.kaldb.elasticsearchApi.searchRequest.aggregations.DateHistogramAggregation;
+import com.slack.kaldb.elasticsearchApi.searchRequest.aggregations.MetricAggregation;
 import com.slack.kaldb.elasticsearchApi.searchRequest.aggregations.SearchRequestAggregation;
+import com.slack.kaldb.elasticsearchApi.searchRequest.aggregations.TermsAggregation;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class EsSearchRequest {
 
@@ -59,17 +65,99 @@ public class EsSearchRequest {
     return aggregations;
   }
 
+  /**
+   * Returns the kaldb search request of this request.
+   *
+   * @throws IllegalArgumentException if the request has aggregations that can't be computed
+   *     together, like terms aggregations of two fields.
+   */
   public KaldbSearch.SearchRequest toKaldbSearchRequest() {
     // eventually this will likely be configurable from the UI
     int bucketCount = 60;
 
-    return KaldbSearch.SearchRequest.newBuilder()
-        .setIndexName(getIndex())
-        .setQueryString(getQuery())
-        .setStartTimeEpochMs(getRange().getGteEpochMillis())
-        .setEndTimeEpochMs(getRange().getLteEpochMillis())
-        .setHowMany(getSize())
-        .setBucketCount(bucketCount)
+    KaldbSearch.SearchRequest.Builder builder =
+        KaldbSearch.SearchRequest.newBuilder()
+            .setIndexName(getIndex())
+            .setQueryString(getQuery())
+            .setStartTimeEpochMs(getRange().getGteEpochMillis())
+            .setEndTimeEpochMs(getRange().getLteEpochMillis())
+            .setHowMany(getSize())
+            .setBucketCount(bucketCount);
+
+    // todo - only a single terms aggregation is supported, either on its own or nested under the
+    //  date histogram
+    TermsAggregation termsAggregation = null;
+    boolean termsPerHistogramBucket = false;
+    for (SearchRequestAggregation aggregation : getAggregations()) {
+      List<SearchRequestAggregation> candidates =
+          aggregation instanceof DateHistogramAggregation
+              ? aggregation.getSubAggregations()
+              : List.of(aggregation);
+      for (SearchRequestAggregation candidate : candidates) {
+        if (candidate instanceof TermsAggregation) {
+          if (termsAggregation != null) {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Only a single terms aggregation is supported, but found %s and %s",
+                    termsAggregation.getAggregationKey(), candidate.getAggregationKey()));
+          }
+          termsAggregation = (TermsAggregation) candidate;
+          termsPerHistogramBucket = aggregation instanceof DateHistogramAggregation;
+        }
+      }
+    }
+    if (termsAggregation != null) {
+      builder.setTermsAggregation(
+          toTermsAggregationProto(termsAggregation, termsPerHistogramBucket));
+    }
+
+    // todo - only the metrics of a single field are supported, either on their own or nested under
+    //  the date histogram
+    List<MetricAggregation> metricAggregations = MetricAggregation.ofSingleField(getAggregations());
+    boolean perHistogramBucket = false;
+    Optional<SearchRequestAggregation> dateHistogram =
+        getAggregations().stream().filter(DateHistogramAggregation.class::isInstance).findFirst();
+    if (dateHistogram.isPresent()) {
+      List<MetricAggregation> bucketMetricAggregations =
+          MetricAggregation.ofSingleField(dateHistogram.get().getSubAggregations());
+      if (!bucketMetricAggregations.isEmpty()) {
+        if (!metricAggregations.isEmpty()) {
+          throw new IllegalArgumentException(
+              "Metric aggregations are supported either on their own or nested under the date"
+                  + " histogram, but not both");
+        }
+        metricAggregations = bucketMetricAggregations;
+        perHistogramBucket = true;
+      }
+    }
+    if (!metricAggregations.isEmpty()) {
+      builder.setMetricsAggregation(
+          toMetricsAggregationProto(metricAggregations, perHistogramBucket));
+    }
+    return builder.build();
+  }
+
+  // The percentiles of all the aggregations are estimated from the same sketch.
+  private static KaldbSearch.MetricsAggregation toMetricsAggregationProto(
+      List<MetricAggregation> aggregations, boolean perHistogramBucket) {
+    Set<Double> percentiles = new TreeSet<>();
+    for (MetricAggregation aggregation : aggregations) {
+      percentiles.addAll(aggregation.getPercents());
+    }
+    return KaldbSearch.MetricsAggregation.newBuilder()
+        .setField(aggregations.get(0).getField())
+        .addAllPercentiles(percentiles)
+        .setPerHistogramBucket(perHistogramBucket)
+        .build();
+  }
+
+  private static KaldbSearch.TermsAggregation toTermsAggregationProto(
+      TermsAggregation aggregation, boolean perHistogramBucket) {
+    return KaldbSearch.TermsAggregation.newBuilder()
+        .setField(aggregation.getField())
+        .setSize(aggregation.getSize())
+        .setShardSize(aggregation.getShardSize())
+        .setPerHistogramBucket(perHistogramBucket)
         .build();
   }
 
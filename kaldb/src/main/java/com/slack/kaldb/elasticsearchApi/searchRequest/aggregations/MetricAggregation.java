@@ -0,0 +1,61 @@
+package com.slack.kaldb.elasticsearchApi.searchRequest.aggregations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single value metric, like avg and max, a stats aggregation or a percentiles aggregation of a
+ * numeric field.
+ */
+public class MetricAggregation extends SearchRequestAggregation {
+
+  private final String type;
+  private final String field;
+  private final List<Double> percents;
+
+  public MetricAggregation(
+      String aggregationKey, String type, String field, List<Double> percents) {
+    super(aggregationKey);
+
+    this.type = type;
+    this.field = field;
+    this.percents = percents;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  /** Returns the percents of a percentiles aggregation, which is empty for the other types. */
+  public List<Double> getPercents() {
+    return percents;
+  }
+
+  /**
+   * Returns the metric aggregations in the list. The metrics of a single field are computed per
+   * request, so the aggregations must all be of the same field.
+   *
+   * @throws IllegalArgumentException if the metric aggregations are of more than one field.
+   */
+  public static List<MetricAggregation> ofSingleField(List<SearchRequestAggregation> aggregations) {
+    List<MetricAggregation> metricAggregations = new ArrayList<>();
+    for (SearchRequestAggregation aggregation : aggregations) {
+      if (aggregation instanceof MetricAggregation) {
+        MetricAggregation metricAggregation = (MetricAggregation) aggregation;
+        if (!metricAggregations.isEmpty()
+            && !metricAggregations.get(0).getField().equals(metricAggregation.getField())) {
+          throw new IllegalArgumentException(
+              String.format(
+                  "Metric aggregations are only supported on a single field, but found %s and %s",
+                  metricAggregations.get(0).getField(), metricAggregation.getField()));
+        }
+        metricAggregations.add(metricAggregation);
+      }
+    }
+    return metricAggregations;
+  }
+}
@@ -7,7 +7,17 @@ import java.util.List;
 
 public abstract class SearchRequestAggregation {
 
+  // Elasticsearch's default number of terms of a terms aggregation.
+  private static final int DEFAULT_TERMS_SIZE = 10;
+
+  // The metric aggregations, and Elasticsearch's default percents of a percentiles aggregation.
+  private static final List<String> METRIC_TYPES =
+      List.of("avg", "max", "min", "sum", "stats", "percentiles");
+  private static final List<Double> DEFAULT_PERCENTS =
+      List.of(1.0, 5.0, 25.0, 50.0, 75.0, 95.0, 99.0);
+
   @JsonIgnore private final String aggregationKey;
+  @JsonIgnore private List<SearchRequestAggregation> subAggregations = List.of();
 
   public SearchRequestAggregation(String aggregationKey) {
     this.aggregationKey = aggregationKey;
@@ -17,6 +27,11 @@ public abstract class SearchRequestAggregation {
     return aggregationKey;
   }
 
+  /** Returns the aggregations nested under this one, which aggregate each of its buckets. */
+  public List<SearchRequestAggregation> getSubAggregations() {
+    return subAggregations;
+  }
+
   public static List<SearchRequestAggregation> parse(JsonNode aggs) {
     List<SearchRequestAggregation> aggregations = new ArrayList<>();
 
@@ -24,14 +39,54 @@ public abstract class SearchRequestAggregation {
       aggs.fieldNames()
           .forEachRemaining(
               aggregationKey -> {
-                if (aggs.get(aggregationKey).has("date_histogram")) {
-                  JsonNode node = aggs.get(aggregationKey).get("date_histogram");
+                JsonNode aggregation = aggs.get(aggregationKey);
+                SearchRequestAggregation parsed = null;
+                if (aggregation.has("date_histogram")) {
+                  JsonNode node = aggregation.get("date_histogram");
 
-                  aggregations.add(
+                  parsed =
                       new DateHistogramAggregation(
                           aggregationKey,
                           node.get("interval").asText(),
-                          node.get("min_doc_count").asInt()));
+                          node.get("min_doc_count").asInt());
+                } else if (aggregation.has("terms")) {
+                  JsonNode node = aggregation.get("terms");
+                  int size = node.has("size") ? node.get("size").asInt() : 0;
+
+                  // A shard size of 0 leaves it to the default of the terms aggregation.
+                  parsed =
+                      new TermsAggregation(
+                          aggregationKey,
+                          node.get("field").asText(),
+                          size > 0 ? size : DEFAULT_TERMS_SIZE,
+                          node.has("shard_size") ? node.get("shard_size").asInt() : 0);
+                } else {
+                  for (String type : METRIC_TYPES) {
+                    if (aggregation.has(type)) {
+                      JsonNode node = aggregation.get(type);
+                      List<Double> percents = List.of();
+                      if (type.equals("percentiles")) {
+                        percents = DEFAULT_PERCENTS;
+                        if (node.has("percents")) {
+                          percents = new ArrayList<>();
+                          // Grafana sends the percents as strings.
+                          for (JsonNode percent : node.get("percents")) {
+                            percents.add(percent.asDouble());
+                          }
+                        }
+                      }
+
+                      parsed =
+                          new MetricAggregation(
+                              aggregationKey, type, node.get("field").asText(), percents);
+                      break;
+                    }
+                  }
+                }
+
+                if (parsed != null) {
+                  parsed.subAggregations = parse(aggregation.get("aggs"));
+                  aggregations.add(parsed);
                 }
 
                 // todo - support other aggregation types
@@ -0,0 +1,28 @@
+package com.slack.kaldb.elasticsearchApi.searchRequest.aggregations;
+
+public class TermsAggregation extends SearchRequestAggregation {
+
+  private final String field;
+  private final int size;
+  private final int shardSize;
+
+  public TermsAggregation(String aggregationKey, String field, int size, int shardSize) {
+    super(aggregationKey);
+
+    this.field = field;
+    this.size = size;
+    this.shardSize = shardSize;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public int getShardSize() {
+    return shardSize;
+  }
+}
@@ -1,6 +1,8 @@
 package com.slack.kaldb.elasticsearchApi.searchResponse;
 
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Map;
 
 public class AggregationBucketResponse {
 
@@ -10,13 +12,27 @@ public class AggregationBucketResponse {
   @JsonProperty("doc_count")
   private final double docCount;
 
+  // The aggregations of the bucket, by the keys they were requested with.
+  private final Map<String, AggregationResponse> subAggregations;
+
   public AggregationBucketResponse(double key, double docCount) {
+    this(key, docCount, Map.of());
+  }
+
+  public AggregationBucketResponse(
+      double key, double docCount, Map<String, AggregationResponse> subAggregations) {
     this.key = key;
     this.docCount = docCount;
+    this.subAggregations = subAggregations;
   }
 
   @JsonProperty("key_as_string")
   public String getKeyAsString() {
     return String.valueOf(key);
   }
+
+  @JsonAnyGetter
+  public Map<String, AggregationResponse> getSubAggregations() {
+    return subAggregations;
+  }
 }
@@ -1,14 +1,105 @@
 package com.slack.kaldb.elasticsearchApi.searchResponse;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * The response of an aggregation. Bucket aggregations have buckets, and metric aggregations have a
+ * value, the values of percentiles or stats. The fields that don't apply to an aggregation are left
+ * out.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class AggregationResponse {
 
   @JsonProperty("buckets")
-  private final List<AggregationBucketResponse> buckets;
+  private final List<?> buckets;
+
+  // Only set for terms aggregations.
+  @JsonProperty("doc_count_error_upper_bound")
+  private final Long docCountErrorUpperBound;
+
+  @JsonProperty("sum_other_doc_count")
+  private final Long sumOtherDocCount;
+
+  // Only set for single value metric aggregations, like avg and max.
+  @JsonProperty("value")
+  private final Double value;
+
+  // Only set for percentiles aggregations, by percent.
+  @JsonProperty("values")
+  private final Map<String, Double> values;
+
+  // Only set for stats aggregations.
+  @JsonProperty("count")
+  private final Long count;
+
+  @JsonProperty("min")
+  private final Double min;
+
+  @JsonProperty("max")
+  private final Double max;
+
+  @JsonProperty("avg")
+  private final Double avg;
+
+  @JsonProperty("sum")
+  private final Double sum;
 
   public AggregationResponse(List<AggregationBucketResponse> buckets) {
+    this(buckets, null, null, null, null, null, null, null, null, null);
+  }
+
+  public AggregationResponse(
+      List<TermsBucketResponse> buckets, long docCountErrorUpperBound, long sumOtherDocCount) {
+    this(
+        buckets,
+        docCountErrorUpperBound,
+        sumOtherDocCount,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null,
+        null);
+  }
+
+  private AggregationResponse(
+      List<?> buckets,
+      Long docCountErrorUpperBound,
+      Long sumOtherDocCount,
+      Double value,
+      Map<String, Double> values,
+      Long count,
+      Double min,
+      Double max,
+      Double avg,
+      Double sum) {
     this.buckets = buckets;
+    this.docCountErrorUpperBound = docCountErrorUpperBound;
+    this.sumOtherDocCount = sumOtherDocCount;
+    this.value = value;
+    this.values = values;
+    this.count = count;
+    this.min = min;
+    this.max = max;
+    this.avg = avg;
+    this.sum = sum;
+  }
+
+  /** Returns the response of a single value metric, which is null when there are no values. */
+  public static AggregationResponse ofValue(Double value) {
+    return new AggregationResponse(null, null, null, value, null, null, null, null, null, null);
+  }
+
+  public static AggregationResponse ofPercentiles(Map<String, Double> values) {
+    return new AggregationResponse(null, null, null, null, values, null, null, null, null, null);
+  }
+
+  public static AggregationResponse ofStats(
+      long count, Double min, Double max, Double avg, double sum) {
+    return new AggregationResponse(null, null, null, null, null, count, min, max, avg, sum);
   }
 }
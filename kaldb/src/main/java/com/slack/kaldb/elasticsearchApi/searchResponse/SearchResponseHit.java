@@ -1,16 +1,12 @@
 package com.slack.kaldb.elasticsearchApi.searchResponse;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonRawValue;
 import com.google.common.collect.ImmutableList;
-import com.google.protobuf.ByteString;
 import com.slack.kaldb.logstore.LogMessage;
-import com.slack.kaldb.logstore.LogWireMessage;
-import com.slack.kaldb.util.JsonUtil;
-import java.io.IOException;
+import com.slack.kaldb.proto.service.KaldbSearch;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class SearchResponseHit {
 
@@ -26,19 +22,16 @@ public class SearchResponseHit {
   @JsonProperty("_score")
   private final String score;
 
+  // The json of the source map, which is written into the response as is.
   @JsonProperty("_source")
-  private final Map<String, Object> source;
+  @JsonRawValue
+  private final String source;
 
   @JsonProperty("sort")
   private List<Long> sort;
 
   public SearchResponseHit(
-      String index,
-      String type,
-      String id,
-      String score,
-      Map<String, Object> source,
-      List<Long> sort) {
+      String index, String type, String id, String score, String source, List<Long> sort) {
     this.index = index;
     this.type = type;
     this.id = id;
@@ -63,7 +56,7 @@ public class SearchResponseHit {
     return score;
   }
 
-  public Map<String, Object> getSource() {
+  public String getSource() {
     return source;
   }
 
@@ -76,7 +69,7 @@ public class SearchResponseHit {
     private String type;
     private String id;
     private String score;
-    private Map<String, Object> source = new HashMap<>();
+    private String source = "{}";
     private List<Long> sort = new ArrayList<>();
 
     public Builder index(String index) {
@@ -99,7 +92,7 @@ public class SearchResponseHit {
       return this;
     }
 
-    public Builder source(Map<String, Object> source) {
+    public Builder source(String source) {
       this.source = source;
       return this;
     }
@@ -115,15 +108,13 @@ public class SearchResponseHit {
     }
   }
 
-  public static SearchResponseHit fromByteString(ByteString byteString) throws IOException {
-    LogWireMessage hit = JsonUtil.read(byteString.toStringUtf8(), LogWireMessage.class);
-    LogMessage message = LogMessage.fromWireMessage(hit);
-
+  /** Builds the response hit of a search hit, without decoding its source. */
+  public static SearchResponseHit fromSearchHit(KaldbSearch.SearchHit hit) {
     return new SearchResponseHit.Builder()
-        .index(message.getIndex())
+        .index(LogMessage.computedIndexName(hit.getIndex()))
         .type("_doc")
-        .source(message.getSource())
-        .sort(ImmutableList.of(message.getMillisecondsSinceEpoch()))
+        .source(hit.getSource().toStringUtf8())
+        .sort(ImmutableList.of(hit.getTimestampEpochMs()))
         .build();
   }
 }
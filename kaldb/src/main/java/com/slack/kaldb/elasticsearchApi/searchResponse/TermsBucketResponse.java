@@ -0,0 +1,17 @@
+package com.slack.kaldb.elasticsearchApi.searchResponse;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class TermsBucketResponse {
+
+  @JsonProperty("key")
+  private final String key;
+
+  @JsonProperty("doc_count")
+  private final long docCount;
+
+  public TermsBucketResponse(String key, long docCount) {
+    this.key = key;
+    this.docCount = docCount;
+  }
+}
@@ -4,9 +4,18 @@ import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
-/** This class contains an implementation of the histogram with fixed interval buckets. */
+/**
+ * This class contains an implementation of the histogram with fixed interval buckets.
+ *
+ * <p>The counts of the buckets are kept in an array of longs, and the bounds of the buckets are
+ * computed from the bounds of the histogram, so counting a value is an array increment and merging
+ * two histograms with the same bounds is an array add. The bucket objects are only built when the
+ * buckets are returned.
+ *
+ * <p>A histogram isn't thread safe. Concurrent collectors each count into their own histogram, and
+ * the histograms are merged once the collection is done.
+ */
 public class FixedIntervalHistogramImpl implements Histogram {
 
   private final double low;
@@ -14,12 +23,7 @@ public class FixedIntervalHistogramImpl implements Histogram {
   private final int bucketCount;
 
   private final double bucketSize;
-  /**
-   * Once the histogram is initialized, the buckets can't be changed since we rely on insertion
-   * order of buckets for the findBucket function.
-   */
-  // TODO: Make the list immutable?
-  private final ArrayList<HistogramBucket> buckets;
+  private final long[] counts;
   // Count the number of elements in the histogram.
   private long count;
 
@@ -32,7 +36,7 @@ public class FixedIntervalHistogramImpl implements Histogram {
     this.bucketCount = bucketCount;
     this.count = 0;
     this.bucketSize = (high - low) / bucketCount;
-    this.buckets = makeHistogram(low, high, bucketCount);
+    this.counts = new long[bucketCount];
   }
 
   /** Make a histogram where the width of each bucket is (last-first)/bucketCount */
@@ -54,59 +58,116 @@ public class FixedIntervalHistogramImpl implements Histogram {
 
   @Override
   public void add(long value) {
+    add(getBucketIndex(value), 1);
+  }
+
+  /**
+   * Returns the index of the bucket the value is counted in. The index doesn't decrease as the
+   * value increases.
+   */
+  public int getBucketIndex(long value) {
     // The histogram contains inclusive ranges but the buckets don't. So, make an exception for
     // high value and count it towards the last bucket.
     if (value > high || value < low) {
       throw new IndexOutOfBoundsException();
     } else if (value == high) {
-      buckets.get(bucketCount - 1).increment(1);
+      return bucketCount - 1;
     } else if (value == low) {
-      buckets.get(0).increment(1);
+      return 0;
     } else {
-      int index = (int) Math.floor((value - low) / bucketSize);
-      buckets.get(index).increment(1);
+      return (int) Math.floor((value - low) / bucketSize);
     }
-    count++;
+  }
+
+  /** Adds a count of values to the bucket with the given index. */
+  public void add(int bucketIndex, long valueCount) {
+    counts[bucketIndex] += valueCount;
+    count += valueCount;
   }
 
   @Override
   public void mergeHistogram(List<HistogramBucket> mergeBuckets) {
     // In the current use case, all histograms are of the same size, so this case shouldn't happen
     // outside of tests.
-    if (mergeBuckets.size() > buckets.size()) {
+    if (mergeBuckets.size() > bucketCount) {
       throw new IllegalArgumentException(
           "The histogram being merged should be smaller than this histogram");
     }
 
     for (HistogramBucket mergeBucket : mergeBuckets) {
-      Optional<HistogramBucket> localBucket = findMatchingBucket(mergeBucket);
-      if (localBucket.isPresent()) {
-        double additionalCount = mergeBucket.getCount();
-        localBucket.get().increment(additionalCount);
-        count += additionalCount;
-      } else {
+      int bucketIndex = findMatchingBucket(mergeBucket);
+      if (bucketIndex < 0) {
         throw new IllegalArgumentException(
             "The input histogram buckets should match. No matching bucket found for: "
                 + mergeBucket.toString());
       }
+      long additionalCount = (long) mergeBucket.getCount();
+      counts[bucketIndex] += additionalCount;
+      count += additionalCount;
     }
   }
 
-  private Optional<HistogramBucket> findMatchingBucket(HistogramBucket matchingBucket) {
-    for (HistogramBucket bucket : buckets) {
-      if (bucket.getHigh() == matchingBucket.getHigh()
-          && bucket.getLow() == matchingBucket.getLow()) {
-        return Optional.of(bucket);
+  /**
+   * Merges a histogram into this one. The counts of a histogram with the same bounds are added
+   * array to array.
+   */
+  @Override
+  public void merge(Histogram histogram) {
+    if (histogram instanceof FixedIntervalHistogramImpl) {
+      FixedIntervalHistogramImpl other = (FixedIntervalHistogramImpl) histogram;
+      if (other.low == low && other.high == high && other.bucketCount == bucketCount) {
+        for (int i = 0; i < bucketCount; i++) {
+          counts[i] += other.counts[i];
+        }
+        count += other.count;
+        return;
       }
     }
-    return Optional.empty();
+    mergeHistogram(histogram.getBuckets());
+  }
+
+  // Returns the index of the bucket with the same bounds, or -1 if there's none.
+  private int findMatchingBucket(HistogramBucket matchingBucket) {
+    int bucketIndex = (int) Math.round((matchingBucket.getLow() - low) / bucketSize);
+    if (bucketIndex >= 0
+        && bucketIndex < bucketCount
+        && getBucketLow(bucketIndex) == matchingBucket.getLow()
+        && getBucketHigh(bucketIndex) == matchingBucket.getHigh()) {
+      return bucketIndex;
+    }
+    return -1;
+  }
+
+  private double getBucketLow(int bucketIndex) {
+    return low + (bucketSize * bucketIndex);
+  }
+
+  private double getBucketHigh(int bucketIndex) {
+    return bucketIndex == bucketCount - 1 ? high : low + (bucketSize * (bucketIndex + 1));
   }
 
   @Override
   public List<HistogramBucket> getBuckets() {
+    List<HistogramBucket> buckets = new ArrayList<>(bucketCount);
+    for (int i = 0; i < bucketCount; i++) {
+      buckets.add(new HistogramBucket(getBucketLow(i), getBucketHigh(i), counts[i]));
+    }
     return buckets;
   }
 
+  /** Returns the counts of the buckets. The array is the state of the histogram, not a copy. */
+  public long[] getCounts() {
+    return counts;
+  }
+
+  public double getLow() {
+    return low;
+  }
+
+  public double getHigh() {
+    return high;
+  }
+
   @Override
   public long count() {
     return count;
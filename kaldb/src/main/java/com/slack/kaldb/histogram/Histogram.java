@@ -11,6 +11,9 @@ public interface Histogram {
 
   void mergeHistogram(List<HistogramBucket> mergeBuckets);
 
+  /** Merge the counts of another histogram into this one. */
+  void merge(Histogram histogram);
+
   /** Get the histogram distribution. */
   List<HistogramBucket> getBuckets();
 
@@ -22,6 +22,11 @@ public class NoOpHistogramImpl implements Histogram {
     }
   }
 
+  @Override
+  public void merge(Histogram histogram) {
+    count += histogram.count();
+  }
+
   @Override
   public List<HistogramBucket> getBuckets() {
     return Collections.emptyList();
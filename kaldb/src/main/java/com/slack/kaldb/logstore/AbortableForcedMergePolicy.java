@@ -0,0 +1,64 @@
+package com.slack.kaldb.logstore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.FilterMergePolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+
+/**
+ * A merge policy that keeps track of the merges started by IndexWriter.forceMerge, so they can be
+ * aborted. IndexWriter only aborts merges when it's rolled back, so this policy lets us give up on
+ * a force merge that takes too long while keeping the index open.
+ *
+ * <p>Once aborted, the running merges stop at their next check and no new forced merges are
+ * started, so forceMerge returns without merging. The segments of the last commit are untouched.
+ * The merges found by the wrapped policy during indexing are never aborted.
+ */
+class AbortableForcedMergePolicy extends FilterMergePolicy {
+  private final List<OneMerge> forcedMerges = new ArrayList<>();
+  private boolean aborted = false;
+
+  AbortableForcedMergePolicy(MergePolicy in) {
+    super(in);
+  }
+
+  @Override
+  public synchronized MergeSpecification findForcedMerges(
+      SegmentInfos segmentInfos,
+      int maxSegmentCount,
+      Map<SegmentCommitInfo, Boolean> segmentsToMerge,
+      MergeContext mergeContext)
+      throws IOException {
+    if (aborted) {
+      return null;
+    }
+    MergeSpecification spec =
+        super.findForcedMerges(segmentInfos, maxSegmentCount, segmentsToMerge, mergeContext);
+    if (spec != null) {
+      forcedMerges.addAll(spec.merges);
+    }
+    return spec;
+  }
+
+  /** Clears the state of the previous force merge, before starting a new one. */
+  synchronized void reset() {
+    forcedMerges.clear();
+    aborted = false;
+  }
+
+  /** Aborts the pending and running forced merges and doesn't start new ones. */
+  synchronized void abort() {
+    aborted = true;
+    for (OneMerge merge : forcedMerges) {
+      merge.setAborted();
+    }
+  }
+
+  synchronized boolean isAborted() {
+    return aborted;
+  }
+}
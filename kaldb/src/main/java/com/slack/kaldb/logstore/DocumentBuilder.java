@@ -5,4 +5,26 @@ import org.apache.lucene.document.Document;
 
 public interface DocumentBuilder<T> {
   Document fromMessage(T message) throws IOException;
+
+  /**
+   * Build a document that may reuse the document and field instances of an earlier call with the
+   * same slot on the same thread. So, the returned document must be added to the index before this
+   * method is called again with the same slot on this thread. A batch of documents is built using a
+   * different slot for every document in the batch.
+   */
+  default Document fromMessage(T message, int slot) throws IOException {
+    return fromMessage(message);
+  }
+
+  /**
+   * Release the documents built in the first slotCount slots on this thread, once they were added
+   * to the index, so the reused instances don't hold on to the values of the indexed messages.
+   */
+  default void releaseDocuments(int slotCount) {}
+
+  /**
+   * Drop the reusable documents of all threads once no more documents are built with this builder,
+   * so the threads that built them don't keep them alive. Later calls build new documents.
+   */
+  default void releaseAllDocuments() {}
 }
@@ -0,0 +1,102 @@
+package com.slack.kaldb.logstore;
+
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FieldSchema is the registry of the dynamically mapped fields of a chunk. A field that doesn't
+ * have a property description is mapped by the type of the first value indexed for it: integral
+ * numbers are indexed as longs and floating point numbers as doubles, with points and doc values,
+ * short strings without whitespace as keywords and all other strings as analyzed text. Once a field
+ * is mapped, its type doesn't change for the life of the chunk.
+ *
+ * <p>A value that doesn't fit the type of its field, like a string in a long field, is a conflict.
+ * Conflicts are counted and the value is indexed as analyzed text, which is how all the unmapped
+ * fields were indexed before, so the value is still searchable.
+ *
+ * <p>The schema is read by the searcher of the chunk to build typed queries for the mapped fields
+ * and is published with the snapshot metadata of the chunk. To keep the snapshot metadata small,
+ * the number of mapped fields is limited and fields beyond the limit are indexed as text.
+ */
+public class FieldSchema {
+  public static final String DYNAMIC_FIELDS_MAPPED_COUNTER = "dynamic_fields_mapped";
+  public static final String DYNAMIC_FIELD_CONFLICTS_COUNTER = "dynamic_field_conflicts";
+
+  // Strings up to this length, without any whitespace, are mapped as keywords. Longer strings are
+  // likely to be free text and are analyzed, so they can be searched by the words in them.
+  static final int MAX_KEYWORD_LENGTH = 256;
+
+  static final int MAX_DYNAMIC_FIELDS = 1000;
+
+  private final Map<String, FieldType> fieldTypes = new ConcurrentHashMap<>();
+  private final Counter fieldsMappedCounter;
+  private final Counter conflictsCounter;
+
+  public FieldSchema(MeterRegistry meterRegistry) {
+    fieldsMappedCounter = meterRegistry.counter(DYNAMIC_FIELDS_MAPPED_COUNTER);
+    conflictsCounter = meterRegistry.counter(DYNAMIC_FIELD_CONFLICTS_COUNTER);
+  }
+
+  /** Returns the type a field would be mapped to by this value, or null if it can't be mapped. */
+  static FieldType typeOf(Object value) {
+    if (value instanceof String) {
+      return isKeyword((String) value) ? FieldType.KEYWORD : FieldType.TEXT;
+    }
+    if (value instanceof Integer || value instanceof Long) {
+      return FieldType.LONG;
+    }
+    if (value instanceof Float || value instanceof Double) {
+      return FieldType.DOUBLE;
+    }
+    return null;
+  }
+
+  static boolean isKeyword(String value) {
+    if (value.length() > MAX_KEYWORD_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (Character.isWhitespace(value.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the type of the field, mapping the field to the given type if it's not mapped yet.
+   * Returns null if the field is not mapped and the schema is full.
+   */
+  FieldType getOrMap(String fieldName, FieldType type) {
+    FieldType fieldType = fieldTypes.get(fieldName);
+    if (fieldType != null) {
+      return fieldType;
+    }
+    if (fieldTypes.size() >= MAX_DYNAMIC_FIELDS) {
+      return null;
+    }
+    fieldType = fieldTypes.putIfAbsent(LogDocumentBuilderImpl.internFieldName(fieldName), type);
+    if (fieldType == null) {
+      fieldsMappedCounter.increment();
+      return type;
+    }
+    return fieldType;
+  }
+
+  void recordConflict() {
+    conflictsCounter.increment();
+  }
+
+  public FieldType getFieldType(String fieldName) {
+    return fieldTypes.get(fieldName);
+  }
+
+  /** Returns a read only view of the field types, which includes the fields mapped later. */
+  public Map<String, FieldType> getFieldTypes() {
+    return Collections.unmodifiableMap(fieldTypes);
+  }
+}
@@ -0,0 +1,130 @@
+package com.slack.kaldb.logstore;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * An IdBloomFilter is a bloom filter over the values of the high cardinality id fields of a chunk,
+ * like the trace ids of its spans. It's built when a chunk is snapshotted and stored in a file next
+ * to the index files of the snapshot, so trace lookups can skip the snapshots that don't contain
+ * the trace.
+ */
+public class IdBloomFilter {
+  public static final String FILE_NAME = "id_filter.bloom";
+
+  public static final List<String> ID_FIELDS =
+      List.of(
+          LogMessage.ReservedField.TRACE_ID.fieldName,
+          LogMessage.SystemField.ID.fieldName,
+          LogMessage.ReservedField.PARENT_ID.fieldName);
+
+  private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  // The field name is hashed with the value, so the ids of the fields don't match each other.
+  private static final Funnel<FieldValue> FUNNEL =
+      (fieldValue, into) ->
+          into.putString(fieldValue.field, StandardCharsets.UTF_8)
+              .putByte((byte) 0)
+              .putString(fieldValue.value, StandardCharsets.UTF_8);
+
+  private final BloomFilter<FieldValue> bloomFilter;
+  private final long sizeBytes;
+
+  private IdBloomFilter(BloomFilter<FieldValue> bloomFilter, long sizeBytes) {
+    this.bloomFilter = bloomFilter;
+    this.sizeBytes = sizeBytes;
+  }
+
+  /** Builds a filter over the terms of the id fields in the index. */
+  public static IdBloomFilter build(IndexReader reader) throws IOException {
+    // The number of terms in every segment is an upper bound of the distinct values of the index.
+    long expectedValues = 0;
+    for (LeafReaderContext leaf : reader.leaves()) {
+      for (String field : ID_FIELDS) {
+        Terms terms = leaf.reader().terms(field);
+        if (terms != null) {
+          expectedValues += Math.max(0, terms.size());
+        }
+      }
+    }
+
+    BloomFilter<FieldValue> bloomFilter =
+        BloomFilter.create(FUNNEL, Math.max(1, expectedValues), FALSE_POSITIVE_PROBABILITY);
+    for (LeafReaderContext leaf : reader.leaves()) {
+      for (String field : ID_FIELDS) {
+        Terms terms = leaf.reader().terms(field);
+        if (terms == null) {
+          continue;
+        }
+        TermsEnum termsEnum = terms.iterator();
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+          bloomFilter.put(new FieldValue(field, term.utf8ToString()));
+        }
+      }
+    }
+    return new IdBloomFilter(bloomFilter, 0);
+  }
+
+  /** Returns false if no document has the value in the id field, true if one may have it. */
+  public boolean mightContain(String field, String value) {
+    return bloomFilter.mightContain(new FieldValue(field, value));
+  }
+
+  public boolean mightContainTrace(String traceId) {
+    return mightContain(LogMessage.ReservedField.TRACE_ID.fieldName, traceId);
+  }
+
+  /** The size of the filter when it was read from a file, or 0 if it was built in memory. */
+  public long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  /** Writes the filter to the FILE_NAME file in the directory. */
+  public Path writeTo(Path directory) throws IOException {
+    Path file = directory.resolve(FILE_NAME);
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+      bloomFilter.writeTo(out);
+    }
+    return file;
+  }
+
+  /** Reads the filter of a snapshot from its directory, or returns null if it has no filter. */
+  public static IdBloomFilter readFrom(Path directory) throws IOException {
+    Path file = directory.resolve(FILE_NAME);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (InputStream in = Files.newInputStream(file)) {
+      return readFrom(in, Files.size(file));
+    }
+  }
+
+  public static IdBloomFilter readFrom(InputStream in, long sizeBytes) throws IOException {
+    return new IdBloomFilter(BloomFilter.readFrom(new BufferedInputStream(in), FUNNEL), sizeBytes);
+  }
+
+  private static class FieldValue {
+    private final String field;
+    private final String value;
+
+    private FieldValue(String field, String value) {
+      this.field = field;
+      this.value = value;
+    }
+  }
+}
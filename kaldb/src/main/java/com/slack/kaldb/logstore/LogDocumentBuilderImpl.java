@@ -1,21 +1,25 @@
 package com.slack.kaldb.logstore;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.collect.ImmutableMap;
-import com.slack.kaldb.util.JsonUtil;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.slack.kaldb.logstore.ReusableDocument.FieldKind;
+import com.slack.kaldb.logstore.analysis.LogLineAnalyzer;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.DoubleDocValuesField;
-import org.apache.lucene.document.DoublePoint;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.FloatDocValuesField;
-import org.apache.lucene.document.FloatPoint;
-import org.apache.lucene.document.IntPoint;
-import org.apache.lucene.document.LongPoint;
-import org.apache.lucene.document.NumericDocValuesField;
-import org.apache.lucene.document.StoredField;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +29,14 @@ import org.slf4j.LoggerFactory;
  * JSON and a field specific override. In addition, we always add the "all" system field with the
  * entire json field "unindexed".
  *
+ * <p>Since a document is built for every indexed message, the builder can reuse a per thread
+ * document and its field instances for the next message, instead of allocating new ones. The type
+ * of lucene fields for a property are also computed once per property description.
+ *
+ * <p>When the builder is created with a FieldSchema, the properties without a property description
+ * are mapped dynamically by the type of the first value seen for them, instead of being indexed as
+ * text using the default description. See FieldSchema for the mapping rules.
+ *
  * <p>TODO: Add a benchmark for the _all field to understand the cpu and storage overhead better.
  */
 public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
@@ -49,6 +61,7 @@ public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
     final boolean isIndexed;
     final boolean isAnalyzed;
     final boolean storeNumericDocValue;
+    final boolean storeKeywordDocValue;
 
     PropertyDescription(
         PropertyType propertyType, boolean isStored, boolean isIndexed, boolean isAnalyzed) {
@@ -61,6 +74,16 @@ public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
         boolean isIndexed,
         boolean isAnalyzed,
         boolean storeNumericDocValue) {
+      this(propertyType, isStored, isIndexed, isAnalyzed, storeNumericDocValue, false);
+    }
+
+    PropertyDescription(
+        PropertyType propertyType,
+        boolean isStored,
+        boolean isIndexed,
+        boolean isAnalyzed,
+        boolean storeNumericDocValue,
+        boolean storeKeywordDocValue) {
       if (isAnalyzed && !isIndexed) {
         throw new InvalidPropertyDescriptionException(
             "Cannot set isAnalyzed without setting isIndexed");
@@ -72,15 +95,51 @@ public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
             "Only text and any types can have isAnalyzed set");
       }
 
+      if (storeKeywordDocValue
+          && !(propertyType.equals(PropertyType.TEXT) && isIndexed && !isAnalyzed)) {
+        throw new InvalidPropertyDescriptionException(
+            "Only text indexed without being analyzed can have storeKeywordDocValue set");
+      }
+
       this.propertyType = propertyType;
       this.isStored = isStored;
       this.isIndexed = isIndexed;
       this.isAnalyzed = isAnalyzed;
       this.storeNumericDocValue = storeNumericDocValue;
+      this.storeKeywordDocValue = storeKeywordDocValue;
     }
   }
 
-  public static DocumentBuilder<LogMessage> build(boolean ignoreExceptions) {
+  public static LogDocumentBuilderImpl build(boolean ignoreExceptions) {
+    return build(ignoreExceptions, StoredSource.DEFAULT_FORMAT, null);
+  }
+
+  public static LogDocumentBuilderImpl build(
+      boolean ignoreExceptions, StoredSource.Format sourceFormat) {
+    return build(ignoreExceptions, sourceFormat, null);
+  }
+
+  /** Build a document builder that maps the fields without a description into the schema. */
+  public static LogDocumentBuilderImpl build(boolean ignoreExceptions, FieldSchema schema) {
+    return build(ignoreExceptions, StoredSource.DEFAULT_FORMAT, schema);
+  }
+
+  private static LogDocumentBuilderImpl build(
+      boolean ignoreExceptions, StoredSource.Format sourceFormat, FieldSchema schema) {
+    return new LogDocumentBuilderImpl(
+        ignoreExceptions, PROPERTY_DESCRIPTIONS, DEFAULT_DESCRIPTION, sourceFormat, schema);
+  }
+
+  // Identifiers, like ids and host names, are indexed without being analyzed, so they can be looked
+  // up with a single term query. The low cardinality ones, like host and service names, also have
+  // doc values, so their terms can be counted by a terms aggregation.
+  private static final Map<String, PropertyDescription> PROPERTY_DESCRIPTIONS =
+      buildPropertyDescriptions();
+
+  private static final PropertyDescription DEFAULT_DESCRIPTION =
+      new PropertyDescription(PropertyType.ANY, false, true, true);
+
+  private static Map<String, PropertyDescription> buildPropertyDescriptions() {
     ImmutableMap.Builder<String, PropertyDescription> propertyDescriptionBuilder =
         ImmutableMap.builder();
     propertyDescriptionBuilder.put(
@@ -88,10 +147,10 @@ public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
         new PropertyDescription(PropertyType.TEXT, true, false, false));
     propertyDescriptionBuilder.put(
         LogMessage.SystemField.ID.fieldName,
-        new PropertyDescription(PropertyType.TEXT, false, true, true));
+        new PropertyDescription(PropertyType.TEXT, false, true, false));
     propertyDescriptionBuilder.put(
         LogMessage.SystemField.INDEX.fieldName,
-        new PropertyDescription(PropertyType.TEXT, false, true, true));
+        new PropertyDescription(PropertyType.TEXT, false, true, false));
     propertyDescriptionBuilder.put(
         LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName,
         new PropertyDescription(PropertyType.LONG, false, true, false, true));
@@ -101,7 +160,7 @@ public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
 
     propertyDescriptionBuilder.put(
         LogMessage.ReservedField.HOSTNAME.fieldName,
-        new PropertyDescription(PropertyType.TEXT, false, true, true));
+        new PropertyDescription(PropertyType.TEXT, false, true, false, false, true));
     propertyDescriptionBuilder.put(
         LogMessage.ReservedField.PACKAGE.fieldName,
         new PropertyDescription(PropertyType.TEXT, false, true, true));
@@ -122,193 +181,420 @@ public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
         new PropertyDescription(PropertyType.TEXT, false, false, false));
     propertyDescriptionBuilder.put(
         LogMessage.ReservedField.NAME.fieldName,
-        new PropertyDescription(PropertyType.TEXT, false, true, false));
+        new PropertyDescription(PropertyType.TEXT, false, true, false, false, true));
     propertyDescriptionBuilder.put(
         LogMessage.ReservedField.SERVICE_NAME.fieldName,
-        new PropertyDescription(PropertyType.TEXT, false, true, false));
+        new PropertyDescription(PropertyType.TEXT, false, true, false, false, true));
     propertyDescriptionBuilder.put(
         LogMessage.ReservedField.DURATION_MS.fieldName,
-        new PropertyDescription(PropertyType.LONG, false, true, false));
+        new PropertyDescription(PropertyType.LONG, false, true, false, true));
     propertyDescriptionBuilder.put(
         LogMessage.ReservedField.TRACE_ID.fieldName,
         new PropertyDescription(PropertyType.TEXT, false, true, false));
     propertyDescriptionBuilder.put(
         LogMessage.ReservedField.PARENT_ID.fieldName,
         new PropertyDescription(PropertyType.TEXT, false, true, false));
+    return propertyDescriptionBuilder.build();
+  }
 
-    PropertyDescription defaultDescription =
-        new PropertyDescription(PropertyType.ANY, false, true, true);
-    return new LogDocumentBuilderImpl(
-        ignoreExceptions, propertyDescriptionBuilder.build(), defaultDescription);
+  // The version of the analyzers that are built by buildAnalyzer(). The version is kept in the
+  // metadata of the snapshots, so the queries of a snapshot are parsed with the analyzers it was
+  // indexed with. Increment it when a change of the analyzers changes the terms of a field.
+  public static final int ANALYZER_VERSION = 1;
+  // The version of the snapshots indexed with the standard analyzer for all the fields.
+  public static final int STANDARD_ANALYZER_VERSION = 0;
+
+  /** Returns the analyzer the documents of the given version of the analyzers are indexed with. */
+  public static Analyzer buildAnalyzer(int analyzerVersion) {
+    if (analyzerVersion == STANDARD_ANALYZER_VERSION) {
+      return new StandardAnalyzer();
+    }
+    return buildAnalyzer();
   }
 
+  /**
+   * Returns the analyzer for the fields of the documents, which must be used both to index the
+   * documents and to parse the queries on them. The text fields that are indexed without being
+   * analyzed use a keyword analyzer, so a query for an id is parsed into a single term. The message
+   * field uses the LogLineAnalyzer and all the other fields use the standard analyzer.
+   */
+  public static Analyzer buildAnalyzer() {
+    Analyzer keywordAnalyzer = new KeywordAnalyzer();
+    Map<String, Analyzer> fieldAnalyzers = new HashMap<>();
+    PROPERTY_DESCRIPTIONS.forEach(
+        (name, description) -> {
+          if (description.propertyType == PropertyType.TEXT
+              && description.isIndexed
+              && !description.isAnalyzed) {
+            fieldAnalyzers.put(name, keywordAnalyzer);
+          }
+        });
+    fieldAnalyzers.put(LogMessage.ReservedField.MESSAGE.fieldName, new LogLineAnalyzer());
+    return new PerFieldAnalyzerWrapper(new StandardAnalyzer(), fieldAnalyzers);
+  }
+
+  /**
+   * The fields a property is indexed with, derived once from the property's PropertyDescription.
+   * This avoids comparing the description properties for every value that is added.
+   */
+  private static final class PropertyHandler {
+    final PropertyType propertyType;
+    final boolean storeNumericDocValue;
+    // The field used for string values, null if string values are neither indexed nor stored.
+    final FieldKind stringKind;
+    // The doc values field added for string values, null if they don't have doc values.
+    final FieldKind stringDocValuesKind;
+    // The fields used for numeric values of the property type.
+    final FieldKind[] numericKinds;
+
+    PropertyHandler(PropertyDescription description) {
+      this.propertyType = description.propertyType;
+      this.storeNumericDocValue = description.storeNumericDocValue;
+      if (description.isIndexed) {
+        if (description.isAnalyzed) {
+          this.stringKind = description.isStored ? FieldKind.STORED_TEXT : FieldKind.TEXT;
+        } else {
+          this.stringKind = description.isStored ? FieldKind.STORED_STRING : FieldKind.STRING;
+        }
+      } else {
+        this.stringKind = description.isStored ? FieldKind.STORED_ONLY_STRING : null;
+      }
+      this.stringDocValuesKind =
+          description.storeKeywordDocValue ? FieldKind.KEYWORD_DOC_VALUES : null;
+      this.numericKinds = numericKinds(description);
+    }
+
+    private static FieldKind[] numericKinds(PropertyDescription description) {
+      FieldKind point;
+      FieldKind stored;
+      FieldKind docValues;
+      switch (description.propertyType) {
+        case INTEGER:
+          point = FieldKind.INT_POINT;
+          stored = FieldKind.STORED_INT;
+          docValues = FieldKind.INT_DOC_VALUES;
+          break;
+        case LONG:
+          point = FieldKind.LONG_POINT;
+          stored = FieldKind.STORED_LONG;
+          docValues = FieldKind.LONG_DOC_VALUES;
+          break;
+        case FLOAT:
+          point = FieldKind.FLOAT_POINT;
+          stored = FieldKind.STORED_FLOAT;
+          docValues = FieldKind.FLOAT_DOC_VALUES;
+          break;
+        case DOUBLE:
+          point = FieldKind.DOUBLE_POINT;
+          stored = FieldKind.STORED_DOUBLE;
+          docValues = FieldKind.DOUBLE_DOC_VALUES;
+          break;
+        default:
+          return new FieldKind[0];
+      }
+
+      List<FieldKind> kinds = new ArrayList<>(3);
+      // TODO: Add a test to ensure IntPoint works as well as IntField.
+      if (description.isIndexed) {
+        kinds.add(point);
+      }
+      if (description.isStored) {
+        kinds.add(stored);
+      }
+      if (description.storeNumericDocValue) {
+        kinds.add(docValues);
+      }
+      return kinds.toArray(new FieldKind[0]);
+    }
+  }
+
+  // Field names are interned, so the keys of every message don't create new copies of the names in
+  // the fields and the field pools.
+  private static final Interner<String> FIELD_NAMES = Interners.newWeakInterner();
+
+  static String internFieldName(String name) {
+    return FIELD_NAMES.intern(name);
+  }
+
+  // Limits the number of reusable documents per thread, which is the largest batch of documents
+  // that can be built with reused fields.
+  private static final int MAX_REUSABLE_DOCUMENTS = 4096;
+
   private final boolean ignorePropertyTypeExceptions;
   private final PropertyDescription defaultDescription;
   private final Map<String, PropertyDescription> propertyDescriptions;
+  private final StoredSource.Format sourceFormat;
+  // Null if the properties without a description are indexed using the default description.
+  private final FieldSchema schema;
+  private final PropertyHandler defaultHandler;
+  private final Map<String, PropertyHandler> propertyHandlers;
+  // The reusable documents of every thread that built documents with this builder, so they can
+  // be dropped from any thread once the builder is no longer used.
+  private final Set<AtomicReference<List<ReusableDocument>>> threadDocuments =
+      ConcurrentHashMap.newKeySet();
+  private final ThreadLocal<AtomicReference<List<ReusableDocument>>> reusableDocuments =
+      ThreadLocal.withInitial(this::newThreadDocuments);
+  private volatile boolean documentsReleased = false;
 
   public LogDocumentBuilderImpl(
       boolean ignorePropertyTypeExceptions,
       Map<String, PropertyDescription> propertyDescriptions,
       PropertyDescription defaultDescription) {
+    this(
+        ignorePropertyTypeExceptions,
+        propertyDescriptions,
+        defaultDescription,
+        StoredSource.DEFAULT_FORMAT);
+  }
+
+  public LogDocumentBuilderImpl(
+      boolean ignorePropertyTypeExceptions,
+      Map<String, PropertyDescription> propertyDescriptions,
+      PropertyDescription defaultDescription,
+      StoredSource.Format sourceFormat) {
+    this(
+        ignorePropertyTypeExceptions, propertyDescriptions, defaultDescription, sourceFormat, null);
+  }
+
+  public LogDocumentBuilderImpl(
+      boolean ignorePropertyTypeExceptions,
+      Map<String, PropertyDescription> propertyDescriptions,
+      PropertyDescription defaultDescription,
+      StoredSource.Format sourceFormat,
+      FieldSchema schema) {
     this.ignorePropertyTypeExceptions = ignorePropertyTypeExceptions;
     this.propertyDescriptions = propertyDescriptions;
     this.defaultDescription = defaultDescription;
+    this.sourceFormat = sourceFormat;
+    this.schema = schema;
+    this.defaultHandler = new PropertyHandler(defaultDescription);
+    this.propertyHandlers = new HashMap<>();
+    propertyDescriptions.forEach(
+        (name, description) -> propertyHandlers.put(name, new PropertyHandler(description)));
   }
 
-  private PropertyDescription getDescription(String propertyName) {
-    return propertyDescriptions.getOrDefault(propertyName, defaultDescription);
+  StoredSource.Format getSourceFormat() {
+    return sourceFormat;
   }
 
-  private Field.Store getStoreEnum(boolean isStored) {
-    return isStored ? Field.Store.YES : Field.Store.NO;
+  /**
+   * Add the _source field. The value is a String for the json format and a BytesRef for the binary
+   * formats, as returned by StoredSource.
+   */
+  void addSource(Document doc, Object value, ReusableDocument reusable) {
+    if (value instanceof BytesRef) {
+      addField(
+          doc, FieldKind.STORED_BYTES, LogMessage.SystemField.SOURCE.fieldName, value, reusable);
+    } else {
+      addProperty(doc, LogMessage.SystemField.SOURCE.fieldName, value, reusable);
+    }
+  }
+
+  /**
+   * Returns the reusable document for the slot on the calling thread, cleared for a new message. A
+   * document built in a slot must be added to the index before the slot is used again on the same
+   * thread. Returns null if the slot is beyond the number of reusable documents per thread.
+   */
+  ReusableDocument reusableDocument(int slot) {
+    if (slot < 0 || slot >= MAX_REUSABLE_DOCUMENTS || documentsReleased) {
+      return null;
+    }
+    AtomicReference<List<ReusableDocument>> threadDocuments = reusableDocuments.get();
+    List<ReusableDocument> documents = threadDocuments.get();
+    if (documents == null) {
+      documents = new ArrayList<>();
+      threadDocuments.set(documents);
+    }
+    while (documents.size() <= slot) {
+      documents.add(new ReusableDocument());
+    }
+    ReusableDocument document = documents.get(slot);
+    document.reset();
+    return document;
+  }
+
+  /**
+   * Releases the documents of the first slotCount slots and drops the documents beyond them, so a
+   * thread only keeps as many documents as the last batch it built.
+   */
+  @Override
+  public void releaseDocuments(int slotCount) {
+    AtomicReference<List<ReusableDocument>> threadDocuments = reusableDocuments.get();
+    List<ReusableDocument> documents = threadDocuments.get();
+    if (documents != null) {
+      int retained = Math.max(0, Math.min(slotCount, documents.size()));
+      for (int slot = 0; slot < retained; slot++) {
+        documents.get(slot).release();
+      }
+      documents.subList(retained, documents.size()).clear();
+    }
+    if (documentsReleased) {
+      // A batch that was being built while all the documents were released.
+      threadDocuments.set(null);
+      this.threadDocuments.remove(threadDocuments);
+      reusableDocuments.remove();
+    }
+  }
+
+  @Override
+  public void releaseAllDocuments() {
+    documentsReleased = true;
+    for (AtomicReference<List<ReusableDocument>> documents : threadDocuments) {
+      documents.set(null);
+    }
+    threadDocuments.clear();
+  }
+
+  // The number of reusable documents the calling thread keeps.
+  int retainedDocuments() {
+    List<ReusableDocument> documents = reusableDocuments.get().get();
+    return documents == null ? 0 : documents.size();
+  }
+
+  private AtomicReference<List<ReusableDocument>> newThreadDocuments() {
+    AtomicReference<List<ReusableDocument>> documents = new AtomicReference<>();
+    threadDocuments.add(documents);
+    return documents;
+  }
+
+  private static void addField(
+      Document doc, FieldKind kind, String name, Object value, ReusableDocument reusable) {
+    doc.add(
+        reusable == null
+            ? kind.create(internFieldName(name), value)
+            : reusable.field(kind, name, value));
   }
 
   private void addStringProperty(
-      Document doc, String name, String value, PropertyDescription description) {
-    if (description.isIndexed) {
-      if (description.isAnalyzed) {
-        doc.add(new TextField(name, value, getStoreEnum(description.isStored)));
-      } else {
-        doc.add(new StringField(name, value, getStoreEnum(description.isStored)));
+      Document doc, String name, String value, PropertyHandler handler, ReusableDocument reusable) {
+    if (handler.stringKind != null) {
+      addField(doc, handler.stringKind, name, value, reusable);
+    }
+    if (handler.stringDocValuesKind != null) {
+      addField(doc, handler.stringDocValuesKind, name, value, reusable);
+    }
+  }
+
+  private void addNumericProperty(
+      Document doc,
+      String name,
+      Object value,
+      PropertyType valueType,
+      String mismatchMessage,
+      PropertyHandler handler,
+      ReusableDocument reusable) {
+    if (handler.propertyType == valueType) {
+      for (FieldKind kind : handler.numericKinds) {
+        addField(doc, kind, name, value, reusable);
       }
+    } else if (handler.propertyType == PropertyType.ANY) {
+      // Treat numbers as strings in this case since LuceneQueryParser doesn't understand numeric
+      // types.
+      addStringProperty(doc, name, String.valueOf(value), handler, reusable);
     } else {
-      if (description.isStored) {
-        doc.add(new StoredField(name, value));
-      }
+      throw new PropertyTypeMismatchException(String.format(mismatchMessage, name));
     }
   }
 
-  @SuppressWarnings("unchecked")
   public void addProperty(Document doc, String name, Object value) {
-    PropertyDescription desc = getDescription(name);
+    addProperty(doc, name, value, null);
+  }
+
+  /**
+   * Add a property to the document. If reusable is not null, the fields are taken from its pool
+   * instead of being allocated.
+   */
+  @SuppressWarnings("unchecked")
+  void addProperty(Document doc, String name, Object value, ReusableDocument reusable) {
+    PropertyHandler handler = propertyHandlers.get(name);
+    if (handler == null) {
+      if (schema != null && addDynamicProperty(doc, name, value, reusable)) {
+        return;
+      }
+      handler = defaultHandler;
+    }
 
     // Match string
     if (value instanceof String) {
-      if (!(desc.propertyType.equals(PropertyType.ANY)
-          || desc.propertyType.equals(PropertyType.TEXT))) {
+      if (!(handler.propertyType == PropertyType.ANY
+          || handler.propertyType == PropertyType.TEXT)) {
         throw new PropertyTypeMismatchException(
             String.format("Found string but property %s was not configured as TextProperty", name));
       }
-      if (desc.storeNumericDocValue) {
+      if (handler.storeNumericDocValue) {
         throw new PropertyTypeMismatchException(
             String.format(
                 "Found string but property %s was configured with storeNumericDocValue=true.",
                 name));
       }
-      addStringProperty(doc, name, (String) value, desc);
+      addStringProperty(doc, name, (String) value, handler, reusable);
       return;
     }
 
     // Match int
     if (value instanceof Integer) {
-      int intValue = (Integer) value;
-      if (desc.propertyType.equals(PropertyType.INTEGER)) {
-        // TODO: Add a test to ensure IntPoint works as well as IntField.
-        // TODO: GetStoreEnum field is missing as a param.
-        if (desc.isIndexed) {
-          doc.add(new IntPoint(name, intValue));
-        }
-        if (desc.isStored) {
-          doc.add(new StoredField(name, intValue));
-        }
-        if (desc.storeNumericDocValue) {
-          doc.add(new NumericDocValuesField(name, intValue));
-        }
-      } else if (desc.propertyType.equals(PropertyType.ANY)) {
-        // Treat integers as a string in this case because Lucene QueryParser doesn't numeric types
-        addStringProperty(doc, name, String.valueOf(intValue), desc);
-      } else {
-        throw new PropertyTypeMismatchException(
-            String.format(
-                "Found int but property %s was not configured to be an int property.", name));
-      }
+      addNumericProperty(
+          doc,
+          name,
+          value,
+          PropertyType.INTEGER,
+          "Found int but property %s was not configured to be an int property.",
+          handler,
+          reusable);
       return;
     }
 
     // Match long
     if (value instanceof Long) {
-      long longValue = (Long) value;
-      if (desc.propertyType.equals(PropertyType.LONG)) {
-        if (desc.isIndexed) {
-          doc.add(new LongPoint(name, longValue));
-        }
-        if (desc.isStored) {
-          doc.add(new StoredField(name, longValue));
-        }
-        if (desc.storeNumericDocValue) {
-          doc.add(new NumericDocValuesField(name, longValue));
-        }
-      } else if (desc.propertyType.equals(PropertyType.ANY)) {
-        // Treat longs as strings in this case since LuceneQueryParser doesn't understand numeric
-        // types.
-        addStringProperty(doc, name, String.valueOf(longValue), desc);
-      } else {
-        throw new PropertyTypeMismatchException(
-            String.format("Found long but property %s was not configured to be a Long.", name));
-      }
+      addNumericProperty(
+          doc,
+          name,
+          value,
+          PropertyType.LONG,
+          "Found long but property %s was not configured to be a Long.",
+          handler,
+          reusable);
       return;
     }
 
     // Match float
     if (value instanceof Float) {
-      float floatValue = (Float) value;
-      if (desc.propertyType.equals(PropertyType.FLOAT)) {
-        if (desc.isIndexed) {
-          doc.add(new FloatPoint(name, floatValue));
-        }
-        if (desc.isStored) {
-          doc.add(new StoredField(name, floatValue));
-        }
-        if (desc.storeNumericDocValue) {
-          doc.add(new FloatDocValuesField(name, floatValue));
-        }
-      } else if (desc.propertyType.equals(PropertyType.ANY)) {
-        // Treat floats as strings in this case since LuceneQueryParser doesn't understand numeric
-        // types.
-        addStringProperty(doc, name, String.valueOf(floatValue), desc);
-      } else {
-        throw new PropertyTypeMismatchException(
-            String.format("Found float but property %s was not configured to be a Float.", name));
-      }
+      addNumericProperty(
+          doc,
+          name,
+          value,
+          PropertyType.FLOAT,
+          "Found float but property %s was not configured to be a Float.",
+          handler,
+          reusable);
       return;
     }
 
     // Match double
     if (value instanceof Double) {
-      double doubleValue = (Double) value;
-      if (desc.propertyType.equals(PropertyType.DOUBLE)) {
-        if (desc.isIndexed) {
-          doc.add(new DoublePoint(name, doubleValue));
-        }
-        if (desc.isStored) {
-          doc.add(new StoredField(name, doubleValue));
-        }
-        if (desc.storeNumericDocValue) {
-          doc.add(new DoubleDocValuesField(name, doubleValue));
-        }
-      } else if (desc.propertyType.equals(PropertyType.ANY)) {
-        // Treat doubles  as strings in this case since LuceneQueryParser doesn't understand numeric
-        // types.
-        addStringProperty(doc, name, String.valueOf(doubleValue), desc);
-      } else {
-        throw new PropertyTypeMismatchException(
-            String.format("Found double but property %s was not configured to be a Double.", name));
-      }
+      addNumericProperty(
+          doc,
+          name,
+          value,
+          PropertyType.DOUBLE,
+          "Found double but property %s was not configured to be a Double.",
+          handler,
+          reusable);
       return;
     }
 
     // Match boolean
     if (value instanceof Boolean) {
-      addProperty(doc, name, String.valueOf((boolean) value));
+      addProperty(doc, name, String.valueOf((boolean) value), reusable);
       return;
     }
 
     // Add a map of properties at once.
     if (value instanceof Map) {
       Map<Object, Object> mapValue = (Map<Object, Object>) value;
-      for (Object k : mapValue.keySet()) {
-        if (k instanceof String) {
-          addPropertyHandleExceptions(doc, (String) k, mapValue.get(k));
+      for (Map.Entry<Object, Object> entry : mapValue.entrySet()) {
+        if (entry.getKey() instanceof String) {
+          addPropertyHandleExceptions(doc, (String) entry.getKey(), entry.getValue(), reusable);
         } else {
           throw new PropertyTypeMismatchException(
               String.format(
@@ -323,9 +609,63 @@ public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
         String.format("Property %s, %s has unsupported type.", name, value));
   }
 
-  private void addPropertyHandleExceptions(Document doc, String name, Object value) {
+  /**
+   * Add a property without a description using the type of its field in the schema. Returns false
+   * if the value can't be mapped, in which case it's added using the default description.
+   */
+  private boolean addDynamicProperty(
+      Document doc, String name, Object value, ReusableDocument reusable) {
+    FieldType valueType = FieldSchema.typeOf(value);
+    if (valueType == null) {
+      return false;
+    }
+    FieldType fieldType = schema.getOrMap(name, valueType);
+    if (fieldType == null) {
+      return false;
+    }
+
+    switch (fieldType) {
+      case KEYWORD:
+        // A long or free text value, like a sentence, doesn't fit a keyword field.
+        String keyword = String.valueOf(value);
+        if (FieldSchema.isKeyword(keyword)) {
+          addField(doc, FieldKind.STRING, name, keyword, reusable);
+          addField(doc, FieldKind.KEYWORD_DOC_VALUES, name, keyword, reusable);
+          return true;
+        }
+        break;
+      case LONG:
+        if (valueType == FieldType.LONG) {
+          long longValue = ((Number) value).longValue();
+          addField(doc, FieldKind.LONG_POINT, name, longValue, reusable);
+          addField(doc, FieldKind.SORTED_LONG_DOC_VALUES, name, longValue, reusable);
+          return true;
+        }
+        break;
+      case DOUBLE:
+        if (value instanceof Number) {
+          double doubleValue = ((Number) value).doubleValue();
+          addField(doc, FieldKind.DOUBLE_POINT, name, doubleValue, reusable);
+          addField(doc, FieldKind.SORTED_DOUBLE_DOC_VALUES, name, doubleValue, reusable);
+          return true;
+        }
+        break;
+      default:
+        // A text field accepts any value, like a field indexed with the default description.
+        addField(doc, FieldKind.TEXT, name, String.valueOf(value), reusable);
+        return true;
+    }
+
+    // The value doesn't fit the type of the field, index it as text so it's still searchable.
+    schema.recordConflict();
+    addField(doc, FieldKind.TEXT, name, String.valueOf(value), reusable);
+    return true;
+  }
+
+  void addPropertyHandleExceptions(
+      Document doc, String name, Object value, ReusableDocument reusable) {
     try {
-      addProperty(doc, name, value);
+      addProperty(doc, name, value, reusable);
     } catch (UnSupportedPropertyTypeException u) {
       if (ignorePropertyTypeExceptions) {
         LOG.debug(u.toString());
@@ -354,19 +694,36 @@ public class LogDocumentBuilderImpl implements DocumentBuilder<LogMessage> {
   }
 
   @Override
-  public Document fromMessage(LogMessage message) throws JsonProcessingException {
-    Document doc = new Document();
-    addProperty(doc, LogMessage.SystemField.INDEX.fieldName, message.getIndex());
-    addProperty(
-        doc, LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName, message.timeSinceEpochMilli);
-    addProperty(doc, LogMessage.SystemField.TYPE.fieldName, message.getType());
-    addProperty(doc, LogMessage.SystemField.ID.fieldName, message.id);
+  public Document fromMessage(LogMessage message) throws IOException {
+    return fromMessage(message, new Document(), null);
+  }
+
+  /**
+   * Build the document reusing the document and field instances of the slot on the calling thread.
+   * See reusableDocument for when the returned document can be used.
+   */
+  @Override
+  public Document fromMessage(LogMessage message, int slot) throws IOException {
+    ReusableDocument reusable = reusableDocument(slot);
+    if (reusable == null) {
+      return fromMessage(message);
+    }
+    return fromMessage(message, reusable.getDocument(), reusable);
+  }
+
+  private Document fromMessage(LogMessage message, Document doc, ReusableDocument reusable)
+      throws IOException {
+    addProperty(doc, LogMessage.SystemField.INDEX.fieldName, message.getIndex(), reusable);
     addProperty(
         doc,
-        LogMessage.SystemField.SOURCE.fieldName,
-        JsonUtil.<LogWireMessage>writeAsString(message.toWireMessage()));
-    for (String key : message.source.keySet()) {
-      addPropertyHandleExceptions(doc, key, message.source.get(key));
+        LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName,
+        message.timeSinceEpochMilli,
+        reusable);
+    addProperty(doc, LogMessage.SystemField.TYPE.fieldName, message.getType(), reusable);
+    addProperty(doc, LogMessage.SystemField.ID.fieldName, message.id, reusable);
+    addSource(doc, StoredSource.encode(message.toWireMessage(), sourceFormat), reusable);
+    for (Map.Entry<String, Object> entry : message.source.entrySet()) {
+      addPropertyHandleExceptions(doc, entry.getKey(), entry.getValue(), reusable);
     }
     return doc;
   }
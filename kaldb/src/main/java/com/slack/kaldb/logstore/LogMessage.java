@@ -2,11 +2,13 @@ package com.slack.kaldb.logstore;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
+import com.slack.kaldb.util.TimestampParser;
 import java.time.*;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,7 +25,12 @@ public class LogMessage extends LogWireMessage {
 
   public static final ZoneOffset DEFAULT_TIME_ZONE = ZoneOffset.UTC;
 
-  static final Pattern INDEX_NAME_PATTERN = Pattern.compile("^[a-zA-Z][a-zA-Z0-9_./:]*$");
+  public static final Pattern INDEX_NAME_PATTERN = Pattern.compile("^[a-zA-Z][a-zA-Z0-9_./:]*$");
+
+  // Every message is validated, but there are only a few distinct index names. So, the results of
+  // the validation are cached. The cache is bounded so bad input can't grow it without limit.
+  static final int MAX_CACHED_INDEX_NAMES = 10_000;
+  private static final Map<String, Boolean> indexNameValidity = new ConcurrentHashMap<>();
 
   public enum SystemField {
     // The source field contains the input document.
@@ -89,6 +96,17 @@ public class LogMessage extends LogWireMessage {
     return indexName.replace("-", "_");
   }
 
+  public static boolean isValidIndexName(String indexName) {
+    Boolean valid = indexNameValidity.get(indexName);
+    if (valid == null) {
+      valid = INDEX_NAME_PATTERN.matcher(indexName).matches();
+      if (indexNameValidity.size() < MAX_CACHED_INDEX_NAMES) {
+        indexNameValidity.put(indexName, valid);
+      }
+    }
+    return valid;
+  }
+
   public static Optional<LogMessage> fromJSON(String jsonStr) {
     Optional<LogWireMessage> optionalWireMsg = LogWireMessage.fromJson(jsonStr);
     if (optionalWireMsg.isPresent()) {
@@ -110,7 +128,7 @@ public class LogMessage extends LogWireMessage {
         && getType() != null
         && id != null
         && source != null
-        && INDEX_NAME_PATTERN.matcher(getIndex()).matches());
+        && isValidIndexName(getIndex()));
   }
 
   private BadMessageFormatException raiseException(Throwable t) {
@@ -132,6 +150,24 @@ public class LogMessage extends LogWireMessage {
     this.timeSinceEpochMilli = getMillisecondsSinceEpoch();
   }
 
+  /**
+   * Create a message whose timestamp is already known, like a message read from the index. The
+   * timestamp is not read from the source, so the source can be decoded lazily.
+   */
+  public LogMessage(
+      String index,
+      String type,
+      String messageId,
+      Map<String, Object> source,
+      long timeSinceEpochMilli) {
+    super(index, type, messageId, source);
+    if (!isValid()) {
+      throw new BadMessageFormatException(
+          String.format("Index:%s, Type: %s, Id: %s".format(index, type, id)));
+    }
+    this.timeSinceEpochMilli = timeSinceEpochMilli;
+  }
+
   public Long getMillisecondsSinceEpoch() {
     String s = (String) source.get(ReservedField.TIMESTAMP.fieldName);
     if (s != null) {
@@ -145,7 +181,7 @@ public class LogMessage extends LogWireMessage {
   }
 
   private Long getTime(String dateStr) {
-    return Instant.parse(dateStr).toEpochMilli();
+    return TimestampParser.parseEpochMillis(dateStr);
   }
 
   public void addProperty(String key, Object value) {
@@ -172,6 +208,6 @@ public class LogMessage extends LogWireMessage {
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(timeSinceEpochMilli, getIndex(), getMillisecondsSinceEpoch(), id);
+    return Objects.hashCode(timeSinceEpochMilli, getIndex(), id);
   }
 }
@@ -1,8 +1,11 @@
 package com.slack.kaldb.logstore;
 
+import com.slack.service.murron.trace.Trace;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.SearcherManager;
@@ -11,6 +14,15 @@ import org.apache.lucene.search.SearcherManager;
 public interface LogStore<T> extends Closeable {
   void addMessage(T message);
 
+  // Add a batch of messages to the store with a single call to the index writer.
+  void addMessages(List<T> messages) throws IOException;
+
+  // Add a batch of spans to the store, indexing each span without converting it into a message.
+  void addSpans(List<Trace.Span> spans) throws IOException;
+
+  // The types of the dynamically mapped fields in the store.
+  FieldSchema getSchema();
+
   // TODO: Instead of exposing the searcherManager, consider returning an instance of the searcher.
   SearcherManager getSearcherManager();
 
@@ -18,6 +30,13 @@ public interface LogStore<T> extends Closeable {
 
   void refresh();
 
+  // Called when a query arrives, refreshes the store if the query would miss documents added longer
+  // than the refresh interval ago.
+  void refreshIfStale();
+
+  // Merges the index down to at most maxSegments segments, giving up after the timeout.
+  boolean forceMerge(int maxSegments, Duration timeout);
+
   boolean isOpen();
 
   void cleanup() throws IOException;
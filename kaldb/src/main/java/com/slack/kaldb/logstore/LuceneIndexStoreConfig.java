@@ -2,6 +2,7 @@ package com.slack.kaldb.logstore;
 
 import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
 
+import com.slack.kaldb.proto.config.KaldbConfigs;
 import java.io.File;
 import java.time.Duration;
 
@@ -29,6 +30,9 @@ public class LuceneIndexStoreConfig {
   // A flag that turns on internal logging.
   public final boolean enableTracing;
 
+  // Tuning of the index writer, like the size of the RAM buffer and the merge policy settings.
+  public final KaldbConfigs.LuceneConfig indexWriterTuning;
+
   // TODO: Tweak the default values once in prod.
   static final Duration defaultCommitDuration = Duration.ofSeconds(15);
   static final Duration defaultRefreshDuration = Duration.ofSeconds(15);
@@ -54,6 +58,22 @@ public class LuceneIndexStoreConfig {
       String indexRoot,
       String logFileName,
       boolean enableTracing) {
+    this(
+        commitDuration,
+        refreshDuration,
+        indexRoot,
+        logFileName,
+        enableTracing,
+        KaldbConfigs.LuceneConfig.getDefaultInstance());
+  }
+
+  public LuceneIndexStoreConfig(
+      Duration commitDuration,
+      Duration refreshDuration,
+      String indexRoot,
+      String logFileName,
+      boolean enableTracing,
+      KaldbConfigs.LuceneConfig indexWriterTuning) {
     ensureTrue(
         !(commitDuration.isZero() || commitDuration.isNegative()),
         "Commit duration should be greater than zero");
@@ -65,6 +85,7 @@ public class LuceneIndexStoreConfig {
     this.indexRoot = indexRoot;
     this.logFileName = logFileName;
     this.enableTracing = enableTracing;
+    this.indexWriterTuning = indexWriterTuning;
   }
 
   public File indexFolder(String id) {
@@ -1,25 +1,40 @@
 package com.slack.kaldb.logstore;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.slack.kaldb.proto.config.KaldbConfigs;
+import com.slack.service.murron.trace.Trace;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene84.Lucene84Codec;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
 import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
@@ -33,6 +48,11 @@ import org.slf4j.LoggerFactory;
  * defines the behavior of the index writer. The DocumentBuilder will decide how the document is analyzed before it is
  * stored in the index.
  *
+ * Commits and refreshes of all the stores in the process run on a shared scheduler. Commits run at a fixed interval.
+ * Refreshes are driven by queries: while the store is queried, it's refreshed every refresh interval and the interval
+ * backs off while nobody queries it. A query that finds documents older than the refresh interval that aren't
+ * searchable yet refreshes the store before it runs, so queries still see fresh results.
+ *
  * TODO: Each index store has a unique id that is used to as a suffix/prefix in files associated with this store?
  */
 public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
@@ -44,19 +64,61 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
   public static final String MESSAGES_FAILED_COUNTER = "messages_failed";
   public static final String COMMITS_TIMER = "kaldb_index_commits";
   public static final String REFRESHES_TIMER = "kaldb_index_refreshes";
+  public static final String FRESHNESS_LAG_TIMER = "kaldb_index_freshness_lag";
+  public static final String FORCE_MERGE_TIMER = "kaldb_index_force_merges";
+
+  // The effective index writer settings.
+  public static final String RAM_BUFFER_SIZE_MB_GAUGE = "kaldb_index_ram_buffer_size_mb";
+  public static final String MAX_BUFFERED_DOCS_GAUGE = "kaldb_index_max_buffered_docs";
+  public static final String MAX_MERGED_SEGMENT_MB_GAUGE = "kaldb_index_max_merged_segment_mb";
+  public static final String SEGMENTS_PER_TIER_GAUGE = "kaldb_index_segments_per_tier";
+  public static final String MAX_MERGE_AT_ONCE_GAUGE = "kaldb_index_max_merge_at_once";
+  public static final String FLOOR_SEGMENT_MB_GAUGE = "kaldb_index_floor_segment_mb";
+  public static final String USE_COMPOUND_FILE_GAUGE = "kaldb_index_use_compound_file";
+  public static final String BEST_COMPRESSION_GAUGE = "kaldb_index_best_compression";
+
+  // The refresh interval of a store that isn't queried doubles after each refresh, up to this many
+  // times.
+  static final int MAX_REFRESH_BACKOFF_SHIFT = 4;
+
+  // A commit or refresh only blocks the other stores while all of these threads are busy.
+  private static final ScheduledExecutorService scheduler =
+      Executors.newScheduledThreadPool(
+          Math.max(2, Runtime.getRuntime().availableProcessors() / 4),
+          new ThreadFactoryBuilder()
+              .setNameFormat("kaldb-index-store-scheduler-%d")
+              .setDaemon(true)
+              .build());
 
   private final SearcherManager searcherManager;
   private final DocumentBuilder<LogMessage> documentBuilder;
+  private final DocumentBuilder<Trace.Span> spanDocumentBuilder;
+  private final FieldSchema schema;
   private final FSDirectory indexDirectory;
-  private final Timer timer;
   private final SnapshotDeletionPolicy snapshotDeletionPolicy;
-  private Optional<IndexWriter> indexWriter;
+  private final AbortableForcedMergePolicy forcedMergePolicy;
+  private volatile Optional<IndexWriter> indexWriter;
+
+  // Commits and refreshes hold the read lock, so they can run at the same time. Close holds the
+  // write lock, so it waits for them to finish.
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+  private final ScheduledFuture<?> commitTask;
+  private ScheduledFuture<?> refreshTask;
+
+  private final Duration refreshInterval;
+  private int refreshBackoffShift = 0;
+  private volatile boolean queriedSinceRefresh = false;
+  // The time in nanos the oldest document that isn't searchable yet was added, or 0 if all the
+  // documents are searchable.
+  private final AtomicLong oldestUnrefreshedNanos = new AtomicLong();
 
   // Stats counters.
   private final Counter messagesReceivedCounter;
   private final Counter messagesFailedCounter;
-  private final io.micrometer.core.instrument.Timer commitsTimer;
-  private final io.micrometer.core.instrument.Timer refreshesTimer;
+  private final Timer commitsTimer;
+  private final Timer refreshesTimer;
+  private final Timer freshnessLagTimer;
+  private final Timer forceMergeTimer;
 
   public static LuceneIndexStoreImpl makeLogStore(
       File dataDirectory, KaldbConfigs.LuceneConfig luceneConfig, MeterRegistry metricsRegistry)
@@ -65,6 +127,7 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
         dataDirectory,
         LuceneIndexStoreConfig.getCommitDuration(luceneConfig.getCommitDurationSecs()),
         LuceneIndexStoreConfig.getRefreshDuration(luceneConfig.getRefreshDurationSecs()),
+        luceneConfig,
         metricsRegistry);
   }
 
@@ -74,59 +137,103 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
       Duration refreshInterval,
       MeterRegistry metricsRegistry)
       throws IOException {
+    return makeLogStore(
+        dataDirectory,
+        commitInterval,
+        refreshInterval,
+        KaldbConfigs.LuceneConfig.getDefaultInstance(),
+        metricsRegistry);
+  }
+
+  private static LuceneIndexStoreImpl makeLogStore(
+      File dataDirectory,
+      Duration commitInterval,
+      Duration refreshInterval,
+      KaldbConfigs.LuceneConfig indexWriterTuning,
+      MeterRegistry metricsRegistry)
+      throws IOException {
     // TODO: Move all these config values into chunk?
     // TODO: Chunk should create log store?
     LuceneIndexStoreConfig indexStoreCfg =
         new LuceneIndexStoreConfig(
-            commitInterval, refreshInterval, dataDirectory.getAbsolutePath(), false);
-
+            commitInterval,
+            refreshInterval,
+            dataDirectory.getAbsolutePath(),
+            LuceneIndexStoreConfig.DEFAULT_LOG_FILE_NAME,
+            false,
+            indexWriterTuning);
+
+    // Both document builders share the schema, so spans and messages map fields the same way.
+    FieldSchema schema = new FieldSchema(metricsRegistry);
     // TODO: set ignore property exceptions via CLI flag.
+    LogDocumentBuilderImpl documentBuilder = LogDocumentBuilderImpl.build(false, schema);
     return new LuceneIndexStoreImpl(
-        indexStoreCfg, LogDocumentBuilderImpl.build(false), metricsRegistry);
+        indexStoreCfg,
+        documentBuilder,
+        new SpanDocumentBuilder(documentBuilder),
+        schema,
+        metricsRegistry);
+  }
+
+  public LuceneIndexStoreImpl(
+      LuceneIndexStoreConfig config,
+      DocumentBuilder<LogMessage> documentBuilder,
+      MeterRegistry registry)
+      throws IOException {
+    this(config, documentBuilder, SpanDocumentBuilder.build(false), registry);
+  }
+
+  public LuceneIndexStoreImpl(
+      LuceneIndexStoreConfig config,
+      DocumentBuilder<LogMessage> documentBuilder,
+      DocumentBuilder<Trace.Span> spanDocumentBuilder,
+      MeterRegistry registry)
+      throws IOException {
+    // The schema stays empty, unless the document builders were built with it.
+    this(config, documentBuilder, spanDocumentBuilder, new FieldSchema(registry), registry);
   }
 
   public LuceneIndexStoreImpl(
       LuceneIndexStoreConfig config,
       DocumentBuilder<LogMessage> documentBuilder,
+      DocumentBuilder<Trace.Span> spanDocumentBuilder,
+      FieldSchema schema,
       MeterRegistry registry)
       throws IOException {
 
     this.documentBuilder = documentBuilder;
+    this.spanDocumentBuilder = spanDocumentBuilder;
+    this.schema = schema;
 
-    Analyzer analyzer = new StandardAnalyzer();
+    Analyzer analyzer = LogDocumentBuilderImpl.buildAnalyzer();
     this.snapshotDeletionPolicy =
         new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
     IndexWriterConfig indexWriterConfig =
         buildIndexWriterConfig(analyzer, this.snapshotDeletionPolicy, config, registry);
+    registerIndexWriterConfigGauges(indexWriterConfig, config.indexWriterTuning, registry);
+    // Wrap the merge policy after registering the gauges, since they read the tuned policy.
+    forcedMergePolicy = new AbortableForcedMergePolicy(indexWriterConfig.getMergePolicy());
+    indexWriterConfig.setMergePolicy(forcedMergePolicy);
     indexDirectory = new MMapDirectory(config.indexFolder(id).toPath());
     indexWriter = Optional.of(new IndexWriter(indexDirectory, indexWriterConfig));
     this.searcherManager = new SearcherManager(indexWriter.get(), false, false, null);
 
-    timer = new Timer(true);
-    timer.schedule(
-        new TimerTask() {
-          @Override
-          public void run() {
-            commit();
-          }
-        },
-        config.commitDuration.toMillis(),
-        config.commitDuration.toMillis());
-    timer.schedule(
-        new TimerTask() {
-          @Override
-          public void run() {
-            refresh();
-          }
-        },
-        config.refreshDuration.toMillis(),
-        config.refreshDuration.toMillis());
-
     // Initialize stats counters
     messagesReceivedCounter = registry.counter(MESSAGES_RECEIVED_COUNTER);
     messagesFailedCounter = registry.counter(MESSAGES_FAILED_COUNTER);
     commitsTimer = registry.timer(COMMITS_TIMER);
     refreshesTimer = registry.timer(REFRESHES_TIMER);
+    freshnessLagTimer = registry.timer(FRESHNESS_LAG_TIMER);
+    forceMergeTimer = registry.timer(FORCE_MERGE_TIMER);
+
+    refreshInterval = config.refreshDuration;
+    commitTask =
+        scheduler.scheduleWithFixedDelay(
+            () -> runScheduledTask(this::commit),
+            config.commitDuration.toMillis(),
+            config.commitDuration.toMillis(),
+            TimeUnit.MILLISECONDS);
+    scheduleRefresh(refreshInterval.toMillis());
 
     LOG.info(
         "Created a lucene index {} at: {}", id, indexDirectory.getDirectory().toAbsolutePath());
@@ -150,6 +257,7 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
                         SortField.Type.LONG,
                         true)))
             .setIndexDeletionPolicy(snapshotDeletionPolicy);
+    applyTuning(indexWriterCfg, config.indexWriterTuning);
 
     if (config.enableTracing) {
       indexWriterCfg.setInfoStream(System.out);
@@ -158,20 +266,141 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
     return indexWriterCfg;
   }
 
+  // Applies the settings of the tuning that are set. The other settings keep the lucene defaults.
+  @VisibleForTesting
+  static void applyTuning(IndexWriterConfig indexWriterCfg, KaldbConfigs.LuceneConfig tuning) {
+    if (tuning.getRamBufferSizeMb() > 0) {
+      indexWriterCfg.setRAMBufferSizeMB(tuning.getRamBufferSizeMb());
+    }
+    if (tuning.getMaxBufferedDocs() > 0) {
+      indexWriterCfg.setMaxBufferedDocs(tuning.getMaxBufferedDocs());
+    }
+
+    TieredMergePolicy mergePolicy = new TieredMergePolicy();
+    if (tuning.getMaxMergedSegmentMb() > 0) {
+      mergePolicy.setMaxMergedSegmentMB(tuning.getMaxMergedSegmentMb());
+    }
+    if (tuning.getSegmentsPerTier() > 0) {
+      mergePolicy.setSegmentsPerTier(tuning.getSegmentsPerTier());
+    }
+    if (tuning.getMaxMergeAtOnce() > 0) {
+      mergePolicy.setMaxMergeAtOnce(tuning.getMaxMergeAtOnce());
+    }
+    if (tuning.getFloorSegmentMb() > 0) {
+      mergePolicy.setFloorSegmentMB(tuning.getFloorSegmentMb());
+    }
+    if (tuning.getDisableCompoundFiles()) {
+      // Merged segments are written as compound files by the merge policy, not the writer config.
+      mergePolicy.setNoCFSRatio(0.0);
+      indexWriterCfg.setUseCompoundFile(false);
+    }
+    indexWriterCfg.setMergePolicy(mergePolicy);
+
+    if (tuning.getStoredFieldsCompression()
+        == KaldbConfigs.LuceneConfig.StoredFieldsCompression.BEST_COMPRESSION) {
+      indexWriterCfg.setCodec(new Lucene84Codec(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION));
+    }
+  }
+
+  // All the stores of a node are built from the same config, so the gauges registered by the first
+  // store report the values of all of them.
+  private static void registerIndexWriterConfigGauges(
+      IndexWriterConfig indexWriterCfg, KaldbConfigs.LuceneConfig tuning, MeterRegistry registry) {
+    TieredMergePolicy mergePolicy = (TieredMergePolicy) indexWriterCfg.getMergePolicy();
+    double ramBufferSizeMb = indexWriterCfg.getRAMBufferSizeMB();
+    int maxBufferedDocs = indexWriterCfg.getMaxBufferedDocs();
+    double maxMergedSegmentMb = mergePolicy.getMaxMergedSegmentMB();
+    double segmentsPerTier = mergePolicy.getSegmentsPerTier();
+    int maxMergeAtOnce = mergePolicy.getMaxMergeAtOnce();
+    double floorSegmentMb = mergePolicy.getFloorSegmentMB();
+    int useCompoundFile = indexWriterCfg.getUseCompoundFile() ? 1 : 0;
+    int bestCompression =
+        tuning.getStoredFieldsCompression()
+                == KaldbConfigs.LuceneConfig.StoredFieldsCompression.BEST_COMPRESSION
+            ? 1
+            : 0;
+
+    Gauge.builder(RAM_BUFFER_SIZE_MB_GAUGE, () -> ramBufferSizeMb).register(registry);
+    Gauge.builder(MAX_BUFFERED_DOCS_GAUGE, () -> maxBufferedDocs).register(registry);
+    Gauge.builder(MAX_MERGED_SEGMENT_MB_GAUGE, () -> maxMergedSegmentMb).register(registry);
+    Gauge.builder(SEGMENTS_PER_TIER_GAUGE, () -> segmentsPerTier).register(registry);
+    Gauge.builder(MAX_MERGE_AT_ONCE_GAUGE, () -> maxMergeAtOnce).register(registry);
+    Gauge.builder(FLOOR_SEGMENT_MB_GAUGE, () -> floorSegmentMb).register(registry);
+    Gauge.builder(USE_COMPOUND_FILE_GAUGE, () -> useCompoundFile).register(registry);
+    Gauge.builder(BEST_COMPRESSION_GAUGE, () -> bestCompression).register(registry);
+  }
+
   // TODO: IOException can be logged and recovered from?.
   private void syncCommit() throws IOException {
-    synchronized (this) {
+    closeLock.readLock().lock();
+    try {
       if (indexWriter.isPresent()) {
         indexWriter.get().commit();
       }
+    } finally {
+      closeLock.readLock().unlock();
     }
   }
 
   private void syncRefresh() throws IOException {
-    synchronized (this) {
+    closeLock.readLock().lock();
+    try {
       if (indexWriter.isPresent()) {
-        searcherManager.maybeRefresh();
+        // The documents added from here on may not be in the refreshed reader.
+        long oldestUnrefreshed = oldestUnrefreshedNanos.getAndSet(0);
+        searcherManager.maybeRefreshBlocking();
+        if (oldestUnrefreshed != 0) {
+          freshnessLagTimer.record(System.nanoTime() - oldestUnrefreshed, TimeUnit.NANOSECONDS);
+        }
       }
+    } finally {
+      closeLock.readLock().unlock();
+    }
+  }
+
+  // An exception would cancel the future runs of a scheduled task, so log it instead.
+  private void runScheduledTask(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      LOG.error("Scheduled task failed for index " + id, e);
+    }
+  }
+
+  // Refreshes the store and schedules the next refresh. The interval doubles every time the store
+  // wasn't queried since the last refresh, and goes back to the refresh interval once it is.
+  private void scheduledRefresh() {
+    if (queriedSinceRefresh) {
+      refreshBackoffShift = 0;
+    } else {
+      refreshBackoffShift = Math.min(refreshBackoffShift + 1, MAX_REFRESH_BACKOFF_SHIFT);
+    }
+    queriedSinceRefresh = false;
+    try {
+      refresh();
+    } finally {
+      scheduleRefresh(refreshInterval.toMillis() << refreshBackoffShift);
+    }
+  }
+
+  // Synchronized with cancelRefresh, so a refresh is never scheduled after the store is closed.
+  private synchronized void scheduleRefresh(long delayMillis) {
+    if (indexWriter.isPresent()) {
+      refreshTask =
+          scheduler.schedule(
+              () -> runScheduledTask(this::scheduledRefresh), delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private synchronized void cancelRefresh() {
+    if (refreshTask != null) {
+      refreshTask.cancel(false);
+    }
+  }
+
+  private void markUnrefreshed() {
+    if (oldestUnrefreshedNanos.get() == 0) {
+      oldestUnrefreshedNanos.compareAndSet(0, System.nanoTime());
     }
   }
 
@@ -190,7 +419,8 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
     try {
       messagesReceivedCounter.increment();
       if (indexWriter.isPresent()) {
-        indexWriter.get().addDocument(documentBuilder.fromMessage(message));
+        indexWriter.get().addDocument(documentBuilder.fromMessage(message, 0));
+        markUnrefreshed();
       } else {
         LOG.error("IndexWriter should never be null when adding a message");
         throw new IllegalStateException("IndexWriter should never be null when adding a message");
@@ -204,6 +434,76 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
       // TODO: For now crash the program on IOException since it is likely a serious issue.
       // In future may need to handle this case more gracefully.
       e.printStackTrace();
+    } finally {
+      documentBuilder.releaseDocuments(1);
+    }
+  }
+
+  /**
+   * Add a batch of messages with a single IndexWriter.addDocuments call. A message that can't be
+   * converted into a document is counted as a failure and skipped, the rest of the batch is still
+   * indexed. An IOException from building the documents or from the index writer is thrown, since
+   * the index can't be written to.
+   */
+  @Override
+  public void addMessages(List<LogMessage> messages) throws IOException {
+    addDocuments(messages, documentBuilder);
+  }
+
+  /**
+   * Add a batch of spans, converting each span directly into a document without building a
+   * LogMessage first. Failures are handled the same way as in addMessages.
+   */
+  @Override
+  public void addSpans(List<Trace.Span> spans) throws IOException {
+    addDocuments(spans, spanDocumentBuilder);
+  }
+
+  private <T> void addDocuments(List<T> messages, DocumentBuilder<T> builder) throws IOException {
+    if (indexWriter.isEmpty()) {
+      LOG.error("IndexWriter should never be null when adding messages");
+      throw new IllegalStateException("IndexWriter should never be null when adding messages");
+    }
+
+    List<Document> documents = new ArrayList<>(messages.size());
+    try {
+      for (T message : messages) {
+        try {
+          documents.add(builder.fromMessage(message, documents.size()));
+        } catch (PropertyTypeMismatchException
+            | UnSupportedPropertyTypeException
+            | IllegalArgumentException e) {
+          LOG.error(String.format("Indexing message %s failed with error:", message), e);
+          messagesFailedCounter.increment();
+        }
+      }
+
+      try {
+        indexWriter.get().addDocuments(documents);
+      } catch (IllegalArgumentException e) {
+        // The index writer rejects the whole batch when a single document is invalid. So, index
+        // the documents one at a time, so only the invalid documents are dropped.
+        LOG.warn(
+            "Indexing a batch of {} documents failed, retrying individually", documents.size());
+        addDocumentsIndividually(documents);
+      }
+      markUnrefreshed();
+    } finally {
+      builder.releaseDocuments(messages.size());
+    }
+    // Count the batch once it is in the index writer, so a large batch doesn't look received while
+    // it is still being indexed.
+    messagesReceivedCounter.increment(messages.size());
+  }
+
+  private void addDocumentsIndividually(List<Document> documents) throws IOException {
+    for (Document document : documents) {
+      try {
+        indexWriter.get().addDocument(document);
+      } catch (IllegalArgumentException e) {
+        LOG.error(String.format("Indexing document %s failed with error:", document), e);
+        messagesFailedCounter.increment();
+      }
     }
   }
 
@@ -235,6 +535,60 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
         });
   }
 
+  @Override
+  public void refreshIfStale() {
+    queriedSinceRefresh = true;
+    long oldestUnrefreshed = oldestUnrefreshedNanos.get();
+    if (oldestUnrefreshed != 0
+        && System.nanoTime() - oldestUnrefreshed >= refreshInterval.toNanos()) {
+      refresh();
+    }
+  }
+
+  /**
+   * Merges the segments of the index down to at most maxSegments segments, commits the merged index
+   * and refreshes the searcher. The merge is aborted if it doesn't finish within the timeout, in
+   * which case the last commit is left as is.
+   *
+   * @return true if the index was merged, false if the merge was aborted or failed.
+   */
+  @Override
+  public boolean forceMerge(int maxSegments, Duration timeout) {
+    closeLock.readLock().lock();
+    try {
+      if (indexWriter.isEmpty()) {
+        return false;
+      }
+      Timer.Sample mergeTimer = Timer.start();
+      forcedMergePolicy.reset();
+      ScheduledFuture<?> abortTask =
+          scheduler.schedule(forcedMergePolicy::abort, timeout.toMillis(), TimeUnit.MILLISECONDS);
+      try {
+        indexWriter.get().forceMerge(maxSegments, true);
+      } finally {
+        abortTask.cancel(false);
+      }
+      if (forcedMergePolicy.isAborted()) {
+        LOG.warn("Aborted force merge of index {} after {}", id, timeout);
+        return false;
+      }
+      indexWriter.get().commit();
+      searcherManager.maybeRefreshBlocking();
+      mergeTimer.stop(forceMergeTimer);
+      return true;
+    } catch (IOException e) {
+      LOG.error("Failed to force merge index " + id, e);
+      return false;
+    } finally {
+      closeLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public FieldSchema getSchema() {
+    return schema;
+  }
+
   @Override
   public boolean isOpen() {
     return indexWriter.isPresent();
@@ -278,25 +632,31 @@ public class LuceneIndexStoreImpl implements LogStore<LogMessage> {
 
   /**
    * This method closes the log store cleanly and cancels any ongoing tasks. This function cancels
-   * the existing timer but doesn't run a commit or refresh. The users of this class are need to
-   * ensure that the data is already committed before close.
+   * the scheduled commits and refreshes but doesn't run a commit or refresh. The users of this
+   * class are need to ensure that the data is already committed before close.
    */
   @Override
   public void close() {
-    synchronized (this) {
+    closeLock.writeLock().lock();
+    try {
       if (indexWriter.isEmpty()) {
         // Closable.close() requires this be idempotent, so silently exit instead of throwing an
         // exception
         return;
       }
 
-      timer.cancel();
+      commitTask.cancel(false);
       try {
         indexWriter.get().close();
       } catch (IllegalStateException | IOException | NoSuchElementException e) {
         LOG.error("Error closing index " + id, e);
       }
       indexWriter = Optional.empty();
+      cancelRefresh();
+      documentBuilder.releaseAllDocuments();
+      spanDocumentBuilder.releaseAllDocuments();
+    } finally {
+      closeLock.writeLock().unlock();
     }
   }
 
@@ -0,0 +1,300 @@
+package com.slack.kaldb.logstore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FloatDocValuesField;
+import org.apache.lucene.document.FloatPoint;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * A lucene document whose field instances are pooled by field name, so the document can be reused
+ * for the next message instead of allocating a new document and new fields for every message.
+ * Pooled fields are reset with the new value using setStringValue, setLongValue etc.
+ *
+ * <p>Lucene doesn't hold on to the fields once a document is added to the index writer, so a
+ * document can be reused as soon as IndexWriter.addDocument(s) returns. This class is not thread
+ * safe and is meant to be used by a single indexing thread.
+ */
+final class ReusableDocument {
+  // Limits the number of pooled field names, so messages with high cardinality keys don't grow the
+  // pool without bounds. Fields with names that don't fit in the pool are allocated per message.
+  static final int MAX_POOLED_FIELD_NAMES = 10_000;
+
+  /** The kinds of lucene fields created by the document builder. */
+  enum FieldKind {
+    TEXT {
+      @Override
+      Field create(String name, Object value) {
+        return new TextField(name, (String) value, Field.Store.NO);
+      }
+    },
+    STORED_TEXT {
+      @Override
+      Field create(String name, Object value) {
+        return new TextField(name, (String) value, Field.Store.YES);
+      }
+    },
+    STRING {
+      @Override
+      Field create(String name, Object value) {
+        return new StringField(name, (String) value, Field.Store.NO);
+      }
+    },
+    STORED_STRING {
+      @Override
+      Field create(String name, Object value) {
+        return new StringField(name, (String) value, Field.Store.YES);
+      }
+    },
+    // Keyword fields have sorted set doc values, so their terms can be counted by aggregations.
+    KEYWORD_DOC_VALUES {
+      @Override
+      Field create(String name, Object value) {
+        return new SortedSetDocValuesField(name, new BytesRef((String) value));
+      }
+
+      @Override
+      void reset(Field field, Object value) {
+        field.setBytesValue(new BytesRef((String) value));
+      }
+
+      @Override
+      void clear(Field field) {
+        field.setBytesValue(new BytesRef());
+      }
+    },
+    STORED_ONLY_STRING {
+      @Override
+      Field create(String name, Object value) {
+        return new StoredField(name, (String) value);
+      }
+    },
+    STORED_BYTES {
+      @Override
+      Field create(String name, Object value) {
+        return new StoredField(name, (BytesRef) value);
+      }
+
+      @Override
+      void clear(Field field) {
+        field.setBytesValue(new BytesRef());
+      }
+    },
+    INT_POINT {
+      @Override
+      Field create(String name, Object value) {
+        return new IntPoint(name, (Integer) value);
+      }
+    },
+    STORED_INT {
+      @Override
+      Field create(String name, Object value) {
+        return new StoredField(name, (Integer) value);
+      }
+    },
+    INT_DOC_VALUES {
+      @Override
+      Field create(String name, Object value) {
+        return new NumericDocValuesField(name, (Integer) value);
+      }
+
+      @Override
+      void reset(Field field, Object value) {
+        field.setLongValue((Integer) value);
+      }
+    },
+    LONG_POINT {
+      @Override
+      Field create(String name, Object value) {
+        return new LongPoint(name, (Long) value);
+      }
+    },
+    STORED_LONG {
+      @Override
+      Field create(String name, Object value) {
+        return new StoredField(name, (Long) value);
+      }
+    },
+    LONG_DOC_VALUES {
+      @Override
+      Field create(String name, Object value) {
+        return new NumericDocValuesField(name, (Long) value);
+      }
+    },
+    // Dynamically mapped fields use sorted numeric doc values, since a flattened message can have
+    // more than one value for the same field.
+    SORTED_LONG_DOC_VALUES {
+      @Override
+      Field create(String name, Object value) {
+        return new SortedNumericDocValuesField(name, (Long) value);
+      }
+    },
+    FLOAT_POINT {
+      @Override
+      Field create(String name, Object value) {
+        return new FloatPoint(name, (Float) value);
+      }
+    },
+    STORED_FLOAT {
+      @Override
+      Field create(String name, Object value) {
+        return new StoredField(name, (Float) value);
+      }
+    },
+    FLOAT_DOC_VALUES {
+      @Override
+      Field create(String name, Object value) {
+        return new FloatDocValuesField(name, (Float) value);
+      }
+    },
+    DOUBLE_POINT {
+      @Override
+      Field create(String name, Object value) {
+        return new DoublePoint(name, (Double) value);
+      }
+    },
+    STORED_DOUBLE {
+      @Override
+      Field create(String name, Object value) {
+        return new StoredField(name, (Double) value);
+      }
+    },
+    DOUBLE_DOC_VALUES {
+      @Override
+      Field create(String name, Object value) {
+        return new DoubleDocValuesField(name, (Double) value);
+      }
+    },
+    SORTED_DOUBLE_DOC_VALUES {
+      @Override
+      Field create(String name, Object value) {
+        return new SortedNumericDocValuesField(
+            name, NumericUtils.doubleToSortableLong((Double) value));
+      }
+
+      @Override
+      void reset(Field field, Object value) {
+        field.setLongValue(NumericUtils.doubleToSortableLong((Double) value));
+      }
+    };
+
+    abstract Field create(String name, Object value);
+
+    // Drops the value of a field that holds on to the strings or bytes of a message. The numeric
+    // fields are left as is, since their values are small and the points are encoded in place.
+    void clear(Field field) {
+      if (field.numericValue() == null && field.stringValue() != null) {
+        field.setStringValue("");
+      }
+    }
+
+    // Sets a new value on a field created by this kind. The value must have the same type as the
+    // value the field was created with.
+    void reset(Field field, Object value) {
+      if (value instanceof String) {
+        field.setStringValue((String) value);
+      } else if (value instanceof BytesRef) {
+        field.setBytesValue((BytesRef) value);
+      } else if (value instanceof Integer) {
+        field.setIntValue((Integer) value);
+      } else if (value instanceof Long) {
+        field.setLongValue((Long) value);
+      } else if (value instanceof Float) {
+        field.setFloatValue((Float) value);
+      } else {
+        field.setDoubleValue((Double) value);
+      }
+    }
+  }
+
+  // The pooled fields for a single field name, in the order they were added to the document. A
+  // field name can occur more than once in a document, so each occurrence has its own instance.
+  private static final class FieldSlots {
+    private final List<FieldKind> kinds = new ArrayList<>();
+    private final List<Field> fields = new ArrayList<>();
+    private int next = 0;
+  }
+
+  private final Document document = new Document();
+  private final Map<String, FieldSlots> slotsByName = new HashMap<>();
+  private final List<FieldSlots> usedSlots = new ArrayList<>();
+
+  /** Clear the document, so it and its pooled fields can be used for the next message. */
+  Document reset() {
+    document.clear();
+    for (FieldSlots slots : usedSlots) {
+      slots.next = 0;
+    }
+    usedSlots.clear();
+    return document;
+  }
+
+  /**
+   * Clear the document and the values of the fields it used, once it was added to the index. Until
+   * the document is reused, the pooled fields would otherwise keep the strings and the _source
+   * bytes of the last message alive.
+   */
+  void release() {
+    for (FieldSlots slots : usedSlots) {
+      for (int i = 0; i < slots.next; i++) {
+        slots.kinds.get(i).clear(slots.fields.get(i));
+      }
+    }
+    reset();
+  }
+
+  Document getDocument() {
+    return document;
+  }
+
+  /**
+   * Returns a field of the given kind set to value. The field is taken from the pool if there is an
+   * unused field of that kind for the name, otherwise a new field is created and pooled.
+   */
+  Field field(FieldKind kind, String name, Object value) {
+    FieldSlots slots = slotsByName.get(name);
+    if (slots == null) {
+      name = LogDocumentBuilderImpl.internFieldName(name);
+      if (slotsByName.size() >= MAX_POOLED_FIELD_NAMES) {
+        return kind.create(name, value);
+      }
+      slots = new FieldSlots();
+      slotsByName.put(name, slots);
+    }
+    if (slots.next == 0) {
+      usedSlots.add(slots);
+    }
+
+    int index = slots.next++;
+    if (index < slots.fields.size() && slots.kinds.get(index) == kind) {
+      Field field = slots.fields.get(index);
+      kind.reset(field, value);
+      return field;
+    }
+
+    Field field = kind.create(LogDocumentBuilderImpl.internFieldName(name), value);
+    if (index < slots.fields.size()) {
+      slots.kinds.set(index, kind);
+      slots.fields.set(index, field);
+    } else {
+      slots.kinds.add(kind);
+      slots.fields.add(field);
+    }
+    return field;
+  }
+}
@@ -0,0 +1,237 @@
+package com.slack.kaldb.logstore;
+
+import static com.slack.kaldb.writer.SpanFormatter.DEFAULT_INDEX_NAME;
+import static com.slack.kaldb.writer.SpanFormatter.DEFAULT_LOG_MESSAGE_TYPE;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.slack.kaldb.writer.SpanFormatter;
+import com.slack.service.murron.trace.Trace;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.document.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SpanDocumentBuilder translates a Trace.Span directly into a lucene Document. The document has the
+ * same fields as the one LogDocumentBuilderImpl builds from the LogMessage returned by
+ * SpanFormatter.toLogMessage, but it skips the intermediate LogMessage and its source map. The tag
+ * values are indexed using their typed values and the timestamp is computed from the numeric start
+ * time, instead of being formatted into a string and parsed back. The _source field is written with
+ * a streaming generator in the same layout as StoredSource.encode, so search results can be decoded
+ * as before.
+ */
+public class SpanDocumentBuilder implements DocumentBuilder<Trace.Span> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpanDocumentBuilder.class);
+
+  // Scratch space of the indexing threads, reused for every span: the index of the last tag with
+  // each key, and the buffer the source is encoded into before it's copied into the field value.
+  private static final ThreadLocal<Map<String, Integer>> LAST_TAG_INDEXES =
+      ThreadLocal.withInitial(HashMap::new);
+  private static final ThreadLocal<ByteArrayOutputStream> SOURCE_BUFFERS =
+      ThreadLocal.withInitial(ByteArrayOutputStream::new);
+  // A buffer that grew past this size for a large span isn't kept for the next one.
+  private static final int MAX_RETAINED_SOURCE_BUFFER_BYTES = 64 * 1024;
+
+  public static SpanDocumentBuilder build(boolean ignoreExceptions) {
+    return new SpanDocumentBuilder(LogDocumentBuilderImpl.build(ignoreExceptions));
+  }
+
+  /** Returns the service name of the span, which is the index the span is indexed into. */
+  public static String getServiceName(Trace.Span span) {
+    String serviceName = "";
+    for (Trace.KeyValue tag : span.getTagsList()) {
+      if (tag.getVType() == Trace.ValueType.STRING
+          && tag.getKey().equals(LogMessage.ReservedField.SERVICE_NAME.fieldName)) {
+        serviceName = tag.getVStr();
+      }
+    }
+    return serviceName.isEmpty() ? DEFAULT_INDEX_NAME : serviceName;
+  }
+
+  // The field builder decides how each field is indexed, so both builders produce the same fields.
+  private final LogDocumentBuilderImpl fieldBuilder;
+
+  public SpanDocumentBuilder(LogDocumentBuilderImpl fieldBuilder) {
+    this.fieldBuilder = fieldBuilder;
+  }
+
+  @Override
+  public Document fromMessage(Trace.Span span) throws IOException {
+    return fromMessage(span, new Document(), null);
+  }
+
+  @Override
+  public Document fromMessage(Trace.Span span, int slot) throws IOException {
+    ReusableDocument reusable = fieldBuilder.reusableDocument(slot);
+    if (reusable == null) {
+      return fromMessage(span);
+    }
+    return fromMessage(span, reusable.getDocument(), reusable);
+  }
+
+  @Override
+  public void releaseDocuments(int slotCount) {
+    fieldBuilder.releaseDocuments(slotCount);
+  }
+
+  @Override
+  public void releaseAllDocuments() {
+    fieldBuilder.releaseAllDocuments();
+  }
+
+  private Document fromMessage(Trace.Span span, Document doc, ReusableDocument reusable)
+      throws IOException {
+    // The last tag with a key wins, like it does in the source map SpanFormatter builds. So, a
+    // single pass over the tags finds the last tag of each key, the service name and the type.
+    List<Trace.KeyValue> tags = span.getTagsList();
+    Map<String, Integer> lastTagIndexes = LAST_TAG_INDEXES.get();
+    lastTagIndexes.clear();
+    String serviceName = "";
+    String msgType = DEFAULT_LOG_MESSAGE_TYPE;
+    for (int i = 0; i < tags.size(); i++) {
+      Trace.KeyValue tag = tags.get(i);
+      lastTagIndexes.put(tag.getKey(), i);
+      if (tag.getVType() == Trace.ValueType.STRING) {
+        if (tag.getKey().equals(LogMessage.ReservedField.SERVICE_NAME.fieldName)) {
+          serviceName = tag.getVStr();
+        } else if (tag.getKey().equals(LogMessage.SystemField.TYPE.fieldName)) {
+          msgType = tag.getVStr();
+        }
+      }
+    }
+    if (serviceName.isEmpty()) {
+      serviceName = DEFAULT_INDEX_NAME;
+    }
+    String indexName = LogMessage.computedIndexName(serviceName);
+    if (!LogMessage.isValidIndexName(indexName)) {
+      throw new IllegalArgumentException("Invalid index name " + indexName + " for span");
+    }
+
+    // TODO: Use a microsecond resolution, instead of millisecond resolution.
+    long timeSinceEpochMilli = span.getStartTimestampMicros() / 1000;
+    String id = span.getId().toStringUtf8();
+
+    fieldBuilder.addProperty(doc, LogMessage.SystemField.INDEX.fieldName, indexName, reusable);
+    fieldBuilder.addProperty(
+        doc, LogMessage.SystemField.TIME_SINCE_EPOCH.fieldName, timeSinceEpochMilli, reusable);
+    fieldBuilder.addProperty(doc, LogMessage.SystemField.TYPE.fieldName, msgType, reusable);
+    fieldBuilder.addProperty(doc, LogMessage.SystemField.ID.fieldName, id, reusable);
+
+    StoredSource.Format sourceFormat = fieldBuilder.getSourceFormat();
+    ByteArrayOutputStream source = SOURCE_BUFFERS.get();
+    source.reset();
+    try (JsonGenerator json = StoredSource.createGenerator(sourceFormat, source)) {
+      json.writeStartObject();
+      StoredSource.writeHeader(json, indexName, msgType, id);
+      json.writeObjectFieldStart(StoredSource.SOURCE_FIELD);
+
+      // Set these fields even if they are empty so we can always search these fields. A tag with
+      // the same name overrides them, like it does in SpanFormatter.
+      addReservedField(
+          doc,
+          reusable,
+          json,
+          lastTagIndexes,
+          LogMessage.ReservedField.PARENT_ID,
+          span.getParentId().toStringUtf8());
+      addReservedField(
+          doc,
+          reusable,
+          json,
+          lastTagIndexes,
+          LogMessage.ReservedField.TRACE_ID,
+          span.getTraceId().toStringUtf8());
+      addReservedField(
+          doc, reusable, json, lastTagIndexes, LogMessage.ReservedField.NAME, span.getName());
+      if (!lastTagIndexes.containsKey(LogMessage.ReservedField.DURATION_MS.fieldName)) {
+        addLongField(
+            doc,
+            reusable,
+            json,
+            LogMessage.ReservedField.DURATION_MS.fieldName,
+            span.getDurationMicros());
+      }
+      addReservedField(
+          doc,
+          reusable,
+          json,
+          lastTagIndexes,
+          LogMessage.ReservedField.TIMESTAMP,
+          Instant.ofEpochMilli(timeSinceEpochMilli).toString());
+
+      for (int i = 0; i < tags.size(); i++) {
+        Trace.KeyValue tag = tags.get(i);
+        String key = tag.getKey();
+        if (key.equals(LogMessage.ReservedField.SERVICE_NAME.fieldName)
+            || lastTagIndexes.get(key) != i) {
+          continue;
+        }
+        switch (tag.getVType()) {
+          case STRING:
+            addStringField(doc, reusable, json, key, tag.getVStr());
+            break;
+          case BOOL:
+            fieldBuilder.addPropertyHandleExceptions(doc, key, tag.getVBool(), reusable);
+            json.writeBooleanField(key, tag.getVBool());
+            break;
+          case INT64:
+            addLongField(doc, reusable, json, key, tag.getVInt64());
+            break;
+          case FLOAT64:
+            fieldBuilder.addPropertyHandleExceptions(doc, key, tag.getVFloat64(), reusable);
+            json.writeNumberField(key, tag.getVFloat64());
+            break;
+          case BINARY:
+            addStringField(
+                doc, reusable, json, key, SpanFormatter.encodeBinaryTagValue(tag.getVBinary()));
+            break;
+          default:
+            LOG.warn("Skipping field with unknown value type {} with key {}", tag.getVType(), key);
+        }
+      }
+      addStringField(
+          doc, reusable, json, LogMessage.ReservedField.SERVICE_NAME.fieldName, serviceName);
+
+      json.writeEndObject();
+      json.writeEndObject();
+    }
+    fieldBuilder.addSource(doc, StoredSource.toFieldValue(sourceFormat, source), reusable);
+    if (source.size() > MAX_RETAINED_SOURCE_BUFFER_BYTES) {
+      SOURCE_BUFFERS.remove();
+    }
+    return doc;
+  }
+
+  private void addReservedField(
+      Document doc,
+      ReusableDocument reusable,
+      JsonGenerator json,
+      Map<String, Integer> lastTagIndexes,
+      LogMessage.ReservedField field,
+      String value)
+      throws IOException {
+    if (!lastTagIndexes.containsKey(field.fieldName)) {
+      addStringField(doc, reusable, json, field.fieldName, value);
+    }
+  }
+
+  private void addStringField(
+      Document doc, ReusableDocument reusable, JsonGenerator json, String key, String value)
+      throws IOException {
+    fieldBuilder.addPropertyHandleExceptions(doc, key, value, reusable);
+    json.writeStringField(key, value);
+  }
+
+  private void addLongField(
+      Document doc, ReusableDocument reusable, JsonGenerator json, String key, long value)
+      throws IOException {
+    fieldBuilder.addPropertyHandleExceptions(doc, key, value, reusable);
+    json.writeNumberField(key, value);
+  }
+}
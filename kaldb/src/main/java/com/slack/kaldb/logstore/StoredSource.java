@@ -0,0 +1,256 @@
+package com.slack.kaldb.logstore;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.slack.kaldb.util.JsonUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * StoredSource encodes a message into the _source stored field of a document and decodes a stored
+ * _source field back into a LogMessage.
+ *
+ * <p>The source is encoded as an object with the index, type and id of the message followed by the
+ * source map, in the same shape as a serialized LogWireMessage. In the JSON format, the source is
+ * stored as a json string. This is the format of the chunks indexed before the binary formats were
+ * added. In the binary formats, the source is stored as bytes starting with a format marker, so the
+ * format can change in future while older chunks stay readable.
+ *
+ * <p>When decoding a binary source, only the index, type and id are decoded eagerly. The source map
+ * is decoded the first time it's accessed. Since the hits of every chunk are merged and most of
+ * them are dropped, most hits are never fully decoded. The hits that are returned are transcoded
+ * from smile to the json of their source map, still without decoding the map.
+ */
+public final class StoredSource {
+  /** The formats the _source field can be stored in. */
+  public enum Format {
+    JSON,
+    // Smile is a binary encoding of json, which is smaller and faster to parse than json text.
+    SMILE
+  }
+
+  public static final Format DEFAULT_FORMAT = Format.SMILE;
+
+  // Marks a binary source encoded with the first version of the smile format.
+  static final byte SMILE_V1 = 1;
+
+  static final String INDEX_FIELD = "index";
+  static final String TYPE_FIELD = "type";
+  static final String ID_FIELD = "id";
+  static final String SOURCE_FIELD = "source";
+
+  private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+  private static final ObjectMapper SMILE_MAPPER =
+      new ObjectMapper(new SmileFactory())
+          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+  private StoredSource() {}
+
+  /**
+   * Returns a generator that writes an encoded source into out. The generator must be closed before
+   * the encoded source is converted into a field value with toFieldValue.
+   */
+  static JsonGenerator createGenerator(Format format, ByteArrayOutputStream out)
+      throws IOException {
+    if (format == Format.SMILE) {
+      out.write(SMILE_V1);
+      return SMILE_MAPPER.getFactory().createGenerator(out);
+    }
+    return JSON_MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+  }
+
+  /** Writes the fields that precede the source map. */
+  static void writeHeader(JsonGenerator generator, String index, String type, String id)
+      throws IOException {
+    generator.writeStringField(INDEX_FIELD, index);
+    generator.writeStringField(TYPE_FIELD, type);
+    generator.writeStringField(ID_FIELD, id);
+  }
+
+  /** Returns the stored field value: a BytesRef for binary formats and a String for json. */
+  static Object toFieldValue(Format format, ByteArrayOutputStream out) {
+    if (format == Format.SMILE) {
+      return new BytesRef(out.toByteArray());
+    }
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  /** Encodes a message into a stored field value. */
+  static Object encode(LogWireMessage message, Format format) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonGenerator generator = createGenerator(format, out)) {
+      generator.writeStartObject();
+      writeHeader(generator, message.getIndex(), message.getType(), message.id);
+      generator.writeObjectField(SOURCE_FIELD, message.source);
+      generator.writeEndObject();
+    }
+    return toFieldValue(format, out);
+  }
+
+  /**
+   * Decodes a stored _source field into a LogMessage. The timestamp of the message is passed in, so
+   * the source map doesn't have to be decoded to compute it.
+   */
+  public static LogMessage decode(IndexableField field, long timeSinceEpochMilli)
+      throws IOException {
+    BytesRef bytes = field.binaryValue();
+    if (bytes == null) {
+      LogWireMessage wireMessage = JsonUtil.read(field.stringValue(), LogWireMessage.class);
+      return new LogMessage(
+          wireMessage.getIndex(), wireMessage.getType(), wireMessage.id, wireMessage.source);
+    }
+
+    if (bytes.length == 0 || bytes.bytes[bytes.offset] != SMILE_V1) {
+      throw new IOException("Unknown stored source format in field " + field.name());
+    }
+    String index = null;
+    String type = null;
+    String id = null;
+    try (JsonParser parser = createSmileParser(bytes)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Stored source is not an object.");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        if (name.equals(SOURCE_FIELD)) {
+          break;
+        }
+        parser.nextToken();
+        switch (name) {
+          case INDEX_FIELD:
+            index = parser.getValueAsString();
+            break;
+          case TYPE_FIELD:
+            type = parser.getValueAsString();
+            break;
+          case ID_FIELD:
+            id = parser.getValueAsString();
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+    }
+    return new LogMessage(index, type, id, new LazySourceMap(bytes), timeSinceEpochMilli);
+  }
+
+  /**
+   * Returns the json of the source map of a message. A smile encoded source that wasn't decoded is
+   * transcoded to json token by token, instead of being decoded into a map and encoded again.
+   */
+  public static byte[] toSourceJson(Map<String, Object> source) throws IOException {
+    if (source instanceof LazySourceMap) {
+      return ((LazySourceMap) source).toJson();
+    }
+    return JSON_MAPPER.writeValueAsBytes(source);
+  }
+
+  /**
+   * Returns the size in bytes of the stored source a source map is decoded from, or -1 if the
+   * source map isn't decoded lazily from a stored source.
+   */
+  public static int storedSizeBytes(Map<String, Object> source) {
+    return source instanceof LazySourceMap ? ((LazySourceMap) source).bytes.length : -1;
+  }
+
+  private static JsonParser createSmileParser(BytesRef bytes) throws IOException {
+    return SMILE_MAPPER.getFactory().createParser(bytes.bytes, bytes.offset + 1, bytes.length - 1);
+  }
+
+  /** A source map that is decoded from a smile encoded source the first time it's accessed. */
+  private static final class LazySourceMap extends AbstractMap<String, Object> {
+    private final BytesRef bytes;
+    private volatile Map<String, Object> source;
+
+    private LazySourceMap(BytesRef bytes) {
+      this.bytes = bytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> source() {
+      Map<String, Object> decoded = source;
+      if (decoded == null) {
+        try (JsonParser parser = createSmileParser(bytes)) {
+          Map<String, Object> message = SMILE_MAPPER.readValue(parser, MAP_TYPE);
+          decoded = (Map<String, Object>) message.get(SOURCE_FIELD);
+          if (decoded == null) {
+            decoded = new HashMap<>();
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException("Failed to decode the stored source.", e);
+        }
+        source = decoded;
+      }
+      return decoded;
+    }
+
+    private byte[] toJson() throws IOException {
+      Map<String, Object> decoded = source;
+      if (decoded != null) {
+        return JSON_MAPPER.writeValueAsBytes(decoded);
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 2);
+      try (JsonParser parser = createSmileParser(bytes);
+          JsonGenerator generator =
+              JSON_MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+        boolean copied = false;
+        if (parser.nextToken() == JsonToken.START_OBJECT) {
+          while (!copied && parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT && name.equals(SOURCE_FIELD)) {
+              generator.copyCurrentStructure(parser);
+              copied = true;
+            } else {
+              parser.skipChildren();
+            }
+          }
+        }
+        if (!copied) {
+          generator.writeStartObject();
+          generator.writeEndObject();
+        }
+      }
+      return out.toByteArray();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return source().entrySet();
+    }
+
+    @Override
+    public int size() {
+      return source().size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return source().containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+      return source().get(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+      return source().put(key, value);
+    }
+  }
+}
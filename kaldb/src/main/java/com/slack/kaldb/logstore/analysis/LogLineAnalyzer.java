@@ -0,0 +1,21 @@
+package com.slack.kaldb.logstore.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+/** An analyzer for log lines that tokenizes them with the LogLineTokenizer. */
+public class LogLineAnalyzer extends Analyzer {
+
+  @Override
+  protected TokenStreamComponents createComponents(String fieldName) {
+    return new TokenStreamComponents(new LogLineTokenizer());
+  }
+
+  // Wildcard and prefix queries are normalized instead of being tokenized, so they are lower cased
+  // like the tokens.
+  @Override
+  protected TokenStream normalize(String fieldName, TokenStream in) {
+    return new LowerCaseFilter(in);
+  }
+}
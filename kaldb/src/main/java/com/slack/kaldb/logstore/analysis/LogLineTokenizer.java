@@ -0,0 +1,131 @@
+package com.slack.kaldb.logstore.analysis;
+
+import java.io.IOException;
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.analysis.CharacterUtils.CharacterBuffer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+/**
+ * LogLineTokenizer splits a log line into lower cased tokens in a single pass over its characters.
+ * A token is a run of letters, digits, underscores, dots and hyphens, so ip addresses, uuids, host
+ * names, versions and dotted identifiers are kept as single tokens that can be queried exactly.
+ * Every other character, like whitespace, slashes, quotes, colons and the equals sign of key=value
+ * pairs, separates tokens. Dots and hyphens at the start or end of a token, like the period ending
+ * a sentence, are dropped. The characters are read as code points, so letters outside of the basic
+ * multilingual plane, which are a surrogate pair of chars, are kept in their tokens.
+ *
+ * <p>Unlike the StandardTokenizer, this tokenizer doesn't implement the unicode word break rules,
+ * which are expensive to run on every log line and split identifiers in ways that are hard to
+ * query.
+ */
+public final class LogLineTokenizer extends Tokenizer {
+  // Longer tokens are split, like in the StandardTokenizer.
+  static final int MAX_TOKEN_LENGTH = 255;
+
+  private static final int IO_BUFFER_SIZE = 4096;
+
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+  // The buffer keeps a high surrogate at the end of a read for the next one, so the chars of a code
+  // point are always read together.
+  private final CharacterBuffer ioBuffer = CharacterUtils.newCharacterBuffer(IO_BUFFER_SIZE);
+  // The offset in the input of the first character in the buffer.
+  private int bufferOffset = 0;
+  private int bufferIndex = 0;
+  private int dataLength = 0;
+  private int finalOffset = 0;
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    clearAttributes();
+    char[] term = termAtt.buffer();
+    int length = 0;
+    int start = 0;
+
+    while (true) {
+      if (bufferIndex >= dataLength) {
+        bufferOffset += dataLength;
+        CharacterUtils.fill(ioBuffer, input);
+        dataLength = ioBuffer.getLength();
+        bufferIndex = 0;
+        if (dataLength == 0) {
+          finalOffset = correctOffset(bufferOffset);
+          break;
+        }
+      }
+
+      int c = Character.codePointAt(ioBuffer.getBuffer(), bufferIndex, dataLength);
+      int charCount = Character.charCount(c);
+      if (isTokenChar(c) && (length > 0 || !isTrimmedChar(c))) {
+        if (length == 0) {
+          start = bufferOffset + bufferIndex;
+        }
+        if (length >= term.length - 1) {
+          term = termAtt.resizeBuffer(length + 2);
+        }
+        length += Character.toChars(toLowerCase(c), term, length);
+        bufferIndex += charCount;
+        if (length >= MAX_TOKEN_LENGTH) {
+          break;
+        }
+      } else {
+        bufferIndex += charCount;
+        if (length > 0) {
+          break;
+        }
+      }
+    }
+
+    while (length > 0 && isTrimmedChar(term[length - 1])) {
+      length--;
+    }
+    if (length == 0) {
+      return false;
+    }
+    termAtt.setLength(length);
+    offsetAtt.setOffset(correctOffset(start), correctOffset(start + length));
+    return true;
+  }
+
+  private static boolean isTokenChar(int c) {
+    if (c < 128) {
+      return (c >= 'a' && c <= 'z')
+          || (c >= 'A' && c <= 'Z')
+          || (c >= '0' && c <= '9')
+          || c == '_'
+          || c == '.'
+          || c == '-';
+    }
+    return Character.isLetterOrDigit(c);
+  }
+
+  private static boolean isTrimmedChar(int c) {
+    return c == '.' || c == '-';
+  }
+
+  private static int toLowerCase(int c) {
+    if (c < 128) {
+      return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+    return Character.toLowerCase(c);
+  }
+
+  @Override
+  public void end() throws IOException {
+    super.end();
+    offsetAtt.setOffset(finalOffset, finalOffset);
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    bufferOffset = 0;
+    bufferIndex = 0;
+    dataLength = 0;
+    finalOffset = 0;
+    ioBuffer.reset();
+  }
+}
@@ -0,0 +1,117 @@
+package com.slack.kaldb.logstore.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.slack.kaldb.blobfs.BlobFs;
+import com.slack.kaldb.logstore.BlobFsUtils;
+import com.slack.kaldb.logstore.IdBloomFilter;
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The IdBloomFilterCache holds the id filters of the snapshots for the query service, so trace
+ * lookups only search the snapshots that may contain the trace. A filter is read from the blob
+ * store in the background the first time a lookup needs it, and its snapshot is searched until it's
+ * loaded, so a lookup never waits for the blob store.
+ */
+public class IdBloomFilterCache {
+  private static final Logger LOG = LoggerFactory.getLogger(IdBloomFilterCache.class);
+
+  private static final long MAX_FILTER_BYTES = 256 * 1024 * 1024;
+  private static final int LOADER_THREADS = 4;
+
+  private final BlobFs blobFs;
+  private final Executor loadExecutor;
+  // The filters by snapshot id. The snapshots without a filter map to an empty filter.
+  private final Cache<String, Optional<IdBloomFilter>> filters;
+  private final Set<String> loadingSnapshotIds = ConcurrentHashMap.newKeySet();
+
+  public IdBloomFilterCache(BlobFs blobFs) {
+    this(
+        blobFs,
+        MAX_FILTER_BYTES,
+        Executors.newFixedThreadPool(
+            LOADER_THREADS,
+            new ThreadFactoryBuilder()
+                .setNameFormat("id-filter-loader-%d")
+                .setDaemon(true)
+                .build()));
+  }
+
+  @VisibleForTesting
+  IdBloomFilterCache(BlobFs blobFs, long maxFilterBytes, Executor loadExecutor) {
+    this.blobFs = blobFs;
+    this.loadExecutor = loadExecutor;
+    this.filters =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxFilterBytes)
+            .<String, Optional<IdBloomFilter>>weigher((snapshotId, filter) -> weigh(filter))
+            .build();
+  }
+
+  /** Returns false if the snapshot doesn't contain any span of the trace. */
+  public boolean mayContainTrace(SnapshotMetadata snapshotMetadata, String traceId) {
+    if (SnapshotMetadata.isLive(snapshotMetadata)) {
+      return true;
+    }
+    Optional<IdBloomFilter> filter = filters.getIfPresent(snapshotMetadata.snapshotId);
+    if (filter == null) {
+      load(snapshotMetadata);
+      return true;
+    }
+    return filter.map(idFilter -> idFilter.mightContainTrace(traceId)).orElse(true);
+  }
+
+  private void load(SnapshotMetadata snapshotMetadata) {
+    String snapshotId = snapshotMetadata.snapshotId;
+    if (!loadingSnapshotIds.add(snapshotId)) {
+      return;
+    }
+    loadExecutor.execute(
+        () -> {
+          try {
+            filters.put(snapshotId, readFilter(snapshotMetadata));
+          } catch (Exception e) {
+            // The filter is read again by the next lookup that needs it.
+            LOG.warn("Failed to read the id filter of snapshot {}", snapshotId, e);
+          } finally {
+            loadingSnapshotIds.remove(snapshotId);
+          }
+        });
+  }
+
+  private Optional<IdBloomFilter> readFilter(SnapshotMetadata snapshotMetadata) throws Exception {
+    String snapshotPath = snapshotMetadata.snapshotPath;
+    if (!snapshotPath.endsWith(BlobFsUtils.DELIMITER)) {
+      snapshotPath += BlobFsUtils.DELIMITER;
+    }
+    URI filterUri = URI.create(snapshotPath + IdBloomFilter.FILE_NAME);
+    // The snapshots uploaded before the id filters were added don't have one.
+    if (!blobFs.exists(filterUri)) {
+      return Optional.empty();
+    }
+    try (InputStream in = blobFs.open(filterUri)) {
+      return Optional.of(IdBloomFilter.readFrom(in, blobFs.length(filterUri)));
+    }
+  }
+
+  private static int weigh(Optional<IdBloomFilter> filter) {
+    long sizeBytes = filter.map(IdBloomFilter::getSizeBytes).orElse(0L);
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(1, sizeBytes));
+  }
+
+  @VisibleForTesting
+  long getCachedFilterCount() {
+    return filters.size();
+  }
+}
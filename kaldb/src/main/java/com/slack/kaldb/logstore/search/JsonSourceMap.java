@@ -0,0 +1,60 @@
+package com.slack.kaldb.logstore.search;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.protobuf.ByteString;
+import com.slack.kaldb.util.JsonUtil;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The source map of a hit received from a search node, backed by the json the node sent. The query
+ * service merges hits by their header and sends the json on unchanged, so the map is only decoded
+ * the first time it's accessed. The map is read only, so the json always matches it.
+ */
+final class JsonSourceMap extends AbstractMap<String, Object> {
+  private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+  final ByteString json;
+  private volatile Map<String, Object> source;
+
+  JsonSourceMap(ByteString json) {
+    this.json = json;
+  }
+
+  private Map<String, Object> source() {
+    Map<String, Object> decoded = source;
+    if (decoded == null) {
+      try {
+        decoded = Collections.unmodifiableMap(JsonUtil.read(json.toStringUtf8(), MAP_TYPE));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to decode the source of a hit.", e);
+      }
+      source = decoded;
+    }
+    return decoded;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return source().entrySet();
+  }
+
+  @Override
+  public int size() {
+    return source().size();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return source().containsKey(key);
+  }
+
+  @Override
+  public Object get(Object key) {
+    return source().get(key);
+  }
+}
@@ -7,9 +7,12 @@ import brave.ScopedSpan;
 import brave.Tracing;
 import brave.grpc.GrpcTracing;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.linecorp.armeria.client.grpc.GrpcClients;
 import com.linecorp.armeria.common.RequestContext;
 import com.slack.kaldb.logstore.LogMessage;
@@ -26,11 +29,18 @@ import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +60,8 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
   private final SearchMetadataStore searchMetadataStore;
   private final SnapshotMetadataStore snapshotMetadataStore;
   private final ServiceMetadataStore serviceMetadataStore;
+  // Null when the id filters of the snapshots can't be read, then trace lookups search them all.
+  private final IdBloomFilterCache idFilterCache;
 
   // Number of times the listener is fired
   public static final String SEARCH_METADATA_TOTAL_CHANGE_COUNTER =
@@ -59,9 +71,19 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
   private final Map<String, KaldbServiceGrpc.KaldbServiceFutureStub> stubs =
       new ConcurrentHashMap<>();
 
+  // The latency and load of the search nodes, to pick the replicas to search and hedge slow nodes.
+  private final NodeLatencyTracker nodeLatencyTracker;
+  private final ScheduledExecutorService hedgeExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("search-hedge-%d").setDaemon(true).build());
+
   @VisibleForTesting
   public static long READ_TIMEOUT_MS = DISTRIBUTED_QUERY_TIMEOUT_DURATION.toMillis();
 
+  // The time kept to search the other replicas of the snapshots of a node that failed or timed out.
+  // A node whose snapshots have other replicas is searched with the rest of the query time.
+  @VisibleForTesting public static long FAILOVER_TIMEOUT_MS = 500;
+
   private static final long GRPC_TIMEOUT_BUFFER_MS = 100;
 
   public static final String DISTRIBUTED_QUERY_TOTAL_NODES = "distributed_query_total_nodes";
@@ -70,11 +92,23 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
       "distributed_query_total_snapshots";
   public static final String DISTRIBUTED_QUERY_SNAPSHOTS_WITH_REPLICAS =
       "distributed_query_snapshots_with_replicas";
+  public static final String DISTRIBUTED_QUERY_TIMED_OUT_SNAPSHOTS =
+      "distributed_query_timed_out_snapshots";
+  // The requests that search the snapshots of a failed node on their other replicas.
+  public static final String DISTRIBUTED_QUERY_FAILOVER_NODES = "distributed_query_failover_nodes";
+  // The node requests that were duplicated on other replicas because they were slow, and the ones
+  // whose duplicate answered first.
+  public static final String DISTRIBUTED_QUERY_HEDGED_NODES = "distributed_query_hedged_nodes";
+  public static final String DISTRIBUTED_QUERY_HEDGE_WINS = "distributed_query_hedge_wins";
 
   private final Counter distributedQueryTotalNodes;
   private final Counter distributedQueryFailedNodes;
   private final Counter distributedQueryTotalSnapshots;
   private final Counter distributedQuerySnapshotsWithReplicas;
+  private final Counter distributedQueryTimedOutSnapshots;
+  private final Counter distributedQueryFailoverNodes;
+  private final Counter distributedQueryHedgedNodes;
+  private final Counter distributedQueryHedgeWins;
 
   // For now we will use SearchMetadataStore to populate servers
   // But this is wasteful since we add snapshots more often than we add/remove nodes ( hopefully )
@@ -86,9 +120,20 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
       SnapshotMetadataStore snapshotMetadataStore,
       ServiceMetadataStore serviceMetadataStore,
       MeterRegistry meterRegistry) {
+    this(searchMetadataStore, snapshotMetadataStore, serviceMetadataStore, null, meterRegistry);
+  }
+
+  public KaldbDistributedQueryService(
+      SearchMetadataStore searchMetadataStore,
+      SnapshotMetadataStore snapshotMetadataStore,
+      ServiceMetadataStore serviceMetadataStore,
+      IdBloomFilterCache idFilterCache,
+      MeterRegistry meterRegistry) {
     this.searchMetadataStore = searchMetadataStore;
     this.snapshotMetadataStore = snapshotMetadataStore;
     this.serviceMetadataStore = serviceMetadataStore;
+    this.idFilterCache = idFilterCache;
+    this.nodeLatencyTracker = new NodeLatencyTracker(meterRegistry);
     searchMetadataTotalChangeCounter = meterRegistry.counter(SEARCH_METADATA_TOTAL_CHANGE_COUNTER);
     this.searchMetadataStore.addListener(this::updateStubs);
 
@@ -97,6 +142,11 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
     this.distributedQueryTotalSnapshots = meterRegistry.counter(DISTRIBUTED_QUERY_TOTAL_SNAPSHOTS);
     this.distributedQuerySnapshotsWithReplicas =
         meterRegistry.counter(DISTRIBUTED_QUERY_SNAPSHOTS_WITH_REPLICAS);
+    this.distributedQueryTimedOutSnapshots =
+        meterRegistry.counter(DISTRIBUTED_QUERY_TIMED_OUT_SNAPSHOTS);
+    this.distributedQueryFailoverNodes = meterRegistry.counter(DISTRIBUTED_QUERY_FAILOVER_NODES);
+    this.distributedQueryHedgedNodes = meterRegistry.counter(DISTRIBUTED_QUERY_HEDGED_NODES);
+    this.distributedQueryHedgeWins = meterRegistry.counter(DISTRIBUTED_QUERY_HEDGE_WINS);
 
     // first time call this function manually so that we initialize stubs
     updateStubs();
@@ -132,6 +182,7 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
                 LOG.debug("SearchMetadata listener event. Removing server={}", server);
                 if (!latestSearchServers.contains(server)) {
                   stubs.remove(server);
+                  nodeLatencyTracker.removeNode(server);
                   removedStubs.getAndIncrement();
                 }
               });
@@ -164,6 +215,55 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
       long queryStartTimeEpochMs,
       long queryEndTimeEpochMs,
       String indexName) {
+    return pickSearchNodesToQuery(
+        searchMetadataStore,
+        findSnapshotsToSearch(
+            snapshotMetadataStore,
+            serviceMetadataStore,
+            queryStartTimeEpochMs,
+            queryEndTimeEpochMs,
+            indexName));
+  }
+
+  /**
+   * Returns the urls of the replicas of the snapshots to search, by the id of the chunk they hold.
+   * The replica to search first is listed first, and the next one is searched if it fails or is
+   * slow. The node score is the latency score of a node, lower is better.
+   */
+  @VisibleForTesting
+  public static Map<String, List<String>> getSnapshotReplicasToQuery(
+      SnapshotMetadataStore snapshotMetadataStore,
+      SearchMetadataStore searchMetadataStore,
+      ServiceMetadataStore serviceMetadataStore,
+      long queryStartTimeEpochMs,
+      long queryEndTimeEpochMs,
+      String indexName,
+      ToDoubleFunction<String> nodeScore) {
+    Set<String> snapshotsToSearch =
+        findSnapshotsToSearch(
+            snapshotMetadataStore,
+            serviceMetadataStore,
+            queryStartTimeEpochMs,
+            queryEndTimeEpochMs,
+            indexName);
+    Map<String, List<String>> snapshotReplicas = new HashMap<>();
+    searchMetadataStore
+        .getCached()
+        .stream()
+        .filter(searchMetadata -> snapshotsToSearch.contains(searchMetadata.snapshotName))
+        .collect(Collectors.groupingBy(KaldbDistributedQueryService::getRawSnapshotName))
+        .forEach(
+            (chunkId, replicas) ->
+                snapshotReplicas.put(chunkId, orderReplicas(replicas, nodeScore)));
+    return snapshotReplicas;
+  }
+
+  private static Set<String> findSnapshotsToSearch(
+      SnapshotMetadataStore snapshotMetadataStore,
+      ServiceMetadataStore serviceMetadataStore,
+      long queryStartTimeEpochMs,
+      long queryEndTimeEpochMs,
+      String indexName) {
     ScopedSpan findPartitionsToQuerySpan =
         Tracing.currentTracer()
             .startScopedSpan("KaldbDistributedQueryService.findPartitionsToQuery");
@@ -173,10 +273,12 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
             serviceMetadataStore, queryStartTimeEpochMs, queryEndTimeEpochMs, indexName);
     findPartitionsToQuerySpan.finish();
 
-    // step 1 - find all snapshots that match time window and partition
+    // step 1 - find all snapshots that match time window and partition, and may contain the index
     ScopedSpan snapshotsToSearchSpan =
         Tracing.currentTracer().startScopedSpan("KaldbDistributedQueryService.snapshotsToSearch");
+    String catalogIndexName = LogMessage.computedIndexName(indexName);
     Set<String> snapshotsToSearch = new HashSet<>();
+    int snapshotsWithoutIndex = 0;
     for (SnapshotMetadata snapshotMetadata : snapshotMetadataStore.getCached()) {
       if (containsDataInTimeRange(
               snapshotMetadata.startTimeEpochMs,
@@ -184,11 +286,56 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
               queryStartTimeEpochMs,
               queryEndTimeEpochMs)
           && isSnapshotInPartition(snapshotMetadata, partitions)) {
-        snapshotsToSearch.add(snapshotMetadata.name);
+        if (snapshotMetadata.mayContainIndex(catalogIndexName)) {
+          snapshotsToSearch.add(snapshotMetadata.name);
+        } else {
+          snapshotsWithoutIndex++;
+        }
       }
     }
+    snapshotsToSearchSpan.tag("snapshotsWithoutIndexCount", String.valueOf(snapshotsWithoutIndex));
     snapshotsToSearchSpan.finish();
+    return snapshotsToSearch;
+  }
 
+  /**
+   * Returns the search nodes to query for the spans of a trace. A trace spans the indexes of all
+   * its services, so all the snapshots in the time range are candidates, but only the ones whose id
+   * filter may contain the trace are searched.
+   */
+  @VisibleForTesting
+  public static Collection<String> getSearchNodesToQueryForTrace(
+      SnapshotMetadataStore snapshotMetadataStore,
+      SearchMetadataStore searchMetadataStore,
+      long queryStartTimeEpochMs,
+      long queryEndTimeEpochMs,
+      Predicate<SnapshotMetadata> mayContainTrace) {
+    ScopedSpan snapshotsToSearchSpan =
+        Tracing.currentTracer()
+            .startScopedSpan("KaldbDistributedQueryService.snapshotsToSearchForTrace");
+    Set<String> snapshotsToSearch = new HashSet<>();
+    int snapshotsWithoutTrace = 0;
+    for (SnapshotMetadata snapshotMetadata : snapshotMetadataStore.getCached()) {
+      if (containsDataInTimeRange(
+          snapshotMetadata.startTimeEpochMs,
+          snapshotMetadata.endTimeEpochMs,
+          queryStartTimeEpochMs,
+          queryEndTimeEpochMs)) {
+        if (mayContainTrace.test(snapshotMetadata)) {
+          snapshotsToSearch.add(snapshotMetadata.name);
+        } else {
+          snapshotsWithoutTrace++;
+        }
+      }
+    }
+    snapshotsToSearchSpan.tag("snapshotsWithoutTraceCount", String.valueOf(snapshotsWithoutTrace));
+    snapshotsToSearchSpan.finish();
+
+    return pickSearchNodesToQuery(searchMetadataStore, snapshotsToSearch);
+  }
+
+  private static Collection<String> pickSearchNodesToQuery(
+      SearchMetadataStore searchMetadataStore, Set<String> snapshotsToSearch) {
     // step 2 - iterate every search metadata whose snapshot needs to be searched.
     // if there are multiple search metadata nodes then pck the most on based on
     // pickSearchNodeToQuery
@@ -232,29 +379,36 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
         : searchMetadata.snapshotName;
   }
 
+  private static String pickSearchNodeToQuery(List<SearchMetadata> queryableSearchMetadataNodes) {
+    return orderReplicas(queryableSearchMetadataNodes, url -> 0).get(0);
+  }
+
   /*
-   If there is only one node hosting the snapshot use that
+   Orders the urls of the nodes hosting a snapshot by preference
    If the same snapshot exists on indexer and cache node prefer cache
-   If there are multiple cache nodes, pick a cache node at random
+   If there are multiple cache nodes, order them at random to spread the load, then pick the better
+   scored of the first two (power of two choices), so slow or busy nodes get fewer requests without
+   sending them all to the one best node
   */
-  private static String pickSearchNodeToQuery(List<SearchMetadata> queryableSearchMetadataNodes) {
-    if (queryableSearchMetadataNodes.size() == 1) {
-      return queryableSearchMetadataNodes.get(0).url;
-    } else {
-      List<SearchMetadata> cacheNodeHostedSearchMetadata = new ArrayList<>();
-      for (SearchMetadata searchMetadata : queryableSearchMetadataNodes) {
-        if (!searchMetadata.snapshotName.startsWith("LIVE")) {
-          cacheNodeHostedSearchMetadata.add(searchMetadata);
-        }
-      }
-      if (cacheNodeHostedSearchMetadata.size() == 1) {
-        return cacheNodeHostedSearchMetadata.get(0).url;
+  private static List<String> orderReplicas(
+      List<SearchMetadata> queryableSearchMetadataNodes, ToDoubleFunction<String> nodeScore) {
+    List<String> cacheNodeUrls = new ArrayList<>();
+    List<String> indexerUrls = new ArrayList<>();
+    for (SearchMetadata searchMetadata : queryableSearchMetadataNodes) {
+      if (searchMetadata.snapshotName.startsWith("LIVE")) {
+        indexerUrls.add(searchMetadata.url);
       } else {
-        return cacheNodeHostedSearchMetadata.get(
-                ThreadLocalRandom.current().nextInt(cacheNodeHostedSearchMetadata.size()))
-            .url;
+        cacheNodeUrls.add(searchMetadata.url);
       }
     }
+    Collections.shuffle(cacheNodeUrls, ThreadLocalRandom.current());
+    if (cacheNodeUrls.size() > 1
+        && nodeScore.applyAsDouble(cacheNodeUrls.get(1))
+            < nodeScore.applyAsDouble(cacheNodeUrls.get(0))) {
+      Collections.swap(cacheNodeUrls, 0, 1);
+    }
+    cacheNodeUrls.addAll(indexerUrls);
+    return cacheNodeUrls;
   }
 
   private KaldbServiceGrpc.KaldbServiceFutureStub getStub(String url) {
@@ -299,25 +453,320 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
     LOG.info("Starting distributed search for request: {}", request);
     ScopedSpan span =
         Tracing.currentTracer().startScopedSpan("KaldbDistributedQueryService.distributedSearch");
+    try {
+      Map<String, List<String>> snapshotReplicas =
+          getSnapshotReplicasToQuery(
+              snapshotMetadataStore,
+              searchMetadataStore,
+              serviceMetadataStore,
+              request.getStartTimeEpochMs(),
+              request.getEndTimeEpochMs(),
+              request.getIndexName(),
+              nodeLatencyTracker::getScore);
+      span.tag("snapshotCount", String.valueOf(snapshotReplicas.size()));
+      return searchWithFailover(request, snapshotReplicas, span);
+    } finally {
+      LOG.info("Finished distributed search for request: {}", request);
+      span.finish();
+    }
+  }
 
-    List<ListenableFuture<SearchResult<LogMessage>>> queryServers = new ArrayList<>(stubs.size());
+  private List<SearchResult<LogMessage>> distributedGetTrace(KaldbSearch.GetTraceRequest request) {
+    LOG.info("Starting distributed trace lookup for request: {}", request);
+    ScopedSpan span =
+        Tracing.currentTracer().startScopedSpan("KaldbDistributedQueryService.distributedGetTrace");
+    try {
+      Collection<String> searchNodeUrls =
+          getSearchNodesToQueryForTrace(
+              snapshotMetadataStore,
+              searchMetadataStore,
+              request.getStartTimeEpochMs(),
+              request.getEndTimeEpochMs(),
+              snapshotMetadata ->
+                  idFilterCache == null
+                      || idFilterCache.mayContainTrace(snapshotMetadata, request.getTraceId()));
+      span.tag("queryServerCount", String.valueOf(searchNodeUrls.size()));
+
+      KaldbSearch.GetTraceRequest nodeRequest =
+          request.toBuilder().setTimeoutMs(getNodeTimeoutMs()).build();
+      return queryNodes(searchNodeUrls, stub -> stub.getTrace(nodeRequest), span);
+    } finally {
+      LOG.info("Finished distributed trace lookup for request: {}", request);
+      span.finish();
+    }
+  }
 
-    List<KaldbServiceGrpc.KaldbServiceFutureStub> queryStubs =
-        getSnapshotUrlsToSearch(
-            request.getStartTimeEpochMs(), request.getEndTimeEpochMs(), request.getIndexName());
-    span.tag("queryServerCount", String.valueOf(queryStubs.size()));
+  private List<SearchResult<LogMessage>> distributedSearchPage(
+      KaldbSearch.SearchStreamRequest request) {
+    LOG.info("Starting distributed search page for request: {}", request);
+    ScopedSpan span =
+        Tracing.currentTracer()
+            .startScopedSpan("KaldbDistributedQueryService.distributedSearchPage");
+    try {
+      // The nodes holding only hits newer than the cursor don't have any hit for the page.
+      KaldbSearch.SearchCursor cursor = SearchStreamPager.getCursor(request);
+      Collection<String> searchNodeUrls =
+          getSearchNodesToQuery(
+              snapshotMetadataStore,
+              searchMetadataStore,
+              serviceMetadataStore,
+              request.getStartTimeEpochMs(),
+              Math.min(request.getEndTimeEpochMs(), cursor.getTimestampEpochMs()),
+              request.getIndexName());
+      span.tag("queryServerCount", String.valueOf(searchNodeUrls.size()));
+
+      KaldbSearch.SearchStreamRequest nodeRequest =
+          request.toBuilder().setCursor(cursor).setTimeoutMs(getNodeTimeoutMs()).build();
+      return queryNodes(searchNodeUrls, stub -> stub.searchPage(nodeRequest), span);
+    } finally {
+      LOG.info("Finished distributed search page for request: {}", request);
+      span.finish();
+    }
+  }
 
-    for (KaldbServiceGrpc.KaldbServiceFutureStub stub : queryStubs) {
+  /**
+   * Searches every snapshot on its preferred replica, with one request per node that lists the
+   * snapshots it covers. When a node fails, or doesn't answer by its deadline, the snapshots it
+   * covers are searched again on their next replicas, so a bad node only costs the snapshots that
+   * have no other replica.
+   *
+   * <p>The retries need time to run, so a node whose snapshots have other replicas gets the time of
+   * the query minus the failover timeout, and returns the results it found by then. The other nodes
+   * get all of it.
+   *
+   * <p>A node that is slower than the hedge delay, a high percentile of the recent node latencies,
+   * is hedged: its snapshots are also searched on their next replicas, and the first answer wins.
+   */
+  private List<SearchResult<LogMessage>> searchWithFailover(
+      KaldbSearch.SearchRequest request,
+      Map<String, List<String>> snapshotReplicas,
+      ScopedSpan span) {
+    long startTimeNanos = System.nanoTime();
+    long hedgeDelayMs = nodeLatencyTracker.getHedgeDelayMs();
+    Map<String, Set<String>> chunkIdsByNode = new HashMap<>();
+    snapshotReplicas.forEach(
+        (chunkId, replicaUrls) ->
+            chunkIdsByNode
+                .computeIfAbsent(replicaUrls.get(0), url -> new HashSet<>())
+                .add(chunkId));
+    span.tag("queryServerCount", String.valueOf(chunkIdsByNode.size()));
+
+    List<ListenableFuture<List<SearchResult<LogMessage>>>> nodeSearches =
+        new ArrayList<>(chunkIdsByNode.size());
+    chunkIdsByNode.forEach(
+        (url, chunkIds) -> {
+          boolean canFailover =
+              chunkIds.stream().anyMatch(chunkId -> snapshotReplicas.get(chunkId).size() > 1);
+          boolean canHedge =
+              chunkIds.stream().allMatch(chunkId -> snapshotReplicas.get(chunkId).size() > 1);
+          long timeoutMs = canFailover ? READ_TIMEOUT_MS - FAILOVER_TIMEOUT_MS : READ_TIMEOUT_MS;
+          HedgedSearch hedgedSearch = new HedgedSearch();
+          hedgedSearch.start(
+              () ->
+                  Futures.transform(
+                      searchNode(request, url, chunkIds, timeoutMs),
+                      searchResult -> List.of(searchResult),
+                      MoreExecutors.directExecutor()),
+              false);
+          if (canHedge && timeoutMs - hedgeDelayMs > 3 * GRPC_TIMEOUT_BUFFER_MS) {
+            hedgedSearch.hedgeAfter(
+                () -> hedge(request, chunkIds, snapshotReplicas, timeoutMs - hedgeDelayMs),
+                hedgeDelayMs);
+          }
+          nodeSearches.add(
+              Futures.catchingAsync(
+                  hedgedSearch.result,
+                  Throwable.class,
+                  (e) -> {
+                    LOG.warn("Search on node {} failed, searching its replicas", url, e);
+                    return failover(
+                        request,
+                        chunkIds,
+                        hedgedSearch.getAttemptCount(),
+                        snapshotReplicas,
+                        startTimeNanos);
+                  },
+                  RequestContext.current().makeContextAware(MoreExecutors.directExecutor())));
+        });
+
+    Future<List<List<SearchResult<LogMessage>>>> searchFuture =
+        Futures.successfulAsList(nodeSearches);
+    try {
+      List<List<SearchResult<LogMessage>>> nodeResults =
+          searchFuture.get(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      List<SearchResult<LogMessage>> result = new ArrayList<>(nodeResults.size());
+      for (List<SearchResult<LogMessage>> searchResults : nodeResults) {
+        if (searchResults == null) {
+          result.add(SearchResult.empty());
+        } else {
+          result.addAll(searchResults);
+        }
+      }
+      return result;
+    } catch (Exception e) {
+      LOG.error("Search failed with ", e);
+      span.error(e);
+      return List.of(SearchResult.empty());
+    } finally {
+      searchFuture.cancel(false);
+    }
+  }
+
+  /**
+   * Searches the snapshots of a failed node on their replicas at the next replica position, with
+   * the time left. The snapshots without another replica, and the replicas that fail too, count as
+   * failed nodes.
+   */
+  private ListenableFuture<List<SearchResult<LogMessage>>> failover(
+      KaldbSearch.SearchRequest request,
+      Set<String> chunkIds,
+      int nextReplica,
+      Map<String, List<String>> snapshotReplicas,
+      long startTimeNanos) {
+    long remainingTimeMs =
+        READ_TIMEOUT_MS
+            - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNanos)
+            - GRPC_TIMEOUT_BUFFER_MS;
+    Map<String, Set<String>> chunkIdsByNode =
+        remainingTimeMs > 3 * GRPC_TIMEOUT_BUFFER_MS
+            ? groupByReplica(chunkIds, nextReplica, snapshotReplicas)
+            : Map.of();
+    distributedQueryFailoverNodes.increment(chunkIdsByNode.size());
+
+    List<ListenableFuture<SearchResult<LogMessage>>> retries = new ArrayList<>();
+    int retriedChunks = chunkIdsByNode.values().stream().mapToInt(Set::size).sum();
+    if (retriedChunks < chunkIds.size()) {
+      // The snapshots that can't be searched again are reported as one failed node.
+      retries.add(Futures.immediateFuture(SearchResult.empty()));
+    }
+    chunkIdsByNode.forEach(
+        (url, replicaChunkIds) ->
+            retries.add(
+                Futures.catching(
+                    searchNode(request, url, replicaChunkIds, remainingTimeMs),
+                    Throwable.class,
+                    (e) -> {
+                      LOG.warn("Search on replica node {} failed", url, e);
+                      return SearchResult.empty();
+                    },
+                    MoreExecutors.directExecutor())));
+    return Futures.allAsList(retries);
+  }
+
+  /**
+   * Searches the snapshots of a slow node on their second replicas, within the given time. Unlike a
+   * failover, it fails if any of these replicas fails, so the slow node can still answer.
+   */
+  private ListenableFuture<List<SearchResult<LogMessage>>> hedge(
+      KaldbSearch.SearchRequest request,
+      Set<String> chunkIds,
+      Map<String, List<String>> snapshotReplicas,
+      long timeoutMs) {
+    List<ListenableFuture<SearchResult<LogMessage>>> hedges = new ArrayList<>();
+    groupByReplica(chunkIds, 1, snapshotReplicas)
+        .forEach(
+            (url, replicaChunkIds) ->
+                hedges.add(searchNode(request, url, replicaChunkIds, timeoutMs)));
+    return Futures.allAsList(hedges);
+  }
+
+  /** Groups the chunks that have a replica at the given position by the url of that replica. */
+  private static Map<String, Set<String>> groupByReplica(
+      Set<String> chunkIds, int replica, Map<String, List<String>> snapshotReplicas) {
+    Map<String, Set<String>> chunkIdsByNode = new HashMap<>();
+    for (String chunkId : chunkIds) {
+      List<String> replicaUrls = snapshotReplicas.get(chunkId);
+      if (replica < replicaUrls.size()) {
+        chunkIdsByNode
+            .computeIfAbsent(replicaUrls.get(replica), url -> new HashSet<>())
+            .add(chunkId);
+      }
+    }
+    return chunkIdsByNode;
+  }
+
+  /** Searches the given chunks of a node, within the given time. */
+  private ListenableFuture<SearchResult<LogMessage>> searchNode(
+      KaldbSearch.SearchRequest request, String url, Set<String> chunkIds, long timeoutMs) {
+    KaldbServiceGrpc.KaldbServiceFutureStub stub = getStub(url);
+    if (stub == null) {
+      return Futures.immediateFailedFuture(
+          new IllegalStateException("No stub for search node " + url));
+    }
+    KaldbSearch.SearchRequest nodeRequest =
+        request
+            .toBuilder()
+            .clearChunkIds()
+            .addAllChunkIds(chunkIds)
+            .setTimeoutMs(timeoutMs - 3 * GRPC_TIMEOUT_BUFFER_MS)
+            .build();
+    ListenableFuture<KaldbSearch.SearchResult> searchRequest =
+        stub.withDeadlineAfter(timeoutMs - GRPC_TIMEOUT_BUFFER_MS, TimeUnit.MILLISECONDS)
+            .withInterceptors(
+                GrpcTracing.newBuilder(Tracing.current()).build().newClientInterceptor())
+            .search(nodeRequest);
+    trackLatency(url, searchRequest);
+    return Futures.transform(
+        searchRequest,
+        SearchResultUtils::fromSearchResultProto,
+        RequestContext.current().makeContextAware(MoreExecutors.directExecutor()));
+  }
+
+  /** Records the latency of a node request in the node latency tracker when it completes. */
+  private void trackLatency(String url, ListenableFuture<?> nodeRequest) {
+    long startTimeNanos = System.nanoTime();
+    nodeLatencyTracker.onRequest(url);
+    nodeRequest.addListener(
+        () -> {
+          long latencyNanos = System.nanoTime() - startTimeNanos;
+          if (nodeRequest.isCancelled()) {
+            nodeLatencyTracker.onCancel(url, latencyNanos);
+            return;
+          }
+          boolean failed = false;
+          try {
+            Futures.getDone(nodeRequest);
+          } catch (ExecutionException e) {
+            failed = true;
+          }
+          nodeLatencyTracker.onResponse(url, latencyNanos, failed);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  // The search nodes stop searching well before the deadline of the stubs, so they have time to
+  // gather the partial results of the snapshots that timed out and send them back.
+  private static long getNodeTimeoutMs() {
+    return READ_TIMEOUT_MS - 3 * GRPC_TIMEOUT_BUFFER_MS;
+  }
+
+  /** Sends a request to every node and returns their results, or empty results on failures. */
+  private List<SearchResult<LogMessage>> queryNodes(
+      Collection<String> searchNodeUrls,
+      Function<KaldbServiceGrpc.KaldbServiceFutureStub, ListenableFuture<KaldbSearch.SearchResult>>
+          nodeRequest,
+      ScopedSpan span) {
+    List<ListenableFuture<SearchResult<LogMessage>>> queryServers =
+        new ArrayList<>(searchNodeUrls.size());
+    long stubTimeoutMs = READ_TIMEOUT_MS - GRPC_TIMEOUT_BUFFER_MS;
+
+    for (String searchNodeUrl : searchNodeUrls) {
+      KaldbServiceGrpc.KaldbServiceFutureStub stub = getStub(searchNodeUrl);
+      if (stub == null) {
+        queryServers.add(Futures.immediateFuture(SearchResult.empty()));
+        continue;
+      }
 
       // make sure all underlying futures finish executing (successful/cancelled/failed/other)
       // and cannot be pending when the successfulAsList.get(SAME_TIMEOUT_MS) runs
       ListenableFuture<KaldbSearch.SearchResult> searchRequest =
-          stub.withDeadlineAfter(READ_TIMEOUT_MS - GRPC_TIMEOUT_BUFFER_MS, TimeUnit.MILLISECONDS)
-              .withInterceptors(
-                  GrpcTracing.newBuilder(Tracing.current()).build().newClientInterceptor())
-              .search(request);
+          nodeRequest.apply(
+              stub.withDeadlineAfter(stubTimeoutMs, TimeUnit.MILLISECONDS)
+                  .withInterceptors(
+                      GrpcTracing.newBuilder(Tracing.current()).build().newClientInterceptor()));
+      trackLatency(searchNodeUrl, searchRequest);
       Function<KaldbSearch.SearchResult, SearchResult<LogMessage>> searchRequestTransform =
-          SearchResultUtils::fromSearchResultProtoOrEmpty;
+          SearchResultUtils::fromSearchResultProto;
       queryServers.add(
           Futures.transform(
               searchRequest,
@@ -344,29 +793,9 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
       // always request future cancellation, so that any exceptions or incomplete futures don't
       // continue to consume CPU on work that will not be used
       searchFuture.cancel(false);
-      LOG.info("Finished distributed search for request: {}", request);
-      span.finish();
     }
   }
 
-  private List<KaldbServiceGrpc.KaldbServiceFutureStub> getSnapshotUrlsToSearch(
-      long startTimeEpochMs, long endTimeEpochMs, String indexName) {
-    Collection<String> searchNodeUrls =
-        getSearchNodesToQuery(
-            snapshotMetadataStore,
-            searchMetadataStore,
-            serviceMetadataStore,
-            startTimeEpochMs,
-            endTimeEpochMs,
-            indexName);
-    ArrayList<KaldbServiceGrpc.KaldbServiceFutureStub> stubs =
-        new ArrayList<>(searchNodeUrls.size());
-    for (String searchNodeUrl : searchNodeUrls) {
-      stubs.add(getStub(searchNodeUrl));
-    }
-    return stubs;
-  }
-
   public KaldbSearch.SearchResult doSearch(KaldbSearch.SearchRequest request) {
     try {
       List<SearchResult<LogMessage>> searchResults = distributedSearch(request);
@@ -379,6 +808,7 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
       distributedQueryFailedNodes.increment(aggregatedResult.failedNodes);
       distributedQueryTotalSnapshots.increment(aggregatedResult.totalSnapshots);
       distributedQuerySnapshotsWithReplicas.increment(aggregatedResult.snapshotsWithReplicas);
+      distributedQueryTimedOutSnapshots.increment(aggregatedResult.timedOutSnapshots);
 
       LOG.debug("aggregatedResult={}", aggregatedResult);
       return SearchResultUtils.toSearchResultProto(aggregatedResult);
@@ -387,4 +817,136 @@ public class KaldbDistributedQueryService extends KaldbQueryServiceBase {
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Returns the page of a search stream after the cursor of the request. Every node returns its own
+   * page after the cursor, so the page is made of the newest hits of these pages, and the hits of
+   * the nodes that aren't in it are searched again by the next page.
+   */
+  @Override
+  public KaldbSearch.SearchResult doSearchPage(KaldbSearch.SearchStreamRequest request) {
+    try {
+      List<SearchResult<LogMessage>> searchResults = distributedSearchPage(request);
+      SearchResult<LogMessage> aggregatedResult =
+          ((SearchResultAggregator<LogMessage>)
+                  new SearchResultAggregatorImpl<>(
+                      SearchResultUtils.fromSearchStreamRequest(request)))
+              .aggregate(searchResults);
+
+      distributedQueryTotalNodes.increment(aggregatedResult.totalNodes);
+      distributedQueryFailedNodes.increment(aggregatedResult.failedNodes);
+      distributedQueryTotalSnapshots.increment(aggregatedResult.totalSnapshots);
+      distributedQuerySnapshotsWithReplicas.increment(aggregatedResult.snapshotsWithReplicas);
+      distributedQueryTimedOutSnapshots.increment(aggregatedResult.timedOutSnapshots);
+
+      LOG.debug("aggregatedResult={}", aggregatedResult);
+      return SearchStreamPager.toPage(
+          aggregatedResult, SearchStreamPager.getCursor(request), request.getPageSize());
+    } catch (Exception e) {
+      LOG.error("Distributed search page failed", e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public KaldbSearch.SearchResult doGetTrace(KaldbSearch.GetTraceRequest request) {
+    try {
+      List<SearchResult<LogMessage>> searchResults = distributedGetTrace(request);
+      SearchResult<LogMessage> aggregatedResult =
+          ((SearchResultAggregator<LogMessage>)
+                  new SearchResultAggregatorImpl<>(SearchResultUtils.fromGetTraceRequest(request)))
+              .aggregate(searchResults);
+      LOG.debug("aggregatedResult={}", aggregatedResult);
+      return SearchResultUtils.toSearchResultProto(aggregatedResult);
+    } catch (Exception e) {
+      LOG.error("Distributed trace lookup failed", e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * The search of a node that may be hedged on the replicas of its snapshots. The first attempt to
+   * succeed wins and the others are cancelled, and the search only fails once all its attempts did.
+   */
+  private class HedgedSearch {
+    private final SettableFuture<List<SearchResult<LogMessage>>> result = SettableFuture.create();
+    private final List<Future<?>> attempts = new ArrayList<>();
+    private int pendingAttempts = 0;
+
+    private HedgedSearch() {
+      result.addListener(
+          () -> {
+            if (result.isCancelled()) {
+              cancelAttempts();
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    synchronized void start(
+        Supplier<ListenableFuture<List<SearchResult<LogMessage>>>> search, boolean isHedge) {
+      if (result.isDone()) {
+        return;
+      }
+      if (isHedge) {
+        distributedQueryHedgedNodes.increment();
+      }
+      ListenableFuture<List<SearchResult<LogMessage>>> attempt = search.get();
+      attempts.add(attempt);
+      pendingAttempts++;
+      Futures.addCallback(
+          attempt,
+          new FutureCallback<List<SearchResult<LogMessage>>>() {
+            @Override
+            public void onSuccess(List<SearchResult<LogMessage>> searchResults) {
+              onAttemptSuccess(searchResults, isHedge);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              onAttemptFailure(t);
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    /** Starts the hedge after the given delay, unless the search completed by then. */
+    void hedgeAfter(
+        Supplier<ListenableFuture<List<SearchResult<LogMessage>>>> hedge, long delayMs) {
+      ScheduledFuture<?> hedgeTimer =
+          hedgeExecutor.schedule(
+              RequestContext.current().makeContextAware(() -> start(hedge, true)),
+              delayMs,
+              TimeUnit.MILLISECONDS);
+      result.addListener(() -> hedgeTimer.cancel(false), MoreExecutors.directExecutor());
+    }
+
+    /** Returns the number of replicas of the snapshots that were searched. */
+    synchronized int getAttemptCount() {
+      return attempts.size();
+    }
+
+    private synchronized void onAttemptSuccess(
+        List<SearchResult<LogMessage>> searchResults, boolean isHedge) {
+      if (result.set(searchResults)) {
+        if (isHedge) {
+          distributedQueryHedgeWins.increment();
+        }
+        cancelAttempts();
+      }
+    }
+
+    private synchronized void onAttemptFailure(Throwable t) {
+      pendingAttempts--;
+      if (pendingAttempts == 0) {
+        result.setException(t);
+      }
+    }
+
+    private synchronized void cancelAttempts() {
+      for (Future<?> attempt : attempts) {
+        attempt.cancel(true);
+      }
+    }
+  }
 }
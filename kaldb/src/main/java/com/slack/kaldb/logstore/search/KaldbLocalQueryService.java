@@ -3,12 +3,13 @@ package com.slack.kaldb.logstore.search;
 import brave.ScopedSpan;
 import brave.Tracing;
 import com.slack.kaldb.chunkManager.ChunkManager;
+import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.server.KaldbQueryServiceBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class KaldbLocalQueryService<T> extends KaldbQueryServiceBase {
+public class KaldbLocalQueryService<T extends LogMessage> extends KaldbQueryServiceBase {
   private static final Logger LOG = LoggerFactory.getLogger(KaldbLocalQueryService.class);
 
   private final ChunkManager<T> chunkManager;
@@ -32,4 +33,41 @@ public class KaldbLocalQueryService<T> extends KaldbQueryServiceBase {
     LOG.info("Finished search request: {}", request);
     return result;
   }
+
+  @Override
+  public KaldbSearch.SearchResult doGetTrace(KaldbSearch.GetTraceRequest request) {
+    LOG.info("Received trace request: {}", request);
+    ScopedSpan span = Tracing.currentTracer().startScopedSpan("KaldbLocalQueryService.doGetTrace");
+    SearchQuery query = SearchResultUtils.fromGetTraceRequest(request);
+    span.tag("query", query.toString());
+    SearchResult<T> searchResult = chunkManager.query(query);
+    KaldbSearch.SearchResult result = SearchResultUtils.toSearchResultProto(searchResult);
+    span.tag("totalNodes", String.valueOf(result.getTotalNodes()));
+    span.tag("failedNodes", String.valueOf(result.getFailedNodes()));
+    span.tag("hitCount", String.valueOf(result.getHitsCount()));
+    span.finish();
+    LOG.info("Finished trace request: {}", request);
+    return result;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public KaldbSearch.SearchResult doSearchPage(KaldbSearch.SearchStreamRequest request) {
+    LOG.info("Received search page request: {}", request);
+    ScopedSpan span =
+        Tracing.currentTracer().startScopedSpan("KaldbLocalQueryService.doSearchPage");
+    SearchQuery query = SearchResultUtils.fromSearchStreamRequest(request);
+    span.tag("query", query.toString());
+    // The pages are cut from the hits by their timestamps and ids, so they need the log messages.
+    SearchResult<LogMessage> searchResult = (SearchResult<LogMessage>) chunkManager.query(query);
+    KaldbSearch.SearchResult result =
+        SearchStreamPager.toPage(
+            searchResult, SearchStreamPager.getCursor(request), request.getPageSize());
+    span.tag("totalNodes", String.valueOf(result.getTotalNodes()));
+    span.tag("failedNodes", String.valueOf(result.getFailedNodes()));
+    span.tag("hitCount", String.valueOf(result.getHitsCount()));
+    span.finish();
+    LOG.info("Finished search page request: {}", request);
+    return result;
+  }
 }
@@ -1,8 +1,60 @@
 package com.slack.kaldb.logstore.search;
 
+import com.slack.kaldb.logstore.search.aggregations.MetricsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggregation;
 import java.io.Closeable;
+import java.time.Duration;
 
 public interface LogIndexSearcher<T> extends Closeable {
+  // A negative timeout lets the search run until it's complete.
+  Duration NO_TIMEOUT = Duration.ofMillis(-1);
+
+  default SearchResult<T> search(
+      String indexName, String query, long minTime, long maxTime, int howMany, int bucketCount) {
+    return search(indexName, query, minTime, maxTime, howMany, bucketCount, NO_TIMEOUT);
+  }
+
+  /** Searches the documents of the given index. */
+  default SearchResult<T> search(
+      String indexName,
+      String query,
+      long minTime,
+      long maxTime,
+      int howMany,
+      int bucketCount,
+      Duration timeout) {
+    return search(
+        QueryPlan.compile(indexName, query, minTime, maxTime).withIndexFilter(),
+        howMany,
+        bucketCount,
+        timeout);
+  }
+
+  default SearchResult<T> search(
+      QueryPlan queryPlan, int howMany, int bucketCount, Duration timeout) {
+    return search(queryPlan, howMany, bucketCount, null, timeout);
+  }
+
+  default SearchResult<T> search(
+      QueryPlan queryPlan,
+      int howMany,
+      int bucketCount,
+      TermsAggregation termsAggregation,
+      Duration timeout) {
+    return search(queryPlan, howMany, bucketCount, termsAggregation, null, timeout);
+  }
+
+  /**
+   * Searches the index until the timeout passes. A search that reaches the timeout returns the
+   * results it found until then, and reports them as partial in the timedOutSnapshots of the
+   * result. The terms of the terms aggregation are counted, and the metrics of the metrics
+   * aggregation computed, when they're not null.
+   */
   SearchResult<T> search(
-      String indexName, String query, long minTime, long maxTime, int howMany, int bucketCount);
+      QueryPlan queryPlan,
+      int howMany,
+      int bucketCount,
+      TermsAggregation termsAggregation,
+      MetricsAggregation metricsAggregation,
+      Duration timeout);
 }
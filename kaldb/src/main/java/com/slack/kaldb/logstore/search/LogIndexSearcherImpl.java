@@ -1,7 +1,5 @@
 package com.slack.kaldb.logstore.search;
 
-import static com.slack.kaldb.util.ArgValidationUtils.ensureNonEmptyString;
-import static com.slack.kaldb.util.ArgValidationUtils.ensureNonNullString;
 import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
 
 import brave.ScopedSpan;
@@ -11,26 +9,33 @@ import com.google.common.base.Stopwatch;
 import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
 import com.slack.kaldb.histogram.Histogram;
 import com.slack.kaldb.histogram.NoOpHistogramImpl;
+import com.slack.kaldb.logstore.LogDocumentBuilderImpl;
 import com.slack.kaldb.logstore.LogMessage;
-import com.slack.kaldb.logstore.LogMessage.ReservedField;
 import com.slack.kaldb.logstore.LogMessage.SystemField;
-import com.slack.kaldb.logstore.LogWireMessage;
-import com.slack.kaldb.util.JsonUtil;
+import com.slack.kaldb.logstore.StoredSource;
+import com.slack.kaldb.logstore.search.aggregations.MetricsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.MetricsCollector;
+import com.slack.kaldb.logstore.search.aggregations.MetricsResult;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.TermsCollector;
+import com.slack.kaldb.logstore.search.aggregations.TermsResult;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.search.BooleanQuery.Builder;
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.ExitableDirectoryReader.ExitingReaderException;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.index.QueryTimeoutImpl;
 import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MultiCollectorManager;
 import org.apache.lucene.search.Query;
@@ -52,8 +57,14 @@ import org.slf4j.LoggerFactory;
 public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
   private static final Logger LOG = LoggerFactory.getLogger(LogIndexSearcherImpl.class);
 
+  private static final Sort TIMESTAMP_SORT =
+      new Sort(new SortField(SystemField.TIME_SINCE_EPOCH.fieldName, Type.LONG, true));
+
   private final SearcherManager searcherManager;
-  private final StandardAnalyzer analyzer;
+  // The types of the dynamically mapped fields in the index.
+  private final Map<String, FieldType> schema;
+  // The version of the analyzers the index was indexed with.
+  private final int analyzerVersion;
 
   @VisibleForTesting
   public static SearcherManager searcherManagerFromPath(Path path) throws IOException {
@@ -71,76 +82,164 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
   }
 
   public LogIndexSearcherImpl(SearcherManager searcherManager) {
-    this.searcherManager = searcherManager;
-    this.analyzer = new StandardAnalyzer();
+    this(searcherManager, Map.of());
   }
 
-  // Lucene's query parsers are not thread safe. So, create a new one for every request.
-  private QueryParser buildQueryParser() {
-    return new QueryParser(ReservedField.MESSAGE.fieldName, analyzer);
+  public LogIndexSearcherImpl(SearcherManager searcherManager, Map<String, FieldType> schema) {
+    this(searcherManager, schema, LogDocumentBuilderImpl.ANALYZER_VERSION);
+  }
+
+  public LogIndexSearcherImpl(
+      SearcherManager searcherManager, Map<String, FieldType> schema, int analyzerVersion) {
+    this.searcherManager = searcherManager;
+    this.schema = schema;
+    this.analyzerVersion = analyzerVersion;
   }
 
+  @Override
   public SearchResult<LogMessage> search(
-      String indexName,
-      String queryStr,
-      long startTimeMsEpoch,
-      long endTimeMsEpoch,
+      QueryPlan queryPlan,
       int howMany,
-      int bucketCount) {
-
-    ensureNonEmptyString(indexName, "indexName should be a non-empty string");
-    ensureNonNullString(queryStr, "query should be a non-empty string");
-    ensureTrue(startTimeMsEpoch >= 0, "start time should be non-negative value");
-    ensureTrue(startTimeMsEpoch < endTimeMsEpoch, "end time should be greater than start time");
+      int bucketCount,
+      TermsAggregation termsAggregation,
+      MetricsAggregation metricsAggregation,
+      Duration timeout) {
     ensureTrue(howMany >= 0, "hits requested should not be negative.");
     ensureTrue(bucketCount >= 0, "bucket count should not be negative.");
-    ensureTrue(howMany > 0 || bucketCount > 0, "Hits or histogram should be requested.");
+    ensureTrue(
+        howMany > 0 || bucketCount > 0 || termsAggregation != null || metricsAggregation != null,
+        "Hits, histogram, terms or metrics should be requested.");
 
+    long startTimeMsEpoch = queryPlan.startTimeMsEpoch;
+    long endTimeMsEpoch = queryPlan.endTimeMsEpoch;
     ScopedSpan span = Tracing.currentTracer().startScopedSpan("LogIndexSearcherImpl.search");
-    span.tag("indexName", indexName);
-    span.tag("queryStr", queryStr);
+    span.tag("indexName", queryPlan.indexName);
+    span.tag("queryStr", queryPlan.queryStr);
     span.tag("startTimeMsEpoch", String.valueOf(startTimeMsEpoch));
     span.tag("endTimeMsEpoch", String.valueOf(endTimeMsEpoch));
     span.tag("howMany", String.valueOf(howMany));
     span.tag("bucketCount", String.valueOf(bucketCount));
+    span.tag("timeout", timeout.toString());
+    if (termsAggregation != null) {
+      span.tag("termsAggregation", termsAggregation.toString());
+    }
+    if (metricsAggregation != null) {
+      span.tag("metricsAggregation", metricsAggregation.toString());
+    }
 
     Stopwatch elapsedTime = Stopwatch.createStarted();
+    // A negative timeout never expires.
+    QueryTimeout queryTimeout = new QueryTimeoutImpl(timeout.toMillis());
     try {
-      Query query = buildQuery(indexName, queryStr, startTimeMsEpoch, endTimeMsEpoch);
+      Query query = queryPlan.getQuery(schema, analyzerVersion);
       span.tag("lucene query", query.toString());
 
       // Acquire an index searcher from searcher manager.
       // This is a useful optimization for indexes that are static.
       IndexSearcher searcher = searcherManager.acquire();
       try {
-        List<LogMessage> results;
+        List<LogMessage> results = Collections.emptyList();
         Histogram histogram = new NoOpHistogramImpl();
+        List<TermsResult> terms = Collections.emptyList();
+        List<MetricsResult> metrics = Collections.emptyList();
+        boolean timedOut = false;
 
-        CollectorManager<StatsCollector, Histogram> statsCollector =
-            buildStatsCollector(bucketCount, startTimeMsEpoch, endTimeMsEpoch);
+        // When the query only matches a time range, the histogram is counted from the sorted
+        // timestamps of the index, so the collectors don't need to visit every matching document.
+        boolean countFromIndexSort =
+            bucketCount > 0
+                && queryPlan.isTimeRangeOnly()
+                && SortedTimestampCounter.canCount(searcher.getIndexReader());
+        span.tag("countFromIndexSort", String.valueOf(countFromIndexSort));
+        if (countFromIndexSort) {
+          FixedIntervalHistogramImpl sortedHistogram =
+              new FixedIntervalHistogramImpl(startTimeMsEpoch, endTimeMsEpoch, bucketCount);
+          SortedTimestampCounter.count(
+              searcher.getIndexReader(), sortedHistogram, startTimeMsEpoch, endTimeMsEpoch);
+          histogram = sortedHistogram;
+        }
+        boolean collectStats = bucketCount > 0 && !countFromIndexSort;
+        boolean collectTerms = termsAggregation != null;
+        boolean collectMetrics = metricsAggregation != null;
+
+        if (howMany > 0 || collectStats || collectTerms || collectMetrics) {
+          // The exitable reader stops the enumeration of terms, like the expansion of a wildcard
+          // query, and the collectors stop collecting documents once the query times out.
+          IndexSearcher timeLimitedSearcher = searcher;
+          if (!timeout.isNegative()) {
+            timeLimitedSearcher =
+                new IndexSearcher(
+                    ExitableDirectoryReader.wrap(
+                        (DirectoryReader) searcher.getIndexReader(), queryTimeout));
+          }
 
-        if (howMany > 0) {
-          CollectorManager<TopFieldCollector, TopFieldDocs> topFieldCollector =
-              buildTopFieldCollector(howMany, bucketCount > 0 ? Integer.MAX_VALUE : howMany);
-          MultiCollectorManager collectorManager;
-          if (bucketCount > 0) {
-            collectorManager = new MultiCollectorManager(topFieldCollector, statsCollector);
-          } else {
-            collectorManager = new MultiCollectorManager(topFieldCollector);
+          // The hits, the histogram and the aggregations are collected in a single pass over the
+          // matching documents. The top hits can only stop early when nothing else is collected.
+          boolean collectAll = collectStats || collectTerms || collectMetrics;
+          List<CollectorManager<?, ?>> collectorManagers = new ArrayList<>(4);
+          if (howMany > 0) {
+            collectorManagers.add(
+                buildTopFieldCollector(howMany, collectAll ? Integer.MAX_VALUE : howMany));
+          }
+          if (collectStats) {
+            collectorManagers.add(
+                StatsCollector.collectorManager(bucketCount, startTimeMsEpoch, endTimeMsEpoch));
           }
-          Object[] collector = searcher.search(query, collectorManager);
+          if (collectTerms) {
+            collectorManagers.add(
+                TermsCollector.collectorManager(
+                    termsAggregation, bucketCount, startTimeMsEpoch, endTimeMsEpoch));
+          }
+          if (collectMetrics) {
+            collectorManagers.add(
+                MetricsCollector.collectorManager(
+                    metricsAggregation,
+                    schema.get(metricsAggregation.field) == FieldType.DOUBLE,
+                    bucketCount,
+                    startTimeMsEpoch,
+                    endTimeMsEpoch));
+          }
+          TimeLimitedCollectorManager<?, Object[]> collectorManager =
+              new TimeLimitedCollectorManager<>(
+                  new MultiCollectorManager(
+                      collectorManagers.toArray(new CollectorManager<?, ?>[0])),
+                  queryTimeout);
+          Object[] collected;
+          try {
+            collected = timeLimitedSearcher.search(query, collectorManager);
+          } catch (ExitingReaderException e) {
+            // The query timed out while the reader enumerated the terms of a segment. The segments
+            // before it may already be collected, so their documents are still reported.
+            collected = collectorManager.reduceTimedOut();
+          }
+          timedOut = collectorManager.isTimedOut();
 
-          ScoreDoc[] hits = ((TopFieldDocs) collector[0]).scoreDocs;
-          results = new ArrayList<>(hits.length);
-          for (ScoreDoc hit : hits) {
-            results.add(buildLogMessage(searcher, hit));
+          int next = 0;
+          if (howMany > 0) {
+            ScoreDoc[] hits = ((TopFieldDocs) collected[next++]).scoreDocs;
+            results = new ArrayList<>(hits.length);
+            for (ScoreDoc hit : hits) {
+              results.add(buildLogMessage(searcher, hit));
+            }
+          }
+          if (collectStats) {
+            histogram = (Histogram) collected[next++];
           }
-          if (bucketCount > 0) {
-            histogram = ((Histogram) collector[1]);
+          if (collectTerms) {
+            @SuppressWarnings("unchecked")
+            List<TermsResult> collectedTerms = (List<TermsResult>) collected[next++];
+            terms = collectedTerms;
           }
-        } else {
-          results = Collections.emptyList();
-          histogram = searcher.search(query, statsCollector);
+          if (collectMetrics) {
+            @SuppressWarnings("unchecked")
+            List<MetricsResult> collectedMetrics = (List<MetricsResult>) collected[next];
+            metrics = collectedMetrics;
+          }
+        }
+        span.tag("timedOut", String.valueOf(timedOut));
+        if (timedOut) {
+          LOG.warn(
+              "Search of query {} timed out after {}, returning partial results", query, timeout);
         }
 
         elapsedTime.stop();
@@ -152,14 +251,13 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
             0,
             0,
             1,
-            1);
+            1,
+            timedOut ? 1 : 0,
+            terms,
+            metrics);
       } finally {
         searcherManager.release(searcher);
       }
-    } catch (ParseException e) {
-      span.error(e);
-      throw new IllegalArgumentException("Unable to parse query string: " + queryStr, e);
-      // TODO: Return Empty search result?
     } catch (IOException e) {
       span.error(e);
       throw new IllegalArgumentException("Failed to acquire an index searcher.", e);
@@ -168,15 +266,17 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
     }
   }
 
+  // The hits are sorted by timestamp, so the timestamp of a hit is read from its sort value instead
+  // of the source, and the source map is only decoded when it's needed.
   private LogMessage buildLogMessage(IndexSearcher searcher, ScoreDoc hit) {
-    String s = "";
+    IndexableField source = null;
     try {
-      s = searcher.doc(hit.doc).get(SystemField.SOURCE.fieldName);
-      LogWireMessage wireMessage = JsonUtil.read(s, LogWireMessage.class);
-      return new LogMessage(
-          wireMessage.getIndex(), wireMessage.getType(), wireMessage.id, wireMessage.source);
+      source = searcher.doc(hit.doc).getField(SystemField.SOURCE.fieldName);
+      long timeSinceEpochMilli = (Long) ((FieldDoc) hit).fields[0];
+      return StoredSource.decode(source, timeSinceEpochMilli);
     } catch (IOException e) {
-      throw new IllegalStateException("Error fetching and parsing a result from index: " + s, e);
+      throw new IllegalStateException(
+          "Error fetching and parsing a result from index: " + source, e);
     }
   }
 
@@ -190,62 +290,13 @@ public class LogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
   private CollectorManager<TopFieldCollector, TopFieldDocs> buildTopFieldCollector(
       int howMany, int totalHitsThreshold) {
     if (howMany > 0) {
-      SortField sortField = new SortField(SystemField.TIME_SINCE_EPOCH.fieldName, Type.LONG, true);
       return TopFieldCollector.createSharedManager(
-          new Sort(sortField), howMany, null, totalHitsThreshold);
+          TIMESTAMP_SORT, howMany, null, totalHitsThreshold);
     } else {
       return null;
     }
   }
 
-  private CollectorManager<StatsCollector, Histogram> buildStatsCollector(
-      int bucketCount, long startTimeMsEpoch, long endTimeMsEpoch) {
-    Histogram histogram =
-        bucketCount > 0
-            ? new FixedIntervalHistogramImpl(startTimeMsEpoch, endTimeMsEpoch, bucketCount)
-            : new NoOpHistogramImpl();
-
-    return new CollectorManager<>() {
-      @Override
-      public StatsCollector newCollector() {
-        return new StatsCollector(histogram);
-      }
-
-      @Override
-      public Histogram reduce(Collection<StatsCollector> collectors) {
-        Histogram histogram = null;
-        for (StatsCollector collector : collectors) {
-          if (histogram == null) {
-            histogram = collector.getHistogram();
-          } else {
-            histogram.mergeHistogram(collector.getHistogram().getBuckets());
-          }
-        }
-        return histogram;
-      }
-    };
-  }
-
-  private Query buildQuery(
-      String indexName, String queryStr, long startTimeMsEpoch, long endTimeMsEpoch)
-      throws ParseException {
-    Builder queryBuilder = new Builder();
-
-    // todo - we currently do not enforce searching against an index name, as we do not support
-    //  multi-tenancy yet - see https://github.com/slackhq/kaldb/issues/223. Once index filtering
-    //  is support at snapshot/query layer this should be re-enabled as appropriate.
-    // queryBuilder.add(new TermQuery(new Term(SystemField.INDEX.fieldName, indexName)),
-    // Occur.MUST);
-    queryBuilder.add(
-        LongPoint.newRangeQuery(
-            SystemField.TIME_SINCE_EPOCH.fieldName, startTimeMsEpoch, endTimeMsEpoch),
-        Occur.MUST);
-    if (queryStr.length() > 0) {
-      queryBuilder.add(buildQueryParser().parse(queryStr), Occur.MUST);
-    }
-    return queryBuilder.build();
-  }
-
   @Override
   public void close() {
     try {
@@ -0,0 +1,157 @@
+package com.slack.kaldb.logstore.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the latency and the load of the search nodes, as the query service sees them, to pick the
+ * replica of a snapshot to search and to decide when a slow node request is hedged.
+ *
+ * <p>The latency of a node is an exponentially weighted moving average of its response times. Its
+ * score is that latency times its requests in flight plus one, so a node that is slow or busy gets
+ * fewer requests. A node without responses yet scores zero, so it's tried early. A failed request
+ * counts as slow as the slowest recent response, so a node that fails fast doesn't attract load.
+ *
+ * <p>The hedge delay is a percentile of the recent response times of all the nodes, so a request is
+ * only hedged once it's slower than most.
+ */
+public class NodeLatencyTracker {
+  public static final String NODE_SCORE = "distributed_query_node_score";
+
+  private static final double EWMA_WEIGHT = 0.2;
+  private static final double HEDGE_PERCENTILE = 0.95;
+  private static final int LATENCY_WINDOW_SIZE = 1024;
+  // The hedge delay isn't computed until enough responses are in the window.
+  private static final int MIN_HEDGE_SAMPLES = 100;
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, NodeStats> nodes = new ConcurrentHashMap<>();
+
+  // The recent response times of all the nodes, in a ring buffer.
+  private final long[] latencyWindowMicros = new long[LATENCY_WINDOW_SIZE];
+  private int latencyWindowCount = 0;
+  private int nextLatencyIndex = 0;
+
+  public NodeLatencyTracker(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  /** Called when a request is sent to a node. */
+  public void onRequest(String url) {
+    getNodeStats(url).inFlight.incrementAndGet();
+  }
+
+  /**
+   * Called when a request to a node completes or fails. The node may have been removed while the
+   * request was in flight, then only the latency window is updated, so the stats and the gauge of
+   * the node aren't created again.
+   */
+  public void onResponse(String url, long latencyNanos, boolean failed) {
+    long latencyMicros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+    if (!failed) {
+      addToLatencyWindow(latencyMicros);
+    }
+    NodeStats nodeStats = nodes.get(url);
+    if (nodeStats == null) return;
+
+    nodeStats.inFlight.decrementAndGet();
+    nodeStats.addLatency(failed ? Math.max(latencyMicros, getMaxLatencyMicros()) : latencyMicros);
+  }
+
+  /**
+   * Called when a request to a node is cancelled, like the slower one of a hedged pair. Its latency
+   * is only a lower bound, so it counts for the node but not for the hedge delay.
+   */
+  public void onCancel(String url, long latencyNanos) {
+    NodeStats nodeStats = nodes.get(url);
+    if (nodeStats == null) return;
+
+    nodeStats.inFlight.decrementAndGet();
+    nodeStats.addLatency(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+  }
+
+  /** Returns the score of a node, lower is better. */
+  public double getScore(String url) {
+    NodeStats nodeStats = nodes.get(url);
+    return nodeStats == null ? 0 : nodeStats.getScore();
+  }
+
+  /**
+   * Returns the time after which a node request is hedged, or Long.MAX_VALUE until there are enough
+   * responses to tell.
+   */
+  public synchronized long getHedgeDelayMs() {
+    if (latencyWindowCount < MIN_HEDGE_SAMPLES) {
+      return Long.MAX_VALUE;
+    }
+    long[] latencies = Arrays.copyOf(latencyWindowMicros, latencyWindowCount);
+    Arrays.sort(latencies);
+    int index = (int) Math.ceil(HEDGE_PERCENTILE * latencies.length) - 1;
+    return Math.max(1, TimeUnit.MICROSECONDS.toMillis(latencies[index]));
+  }
+
+  /** Drops the stats of a node that left the cluster. */
+  public void removeNode(String url) {
+    NodeStats nodeStats = nodes.remove(url);
+    if (nodeStats != null) {
+      meterRegistry.remove(nodeStats.scoreGauge);
+    }
+  }
+
+  private NodeStats getNodeStats(String url) {
+    return nodes.computeIfAbsent(
+        url,
+        (nodeUrl) -> {
+          NodeStats nodeStats = new NodeStats();
+          nodeStats.scoreGauge =
+              Gauge.builder(NODE_SCORE, nodeStats, NodeStats::getScore)
+                  .tag("node", nodeUrl)
+                  .register(meterRegistry);
+          return nodeStats;
+        });
+  }
+
+  private synchronized void addToLatencyWindow(long latencyMicros) {
+    latencyWindowMicros[nextLatencyIndex] = latencyMicros;
+    nextLatencyIndex = (nextLatencyIndex + 1) % LATENCY_WINDOW_SIZE;
+    latencyWindowCount = Math.min(latencyWindowCount + 1, LATENCY_WINDOW_SIZE);
+  }
+
+  private synchronized long getMaxLatencyMicros() {
+    long maxLatencyMicros = 0;
+    for (int i = 0; i < latencyWindowCount; i++) {
+      maxLatencyMicros = Math.max(maxLatencyMicros, latencyWindowMicros[i]);
+    }
+    return maxLatencyMicros;
+  }
+
+  @VisibleForTesting
+  int getInFlight(String url) {
+    NodeStats nodeStats = nodes.get(url);
+    return nodeStats == null ? 0 : nodeStats.inFlight.get();
+  }
+
+  private static class NodeStats {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // The moving average of the latency, or a negative value before the first response.
+    private volatile double ewmaLatencyMicros = -1;
+    private Gauge scoreGauge;
+
+    private synchronized void addLatency(long latencyMicros) {
+      ewmaLatencyMicros =
+          ewmaLatencyMicros < 0
+              ? latencyMicros
+              : EWMA_WEIGHT * latencyMicros + (1 - EWMA_WEIGHT) * ewmaLatencyMicros;
+    }
+
+    private double getScore() {
+      return Math.max(0, ewmaLatencyMicros) * (Math.max(0, inFlight.get()) + 1);
+    }
+  }
+}
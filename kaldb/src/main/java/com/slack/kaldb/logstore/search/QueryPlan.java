@@ -0,0 +1,264 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.util.ArgValidationUtils.ensureNonEmptyString;
+import static com.slack.kaldb.util.ArgValidationUtils.ensureNonNullString;
+import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.slack.kaldb.logstore.LogDocumentBuilderImpl;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.LogMessage.ReservedField;
+import com.slack.kaldb.logstore.LogMessage.SystemField;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * A QueryPlan holds the Lucene query of a search request, so it's built once per request instead of
+ * once per chunk. Lucene queries are immutable, so the same query is run on every chunk.
+ *
+ * <p>The query string is parsed and analyzed up front. The typed queries of the dynamically mapped
+ * fields depend on the schema of a chunk, but only on the types of the fields in the query. So, the
+ * query is parsed once for every combination of these types across the chunks, which is usually
+ * just one. The parsed queries are kept in a small LRU cache keyed by the query string, so repeated
+ * queries, like the ones of dashboards, aren't parsed again. The chunks indexed with an older
+ * version of the analyzers are queried with a query parsed with those analyzers.
+ *
+ * <p>The documents of a chunk are only filtered by index if the chunk contains documents of other
+ * indexes, so the plan with the index filter is derived from the plan without it on demand.
+ */
+public class QueryPlan {
+  // The index name of the queries that search the documents of all the indexes, like trace lookups.
+  public static final String ALL_INDEXES = "*";
+
+  private static final int MAX_CACHED_QUERIES = 1000;
+
+  // Analyzers are thread safe, so all the query parsers of a version of the analyzers share one.
+  private static final Map<Integer, Analyzer> ANALYZERS = new ConcurrentHashMap<>();
+
+  private static final Cache<String, ParsedQuery> PARSED_QUERIES =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_QUERIES).build();
+
+  // The index name as it's indexed in the documents.
+  public final String indexName;
+  public final String queryStr;
+  public final long startTimeMsEpoch;
+  public final long endTimeMsEpoch;
+  // The hits of a page of a search stream are at or before this time. It's Long.MAX_VALUE for the
+  // other queries.
+  public final long searchAfterTimeMsEpoch;
+
+  private final ParsedQuery parsedQuery;
+  private final boolean filterIndex;
+  private final Query timeRangeQuery;
+  // The queries of the chunks, by the parsed user query they are built from.
+  private final Map<Query, Query> queries = new ConcurrentHashMap<>();
+  // The query of the chunks when the query string is empty.
+  private final Query emptyQuery;
+  private volatile QueryPlan indexFilterPlan;
+
+  private QueryPlan(
+      String indexName,
+      String queryStr,
+      long startTimeMsEpoch,
+      long endTimeMsEpoch,
+      long searchAfterTimeMsEpoch,
+      ParsedQuery parsedQuery,
+      boolean filterIndex) {
+    this.indexName = indexName;
+    this.queryStr = queryStr;
+    this.startTimeMsEpoch = startTimeMsEpoch;
+    this.endTimeMsEpoch = endTimeMsEpoch;
+    this.searchAfterTimeMsEpoch = searchAfterTimeMsEpoch;
+    this.parsedQuery = parsedQuery;
+    this.filterIndex = filterIndex;
+    // The hits are only sorted by time, so searching after a time is a bound of the time range,
+    // which skips the newer documents in the points index instead of collecting and dropping them.
+    this.timeRangeQuery =
+        LongPoint.newRangeQuery(
+            SystemField.TIME_SINCE_EPOCH.fieldName,
+            startTimeMsEpoch,
+            Math.min(endTimeMsEpoch, searchAfterTimeMsEpoch));
+    this.emptyQuery = filterIndex ? buildQuery(null) : timeRangeQuery;
+  }
+
+  /**
+   * Validates and parses a query. Throws an IllegalArgumentException if the query string can't be
+   * parsed.
+   */
+  public static QueryPlan compile(
+      String indexName, String queryStr, long startTimeMsEpoch, long endTimeMsEpoch) {
+    return compile(indexName, queryStr, startTimeMsEpoch, endTimeMsEpoch, Long.MAX_VALUE);
+  }
+
+  /**
+   * Compiles the query of a page of a search stream, which only returns the hits at or before the
+   * search-after time.
+   */
+  public static QueryPlan compile(
+      String indexName,
+      String queryStr,
+      long startTimeMsEpoch,
+      long endTimeMsEpoch,
+      long searchAfterTimeMsEpoch) {
+    ensureNonEmptyString(indexName, "indexName should be a non-empty string");
+    ensureNonNullString(queryStr, "query should be a non-empty string");
+    ensureTrue(startTimeMsEpoch >= 0, "start time should be non-negative value");
+    ensureTrue(startTimeMsEpoch < endTimeMsEpoch, "end time should be greater than start time");
+
+    ParsedQuery parsedQuery = PARSED_QUERIES.getIfPresent(queryStr);
+    if (parsedQuery == null) {
+      parsedQuery = ParsedQuery.parse(queryStr);
+      PARSED_QUERIES.put(queryStr, parsedQuery);
+    }
+    return new QueryPlan(
+        LogMessage.computedIndexName(indexName),
+        queryStr,
+        startTimeMsEpoch,
+        endTimeMsEpoch,
+        searchAfterTimeMsEpoch,
+        parsedQuery,
+        false);
+  }
+
+  /** Returns this plan with a filter that only matches the documents of the queried index. */
+  public QueryPlan withIndexFilter() {
+    if (filterIndex || indexName.equals(ALL_INDEXES)) {
+      return this;
+    }
+    // Concurrent searches may both build the plan, which is harmless as the plans are equivalent.
+    QueryPlan plan = indexFilterPlan;
+    if (plan == null) {
+      plan =
+          new QueryPlan(
+              indexName,
+              queryStr,
+              startTimeMsEpoch,
+              endTimeMsEpoch,
+              searchAfterTimeMsEpoch,
+              parsedQuery,
+              true);
+      indexFilterPlan = plan;
+    }
+    return plan;
+  }
+
+  /** Returns the query to run on a chunk with the given schema. */
+  public Query getQuery(Map<String, FieldType> schema) {
+    return getQuery(schema, LogDocumentBuilderImpl.ANALYZER_VERSION);
+  }
+
+  /**
+   * Returns the query to run on a chunk with the given schema, which was indexed with the given
+   * version of the analyzers.
+   */
+  public Query getQuery(Map<String, FieldType> schema, int analyzerVersion) {
+    Query userQuery = parsedQuery.getUserQuery(schema, analyzerVersion);
+    if (userQuery == null) {
+      return emptyQuery;
+    }
+    return queries.computeIfAbsent(userQuery, this::buildQuery);
+  }
+
+  /** Returns true if the query matches all the documents in the time range. */
+  public boolean isTimeRangeOnly() {
+    Query defaultQuery = parsedQuery.defaultQuery;
+    return !filterIndex && (defaultQuery == null || defaultQuery instanceof MatchAllDocsQuery);
+  }
+
+  private Query buildQuery(Query userQuery) {
+    BooleanQuery.Builder queryBuilder = new BooleanQuery.Builder();
+    queryBuilder.add(timeRangeQuery, Occur.MUST);
+    if (filterIndex) {
+      queryBuilder.add(
+          new TermQuery(new Term(SystemField.INDEX.fieldName, indexName)), Occur.FILTER);
+    }
+    if (userQuery != null) {
+      queryBuilder.add(userQuery, Occur.MUST);
+    }
+    return queryBuilder.build();
+  }
+
+  @VisibleForTesting
+  static void clearCache() {
+    PARSED_QUERIES.invalidateAll();
+  }
+
+  @VisibleForTesting
+  static long getCachedQueryCount() {
+    return PARSED_QUERIES.size();
+  }
+
+  // A query string parsed without a schema, and the queries parsed with the field types and the
+  // analyzer versions of chunks.
+  private static class ParsedQuery {
+    private final String queryStr;
+    // Null for an empty query string, which matches all the documents.
+    private final Query defaultQuery;
+    private final Set<String> typedFields;
+    private final Map<Map.Entry<Integer, Map<String, FieldType>>, Query> typedQueries =
+        new ConcurrentHashMap<>();
+
+    private ParsedQuery(String queryStr, Query defaultQuery, Set<String> typedFields) {
+      this.queryStr = queryStr;
+      this.defaultQuery = defaultQuery;
+      this.typedFields = typedFields;
+    }
+
+    static ParsedQuery parse(String queryStr) {
+      if (queryStr.isEmpty()) {
+        return new ParsedQuery(queryStr, null, Set.of());
+      }
+      SchemaAwareQueryParser parser =
+          newQueryParser(Map.of(), LogDocumentBuilderImpl.ANALYZER_VERSION);
+      Query defaultQuery = parse(parser, queryStr);
+      return new ParsedQuery(queryStr, defaultQuery, Set.copyOf(parser.getTypedFields()));
+    }
+
+    Query getUserQuery(Map<String, FieldType> schema, int analyzerVersion) {
+      Map<String, FieldType> fieldTypes = new HashMap<>();
+      for (String field : typedFields) {
+        FieldType fieldType = schema.get(field);
+        if (fieldType != null) {
+          fieldTypes.put(field, fieldType);
+        }
+      }
+      if (defaultQuery == null
+          || (fieldTypes.isEmpty() && analyzerVersion == LogDocumentBuilderImpl.ANALYZER_VERSION)) {
+        return defaultQuery;
+      }
+      return typedQueries.computeIfAbsent(
+          Map.entry(analyzerVersion, fieldTypes),
+          (key) -> parse(newQueryParser(key.getValue(), key.getKey()), queryStr));
+    }
+
+    // Lucene's query parsers are not thread safe. So, create a new one for every parse.
+    private static SchemaAwareQueryParser newQueryParser(
+        Map<String, FieldType> schema, int analyzerVersion) {
+      Analyzer analyzer =
+          ANALYZERS.computeIfAbsent(analyzerVersion, LogDocumentBuilderImpl::buildAnalyzer);
+      return new SchemaAwareQueryParser(ReservedField.MESSAGE.fieldName, analyzer, schema);
+    }
+
+    private static Query parse(SchemaAwareQueryParser parser, String queryStr) {
+      try {
+        return parser.parse(queryStr);
+      } catch (ParseException e) {
+        throw new IllegalArgumentException("Unable to parse query string: " + queryStr, e);
+      }
+    }
+  }
+}
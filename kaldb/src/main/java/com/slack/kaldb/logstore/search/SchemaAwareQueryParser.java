@@ -0,0 +1,216 @@
+package com.slack.kaldb.logstore.search;
+
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+
+/**
+ * A query parser that builds typed queries for the dynamically mapped fields of a chunk. Terms and
+ * ranges on numeric fields are parsed into point queries, and terms on keyword fields are matched
+ * without being analyzed. The fields that are not in the schema are parsed as before.
+ *
+ * <p>Values that conflicted with the type of their field were indexed as text. So, the query on a
+ * mapped field also includes the text query the default parser would build for it.
+ */
+class SchemaAwareQueryParser extends QueryParser {
+  private final Map<String, FieldType> schema;
+  // The fields whose type was looked up while parsing. The parsed query only depends on the types
+  // of these fields.
+  private final Set<String> typedFields = new HashSet<>();
+
+  SchemaAwareQueryParser(String defaultField, Analyzer analyzer, Map<String, FieldType> schema) {
+    super(defaultField, analyzer);
+    this.schema = schema;
+  }
+
+  @Override
+  protected Query getFieldQuery(String field, String queryText, boolean quoted)
+      throws ParseException {
+    Query textQuery = super.getFieldQuery(field, queryText, quoted);
+    FieldType fieldType = fieldType(field);
+    if (fieldType == null) {
+      return textQuery;
+    }
+
+    Query typedQuery = null;
+    switch (fieldType) {
+      case KEYWORD:
+        typedQuery = new TermQuery(new Term(field, queryText));
+        break;
+      case LONG:
+        Long longValue = parseLong(queryText);
+        if (longValue != null) {
+          typedQuery = LongPoint.newExactQuery(field, longValue);
+        }
+        break;
+      case DOUBLE:
+        Double doubleValue = parseDouble(queryText);
+        if (doubleValue != null) {
+          typedQuery = DoublePoint.newExactQuery(field, doubleValue);
+        }
+        break;
+      default:
+        break;
+    }
+    return either(typedQuery, textQuery);
+  }
+
+  @Override
+  protected Query getRangeQuery(
+      String field, String part1, String part2, boolean startInclusive, boolean endInclusive)
+      throws ParseException {
+    Query textQuery = super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+    FieldType fieldType = fieldType(field);
+    if (fieldType == null) {
+      return textQuery;
+    }
+
+    Query typedQuery = null;
+    switch (fieldType) {
+      case KEYWORD:
+        typedQuery =
+            TermRangeQuery.newStringRange(field, part1, part2, startInclusive, endInclusive);
+        break;
+      case LONG:
+        typedQuery = longRangeQuery(field, part1, part2, startInclusive, endInclusive);
+        break;
+      case DOUBLE:
+        typedQuery = doubleRangeQuery(field, part1, part2, startInclusive, endInclusive);
+        break;
+      default:
+        break;
+    }
+    return either(typedQuery, textQuery);
+  }
+
+  @Override
+  protected Query getPrefixQuery(String field, String termStr) throws ParseException {
+    Query textQuery = super.getPrefixQuery(field, termStr);
+    if (fieldType(field) == FieldType.KEYWORD) {
+      return either(newPrefixQuery(new Term(field, termStr)), textQuery);
+    }
+    return textQuery;
+  }
+
+  @Override
+  protected Query getWildcardQuery(String field, String termStr) throws ParseException {
+    Query textQuery = super.getWildcardQuery(field, termStr);
+    if (fieldType(field) == FieldType.KEYWORD) {
+      return either(newWildcardQuery(new Term(field, termStr)), textQuery);
+    }
+    return textQuery;
+  }
+
+  /** Returns the fields whose type was looked up in the schema while parsing. */
+  Set<String> getTypedFields() {
+    return typedFields;
+  }
+
+  private FieldType fieldType(String field) {
+    if (field == null) {
+      return null;
+    }
+    typedFields.add(field);
+    return schema.get(field);
+  }
+
+  // A null bound is an open end of the range. Returns null if a bound is not a long.
+  private static Query longRangeQuery(
+      String field, String part1, String part2, boolean startInclusive, boolean endInclusive) {
+    long lower = Long.MIN_VALUE;
+    if (part1 != null) {
+      Long value = parseLong(part1);
+      if (value == null) {
+        return null;
+      }
+      if (!startInclusive) {
+        if (value == Long.MAX_VALUE) {
+          return new MatchNoDocsQuery();
+        }
+        value = value + 1;
+      }
+      lower = value;
+    }
+
+    long upper = Long.MAX_VALUE;
+    if (part2 != null) {
+      Long value = parseLong(part2);
+      if (value == null) {
+        return null;
+      }
+      if (!endInclusive) {
+        if (value == Long.MIN_VALUE) {
+          return new MatchNoDocsQuery();
+        }
+        value = value - 1;
+      }
+      upper = value;
+    }
+    return LongPoint.newRangeQuery(field, lower, upper);
+  }
+
+  // A null bound is an open end of the range. Returns null if a bound is not a number.
+  private static Query doubleRangeQuery(
+      String field, String part1, String part2, boolean startInclusive, boolean endInclusive) {
+    double lower = Double.NEGATIVE_INFINITY;
+    if (part1 != null) {
+      Double value = parseDouble(part1);
+      if (value == null) {
+        return null;
+      }
+      lower = startInclusive ? value : DoublePoint.nextUp(value);
+    }
+
+    double upper = Double.POSITIVE_INFINITY;
+    if (part2 != null) {
+      Double value = parseDouble(part2);
+      if (value == null) {
+        return null;
+      }
+      upper = endInclusive ? value : DoublePoint.nextDown(value);
+    }
+    return DoublePoint.newRangeQuery(field, lower, upper);
+  }
+
+  private static Query either(Query typedQuery, Query textQuery) {
+    if (typedQuery == null) {
+      return textQuery;
+    }
+    if (textQuery == null) {
+      return typedQuery;
+    }
+    return new BooleanQuery.Builder()
+        .add(typedQuery, Occur.SHOULD)
+        .add(textQuery, Occur.SHOULD)
+        .build();
+  }
+
+  private static Long parseLong(String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static Double parseDouble(String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
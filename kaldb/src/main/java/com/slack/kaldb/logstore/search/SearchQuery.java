@@ -1,5 +1,16 @@
 package com.slack.kaldb.logstore.search;
 
+import static com.slack.kaldb.server.KaldbConfig.LOCAL_QUERY_TIMEOUT_DURATION;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.aggregations.MetricsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggregation;
+import java.time.Duration;
+import java.util.Set;
+import org.apache.lucene.queryparser.classic.QueryParser;
+
 /** A class that represents a search query internally to LogStore. */
 public class SearchQuery {
   public final String indexName;
@@ -9,6 +20,27 @@ public class SearchQuery {
   public final long endTimeEpochMs;
   public final int howMany;
   public final int bucketCount;
+  public final Duration timeout;
+  // The ids of the chunks to search, so the query service can send the snapshots of a failed node
+  // to their other replicas. Empty to search all the chunks.
+  public final Set<String> chunkIds;
+  // The trace id of a trace lookup, which searches the spans of the trace in all the indexes. Null
+  // for the other queries.
+  public final String traceId;
+  // The hits of a page of a search stream are at or before this time. Long.MAX_VALUE for the other
+  // queries.
+  public final long searchAfterTimeEpochMs;
+  // The terms aggregation of the query, or null if it doesn't count terms.
+  public final TermsAggregation termsAggregation;
+  // The metrics aggregation of the query, or null if it doesn't compute metrics.
+  public final MetricsAggregation metricsAggregation;
+
+  // The System.nanoTime at which the search stops and returns the results found so far. The time
+  // a query waits for a search thread counts towards its timeout.
+  private final long deadlineNanos;
+
+  // The query is compiled once, by the first chunk that searches it, and shared by all the chunks.
+  private final Supplier<QueryPlan> queryPlan;
 
   public SearchQuery(
       String indexName,
@@ -17,12 +49,194 @@ public class SearchQuery {
       long endTimeEpochMs,
       int howMany,
       int bucketCount) {
+    this(
+        indexName,
+        queryStr,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        howMany,
+        bucketCount,
+        LOCAL_QUERY_TIMEOUT_DURATION);
+  }
+
+  public SearchQuery(
+      String indexName,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      int bucketCount,
+      Duration timeout) {
+    this(
+        indexName,
+        queryStr,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        howMany,
+        bucketCount,
+        timeout,
+        Set.of());
+  }
+
+  public SearchQuery(
+      String indexName,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      int bucketCount,
+      Duration timeout,
+      Set<String> chunkIds) {
+    this(
+        indexName,
+        queryStr,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        howMany,
+        bucketCount,
+        timeout,
+        chunkIds,
+        null);
+  }
+
+  public SearchQuery(
+      String indexName,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      int bucketCount,
+      Duration timeout,
+      Set<String> chunkIds,
+      TermsAggregation termsAggregation) {
+    this(
+        indexName,
+        queryStr,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        howMany,
+        bucketCount,
+        timeout,
+        chunkIds,
+        termsAggregation,
+        null);
+  }
+
+  public SearchQuery(
+      String indexName,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      int bucketCount,
+      Duration timeout,
+      Set<String> chunkIds,
+      TermsAggregation termsAggregation,
+      MetricsAggregation metricsAggregation) {
+    this(
+        indexName,
+        queryStr,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        howMany,
+        bucketCount,
+        timeout,
+        chunkIds,
+        null,
+        Long.MAX_VALUE,
+        termsAggregation,
+        metricsAggregation);
+  }
+
+  private SearchQuery(
+      String indexName,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      int bucketCount,
+      Duration timeout,
+      Set<String> chunkIds,
+      String traceId,
+      long searchAfterTimeEpochMs,
+      TermsAggregation termsAggregation,
+      MetricsAggregation metricsAggregation) {
     this.indexName = indexName;
     this.queryStr = queryStr;
     this.startTimeEpochMs = startTimeEpochMs;
     this.endTimeEpochMs = endTimeEpochMs;
     this.howMany = howMany;
     this.bucketCount = bucketCount;
+    this.timeout = timeout;
+    this.chunkIds = chunkIds;
+    this.traceId = traceId;
+    this.searchAfterTimeEpochMs = searchAfterTimeEpochMs;
+    this.termsAggregation = termsAggregation;
+    this.metricsAggregation = metricsAggregation;
+    this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+    this.queryPlan =
+        Suppliers.memoize(
+            () ->
+                QueryPlan.compile(
+                    indexName, queryStr, startTimeEpochMs, endTimeEpochMs, searchAfterTimeEpochMs));
+  }
+
+  /** Returns a query for the spans of a trace in all the indexes. */
+  public static SearchQuery forTrace(
+      String traceId, long startTimeEpochMs, long endTimeEpochMs, int howMany, Duration timeout) {
+    return new SearchQuery(
+        QueryPlan.ALL_INDEXES,
+        LogMessage.ReservedField.TRACE_ID.fieldName + ":" + QueryParser.escape(traceId),
+        startTimeEpochMs,
+        endTimeEpochMs,
+        howMany,
+        0,
+        timeout,
+        Set.of(),
+        traceId,
+        Long.MAX_VALUE,
+        null,
+        null);
+  }
+
+  /**
+   * Returns a query for a page of a search stream, whose hits are at or before the search-after
+   * time. Pages don't have histograms.
+   */
+  public static SearchQuery forPage(
+      String indexName,
+      String queryStr,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      int howMany,
+      long searchAfterTimeEpochMs,
+      Duration timeout) {
+    return new SearchQuery(
+        indexName,
+        queryStr,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        howMany,
+        0,
+        timeout,
+        Set.of(),
+        null,
+        searchAfterTimeEpochMs,
+        null,
+        null);
+  }
+
+  /**
+   * Returns the compiled query. Throws an IllegalArgumentException if the query string can't be
+   * parsed.
+   */
+  public QueryPlan getQueryPlan() {
+    return queryPlan.get();
+  }
+
+  /** Returns the time left until the timeout of the query, or zero once it has passed. */
+  public Duration getRemainingTime() {
+    return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
   }
 
   @Override
@@ -42,6 +256,18 @@ public class SearchQuery {
         + howMany
         + ", bucketCount="
         + bucketCount
+        + ", timeout="
+        + timeout
+        + ", chunkIds="
+        + chunkIds
+        + ", traceId="
+        + traceId
+        + ", searchAfterTimeEpochMs="
+        + searchAfterTimeEpochMs
+        + ", termsAggregation="
+        + termsAggregation
+        + ", metricsAggregation="
+        + metricsAggregation
         + '}';
   }
 }
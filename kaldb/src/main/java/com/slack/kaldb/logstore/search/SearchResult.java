@@ -3,6 +3,8 @@ package com.slack.kaldb.logstore.search;
 import com.google.common.base.Objects;
 import com.slack.kaldb.histogram.HistogramBucket;
 import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.aggregations.MetricsResult;
+import com.slack.kaldb.logstore.search.aggregations.TermsResult;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -27,6 +29,15 @@ public class SearchResult<T> {
   public final int totalNodes;
   public final int totalSnapshots;
   public final int snapshotsWithReplicas;
+  // The snapshots whose search stopped at the timeout of the query. Their hits and counts only
+  // include the documents found until then.
+  public final int timedOutSnapshots;
+  // The top terms of the terms aggregation of the query, one per histogram bucket when the terms
+  // are counted per bucket. Empty if the query doesn't count terms.
+  public final List<TermsResult> terms;
+  // The metrics of the metrics aggregation of the query, one per histogram bucket when the metrics
+  // are per bucket. Empty if the query doesn't compute metrics.
+  public final List<MetricsResult> metrics;
 
   public SearchResult() {
     this.hits = new ArrayList<>();
@@ -37,6 +48,9 @@ public class SearchResult<T> {
     this.totalNodes = 0;
     this.totalSnapshots = 0;
     this.snapshotsWithReplicas = 0;
+    this.timedOutSnapshots = 0;
+    this.terms = new ArrayList<>();
+    this.metrics = new ArrayList<>();
   }
 
   // TODO: Move stats into a separate struct.
@@ -49,6 +63,78 @@ public class SearchResult<T> {
       int totalNodes,
       int totalSnapshots,
       int snapshotsWithReplicas) {
+    this(
+        hits,
+        tookMicros,
+        totalCount,
+        buckets,
+        failedNodes,
+        totalNodes,
+        totalSnapshots,
+        snapshotsWithReplicas,
+        0);
+  }
+
+  public SearchResult(
+      List<T> hits,
+      long tookMicros,
+      long totalCount,
+      List<HistogramBucket> buckets,
+      int failedNodes,
+      int totalNodes,
+      int totalSnapshots,
+      int snapshotsWithReplicas,
+      int timedOutSnapshots) {
+    this(
+        hits,
+        tookMicros,
+        totalCount,
+        buckets,
+        failedNodes,
+        totalNodes,
+        totalSnapshots,
+        snapshotsWithReplicas,
+        timedOutSnapshots,
+        Collections.emptyList());
+  }
+
+  public SearchResult(
+      List<T> hits,
+      long tookMicros,
+      long totalCount,
+      List<HistogramBucket> buckets,
+      int failedNodes,
+      int totalNodes,
+      int totalSnapshots,
+      int snapshotsWithReplicas,
+      int timedOutSnapshots,
+      List<TermsResult> terms) {
+    this(
+        hits,
+        tookMicros,
+        totalCount,
+        buckets,
+        failedNodes,
+        totalNodes,
+        totalSnapshots,
+        snapshotsWithReplicas,
+        timedOutSnapshots,
+        terms,
+        Collections.emptyList());
+  }
+
+  public SearchResult(
+      List<T> hits,
+      long tookMicros,
+      long totalCount,
+      List<HistogramBucket> buckets,
+      int failedNodes,
+      int totalNodes,
+      int totalSnapshots,
+      int snapshotsWithReplicas,
+      int timedOutSnapshots,
+      List<TermsResult> terms,
+      List<MetricsResult> metrics) {
     this.hits = hits;
     this.tookMicros = tookMicros;
     this.totalCount = totalCount;
@@ -57,6 +143,9 @@ public class SearchResult<T> {
     this.totalNodes = totalNodes;
     this.totalSnapshots = totalSnapshots;
     this.snapshotsWithReplicas = snapshotsWithReplicas;
+    this.timedOutSnapshots = timedOutSnapshots;
+    this.terms = terms;
+    this.metrics = metrics;
   }
 
   @Override
@@ -70,8 +159,11 @@ public class SearchResult<T> {
         && totalNodes == that.totalNodes
         && totalSnapshots == that.totalSnapshots
         && snapshotsWithReplicas == that.snapshotsWithReplicas
+        && timedOutSnapshots == that.timedOutSnapshots
         && Objects.equal(hits, that.hits)
-        && Objects.equal(buckets, that.buckets);
+        && Objects.equal(buckets, that.buckets)
+        && Objects.equal(terms, that.terms)
+        && Objects.equal(metrics, that.metrics);
   }
 
   @Override
@@ -84,7 +176,10 @@ public class SearchResult<T> {
         failedNodes,
         totalNodes,
         totalSnapshots,
-        snapshotsWithReplicas);
+        snapshotsWithReplicas,
+        timedOutSnapshots,
+        terms,
+        metrics);
   }
 
   public static SearchResult<LogMessage> empty() {
@@ -110,6 +205,12 @@ public class SearchResult<T> {
         + totalSnapshots
         + ", snapshotsWithReplicas="
         + snapshotsWithReplicas
+        + ", timedOutSnapshots="
+        + timedOutSnapshots
+        + ", terms="
+        + terms
+        + ", metrics="
+        + metrics
         + '}';
   }
 }
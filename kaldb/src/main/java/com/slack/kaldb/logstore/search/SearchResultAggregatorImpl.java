@@ -3,16 +3,25 @@ package com.slack.kaldb.logstore.search;
 import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
 import com.slack.kaldb.histogram.Histogram;
 import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.aggregations.MetricsResult;
+import com.slack.kaldb.logstore.search.aggregations.TermsResult;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * This class will merge multiple search results into a single search result. Takes all the hits
  * from all the search results and returns the topK most recent results. The histogram will be
  * merged using the histogram merge function.
+ *
+ * <p>The hits of every search result are sorted by time, newest first, so the topK hits are found
+ * with a k-way merge of the results that stops after k hits, instead of sorting all the hits. The
+ * hits with the same timestamp keep the order of the results they come from.
+ *
+ * <p>The top terms of a terms aggregation are merged into the top shard size terms, so the results
+ * of the chunks of a node and of the nodes are merged the same way. The metrics of a metrics
+ * aggregation are merged by adding their counts, sums and sketches.
  */
 public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchResultAggregator<T> {
 
@@ -29,6 +38,7 @@ public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchR
     int totalNodes = 0;
     int totalSnapshots = 0;
     int snapshpotReplicas = 0;
+    int timedOutSnapshots = 0;
     int totalCount = 0;
     Optional<Histogram> histogram =
         searchQuery.bucketCount > 0
@@ -45,18 +55,20 @@ public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchR
       totalNodes += searchResult.totalNodes;
       totalSnapshots += searchResult.totalSnapshots;
       snapshpotReplicas += searchResult.snapshotsWithReplicas;
+      timedOutSnapshots += searchResult.timedOutSnapshots;
       totalCount += searchResult.totalCount;
       histogram.ifPresent(value -> value.mergeHistogram(searchResult.buckets));
     }
 
-    // TODO: Instead of sorting all hits using a bounded priority queue of size k is more efficient.
-    List<T> resultHits =
-        searchResults
-            .stream()
-            .flatMap(r -> r.hits.stream())
-            .sorted(Comparator.comparing((T m) -> m.timeSinceEpochMilli, Comparator.reverseOrder()))
-            .limit(searchQuery.howMany)
-            .collect(Collectors.toList());
+    List<T> resultHits = mergeHits(searchResults, searchQuery.howMany);
+    List<TermsResult> terms =
+        searchQuery.termsAggregation != null
+            ? mergeTerms(searchResults, searchQuery.termsAggregation.shardSize)
+            : Collections.emptyList();
+    List<MetricsResult> metrics =
+        searchQuery.metricsAggregation != null
+            ? mergeMetrics(searchResults)
+            : Collections.emptyList();
 
     return new SearchResult<>(
         resultHits,
@@ -66,6 +78,142 @@ public class SearchResultAggregatorImpl<T extends LogMessage> implements SearchR
         failedNodes,
         totalNodes,
         totalSnapshots,
-        snapshpotReplicas);
+        snapshpotReplicas,
+        timedOutSnapshots,
+        terms,
+        metrics);
+  }
+
+  /**
+   * Merges the top terms of the search results. The results that failed or timed out before they
+   * counted any terms have none, and are skipped.
+   */
+  static <T> List<TermsResult> mergeTerms(List<SearchResult<T>> searchResults, int shardSize) {
+    List<List<TermsResult>> resultTerms = new ArrayList<>(searchResults.size());
+    int termsCount = 0;
+    for (SearchResult<T> searchResult : searchResults) {
+      if (!searchResult.terms.isEmpty()) {
+        resultTerms.add(searchResult.terms);
+        termsCount = Math.max(termsCount, searchResult.terms.size());
+      }
+    }
+
+    List<TermsResult> mergedTerms = new ArrayList<>(termsCount);
+    for (int i = 0; i < termsCount; i++) {
+      List<TermsResult> termsResults = new ArrayList<>(resultTerms.size());
+      for (List<TermsResult> terms : resultTerms) {
+        if (i < terms.size()) {
+          termsResults.add(terms.get(i));
+        }
+      }
+      mergedTerms.add(TermsResult.merge(termsResults, shardSize));
+    }
+    return mergedTerms;
+  }
+
+  /**
+   * Merges the metrics of the search results, bucket by bucket. The results that failed or timed
+   * out before they computed any metrics have none, and are skipped.
+   */
+  static <T> List<MetricsResult> mergeMetrics(List<SearchResult<T>> searchResults) {
+    int metricsCount = 0;
+    for (SearchResult<T> searchResult : searchResults) {
+      metricsCount = Math.max(metricsCount, searchResult.metrics.size());
+    }
+
+    List<MetricsResult> mergedMetrics = new ArrayList<>(metricsCount);
+    for (int i = 0; i < metricsCount; i++) {
+      List<MetricsResult> metricsResults = new ArrayList<>(searchResults.size());
+      for (SearchResult<T> searchResult : searchResults) {
+        if (i < searchResult.metrics.size()) {
+          metricsResults.add(searchResult.metrics.get(i));
+        }
+      }
+      mergedMetrics.add(MetricsResult.merge(metricsResults));
+    }
+    return mergedMetrics;
+  }
+
+  /** Merges the newest hits of the search results, up to howMany hits. */
+  static <T extends LogMessage> List<T> mergeHits(
+      List<SearchResult<T>> searchResults, int howMany) {
+    List<List<T>> hitLists = new ArrayList<>(searchResults.size());
+    int totalHits = 0;
+    for (SearchResult<T> searchResult : searchResults) {
+      if (!searchResult.hits.isEmpty()) {
+        hitLists.add(sortedByTime(searchResult.hits));
+        totalHits += searchResult.hits.size();
+      }
+    }
+    int limit = Math.min(Math.max(howMany, 0), totalHits);
+    if (hitLists.size() == 1) {
+      return new ArrayList<>(hitLists.get(0).subList(0, limit));
+    }
+
+    // The heap holds the index of the next hit of every hit list, and the hit lists are ordered by
+    // the timestamp of their next hit, then by their position to break ties.
+    int[] heap = new int[hitLists.size()];
+    int[] nextHit = new int[hitLists.size()];
+    long[] nextTime = new long[hitLists.size()];
+    for (int i = 0; i < heap.length; i++) {
+      heap[i] = i;
+      nextTime[i] = hitLists.get(i).get(0).timeSinceEpochMilli;
+    }
+    int heapSize = heap.length;
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(heap, heapSize, i, nextTime);
+    }
+
+    List<T> hits = new ArrayList<>(limit);
+    while (hits.size() < limit) {
+      int list = heap[0];
+      List<T> hitList = hitLists.get(list);
+      hits.add(hitList.get(nextHit[list]));
+      nextHit[list]++;
+      if (nextHit[list] < hitList.size()) {
+        nextTime[list] = hitList.get(nextHit[list]).timeSinceEpochMilli;
+      } else {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(heap, heapSize, 0, nextTime);
+    }
+    return hits;
+  }
+
+  // Returns true if the hit list a should be merged before the hit list b.
+  private static boolean isBefore(int a, int b, long[] nextTime) {
+    return nextTime[a] > nextTime[b] || (nextTime[a] == nextTime[b] && a < b);
+  }
+
+  private static void siftDown(int[] heap, int heapSize, int position, long[] nextTime) {
+    int list = heap[position];
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && isBefore(heap[child + 1], heap[child], nextTime)) {
+        child++;
+      }
+      if (!isBefore(heap[child], list, nextTime)) {
+        break;
+      }
+      heap[position] = heap[child];
+      position = child;
+    }
+    heap[position] = list;
+  }
+
+  // The hits of the search results are sorted by time, but the ones of other aggregators may not
+  // be, so they are checked and sorted if needed.
+  private static <T extends LogMessage> List<T> sortedByTime(List<T> hits) {
+    for (int i = 1; i < hits.size(); i++) {
+      if (hits.get(i - 1).timeSinceEpochMilli < hits.get(i).timeSinceEpochMilli) {
+        List<T> sortedHits = new ArrayList<>(hits);
+        sortedHits.sort((a, b) -> Long.compare(b.timeSinceEpochMilli, a.timeSinceEpochMilli));
+        return sortedHits;
+      }
+    }
+    return hits;
   }
 }
@@ -1,66 +1,134 @@
 package com.slack.kaldb.logstore.search;
 
+import static com.slack.kaldb.server.KaldbConfig.LOCAL_QUERY_TIMEOUT_DURATION;
+import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
+
 import brave.ScopedSpan;
 import brave.Tracing;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.protobuf.ByteString;
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
 import com.slack.kaldb.histogram.HistogramBucket;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.LogWireMessage;
+import com.slack.kaldb.logstore.StoredSource;
+import com.slack.kaldb.logstore.search.aggregations.MetricsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.MetricsResult;
+import com.slack.kaldb.logstore.search.aggregations.QuantileSketch;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.TermsResult;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.util.JsonUtil;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class SearchResultUtils {
 
   public static SearchQuery fromSearchRequest(KaldbSearch.SearchRequest searchRequest) {
+    Set<String> chunkIds = new HashSet<>(searchRequest.getChunkIdsList());
+    if (!searchRequest.getChunkId().isEmpty()) {
+      chunkIds.add(searchRequest.getChunkId());
+    }
     return new SearchQuery(
         searchRequest.getIndexName(),
         searchRequest.getQueryString(),
         searchRequest.getStartTimeEpochMs(),
         searchRequest.getEndTimeEpochMs(),
         searchRequest.getHowMany(),
-        searchRequest.getBucketCount());
+        searchRequest.getBucketCount(),
+        searchRequest.getTimeoutMs() > 0
+            ? Duration.ofMillis(searchRequest.getTimeoutMs())
+            : LOCAL_QUERY_TIMEOUT_DURATION,
+        chunkIds,
+        searchRequest.hasTermsAggregation()
+            ? fromTermsAggregationProto(searchRequest.getTermsAggregation())
+            : null,
+        searchRequest.hasMetricsAggregation()
+            ? fromMetricsAggregationProto(searchRequest.getMetricsAggregation())
+            : null);
   }
 
-  public static SearchResult<LogMessage> fromSearchResultProtoOrEmpty(
-      KaldbSearch.SearchResult protoSearchResult) {
-    try {
-      return fromSearchResultProto(protoSearchResult);
-    } catch (IOException e) {
-      return SearchResult.empty();
-    }
+  public static TermsAggregation fromTermsAggregationProto(
+      KaldbSearch.TermsAggregation termsAggregation) {
+    return new TermsAggregation(
+        termsAggregation.getField(),
+        termsAggregation.getSize(),
+        termsAggregation.getShardSize(),
+        termsAggregation.getPerHistogramBucket());
   }
 
-  public static SearchResult<LogMessage> fromSearchResultProto(
-      KaldbSearch.SearchResult protoSearchResult) throws IOException {
-    List<LogMessage> hits = new ArrayList<>(protoSearchResult.getHitsCount());
+  public static MetricsAggregation fromMetricsAggregationProto(
+      KaldbSearch.MetricsAggregation metricsAggregation) {
+    return new MetricsAggregation(
+        metricsAggregation.getField(),
+        metricsAggregation.getPercentilesList(),
+        metricsAggregation.getPerHistogramBucket());
+  }
 
-    for (ByteString bytes : protoSearchResult.getHitsList().asByteStringList()) {
-      LogWireMessage hit = JsonUtil.read(bytes.toStringUtf8(), LogWireMessage.class);
-      LogMessage message = LogMessage.fromWireMessage(hit);
-      hits.add(message);
+  public static SearchQuery fromGetTraceRequest(KaldbSearch.GetTraceRequest getTraceRequest) {
+    return SearchQuery.forTrace(
+        getTraceRequest.getTraceId(),
+        getTraceRequest.getStartTimeEpochMs(),
+        getTraceRequest.getEndTimeEpochMs(),
+        getTraceRequest.getHowMany(),
+        getTraceRequest.getTimeoutMs() > 0
+            ? Duration.ofMillis(getTraceRequest.getTimeoutMs())
+            : LOCAL_QUERY_TIMEOUT_DURATION);
+  }
+
+  public static SearchQuery fromSearchStreamRequest(
+      KaldbSearch.SearchStreamRequest searchStreamRequest) {
+    ensureTrue(searchStreamRequest.getPageSize() > 0, "page size should be positive");
+    KaldbSearch.SearchCursor cursor = SearchStreamPager.getCursor(searchStreamRequest);
+    return SearchQuery.forPage(
+        searchStreamRequest.getIndexName(),
+        searchStreamRequest.getQueryString(),
+        searchStreamRequest.getStartTimeEpochMs(),
+        searchStreamRequest.getEndTimeEpochMs(),
+        searchStreamRequest.getPageSize() + cursor.getIdsCount(),
+        cursor.getTimestampEpochMs(),
+        searchStreamRequest.getTimeoutMs() > 0
+            ? Duration.ofMillis(searchStreamRequest.getTimeoutMs())
+            : LOCAL_QUERY_TIMEOUT_DURATION);
+  }
+
+  /**
+   * Converts a search result proto into a search result. The hits are built from their headers, and
+   * their sources are only decoded if they are accessed. The hits of the nodes that weren't
+   * upgraded yet are parsed from their legacy json.
+   */
+  public static SearchResult<LogMessage> fromSearchResultProto(
+      KaldbSearch.SearchResult protoSearchResult) {
+    List<LogMessage> hits =
+        new ArrayList<>(protoSearchResult.getHitsCount() + protoSearchResult.getLegacyHitsCount());
+    for (KaldbSearch.SearchHit hit : protoSearchResult.getHitsList()) {
+      hits.add(fromSearchHitProto(hit));
     }
-    List<HistogramBucket> histogramBuckets = new ArrayList<>();
-    for (KaldbSearch.HistogramBucket protoBucket : protoSearchResult.getBucketsList()) {
-      histogramBuckets.add(
-          new HistogramBucket(protoBucket.getLow(), protoBucket.getHigh(), protoBucket.getCount()));
+    for (String legacyHit : protoSearchResult.getLegacyHitsList()) {
+      hits.add(fromLegacyHit(legacyHit));
     }
 
     return new SearchResult<>(
         hits,
         protoSearchResult.getTookMicros(),
         protoSearchResult.getTotalCount(),
-        histogramBuckets,
+        protoSearchResult.getLegacyBucketsCount() > 0
+            ? fromLegacyBuckets(protoSearchResult.getLegacyBucketsList())
+            : fromPackedHistogramProto(protoSearchResult.getHistogram()),
         protoSearchResult.getFailedNodes(),
         protoSearchResult.getTotalNodes(),
         protoSearchResult.getTotalSnapshots(),
-        protoSearchResult.getSnapshotsWithReplicas());
+        protoSearchResult.getSnapshotsWithReplicas(),
+        protoSearchResult.getTimedOutSnapshots(),
+        fromTermsResultProtos(protoSearchResult.getTermsList()),
+        fromMetricsResultProtos(protoSearchResult.getMetricsList()));
   }
 
-  public static <T> KaldbSearch.SearchResult toSearchResultProto(SearchResult<T> searchResult) {
+  public static <T extends LogMessage> KaldbSearch.SearchResult toSearchResultProto(
+      SearchResult<T> searchResult) {
     ScopedSpan span =
         Tracing.currentTracer().startScopedSpan("SearchResultUtils.toSearchResultProto");
     span.tag("totalCount", String.valueOf(searchResult.totalCount));
@@ -69,6 +137,7 @@ public class SearchResultUtils {
     span.tag("totalNodes", String.valueOf(searchResult.totalNodes));
     span.tag("totalSnapshots", String.valueOf(searchResult.totalSnapshots));
     span.tag("snapshotsWithReplicas", String.valueOf(searchResult.snapshotsWithReplicas));
+    span.tag("timedOutSnapshots", String.valueOf(searchResult.timedOutSnapshots));
     span.tag("hits", String.valueOf(searchResult.hits.size()));
     span.tag("buckets", String.valueOf(searchResult.buckets.size()));
 
@@ -79,31 +148,202 @@ public class SearchResultUtils {
     searchResultBuilder.setTotalNodes(searchResult.totalNodes);
     searchResultBuilder.setTotalSnapshots(searchResult.totalSnapshots);
     searchResultBuilder.setSnapshotsWithReplicas(searchResult.snapshotsWithReplicas);
+    searchResultBuilder.setTimedOutSnapshots(searchResult.timedOutSnapshots);
 
     // Set hits
-    ArrayList<String> protoHits = new ArrayList<>(searchResult.hits.size());
     for (T hit : searchResult.hits) {
+      searchResultBuilder.addHits(toSearchHitProto(hit));
+    }
+
+    if (!searchResult.buckets.isEmpty()) {
+      searchResultBuilder.setHistogram(toPackedHistogramProto(searchResult.buckets));
+    }
+    for (TermsResult termsResult : searchResult.terms) {
+      searchResultBuilder.addTerms(toTermsResultProto(termsResult));
+    }
+    for (MetricsResult metricsResult : searchResult.metrics) {
+      searchResultBuilder.addMetrics(toMetricsResultProto(metricsResult));
+    }
+    span.finish();
+    return searchResultBuilder.build();
+  }
+
+  public static KaldbSearch.TermsResult toTermsResultProto(TermsResult termsResult) {
+    KaldbSearch.TermsResult.Builder builder =
+        KaldbSearch.TermsResult.newBuilder()
+            .setOtherDocCount(termsResult.otherDocCount)
+            .setDocCountErrorUpperBound(termsResult.docCountErrorUpperBound);
+    for (TermsResult.TermCount termCount : termsResult.terms) {
+      builder.addTerms(
+          KaldbSearch.TermCount.newBuilder()
+              .setTerm(termCount.term)
+              .setCount(termCount.count)
+              .setDocCountError(termCount.docCountError));
+    }
+    return builder.build();
+  }
+
+  public static List<TermsResult> fromTermsResultProtos(
+      List<KaldbSearch.TermsResult> protoTermsResults) {
+    List<TermsResult> termsResults = new ArrayList<>(protoTermsResults.size());
+    for (KaldbSearch.TermsResult protoTermsResult : protoTermsResults) {
+      List<TermsResult.TermCount> terms = new ArrayList<>(protoTermsResult.getTermsCount());
+      for (KaldbSearch.TermCount protoTermCount : protoTermsResult.getTermsList()) {
+        terms.add(
+            new TermsResult.TermCount(
+                protoTermCount.getTerm(),
+                protoTermCount.getCount(),
+                protoTermCount.getDocCountError()));
+      }
+      termsResults.add(
+          new TermsResult(
+              terms,
+              protoTermsResult.getOtherDocCount(),
+              protoTermsResult.getDocCountErrorUpperBound()));
+    }
+    return termsResults;
+  }
+
+  public static KaldbSearch.MetricsResult toMetricsResultProto(MetricsResult metricsResult) {
+    KaldbSearch.MetricsResult.Builder builder =
+        KaldbSearch.MetricsResult.newBuilder()
+            .setCount(metricsResult.count)
+            .setSum(metricsResult.sum)
+            .setMin(metricsResult.min)
+            .setMax(metricsResult.max);
+    if (metricsResult.sketch != null) {
+      QuantileSketch sketch = metricsResult.sketch;
+      KaldbSearch.QuantileSketch.Builder sketchBuilder =
+          KaldbSearch.QuantileSketch.newBuilder()
+              .setPositiveOffset(sketch.getPositive().getOffset())
+              .setNegativeOffset(sketch.getNegative().getOffset())
+              .setZeroCount(sketch.getZeroCount());
+      for (long count : sketch.getPositive().getCounts()) {
+        sketchBuilder.addPositiveCounts(count);
+      }
+      for (long count : sketch.getNegative().getCounts()) {
+        sketchBuilder.addNegativeCounts(count);
+      }
+      builder.setSketch(sketchBuilder);
+    }
+    return builder.build();
+  }
+
+  public static List<MetricsResult> fromMetricsResultProtos(
+      List<KaldbSearch.MetricsResult> protoMetricsResults) {
+    List<MetricsResult> metricsResults = new ArrayList<>(protoMetricsResults.size());
+    for (KaldbSearch.MetricsResult protoMetricsResult : protoMetricsResults) {
+      QuantileSketch sketch = null;
+      if (protoMetricsResult.hasSketch()) {
+        KaldbSearch.QuantileSketch protoSketch = protoMetricsResult.getSketch();
+        sketch =
+            new QuantileSketch(
+                new QuantileSketch.Buckets(
+                    protoSketch.getPositiveOffset(),
+                    toLongArray(protoSketch.getPositiveCountsList())),
+                new QuantileSketch.Buckets(
+                    protoSketch.getNegativeOffset(),
+                    toLongArray(protoSketch.getNegativeCountsList())),
+                protoSketch.getZeroCount());
+      }
+      metricsResults.add(
+          new MetricsResult(
+              protoMetricsResult.getCount(),
+              protoMetricsResult.getSum(),
+              protoMetricsResult.getMin(),
+              protoMetricsResult.getMax(),
+              sketch));
+    }
+    return metricsResults;
+  }
+
+  private static long[] toLongArray(List<Long> values) {
+    long[] array = new long[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * Packs the buckets of a fixed interval histogram into the start and the end of the histogram and
+   * the counts of the buckets.
+   */
+  public static KaldbSearch.PackedHistogram toPackedHistogramProto(List<HistogramBucket> buckets) {
+    KaldbSearch.PackedHistogram.Builder builder =
+        KaldbSearch.PackedHistogram.newBuilder()
+            .setStart(buckets.get(0).getLow())
+            .setEnd(buckets.get(buckets.size() - 1).getHigh());
+    for (HistogramBucket bucket : buckets) {
+      builder.addCounts((long) bucket.getCount());
+    }
+    return builder.build();
+  }
+
+  /** Unpacks the buckets of a packed histogram. A histogram without counts has no buckets. */
+  public static List<HistogramBucket> fromPackedHistogramProto(
+      KaldbSearch.PackedHistogram histogram) {
+    if (histogram.getCountsCount() == 0) {
+      return new ArrayList<>();
+    }
+    List<HistogramBucket> buckets =
+        FixedIntervalHistogramImpl.makeHistogram(
+            histogram.getStart(), histogram.getEnd(), histogram.getCountsCount());
+    for (int i = 0; i < buckets.size(); i++) {
+      buckets.get(i).increment(histogram.getCounts(i));
+    }
+    return buckets;
+  }
+
+  // TODO: Remove once all the nodes send their histograms as packed histograms.
+  private static List<HistogramBucket> fromLegacyBuckets(
+      List<KaldbSearch.HistogramBucket> legacyBuckets) {
+    List<HistogramBucket> buckets = new ArrayList<>(legacyBuckets.size());
+    for (KaldbSearch.HistogramBucket bucket : legacyBuckets) {
+      buckets.add(new HistogramBucket(bucket.getLow(), bucket.getHigh(), bucket.getCount()));
+    }
+    return buckets;
+  }
+
+  /**
+   * Converts a hit into a proto with a header and the json of its source. The source of a hit that
+   * came from another node is passed through as is.
+   */
+  public static KaldbSearch.SearchHit toSearchHitProto(LogMessage hit) {
+    ByteString source;
+    if (hit.source instanceof JsonSourceMap) {
+      source = ((JsonSourceMap) hit.source).json;
+    } else {
       try {
-        protoHits.add(JsonUtil.writeAsString(hit));
-      } catch (JsonProcessingException e) {
+        source = ByteString.copyFrom(StoredSource.toSourceJson(hit.source));
+      } catch (IOException e) {
         throw new IllegalArgumentException(e);
       }
     }
-    searchResultBuilder.addAllHits(protoHits);
+    return KaldbSearch.SearchHit.newBuilder()
+        .setTimestampEpochMs(hit.timeSinceEpochMilli)
+        .setId(hit.id)
+        .setIndex(hit.getIndex())
+        .setType(hit.getType())
+        .setSource(source)
+        .build();
+  }
 
-    // Set buckets
-    List<KaldbSearch.HistogramBucket> protoBuckets = new ArrayList<>(searchResult.buckets.size());
-    for (HistogramBucket bucket : searchResult.buckets) {
-      KaldbSearch.HistogramBucket.Builder builder = KaldbSearch.HistogramBucket.newBuilder();
-      protoBuckets.add(
-          builder
-              .setCount(bucket.getCount())
-              .setHigh(bucket.getHigh())
-              .setLow(bucket.getLow())
-              .build());
+  // TODO: Remove once all the nodes send their hits as search hits.
+  private static LogMessage fromLegacyHit(String legacyHit) {
+    try {
+      return LogMessage.fromWireMessage(JsonUtil.read(legacyHit, LogWireMessage.class));
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
     }
-    searchResultBuilder.addAllBuckets(protoBuckets);
-    span.finish();
-    return searchResultBuilder.build();
+  }
+
+  public static LogMessage fromSearchHitProto(KaldbSearch.SearchHit hit) {
+    return new LogMessage(
+        hit.getIndex(),
+        hit.getType(),
+        hit.getId(),
+        new JsonSourceMap(hit.getSource()),
+        hit.getTimestampEpochMs());
   }
 }
@@ -0,0 +1,98 @@
+package com.slack.kaldb.logstore.search;
+
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.proto.service.KaldbSearch;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits the hits of a search stream into pages. The hits are returned in time order, newest first,
+ * and the hits with the same timestamp in the order of their ids. Every page is searched after the
+ * cursor of the page before it: the search only matches the hits at or before the timestamp of the
+ * cursor, and the hits at that timestamp that the previous pages returned are dropped. So the pages
+ * don't overlap, and a stream holds one page of hits in memory however far it goes.
+ *
+ * <p>The search of a page asks for the page size plus the number of ids in the cursor, so it still
+ * finds a full page once the hits the previous pages returned are dropped. The cursor holds the ids
+ * of all the returned hits at its timestamp, so it grows with the number of hits that share a
+ * millisecond.
+ */
+public class SearchStreamPager {
+  private static final Comparator<LogMessage> HIT_ORDER =
+      Comparator.comparingLong((LogMessage hit) -> hit.timeSinceEpochMilli)
+          .reversed()
+          .thenComparing(hit -> hit.id);
+
+  /** Returns the cursor of the request, or the end of its time range for the first page. */
+  public static KaldbSearch.SearchCursor getCursor(KaldbSearch.SearchStreamRequest request) {
+    if (request.hasCursor()) {
+      return request.getCursor();
+    }
+    return KaldbSearch.SearchCursor.newBuilder()
+        .setTimestampEpochMs(request.getEndTimeEpochMs())
+        .build();
+  }
+
+  /**
+   * Returns the page of hits of a search after the cursor, with the cursor after the page. The
+   * search result holds the hits of the page from one or more searches after the same cursor.
+   */
+  public static KaldbSearch.SearchResult toPage(
+      SearchResult<LogMessage> searchResult, KaldbSearch.SearchCursor cursor, int pageSize) {
+    List<LogMessage> hits = nextPage(searchResult.hits, cursor, pageSize);
+    SearchResult<LogMessage> page =
+        new SearchResult<>(
+            hits,
+            searchResult.tookMicros,
+            hits.size(),
+            List.of(),
+            searchResult.failedNodes,
+            searchResult.totalNodes,
+            searchResult.totalSnapshots,
+            searchResult.snapshotsWithReplicas,
+            searchResult.timedOutSnapshots);
+    return SearchResultUtils.toSearchResultProto(page)
+        .toBuilder()
+        .setCursor(nextCursor(hits, cursor))
+        .build();
+  }
+
+  /** Returns the first pageSize hits after the cursor. */
+  static List<LogMessage> nextPage(
+      List<LogMessage> hits, KaldbSearch.SearchCursor cursor, int pageSize) {
+    long cursorTimeEpochMs = cursor.getTimestampEpochMs();
+    Set<String> returnedIds = new HashSet<>(cursor.getIdsList());
+    List<LogMessage> page = new ArrayList<>(Math.min(hits.size(), pageSize));
+    for (LogMessage hit : hits) {
+      if (hit.timeSinceEpochMilli < cursorTimeEpochMs
+          || (hit.timeSinceEpochMilli == cursorTimeEpochMs && returnedIds.add(hit.id))) {
+        page.add(hit);
+      }
+    }
+    page.sort(HIT_ORDER);
+    return page.size() > pageSize ? new ArrayList<>(page.subList(0, pageSize)) : page;
+  }
+
+  /** Returns the cursor after the hits of a page. */
+  static KaldbSearch.SearchCursor nextCursor(
+      List<LogMessage> page, KaldbSearch.SearchCursor cursor) {
+    if (page.isEmpty()) {
+      return cursor;
+    }
+    long lastTimeEpochMs = page.get(page.size() - 1).timeSinceEpochMilli;
+    KaldbSearch.SearchCursor.Builder nextCursor =
+        KaldbSearch.SearchCursor.newBuilder().setTimestampEpochMs(lastTimeEpochMs);
+    if (lastTimeEpochMs == cursor.getTimestampEpochMs()) {
+      nextCursor.addAllIds(cursor.getIdsList());
+    }
+    for (LogMessage hit : page) {
+      if (hit.timeSinceEpochMilli == lastTimeEpochMs) {
+        nextCursor.addIds(hit.id);
+      }
+    }
+    return nextCursor.build();
+  }
+}
@@ -0,0 +1,121 @@
+package com.slack.kaldb.logstore.search;
+
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
+import com.slack.kaldb.logstore.LogMessage.SystemField;
+import java.io.IOException;
+import java.util.function.LongPredicate;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/**
+ * SortedTimestampCounter computes the histogram of a query that only matches a time range without
+ * visiting the matching documents. Since the index is sorted by timestamp descending, the documents
+ * of each segment that fall in a time range, or in a bucket of the histogram, have consecutive doc
+ * ids. So, the boundaries of the range and of every bucket are found by a binary search over the
+ * timestamps of a segment, and the size of each bucket is the distance between its boundaries. This
+ * makes the cost of the histogram proportional to the number of buckets instead of the number of
+ * documents. A segment that lies entirely in one bucket is counted without any search.
+ *
+ * <p>The segments need to be sorted by timestamp, have a timestamp for every document and have no
+ * deleted documents. Use canCount to check if an index can be counted this way.
+ */
+class SortedTimestampCounter {
+  private static final String TIMESTAMP_FIELD = SystemField.TIME_SINCE_EPOCH.fieldName;
+  private static final Sort INDEX_SORT =
+      new Sort(new SortField(TIMESTAMP_FIELD, SortField.Type.LONG, true));
+
+  private SortedTimestampCounter() {}
+
+  /** Returns true if all the segments of the index can be counted from their sorted timestamps. */
+  static boolean canCount(IndexReader reader) throws IOException {
+    for (LeafReaderContext context : reader.leaves()) {
+      LeafReader leafReader = context.reader();
+      if (!INDEX_SORT.equals(leafReader.getMetaData().getSort()) || leafReader.hasDeletions()) {
+        return false;
+      }
+      NumericDocValues docValues = leafReader.getNumericDocValues(TIMESTAMP_FIELD);
+      if (docValues == null || docValues.cost() != leafReader.maxDoc()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Counts the documents with a timestamp between the low and high of the histogram, both
+   * inclusive, into the histogram.
+   */
+  static void count(IndexReader reader, FixedIntervalHistogramImpl histogram, long low, long high)
+      throws IOException {
+    for (LeafReaderContext context : reader.leaves()) {
+      countSegment(context.reader(), histogram, low, high);
+    }
+  }
+
+  private static void countSegment(
+      LeafReader reader, FixedIntervalHistogramImpl histogram, long low, long high)
+      throws IOException {
+    int maxDoc = reader.maxDoc();
+    if (maxDoc == 0) {
+      return;
+    }
+
+    // The timestamps decrease as the doc ids increase, so the documents in the range are the ones
+    // from the first document at or before high to the first document before low.
+    int start = 0;
+    if (timestamp(reader, 0) > high) {
+      start = firstDoc(reader, 0, maxDoc, timestamp -> timestamp <= high);
+    }
+    int end = maxDoc;
+    if (timestamp(reader, maxDoc - 1) < low) {
+      end = firstDoc(reader, start, maxDoc, timestamp -> timestamp < low);
+    }
+    if (start == end) {
+      return;
+    }
+
+    int lastBucket = histogram.getBucketIndex(timestamp(reader, end - 1));
+    int doc = start;
+    while (doc < end) {
+      int bucket = histogram.getBucketIndex(timestamp(reader, doc));
+      int nextDoc = end;
+      if (bucket != lastBucket) {
+        nextDoc =
+            firstDoc(reader, doc, end, timestamp -> histogram.getBucketIndex(timestamp) < bucket);
+      }
+      histogram.add(bucket, nextDoc - doc);
+      doc = nextDoc;
+    }
+  }
+
+  // Returns the first doc id between from and to for which the condition holds, or to if it holds
+  // for none. The condition must hold for all the documents after the first one it holds for.
+  private static int firstDoc(LeafReader reader, int from, int to, LongPredicate condition)
+      throws IOException {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (condition.test(timestamp(reader, mid))) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+
+  // Doc values can only be read in increasing doc id order, so every lookup of the binary search
+  // reads from a new instance. This is cheap compared to visiting all the documents.
+  private static long timestamp(LeafReader reader, int doc) throws IOException {
+    NumericDocValues docValues = reader.getNumericDocValues(TIMESTAMP_FIELD);
+    if (!docValues.advanceExact(doc)) {
+      throw new IllegalStateException("Document " + doc + " has no timestamp");
+    }
+    return docValues.longValue();
+  }
+}
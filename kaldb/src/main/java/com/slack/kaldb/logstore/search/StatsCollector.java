@@ -1,10 +1,14 @@
 package com.slack.kaldb.logstore.search;
 
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
 import com.slack.kaldb.histogram.Histogram;
+import com.slack.kaldb.histogram.NoOpHistogramImpl;
 import com.slack.kaldb.logstore.LogMessage.SystemField;
 import java.io.IOException;
+import java.util.Collection;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.CollectorManager;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.SimpleCollector;
 
@@ -19,6 +23,37 @@ public class StatsCollector extends SimpleCollector {
     docValues = null;
   }
 
+  /**
+   * Returns a collector manager that gives every collector its own histogram, so the slices of an
+   * index searched concurrently never count into the same histogram. The histograms are merged once
+   * all the collectors are done.
+   */
+  static CollectorManager<StatsCollector, Histogram> collectorManager(
+      int bucketCount, long startTimeMsEpoch, long endTimeMsEpoch) {
+    return new CollectorManager<>() {
+      @Override
+      public StatsCollector newCollector() {
+        return new StatsCollector(
+            bucketCount > 0
+                ? new FixedIntervalHistogramImpl(startTimeMsEpoch, endTimeMsEpoch, bucketCount)
+                : new NoOpHistogramImpl());
+      }
+
+      @Override
+      public Histogram reduce(Collection<StatsCollector> collectors) {
+        Histogram histogram = null;
+        for (StatsCollector collector : collectors) {
+          if (histogram == null) {
+            histogram = collector.getHistogram();
+          } else {
+            histogram.merge(collector.getHistogram());
+          }
+        }
+        return histogram;
+      }
+    };
+  }
+
   @Override
   protected void doSetNextReader(final LeafReaderContext context) throws IOException {
     docValues = context.reader().getNumericDocValues(SystemField.TIME_SINCE_EPOCH.fieldName);
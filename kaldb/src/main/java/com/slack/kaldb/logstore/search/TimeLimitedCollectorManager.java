@@ -0,0 +1,115 @@
+package com.slack.kaldb.logstore.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+
+/**
+ * A collector manager that stops the collection of the wrapped collectors once the query times out,
+ * and reduces the documents they collected until then.
+ *
+ * <p>Unlike Lucene's TimeLimitingCollector, which throws an exception that fails the whole search,
+ * the collectors terminate the collection of the current segment and skip the remaining ones. So,
+ * IndexSearcher still reduces the partial results of the collectors.
+ *
+ * <p>An ExitableDirectoryReader stops the enumeration of terms with an exception instead, possibly
+ * after some segments were already collected, and then IndexSearcher doesn't reduce the collectors.
+ * So, the collector manager keeps the collectors it created, and reduceTimedOut reduces the partial
+ * results they collected until then.
+ */
+class TimeLimitedCollectorManager<C extends Collector, T>
+    implements CollectorManager<TimeLimitedCollectorManager<C, T>.TimeLimitedCollector, T> {
+  // Checking the time on every document is expensive, so it's checked every few documents.
+  private static final int DOCS_BETWEEN_TIMEOUT_CHECKS = 1024;
+
+  private final CollectorManager<C, T> in;
+  private final QueryTimeout queryTimeout;
+  private volatile boolean timedOut = false;
+  private final List<TimeLimitedCollector> collectors =
+      Collections.synchronizedList(new ArrayList<>());
+
+  TimeLimitedCollectorManager(CollectorManager<C, T> in, QueryTimeout queryTimeout) {
+    this.in = in;
+    this.queryTimeout = queryTimeout;
+  }
+
+  @Override
+  public TimeLimitedCollector newCollector() throws IOException {
+    TimeLimitedCollector collector = new TimeLimitedCollector(in.newCollector());
+    collectors.add(collector);
+    return collector;
+  }
+
+  @Override
+  public T reduce(Collection<TimeLimitedCollector> collectors) throws IOException {
+    List<C> inCollectors = new ArrayList<>(collectors.size());
+    for (TimeLimitedCollector collector : collectors) {
+      inCollectors.add(collector.collector);
+    }
+    return in.reduce(inCollectors);
+  }
+
+  /**
+   * Reduces the documents collected until the reader stopped the search because the query timed
+   * out. The search is marked as timed out.
+   */
+  T reduceTimedOut() throws IOException {
+    timedOut = true;
+    List<TimeLimitedCollector> created;
+    synchronized (collectors) {
+      if (collectors.isEmpty()) {
+        newCollector();
+      }
+      created = new ArrayList<>(collectors);
+    }
+    return reduce(created);
+  }
+
+  /** Returns true if the collection stopped before all the matching documents were collected. */
+  boolean isTimedOut() {
+    return timedOut;
+  }
+
+  private void checkTimeout() {
+    if (timedOut || queryTimeout.shouldExit()) {
+      timedOut = true;
+      throw new CollectionTerminatedException();
+    }
+  }
+
+  class TimeLimitedCollector extends FilterCollector {
+    private final C collector;
+
+    private TimeLimitedCollector(C collector) {
+      super(collector);
+      this.collector = collector;
+    }
+
+    @Override
+    public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+      checkTimeout();
+      return new FilterLeafCollector(super.getLeafCollector(context)) {
+        private int docsUntilTimeoutCheck = DOCS_BETWEEN_TIMEOUT_CHECKS;
+
+        @Override
+        public void collect(int doc) throws IOException {
+          if (--docsUntilTimeoutCheck == 0) {
+            docsUntilTimeoutCheck = DOCS_BETWEEN_TIMEOUT_CHECKS;
+            checkTimeout();
+          }
+          super.collect(doc);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import static com.slack.kaldb.util.ArgValidationUtils.ensureNonEmptyString;
+import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
+
+import com.google.common.base.Objects;
+import java.util.List;
+
+/**
+ * A metrics aggregation computes the count, the sum, the min and the max of the values of a numeric
+ * field, and the percentiles of them when any are requested. The values are read from the numeric
+ * doc values of the field, so fields without doc values have no values.
+ *
+ * <p>The percentiles are estimated from a quantile sketch, which every chunk and node returns
+ * instead of the values, so the results are merged without sending the values to the query tier.
+ */
+public class MetricsAggregation {
+  public final String field;
+  // The percentiles to estimate, between 0 and 100. Empty if the values don't need a sketch.
+  public final List<Double> percentiles;
+  // Compute the metrics of every bucket of the histogram of the query, instead of all the
+  // documents.
+  public final boolean perHistogramBucket;
+
+  public MetricsAggregation(String field, List<Double> percentiles, boolean perHistogramBucket) {
+    ensureNonEmptyString(field, "field should be a non-empty string");
+    for (double percentile : percentiles) {
+      ensureTrue(percentile >= 0 && percentile <= 100, "percentiles should be between 0 and 100");
+    }
+    this.field = field;
+    this.percentiles = percentiles;
+    this.perHistogramBucket = perHistogramBucket;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    MetricsAggregation that = (MetricsAggregation) o;
+    return perHistogramBucket == that.perHistogramBucket
+        && field.equals(that.field)
+        && percentiles.equals(that.percentiles);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(field, percentiles, perHistogramBucket);
+  }
+
+  @Override
+  public String toString() {
+    return "MetricsAggregation{"
+        + "field='"
+        + field
+        + '\''
+        + ", percentiles="
+        + percentiles
+        + ", perHistogramBucket="
+        + perHistogramBucket
+        + '}';
+  }
+}
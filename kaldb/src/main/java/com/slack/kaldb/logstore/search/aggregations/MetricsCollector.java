@@ -0,0 +1,168 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
+import com.slack.kaldb.logstore.LogMessage.SystemField;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Computes the metrics of a numeric field from its numeric or sorted numeric doc values. Every
+ * value of a document is counted, like Elasticsearch counts the values of multi-valued fields.
+ *
+ * <p>The metrics of every bucket are kept in primitive arrays, and the values are only added to a
+ * sketch when percentiles were requested. Like the stats collector, every collector of a concurrent
+ * search has its own metrics, which are merged once all the collectors are done.
+ */
+public class MetricsCollector extends SimpleCollector {
+  private final String field;
+  // Double values are stored as sortable longs, and the other values as longs.
+  private final boolean doubleValues;
+  // The histogram the documents are bucketed by, or null if the metrics aren't per bucket.
+  private final FixedIntervalHistogramImpl histogram;
+
+  private final long[] counts;
+  private final double[] sums;
+  private final double[] mins;
+  private final double[] maxs;
+  // The sketches of the values of every bucket, or null if no percentiles were requested.
+  private final QuantileSketch[] sketches;
+
+  private SortedNumericDocValues docValues;
+  private NumericDocValues timestamps;
+
+  MetricsCollector(
+      String field,
+      boolean doubleValues,
+      FixedIntervalHistogramImpl histogram,
+      boolean collectSketches) {
+    this.field = field;
+    this.doubleValues = doubleValues;
+    this.histogram = histogram;
+    int bucketCount = histogram == null ? 1 : histogram.getCounts().length;
+    this.counts = new long[bucketCount];
+    this.sums = new double[bucketCount];
+    this.mins = new double[bucketCount];
+    this.maxs = new double[bucketCount];
+    Arrays.fill(mins, Double.POSITIVE_INFINITY);
+    Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+    if (collectSketches) {
+      this.sketches = new QuantileSketch[bucketCount];
+      for (int i = 0; i < bucketCount; i++) {
+        sketches[i] = new QuantileSketch();
+      }
+    } else {
+      this.sketches = null;
+    }
+  }
+
+  /**
+   * Returns a collector manager that computes the metrics of the aggregation. The result has the
+   * metrics of every bucket of the histogram of the query when the metrics are per bucket, and the
+   * metrics of all the documents otherwise. The field has double values when it's mapped as a
+   * double in the schema of the chunk.
+   */
+  public static CollectorManager<MetricsCollector, List<MetricsResult>> collectorManager(
+      MetricsAggregation aggregation,
+      boolean doubleValues,
+      int bucketCount,
+      long startTimeMsEpoch,
+      long endTimeMsEpoch) {
+    boolean perBucket = aggregation.perHistogramBucket && bucketCount > 0;
+    return new CollectorManager<>() {
+      @Override
+      public MetricsCollector newCollector() {
+        return new MetricsCollector(
+            aggregation.field,
+            doubleValues,
+            perBucket
+                ? new FixedIntervalHistogramImpl(startTimeMsEpoch, endTimeMsEpoch, bucketCount)
+                : null,
+            !aggregation.percentiles.isEmpty());
+      }
+
+      @Override
+      public List<MetricsResult> reduce(Collection<MetricsCollector> collectors) {
+        int resultCount = perBucket ? bucketCount : 1;
+        List<MetricsResult> results = new ArrayList<>(resultCount);
+        for (int bucket = 0; bucket < resultCount; bucket++) {
+          List<MetricsResult> bucketResults = new ArrayList<>(collectors.size());
+          for (MetricsCollector collector : collectors) {
+            bucketResults.add(collector.result(bucket));
+          }
+          results.add(MetricsResult.merge(bucketResults));
+        }
+        return results;
+      }
+    };
+  }
+
+  @Override
+  protected void doSetNextReader(LeafReaderContext context) throws IOException {
+    LeafReader reader = context.reader();
+    FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(field);
+    if (fieldInfo != null && fieldInfo.getDocValuesType() == DocValuesType.NUMERIC) {
+      docValues = DocValues.singleton(reader.getNumericDocValues(field));
+    } else if (fieldInfo != null && fieldInfo.getDocValuesType() == DocValuesType.SORTED_NUMERIC) {
+      docValues = reader.getSortedNumericDocValues(field);
+    } else {
+      docValues = null;
+    }
+    if (histogram != null) {
+      timestamps = reader.getNumericDocValues(SystemField.TIME_SINCE_EPOCH.fieldName);
+    }
+  }
+
+  @Override
+  public ScoreMode scoreMode() {
+    return ScoreMode.COMPLETE_NO_SCORES;
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    if (docValues == null || !docValues.advanceExact(doc)) {
+      return;
+    }
+    int bucket = 0;
+    if (histogram != null) {
+      if (timestamps == null || !timestamps.advanceExact(doc)) {
+        return;
+      }
+      bucket = histogram.getBucketIndex(timestamps.longValue());
+    }
+
+    for (int i = 0; i < docValues.docValueCount(); i++) {
+      long rawValue = docValues.nextValue();
+      double value = doubleValues ? NumericUtils.sortableLongToDouble(rawValue) : rawValue;
+      counts[bucket]++;
+      sums[bucket] += value;
+      mins[bucket] = Math.min(mins[bucket], value);
+      maxs[bucket] = Math.max(maxs[bucket], value);
+      if (sketches != null) {
+        sketches[bucket].add(value);
+      }
+    }
+  }
+
+  private MetricsResult result(int bucket) {
+    return new MetricsResult(
+        counts[bucket],
+        sums[bucket],
+        mins[bucket],
+        maxs[bucket],
+        sketches != null ? sketches[bucket] : null);
+  }
+}
@@ -0,0 +1,95 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import com.google.common.base.Objects;
+import java.util.List;
+
+/**
+ * The metrics of the values of a numeric field. The min and the max of no values are infinite, and
+ * the sketch is null when no percentiles were requested.
+ *
+ * <p>All the metrics are exact except the percentiles, and the results of chunks and nodes are
+ * merged by adding their counts, sums and sketches.
+ */
+public class MetricsResult {
+  public static final MetricsResult EMPTY =
+      new MetricsResult(0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, null);
+
+  public final long count;
+  public final double sum;
+  public final double min;
+  public final double max;
+  public final QuantileSketch sketch;
+
+  public MetricsResult(long count, double sum, double min, double max, QuantileSketch sketch) {
+    this.count = count;
+    this.sum = sum;
+    this.min = min;
+    this.max = max;
+    this.sketch = sketch;
+  }
+
+  /** Returns the average of the values, or NaN if there are none. */
+  public double avg() {
+    return count > 0 ? sum / count : Double.NaN;
+  }
+
+  /** Returns the estimate of a percentile, between 0 and 100, or NaN if there is no sketch. */
+  public double percentile(double percentile) {
+    return sketch != null ? sketch.quantile(percentile / 100) : Double.NaN;
+  }
+
+  /** Merges the metrics of the results of chunks or nodes. The results aren't modified. */
+  public static MetricsResult merge(List<MetricsResult> results) {
+    long count = 0;
+    double sum = 0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    QuantileSketch sketch = null;
+    for (MetricsResult result : results) {
+      count += result.count;
+      sum += result.sum;
+      min = Math.min(min, result.min);
+      max = Math.max(max, result.max);
+      if (result.sketch != null) {
+        if (sketch == null) {
+          sketch = new QuantileSketch();
+        }
+        sketch.merge(result.sketch);
+      }
+    }
+    return new MetricsResult(count, sum, min, max, sketch);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    MetricsResult that = (MetricsResult) o;
+    return count == that.count
+        && Double.compare(that.sum, sum) == 0
+        && Double.compare(that.min, min) == 0
+        && Double.compare(that.max, max) == 0
+        && Objects.equal(sketch, that.sketch);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(count, sum, min, max, sketch);
+  }
+
+  @Override
+  public String toString() {
+    return "MetricsResult{"
+        + "count="
+        + count
+        + ", sum="
+        + sum
+        + ", min="
+        + min
+        + ", max="
+        + max
+        + ", sketch="
+        + sketch
+        + '}';
+  }
+}
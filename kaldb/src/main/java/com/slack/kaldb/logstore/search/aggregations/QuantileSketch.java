@@ -0,0 +1,273 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import com.google.common.base.Objects;
+import java.util.Arrays;
+
+/**
+ * A mergeable sketch of the distribution of values, which estimates the quantiles of the values
+ * within a relative error of 1%.
+ *
+ * <p>The values are counted in buckets whose bounds grow exponentially, like the buckets of an HDR
+ * histogram, so every value in a bucket is within the relative error of the estimate of the bucket.
+ * The positive and the negative values have their own buckets, and the values too close to zero to
+ * have a bucket are counted as zero. Two sketches are merged by adding the counts of their buckets,
+ * so the sketches of the chunks and the nodes merge without any loss of accuracy.
+ *
+ * <p>The buckets of a sketch are a dense range of counts, so they are small when the values span a
+ * few orders of magnitude, like latencies do. The range is limited to MAX_BUCKETS, and the lowest
+ * buckets are collapsed into one when the values span a wider range, which only affects the
+ * accuracy of the lowest quantiles.
+ */
+public class QuantileSketch {
+  static final double RELATIVE_ACCURACY = 0.01;
+  static final int MAX_BUCKETS = 2048;
+
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+  // Values with a smaller magnitude are counted as zero, so the bucket indexes fit in an int.
+  private static final double MIN_INDEXABLE_VALUE = Double.MIN_NORMAL * GAMMA;
+
+  private final Buckets positive;
+  private final Buckets negative;
+  private long zeroCount;
+
+  public QuantileSketch() {
+    this(new Buckets(), new Buckets(), 0);
+  }
+
+  public QuantileSketch(Buckets positive, Buckets negative, long zeroCount) {
+    this.positive = positive;
+    this.negative = negative;
+    this.zeroCount = zeroCount;
+  }
+
+  /**
+   * The counts of a range of buckets. The bucket at an index counts the values with a magnitude
+   * between GAMMA^(index - 1) and GAMMA^index.
+   */
+  public static class Buckets {
+    private int offset;
+    private long[] counts;
+
+    public Buckets() {
+      this(0, new long[0]);
+    }
+
+    public Buckets(int offset, long[] counts) {
+      this.offset = offset;
+      this.counts = counts;
+    }
+
+    /** Returns the index of the first bucket. */
+    public int getOffset() {
+      return offset;
+    }
+
+    /** Returns the counts of the buckets, starting at the offset. */
+    public long[] getCounts() {
+      return counts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Buckets trimmed = trimmed();
+      Buckets thatTrimmed = ((Buckets) o).trimmed();
+      return trimmed.offset == thatTrimmed.offset
+          && Arrays.equals(trimmed.counts, thatTrimmed.counts);
+    }
+
+    @Override
+    public int hashCode() {
+      Buckets trimmed = trimmed();
+      return 31 * trimmed.offset + Arrays.hashCode(trimmed.counts);
+    }
+
+    private long count() {
+      long count = 0;
+      for (long bucketCount : counts) {
+        count += bucketCount;
+      }
+      return count;
+    }
+
+    private void add(int index, long count) {
+      if (counts.length == 0) {
+        offset = index;
+        counts = new long[1];
+      } else if (index < offset) {
+        // The lowest buckets are collapsed into the first one once the range is full.
+        int newOffset = Math.max(index, offset + counts.length - MAX_BUCKETS);
+        grow(newOffset, counts.length + offset - newOffset);
+        index = Math.max(index, offset);
+      } else if (index >= offset + counts.length) {
+        int newLength = Math.min(index - offset + 1, MAX_BUCKETS);
+        collapse(index - newLength + 1);
+        grow(offset, newLength);
+      }
+      counts[index - offset] += count;
+    }
+
+    // Moves the counts of the buckets below the new offset into the bucket at the new offset.
+    private void collapse(int newOffset) {
+      if (newOffset <= offset) {
+        return;
+      }
+      int collapsed = Math.min(newOffset - offset, counts.length);
+      long collapsedCount = 0;
+      for (int i = 0; i < collapsed; i++) {
+        collapsedCount += counts[i];
+      }
+      long[] newCounts = new long[counts.length];
+      System.arraycopy(counts, collapsed, newCounts, 0, counts.length - collapsed);
+      newCounts[0] += collapsedCount;
+      counts = newCounts;
+      offset = newOffset;
+    }
+
+    private void grow(int newOffset, int newLength) {
+      if (newOffset == offset && newLength == counts.length) {
+        return;
+      }
+      long[] newCounts = new long[newLength];
+      System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+      counts = newCounts;
+      offset = newOffset;
+    }
+
+    // Returns the buckets without the empty buckets at the ends of the range, so buckets with the
+    // same counts are equal whatever their ranges are.
+    private Buckets trimmed() {
+      int start = 0;
+      int end = counts.length;
+      while (start < end && counts[start] == 0) {
+        start++;
+      }
+      while (end > start && counts[end - 1] == 0) {
+        end--;
+      }
+      if (start == end) {
+        return new Buckets();
+      }
+      return new Buckets(offset + start, Arrays.copyOfRange(counts, start, end));
+    }
+
+    private void merge(Buckets other) {
+      if (other.counts.length == 0) {
+        return;
+      }
+      // Grow the range once to cover the other buckets, instead of a bucket at a time.
+      add(other.offset + other.counts.length - 1, 0);
+      add(other.offset, 0);
+      for (int i = 0; i < other.counts.length; i++) {
+        if (other.counts[i] > 0) {
+          add(other.offset + i, other.counts[i]);
+        }
+      }
+    }
+  }
+
+  public void add(double value) {
+    if (value >= MIN_INDEXABLE_VALUE) {
+      positive.add(index(value), 1);
+    } else if (value <= -MIN_INDEXABLE_VALUE) {
+      negative.add(index(-value), 1);
+    } else {
+      zeroCount++;
+    }
+  }
+
+  public void merge(QuantileSketch other) {
+    positive.merge(other.positive);
+    negative.merge(other.negative);
+    zeroCount += other.zeroCount;
+  }
+
+  public long count() {
+    return positive.count() + negative.count() + zeroCount;
+  }
+
+  /**
+   * Returns the estimate of the value at the quantile, between 0 and 1, or NaN if the sketch is
+   * empty.
+   */
+  public double quantile(double quantile) {
+    long count = count();
+    if (count == 0) {
+      return Double.NaN;
+    }
+
+    // The rank of the value, counting the values from the lowest, negative ones.
+    long rank = (long) (Math.max(0, Math.min(1, quantile)) * (count - 1));
+    long[] negativeCounts = negative.counts;
+    for (int i = negativeCounts.length - 1; i >= 0; i--) {
+      rank -= negativeCounts[i];
+      if (rank < 0) {
+        return -value(negative.offset + i);
+      }
+    }
+    rank -= zeroCount;
+    if (rank < 0) {
+      return 0;
+    }
+    long[] positiveCounts = positive.counts;
+    for (int i = 0; i < positiveCounts.length; i++) {
+      rank -= positiveCounts[i];
+      if (rank < 0) {
+        return value(positive.offset + i);
+      }
+    }
+    return value(positive.offset + positiveCounts.length - 1);
+  }
+
+  public Buckets getPositive() {
+    return positive;
+  }
+
+  public Buckets getNegative() {
+    return negative;
+  }
+
+  public long getZeroCount() {
+    return zeroCount;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    QuantileSketch that = (QuantileSketch) o;
+    return zeroCount == that.zeroCount
+        && positive.equals(that.positive)
+        && negative.equals(that.negative);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(positive, negative, zeroCount);
+  }
+
+  private static int index(double value) {
+    return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+  }
+
+  // The estimate of the values of a bucket, which is within the relative error of all of them.
+  private static double value(int index) {
+    return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+  }
+
+  @Override
+  public String toString() {
+    return "QuantileSketch{"
+        + "positive="
+        + positive.offset
+        + Arrays.toString(positive.counts)
+        + ", negative="
+        + negative.offset
+        + Arrays.toString(negative.counts)
+        + ", zeroCount="
+        + zeroCount
+        + '}';
+  }
+}
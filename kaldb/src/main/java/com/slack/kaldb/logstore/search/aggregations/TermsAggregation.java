@@ -0,0 +1,69 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import static com.slack.kaldb.util.ArgValidationUtils.ensureNonEmptyString;
+import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
+
+import com.google.common.base.Objects;
+
+/**
+ * A terms aggregation counts the documents of every value of a keyword field and returns the values
+ * with the most documents. The values are counted from the sorted set doc values of the field, so
+ * fields without doc values have no terms.
+ *
+ * <p>Every chunk and node returns more terms than the requested size, the shard size, so a term
+ * that is in the top terms overall but not in the top terms of every chunk is still counted by most
+ * of them. The merged counts come with an upper bound of the error of the counts. The shard size
+ * defaults to the one Elasticsearch uses when it's not set.
+ */
+public class TermsAggregation {
+  public final String field;
+  public final int size;
+  public final int shardSize;
+  // Count the terms of every bucket of the histogram of the query, instead of all the documents.
+  public final boolean perHistogramBucket;
+
+  public TermsAggregation(String field, int size, int shardSize, boolean perHistogramBucket) {
+    ensureNonEmptyString(field, "field should be a non-empty string");
+    ensureTrue(size > 0, "size should be a positive number");
+    this.field = field;
+    this.size = size;
+    this.shardSize = shardSize > 0 ? Math.max(size, shardSize) : defaultShardSize(size);
+    this.perHistogramBucket = perHistogramBucket;
+  }
+
+  // The shard size when it's not set, which is the same as Elasticsearch's.
+  private static int defaultShardSize(int size) {
+    return (int) (size * 1.5 + 10);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    TermsAggregation that = (TermsAggregation) o;
+    return size == that.size
+        && shardSize == that.shardSize
+        && perHistogramBucket == that.perHistogramBucket
+        && field.equals(that.field);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(field, size, shardSize, perHistogramBucket);
+  }
+
+  @Override
+  public String toString() {
+    return "TermsAggregation{"
+        + "field='"
+        + field
+        + '\''
+        + ", size="
+        + size
+        + ", shardSize="
+        + shardSize
+        + ", perHistogramBucket="
+        + perHistogramBucket
+        + '}';
+  }
+}
@@ -0,0 +1,191 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
+import com.slack.kaldb.logstore.LogMessage.SystemField;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.LongBitSet;
+import org.apache.lucene.util.packed.PackedInts;
+import org.apache.lucene.util.packed.PagedGrowableWriter;
+
+/**
+ * Counts the terms of a keyword field from its sorted set doc values.
+ *
+ * <p>The documents of a segment are counted by the ordinals of their terms, in a packed array that
+ * only grows the bits of the counts as they grow, so the terms are only looked up once per segment
+ * instead of once per document. When the terms are counted per histogram bucket, the array has a
+ * count per ordinal and bucket. The counts of a segment are added to the counts by term once the
+ * collector moves on to the next segment, or when the collection is done.
+ *
+ * <p>Like the stats collector, every collector of a concurrent search has its own counts, which are
+ * merged once all the collectors are done.
+ *
+ * <p>The counts take memory for every term of the field and bucket, so a field with too many terms
+ * fails the search, instead of the search running out of memory.
+ */
+public class TermsCollector extends SimpleCollector {
+  private static final int PAGE_SIZE = 1 << 16;
+  // The most counts a search keeps, which is the number of distinct terms times the number of
+  // buckets they are counted in.
+  @VisibleForTesting static final long MAX_TERM_COUNTS = 1 << 22;
+
+  private final String field;
+  // The histogram the documents are bucketed by, or null if the terms aren't counted per bucket.
+  private final FixedIntervalHistogramImpl histogram;
+  private final int bucketCount;
+  // The counts of the terms of the segments collected so far, with a count per bucket.
+  private final Map<String, long[]> termCounts = new HashMap<>();
+
+  private SortedSetDocValues docValues;
+  private NumericDocValues timestamps;
+  // The counts of the current segment by ordinal and bucket, and the ordinals that were counted.
+  private PagedGrowableWriter ordCounts;
+  private LongBitSet countedOrds;
+
+  TermsCollector(String field, FixedIntervalHistogramImpl histogram) {
+    this.field = field;
+    this.histogram = histogram;
+    this.bucketCount = histogram == null ? 1 : histogram.getCounts().length;
+  }
+
+  /**
+   * Returns a collector manager that counts the terms of the aggregation. The result has the top
+   * terms of every bucket of the histogram of the query when the terms are counted per bucket, and
+   * the top terms of all the documents otherwise.
+   */
+  public static CollectorManager<TermsCollector, List<TermsResult>> collectorManager(
+      TermsAggregation aggregation, int bucketCount, long startTimeMsEpoch, long endTimeMsEpoch) {
+    boolean perBucket = aggregation.perHistogramBucket && bucketCount > 0;
+    return new CollectorManager<>() {
+      @Override
+      public TermsCollector newCollector() {
+        return new TermsCollector(
+            aggregation.field,
+            perBucket
+                ? new FixedIntervalHistogramImpl(startTimeMsEpoch, endTimeMsEpoch, bucketCount)
+                : null);
+      }
+
+      @Override
+      public List<TermsResult> reduce(Collection<TermsCollector> collectors) throws IOException {
+        Map<String, long[]> termCounts = new HashMap<>();
+        for (TermsCollector collector : collectors) {
+          collector.flushSegment();
+          collector.termCounts.forEach(
+              (term, counts) ->
+                  termCounts.merge(
+                      term,
+                      counts,
+                      (merged, more) -> {
+                        for (int i = 0; i < merged.length; i++) {
+                          merged[i] += more[i];
+                        }
+                        return merged;
+                      }));
+          checkTermCount(termCounts.size(), aggregation.field, collector.bucketCount);
+        }
+
+        int resultCount = perBucket ? bucketCount : 1;
+        List<TermsResult> results = new ArrayList<>(resultCount);
+        for (int bucket = 0; bucket < resultCount; bucket++) {
+          List<TermsResult.TermCount> counts = new ArrayList<>();
+          for (Map.Entry<String, long[]> entry : termCounts.entrySet()) {
+            long count = entry.getValue()[bucket];
+            if (count > 0) {
+              counts.add(new TermsResult.TermCount(entry.getKey(), count, 0));
+            }
+          }
+          results.add(TermsResult.fromCounts(counts, aggregation.shardSize));
+        }
+        return results;
+      }
+    };
+  }
+
+  @Override
+  protected void doSetNextReader(LeafReaderContext context) throws IOException {
+    flushSegment();
+    docValues = context.reader().getSortedSetDocValues(field);
+    if (docValues != null && docValues.getValueCount() > 0) {
+      long valueCount = docValues.getValueCount();
+      checkTermCount(valueCount, field, bucketCount);
+      ordCounts =
+          new PagedGrowableWriter(valueCount * bucketCount, PAGE_SIZE, 1, PackedInts.FASTEST);
+      countedOrds = new LongBitSet(valueCount);
+    } else {
+      docValues = null;
+    }
+    if (histogram != null) {
+      timestamps = context.reader().getNumericDocValues(SystemField.TIME_SINCE_EPOCH.fieldName);
+    }
+  }
+
+  @Override
+  public ScoreMode scoreMode() {
+    return ScoreMode.COMPLETE_NO_SCORES;
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    if (docValues == null || !docValues.advanceExact(doc)) {
+      return;
+    }
+    int bucket = 0;
+    if (histogram != null) {
+      if (timestamps == null || !timestamps.advanceExact(doc)) {
+        return;
+      }
+      bucket = histogram.getBucketIndex(timestamps.longValue());
+    }
+
+    for (long ord = docValues.nextOrd();
+        ord != SortedSetDocValues.NO_MORE_ORDS;
+        ord = docValues.nextOrd()) {
+      long index = ord * bucketCount + bucket;
+      ordCounts.set(index, ordCounts.get(index) + 1);
+      countedOrds.set(ord);
+    }
+  }
+
+  // Adds the counts of the current segment to the counts by term.
+  private void flushSegment() throws IOException {
+    if (docValues == null) {
+      return;
+    }
+    long valueCount = docValues.getValueCount();
+    long ord = countedOrds.nextSetBit(0);
+    while (ord >= 0) {
+      long[] counts =
+          termCounts.computeIfAbsent(
+              docValues.lookupOrd(ord).utf8ToString(), term -> new long[bucketCount]);
+      for (int bucket = 0; bucket < bucketCount; bucket++) {
+        counts[bucket] += ordCounts.get(ord * bucketCount + bucket);
+      }
+      ord = ord + 1 < valueCount ? countedOrds.nextSetBit(ord + 1) : -1;
+    }
+    docValues = null;
+    ordCounts = null;
+    countedOrds = null;
+    checkTermCount(termCounts.size(), field, bucketCount);
+  }
+
+  private static void checkTermCount(long termCount, String field, int bucketCount) {
+    if (termCount * bucketCount > MAX_TERM_COUNTS) {
+      throw new IllegalArgumentException(
+          String.format(
+              "The terms aggregation of field %s has too many terms, %d terms in %d buckets",
+              field, termCount, bucketCount));
+    }
+  }
+}
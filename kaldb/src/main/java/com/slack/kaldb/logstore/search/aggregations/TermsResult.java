@@ -0,0 +1,161 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import static com.slack.kaldb.util.ArgValidationUtils.ensureTrue;
+
+import com.google.common.base.Objects;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The top terms of a terms aggregation, sorted by count and then by term.
+ *
+ * <p>The counts of a chunk are exact, but a chunk only returns its top terms. So, when the results
+ * of chunks or nodes are merged, a term may be missing from some of them. The error upper bound of
+ * a result is the largest count a term that isn't in the result could have, and the error of a term
+ * is the most its count could be undercounted by the results it was missing from. The counts of the
+ * terms that are dropped are added to the other doc count.
+ */
+public class TermsResult {
+  public static final TermsResult EMPTY = new TermsResult(List.of(), 0, 0);
+
+  private static final Comparator<TermCount> BY_COUNT =
+      Comparator.comparingLong((TermCount termCount) -> termCount.count)
+          .reversed()
+          .thenComparing(termCount -> termCount.term);
+
+  public final List<TermCount> terms;
+  public final long otherDocCount;
+  public final long docCountErrorUpperBound;
+
+  public TermsResult(List<TermCount> terms, long otherDocCount, long docCountErrorUpperBound) {
+    this.terms = terms;
+    this.otherDocCount = otherDocCount;
+    this.docCountErrorUpperBound = docCountErrorUpperBound;
+  }
+
+  /** The count of the documents of a term. */
+  public static class TermCount {
+    public final String term;
+    public final long count;
+    public final long docCountError;
+
+    public TermCount(String term, long count, long docCountError) {
+      this.term = term;
+      this.count = count;
+      this.docCountError = docCountError;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      TermCount that = (TermCount) o;
+      return count == that.count && docCountError == that.docCountError && term.equals(that.term);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(term, count, docCountError);
+    }
+
+    @Override
+    public String toString() {
+      return "TermCount{"
+          + "term='"
+          + term
+          + '\''
+          + ", count="
+          + count
+          + ", docCountError="
+          + docCountError
+          + '}';
+    }
+  }
+
+  /**
+   * Returns the top terms of the exact counts of the terms of a chunk. The count of the last term
+   * returned bounds the counts of the terms that are dropped.
+   */
+  static TermsResult fromCounts(List<TermCount> counts, int size) {
+    return top(counts, 0, 0, size);
+  }
+
+  /** Merges the top terms of the results of chunks or nodes, and returns the top terms of them. */
+  public static TermsResult merge(List<TermsResult> results, int size) {
+    if (results.isEmpty()) {
+      return EMPTY;
+    }
+
+    long otherDocCount = 0;
+    long docCountErrorUpperBound = 0;
+    // The count, the errors and the error bounds of the results that have the term, by term.
+    Map<String, long[]> mergedCounts = new HashMap<>();
+    for (TermsResult result : results) {
+      otherDocCount += result.otherDocCount;
+      docCountErrorUpperBound += result.docCountErrorUpperBound;
+      for (TermCount termCount : result.terms) {
+        long[] mergedCount = mergedCounts.computeIfAbsent(termCount.term, term -> new long[3]);
+        mergedCount[0] += termCount.count;
+        mergedCount[1] += termCount.docCountError;
+        mergedCount[2] += result.docCountErrorUpperBound;
+      }
+    }
+
+    List<TermCount> terms = new ArrayList<>(mergedCounts.size());
+    for (Map.Entry<String, long[]> entry : mergedCounts.entrySet()) {
+      long[] mergedCount = entry.getValue();
+      // A term could have up to the error bound of every result it's missing from.
+      long docCountError = mergedCount[1] + docCountErrorUpperBound - mergedCount[2];
+      terms.add(new TermCount(entry.getKey(), mergedCount[0], docCountError));
+    }
+    return top(terms, otherDocCount, docCountErrorUpperBound, size);
+  }
+
+  // Keeps the top terms. A dropped term counted at most as much as the last term kept, and could be
+  // undercounted by up to the error bound.
+  private static TermsResult top(
+      List<TermCount> terms, long otherDocCount, long docCountErrorUpperBound, int size) {
+    ensureTrue(size > 0, "size should be a positive number");
+    terms.sort(BY_COUNT);
+    if (terms.size() <= size) {
+      return new TermsResult(terms, otherDocCount, docCountErrorUpperBound);
+    }
+
+    for (TermCount dropped : terms.subList(size, terms.size())) {
+      otherDocCount += dropped.count;
+    }
+    List<TermCount> topTerms = new ArrayList<>(terms.subList(0, size));
+    return new TermsResult(
+        topTerms, otherDocCount, docCountErrorUpperBound + topTerms.get(size - 1).count);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    TermsResult that = (TermsResult) o;
+    return otherDocCount == that.otherDocCount
+        && docCountErrorUpperBound == that.docCountErrorUpperBound
+        && terms.equals(that.terms);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(terms, otherDocCount, docCountErrorUpperBound);
+  }
+
+  @Override
+  public String toString() {
+    return "TermsResult{"
+        + "terms="
+        + terms
+        + ", otherDocCount="
+        + otherDocCount
+        + ", docCountErrorUpperBound="
+        + docCountErrorUpperBound
+        + '}';
+  }
+}
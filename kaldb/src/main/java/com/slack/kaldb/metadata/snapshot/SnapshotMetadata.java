@@ -2,7 +2,11 @@ package com.slack.kaldb.metadata.snapshot;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.google.common.collect.ImmutableMap;
+import com.slack.kaldb.logstore.LogDocumentBuilderImpl;
 import com.slack.kaldb.metadata.core.KaldbMetadata;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import java.util.Map;
 
 /**
  * The SnapshotMetadata class contains all the metadata related to a snapshot.
@@ -16,6 +20,18 @@ import com.slack.kaldb.metadata.core.KaldbMetadata;
  * previous offset (except in case of a recovery task). Since this info is only used for debugging
  * for now, this should be fine. If this is inconvenient, consider adding a startOffset field also
  * here.
+ *
+ * <p>The schema contains the types of the fields that were dynamically mapped while indexing the
+ * snapshot, so the snapshot can be queried with the same types without inspecting the index.
+ *
+ * <p>The index doc counts are the catalog of the indexes in the snapshot, so the queries for an
+ * index can skip the snapshots that don't contain it. An empty catalog means that the indexes in
+ * the snapshot are not known, like for the live snapshots and the snapshots created before the
+ * catalog was added, so these snapshots may contain any index.
+ *
+ * <p>The analyzer version is the version of the analyzers the snapshot was indexed with, so its
+ * queries are analyzed like its documents were. The snapshots are created with the current version
+ * unless it's given.
  */
 public class SnapshotMetadata extends KaldbMetadata {
   public static final String LIVE_SNAPSHOT_PATH = "LIVE";
@@ -30,6 +46,9 @@ public class SnapshotMetadata extends KaldbMetadata {
   public final long endTimeEpochMs;
   public final long maxOffset;
   public final String partitionId;
+  public final Map<String, FieldType> schema;
+  public final Map<String, Long> indexDocCounts;
+  public final int analyzerVersion;
 
   public SnapshotMetadata(
       String snapshotId,
@@ -38,6 +57,66 @@ public class SnapshotMetadata extends KaldbMetadata {
       long endTimeEpochMs,
       long maxOffset,
       String partitionId) {
+    this(
+        snapshotId,
+        snapshotPath,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        maxOffset,
+        partitionId,
+        ImmutableMap.of());
+  }
+
+  public SnapshotMetadata(
+      String snapshotId,
+      String snapshotPath,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      long maxOffset,
+      String partitionId,
+      Map<String, FieldType> schema) {
+    this(
+        snapshotId,
+        snapshotPath,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        maxOffset,
+        partitionId,
+        schema,
+        ImmutableMap.of());
+  }
+
+  public SnapshotMetadata(
+      String snapshotId,
+      String snapshotPath,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      long maxOffset,
+      String partitionId,
+      Map<String, FieldType> schema,
+      Map<String, Long> indexDocCounts) {
+    this(
+        snapshotId,
+        snapshotPath,
+        startTimeEpochMs,
+        endTimeEpochMs,
+        maxOffset,
+        partitionId,
+        schema,
+        indexDocCounts,
+        LogDocumentBuilderImpl.ANALYZER_VERSION);
+  }
+
+  public SnapshotMetadata(
+      String snapshotId,
+      String snapshotPath,
+      long startTimeEpochMs,
+      long endTimeEpochMs,
+      long maxOffset,
+      String partitionId,
+      Map<String, FieldType> schema,
+      Map<String, Long> indexDocCounts,
+      int analyzerVersion) {
     this(
         snapshotId,
         snapshotPath,
@@ -45,7 +124,10 @@ public class SnapshotMetadata extends KaldbMetadata {
         startTimeEpochMs,
         endTimeEpochMs,
         maxOffset,
-        partitionId);
+        partitionId,
+        schema,
+        indexDocCounts,
+        analyzerVersion);
   }
 
   private SnapshotMetadata(
@@ -55,7 +137,10 @@ public class SnapshotMetadata extends KaldbMetadata {
       long startTimeEpochMs,
       long endTimeEpochMs,
       long maxOffset,
-      String partitionId) {
+      String partitionId,
+      Map<String, FieldType> schema,
+      Map<String, Long> indexDocCounts,
+      int analyzerVersion) {
     super(name);
     checkArgument(snapshotId != null && !snapshotId.isEmpty(), "snapshotId can't be null or empty");
     checkArgument(startTimeEpochMs > 0, "start time should be greater than zero.");
@@ -68,6 +153,9 @@ public class SnapshotMetadata extends KaldbMetadata {
         partitionId != null && !partitionId.isEmpty(), "partitionId can't be null or empty");
     checkArgument(
         snapshotPath != null && !snapshotPath.isEmpty(), "snapshotPath can't be null or empty");
+    checkArgument(schema != null, "schema can't be null");
+    checkArgument(indexDocCounts != null, "indexDocCounts can't be null");
+    checkArgument(analyzerVersion >= 0, "analyzerVersion should be greater than or equal to zero");
 
     this.snapshotPath = snapshotPath;
     this.snapshotId = snapshotId;
@@ -75,6 +163,14 @@ public class SnapshotMetadata extends KaldbMetadata {
     this.endTimeEpochMs = endTimeEpochMs;
     this.maxOffset = maxOffset;
     this.partitionId = partitionId;
+    this.schema = ImmutableMap.copyOf(schema);
+    this.indexDocCounts = ImmutableMap.copyOf(indexDocCounts);
+    this.analyzerVersion = analyzerVersion;
+  }
+
+  /** Returns false if the catalog of the snapshot shows that it has no documents of the index. */
+  public boolean mayContainIndex(String indexName) {
+    return indexDocCounts.isEmpty() || indexDocCounts.containsKey(indexName);
   }
 
   @Override
@@ -88,9 +184,12 @@ public class SnapshotMetadata extends KaldbMetadata {
     if (startTimeEpochMs != that.startTimeEpochMs) return false;
     if (endTimeEpochMs != that.endTimeEpochMs) return false;
     if (maxOffset != that.maxOffset) return false;
+    if (analyzerVersion != that.analyzerVersion) return false;
     if (!snapshotPath.equals(that.snapshotPath)) return false;
     if (!snapshotId.equals(that.snapshotId)) return false;
-    return partitionId.equals(that.partitionId);
+    if (!partitionId.equals(that.partitionId)) return false;
+    if (!schema.equals(that.schema)) return false;
+    return indexDocCounts.equals(that.indexDocCounts);
   }
 
   @Override
@@ -102,6 +201,9 @@ public class SnapshotMetadata extends KaldbMetadata {
     result = 31 * result + (int) (endTimeEpochMs ^ (endTimeEpochMs >>> 32));
     result = 31 * result + (int) (maxOffset ^ (maxOffset >>> 32));
     result = 31 * result + partitionId.hashCode();
+    result = 31 * result + schema.hashCode();
+    result = 31 * result + indexDocCounts.hashCode();
+    result = 31 * result + analyzerVersion;
     return result;
   }
 
@@ -127,6 +229,12 @@ public class SnapshotMetadata extends KaldbMetadata {
         + ", partitionId='"
         + partitionId
         + '\''
+        + ", schema="
+        + schema
+        + ", indexDocCounts="
+        + indexDocCounts
+        + ", analyzerVersion="
+        + analyzerVersion
         + '}';
   }
 }
@@ -16,6 +16,9 @@ public class SnapshotMetadataSerializer implements MetadataSerializer<SnapshotMe
         .setEndTimeEpochMs(snapshotMetadata.endTimeEpochMs)
         .setPartitionId(snapshotMetadata.partitionId)
         .setMaxOffset(snapshotMetadata.maxOffset)
+        .putAllSchema(snapshotMetadata.schema)
+        .putAllIndexDocCounts(snapshotMetadata.indexDocCounts)
+        .setAnalyzerVersion(snapshotMetadata.analyzerVersion)
         .build();
   }
 
@@ -27,7 +30,10 @@ public class SnapshotMetadataSerializer implements MetadataSerializer<SnapshotMe
         protoSnapshotMetadata.getStartTimeEpochMs(),
         protoSnapshotMetadata.getEndTimeEpochMs(),
         protoSnapshotMetadata.getMaxOffset(),
-        protoSnapshotMetadata.getPartitionId());
+        protoSnapshotMetadata.getPartitionId(),
+        protoSnapshotMetadata.getSchemaMap(),
+        protoSnapshotMetadata.getIndexDocCountsMap(),
+        protoSnapshotMetadata.getAnalyzerVersion());
   }
 
   @Override
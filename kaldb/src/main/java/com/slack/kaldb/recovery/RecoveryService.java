@@ -203,6 +203,18 @@ public class RecoveryService extends AbstractIdleService {
     }
   }
 
+  // The indexer config with the lucene config of the recovery indexer, if one is set.
+  private KaldbConfigs.IndexerConfig recoveryIndexerConfig() {
+    KaldbConfigs.IndexerConfig indexerConfig = kaldbConfig.getIndexerConfig();
+    if (!kaldbConfig.getRecoveryConfig().hasLuceneConfig()) {
+      return indexerConfig;
+    }
+    return indexerConfig
+        .toBuilder()
+        .setLuceneConfig(kaldbConfig.getRecoveryConfig().getLuceneConfig())
+        .build();
+  }
+
   /**
    * This method does the recovery work from a recovery task. A recovery task indicates the start
    * and end offset of a kafka partition to index. To do the recovery work, we create a recovery
@@ -218,7 +230,7 @@ public class RecoveryService extends AbstractIdleService {
               meterRegistry,
               searchMetadataStore,
               snapshotMetadataStore,
-              kaldbConfig.getIndexerConfig(),
+              recoveryIndexerConfig(),
               blobFs,
               kaldbConfig.getS3Config());
       // Ingest data in parallel
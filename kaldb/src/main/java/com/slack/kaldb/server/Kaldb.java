@@ -16,6 +16,7 @@ import com.slack.kaldb.clusterManager.ReplicaEvictionService;
 import com.slack.kaldb.clusterManager.SnapshotDeletionService;
 import com.slack.kaldb.elasticsearchApi.ElasticsearchApiService;
 import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.IdBloomFilterCache;
 import com.slack.kaldb.logstore.search.KaldbDistributedQueryService;
 import com.slack.kaldb.logstore.search.KaldbLocalQueryService;
 import com.slack.kaldb.metadata.cache.CacheSlotMetadataStore;
@@ -193,7 +194,11 @@ public class Kaldb {
 
       KaldbDistributedQueryService kaldbDistributedQueryService =
           new KaldbDistributedQueryService(
-              searchMetadataStore, snapshotMetadataStore, serviceMetadataStore, meterRegistry);
+              searchMetadataStore,
+              snapshotMetadataStore,
+              serviceMetadataStore,
+              new IdBloomFilterCache(blobFs),
+              meterRegistry);
       final int serverPort = kaldbConfig.getQueryConfig().getServerConfig().getServerPort();
       ArmeriaService armeriaService =
           new ArmeriaService.Builder(serverPort, "kalDbQuery", meterRegistry)
@@ -72,7 +72,8 @@ public class KaldbIndexer extends AbstractExecutionThreadService {
     LogMessageWriterImpl logMessageWriterImpl =
         new LogMessageWriterImpl(chunkManager, messageTransformer);
     this.kafkaConsumer =
-        KaldbKafkaConsumer.fromConfig(kafkaConfig, logMessageWriterImpl, meterRegistry);
+        KaldbKafkaConsumer.fromConfig(
+            kafkaConfig, logMessageWriterImpl, meterRegistry, indexerConfig.getIndexerThreads());
   }
 
   @Override
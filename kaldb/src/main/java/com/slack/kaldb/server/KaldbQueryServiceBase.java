@@ -3,6 +3,7 @@ package com.slack.kaldb.server;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.proto.service.KaldbServiceGrpc;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +12,10 @@ public abstract class KaldbQueryServiceBase extends KaldbServiceGrpc.KaldbServic
 
   private static final Logger LOG = LoggerFactory.getLogger(KaldbQueryServiceBase.class);
 
+  // The number of times a page of a search stream is searched before the stream fails, when some of
+  // the snapshots of the page failed or timed out.
+  static final int MAX_SEARCH_PAGE_ATTEMPTS = 3;
+
   @Override
   public void search(
       KaldbSearch.SearchRequest request,
@@ -28,5 +33,125 @@ public abstract class KaldbQueryServiceBase extends KaldbServiceGrpc.KaldbServic
     }
   }
 
+  @Override
+  public void getTrace(
+      KaldbSearch.GetTraceRequest request,
+      StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+
+    LOG.info(String.format("Trace request received: '%s'", request.toString().replace("\n", ", ")));
+
+    try {
+      responseObserver.onNext(doGetTrace(request));
+      responseObserver.onCompleted();
+    } catch (Exception e) {
+      LOG.error("Error completing trace request", e);
+      responseObserver.onError(Status.UNKNOWN.withDescription(e.getMessage()).asException());
+    }
+  }
+
+  @Override
+  public void searchPage(
+      KaldbSearch.SearchStreamRequest request,
+      StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+
+    LOG.info(
+        String.format(
+            "Search page request received: '%s'", request.toString().replace("\n", ", ")));
+
+    try {
+      responseObserver.onNext(doSearchPage(request));
+      responseObserver.onCompleted();
+    } catch (Exception e) {
+      LOG.error("Error completing search page request", e);
+      responseObserver.onError(Status.UNKNOWN.withDescription(e.getMessage()).asException());
+    }
+  }
+
+  /**
+   * Sends the pages of a search stream only while the client is ready to receive them, so a slow
+   * client doesn't make the pages pile up in memory. When the client falls behind, the stream stops
+   * searching and resumes from the onReady handler once the client catches up.
+   *
+   * <p>A page is only sent when all of its snapshots were searched. The cursor of a partial page
+   * would skip the hits of the snapshots that failed or timed out, so the page is searched again,
+   * and the stream fails with an unavailable status if it's still partial after a few attempts.
+   */
+  @Override
+  public void searchStream(
+      KaldbSearch.SearchStreamRequest request,
+      StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+
+    LOG.info(
+        String.format(
+            "Search stream request received: '%s'", request.toString().replace("\n", ", ")));
+
+    ServerCallStreamObserver<KaldbSearch.SearchResult> serverCallObserver =
+        (ServerCallStreamObserver<KaldbSearch.SearchResult>) responseObserver;
+    SearchStream searchStream = new SearchStream(request, serverCallObserver);
+    serverCallObserver.setOnReadyHandler(searchStream::sendPages);
+    searchStream.sendPages();
+  }
+
   public abstract KaldbSearch.SearchResult doSearch(KaldbSearch.SearchRequest request);
+
+  public abstract KaldbSearch.SearchResult doGetTrace(KaldbSearch.GetTraceRequest request);
+
+  /** Returns the page of a search stream after the cursor of the request. */
+  public abstract KaldbSearch.SearchResult doSearchPage(KaldbSearch.SearchStreamRequest request);
+
+  // The state of a search stream. gRPC doesn't run the handlers of a call concurrently, so it's
+  // only accessed by one thread at a time.
+  private class SearchStream {
+    private final ServerCallStreamObserver<KaldbSearch.SearchResult> responseObserver;
+    private KaldbSearch.SearchStreamRequest pageRequest;
+    private boolean done = false;
+
+    private SearchStream(
+        KaldbSearch.SearchStreamRequest request,
+        ServerCallStreamObserver<KaldbSearch.SearchResult> responseObserver) {
+      this.pageRequest = request;
+      this.responseObserver = responseObserver;
+    }
+
+    private void sendPages() {
+      try {
+        while (!done && responseObserver.isReady()) {
+          KaldbSearch.SearchResult page = doSearchPage(pageRequest);
+          for (int attempt = 1; isPartial(page); attempt++) {
+            if (attempt == MAX_SEARCH_PAGE_ATTEMPTS) {
+              done = true;
+              LOG.error("Search stream page is still partial after {} attempts", attempt);
+              responseObserver.onError(
+                  Status.UNAVAILABLE
+                      .withDescription(
+                          String.format(
+                              "Search page has %d failed nodes and %d timed out snapshots",
+                              page.getFailedNodes(), page.getTimedOutSnapshots()))
+                      .asException());
+              return;
+            }
+            page = doSearchPage(pageRequest);
+          }
+          responseObserver.onNext(page);
+          if (page.getHitsCount() < pageRequest.getPageSize()) {
+            done = true;
+            responseObserver.onCompleted();
+          } else {
+            pageRequest = pageRequest.toBuilder().setCursor(page.getCursor()).build();
+          }
+        }
+      } catch (Exception e) {
+        done = true;
+        // A cancelled call is already closed, and its client doesn't wait for the error.
+        if (!responseObserver.isCancelled()) {
+          LOG.error("Error completing search stream request", e);
+          responseObserver.onError(Status.UNKNOWN.withDescription(e.getMessage()).asException());
+        }
+      }
+    }
+
+    private boolean isPartial(KaldbSearch.SearchResult page) {
+      return page.getFailedNodes() > 0 || page.getTimedOutSnapshots() > 0;
+    }
+  }
 }
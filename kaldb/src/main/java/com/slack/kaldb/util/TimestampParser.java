@@ -0,0 +1,139 @@
+package com.slack.kaldb.util;
+
+import java.time.Instant;
+
+/**
+ * TimestampParser parses RFC3339 timestamps into milliseconds since epoch. Almost all the
+ * timestamps we index are in the UTC form yyyy-MM-ddTHH:mm:ss[.fraction]Z, so that form is parsed
+ * directly from the characters of the string without allocating any objects. Every other form,
+ * including offsets other than Z, leap seconds and out of range fields, is parsed by Instant.parse.
+ * So, this parser returns the same values and throws the same exceptions as Instant.parse.
+ */
+public class TimestampParser {
+  private static final long MILLIS_PER_DAY = 86_400_000L;
+  private static final long MILLIS_PER_HOUR = 3_600_000L;
+  private static final long MILLIS_PER_MINUTE = 60_000L;
+  private static final long MILLIS_PER_SECOND = 1000L;
+
+  // Position of the first character after the seconds in yyyy-MM-ddTHH:mm:ss.
+  private static final int SECONDS_END = 19;
+  private static final int MAX_FRACTION_DIGITS = 9;
+
+  private TimestampParser() {}
+
+  public static long parseEpochMillis(String timestamp) {
+    long millis = parseUtc(timestamp);
+    if (millis != Long.MIN_VALUE) {
+      return millis;
+    }
+    return Instant.parse(timestamp).toEpochMilli();
+  }
+
+  // Returns Long.MIN_VALUE if the timestamp is not in the form handled by the fast path.
+  private static long parseUtc(String s) {
+    int length = s.length();
+    if (length < SECONDS_END + 1
+        || s.charAt(4) != '-'
+        || s.charAt(7) != '-'
+        || (s.charAt(10) != 'T' && s.charAt(10) != 't')
+        || s.charAt(13) != ':'
+        || s.charAt(16) != ':') {
+      return Long.MIN_VALUE;
+    }
+    int year = digits(s, 0, 4);
+    int month = digits(s, 5, 2);
+    int day = digits(s, 8, 2);
+    int hour = digits(s, 11, 2);
+    int minute = digits(s, 14, 2);
+    int second = digits(s, 17, 2);
+    if (year < 0
+        || month < 1
+        || month > 12
+        || day < 1
+        || day > daysInMonth(year, month)
+        || hour < 0
+        || hour > 23
+        || minute < 0
+        || minute > 59
+        || second < 0
+        || second > 59) {
+      return Long.MIN_VALUE;
+    }
+
+    int pos = SECONDS_END;
+    int fractionMillis = 0;
+    if (s.charAt(pos) == '.') {
+      pos++;
+      int fractionStart = pos;
+      while (pos < length && isDigit(s.charAt(pos))) {
+        // Digits beyond milliseconds are truncated, like Instant.toEpochMilli does.
+        if (pos - fractionStart < 3) {
+          fractionMillis = fractionMillis * 10 + (s.charAt(pos) - '0');
+        }
+        pos++;
+      }
+      int fractionDigits = pos - fractionStart;
+      if (fractionDigits == 0 || fractionDigits > MAX_FRACTION_DIGITS) {
+        return Long.MIN_VALUE;
+      }
+      for (int i = fractionDigits; i < 3; i++) {
+        fractionMillis *= 10;
+      }
+    }
+    if (pos != length - 1 || (s.charAt(pos) != 'Z' && s.charAt(pos) != 'z')) {
+      return Long.MIN_VALUE;
+    }
+
+    return epochDay(year, month, day) * MILLIS_PER_DAY
+        + hour * MILLIS_PER_HOUR
+        + minute * MILLIS_PER_MINUTE
+        + second * MILLIS_PER_SECOND
+        + fractionMillis;
+  }
+
+  // Returns the value of the digits, or -1 if any of the characters is not a digit.
+  private static int digits(String s, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = s.charAt(i);
+      if (!isDigit(c)) {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLeapYear(int year) {
+    return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        return isLeapYear(year) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  // Days since 1970-01-01 of a date in the proleptic gregorian calendar, for years 0 to 9999.
+  private static long epochDay(int year, int month, int day) {
+    // Count the years from March, so the leap day is the last day of the year.
+    int y = month <= 2 ? year - 1 : year;
+    int era = (y >= 0 ? y : y - 399) / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097L + dayOfEra - 719468;
+  }
+}
@@ -7,9 +7,11 @@ import com.slack.service.murron.Murron;
 import com.slack.service.murron.trace.Trace;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.slf4j.Logger;
@@ -41,10 +43,10 @@ import org.slf4j.LoggerFactory;
  * spans, the transformation function would look as follows: ConsumerRecord -> MurronMessage ->
  * List<Span> -> List<LogMessage>.
  *
- * <p>In future, when all the logs are written only as spans, we can directly convert a span to a
- * Lucene Document, obviating the need for MurronMessage and LogMessage wrappers. Meanwhile, we pass
- * in a data transformation function to this class as input so we can abstract away the specific
- * details of the message format from the indexer.
+ * <p>When the data transformation function is a SpanTransformer, the spans are directly converted
+ * into a Lucene Document, skipping the LogMessage: ConsumerRecord -> List<Span> -> LuceneDocument.
+ * We pass in a data transformation function to this class as input so we can abstract away the
+ * specific details of the message format from the indexer.
  *
  * <p>In the long term, we want to index only spans since spans offer several advantages over basic
  * logs like standardization, provide a service centric log view, ability to ingest and query logs
@@ -60,21 +62,19 @@ public class LogMessageWriterImpl implements MessageWriter {
 
   // An apiLog message is a json blob wrapped in a murron message.
   @Deprecated
-  public static final LogMessageTransformer apiLogTransformer =
+  public static final SpanTransformer apiLogTransformer =
       (ConsumerRecord<String, byte[]> record) -> {
         final Murron.MurronMessage murronMsg =
             murronMessageDeserializer.deserialize("", record.value());
-        Trace.Span apiSpan = MurronLogFormatter.fromApiLog(murronMsg);
-        return SpanFormatter.toLogMessage(Trace.ListOfSpans.newBuilder().addSpans(apiSpan).build());
+        return List.of(MurronLogFormatter.fromApiLog(murronMsg));
       };
 
   // A single trace record consists of a list of spans wrapped in a murron message.
   @Deprecated
-  public static final LogMessageTransformer spanTransformer =
+  public static final SpanTransformer spanTransformer =
       (ConsumerRecord<String, byte[]> record) -> {
         Murron.MurronMessage murronMsg = murronMessageDeserializer.deserialize("", record.value());
-        Trace.ListOfSpans spanList = SpanFormatter.fromMurronMessage(murronMsg);
-        return SpanFormatter.toLogMessage(spanList);
+        return SpanFormatter.fromMurronMessage(murronMsg).getSpansList();
       };
 
   // A json blob with a few fields.
@@ -87,12 +87,8 @@ public class LogMessageWriterImpl implements MessageWriter {
       };
 
   // A protobuf Trace.Span
-  public static final LogMessageTransformer traceSpanTransformer =
-      (ConsumerRecord<String, byte[]> record) -> {
-        final Trace.Span span = Trace.Span.parseFrom(record.value());
-        final Trace.ListOfSpans listOfSpans = Trace.ListOfSpans.newBuilder().addSpans(span).build();
-        return SpanFormatter.toLogMessage(listOfSpans);
-      };
+  public static final SpanTransformer traceSpanTransformer =
+      (ConsumerRecord<String, byte[]> record) -> List.of(Trace.Span.parseFrom(record.value()));
 
   private final ChunkManager<LogMessage> chunkManager;
   private final LogMessageTransformer dataTransformer;
@@ -105,19 +101,15 @@ public class LogMessageWriterImpl implements MessageWriter {
 
   @Override
   public boolean insertRecord(ConsumerRecord<String, byte[]> record) throws IOException {
-    if (record == null) return false;
-
-    final List<LogMessage> logMessages;
-    try {
-      logMessages = this.dataTransformer.toLogMessage(record);
-      // Ideally, we should return true when logMessages are empty. But, fail the record, since we
-      // don't expect any empty records or we may have a bug in earlier code.
-      if (logMessages.isEmpty()) return false;
-    } catch (Exception e) {
-      LOG.warn("Parsing consumer record: {} failed with an exception.", record, e);
-      return false;
+    if (dataTransformer instanceof SpanTransformer) {
+      return insertSpanRecord(record);
     }
 
+    final List<LogMessage> logMessages = toLogMessages(record);
+    // Ideally, we should return true when logMessages are empty. But, fail the record, since we
+    // don't expect any empty records or we may have a bug in earlier code.
+    if (logMessages.isEmpty()) return false;
+
     final int avgMsgSize = record.serializedValueSize() / logMessages.size();
     for (LogMessage logMessage : logMessages) {
       // Currently, ChunkManager.addMessage increments a failure counter to indicate an ingestion
@@ -129,4 +121,106 @@ public class LogMessageWriterImpl implements MessageWriter {
     }
     return true;
   }
+
+  private boolean insertSpanRecord(ConsumerRecord<String, byte[]> record) throws IOException {
+    final List<Trace.Span> spans = toSpans(record);
+    if (spans.isEmpty()) return false;
+
+    // Add the spans one at a time, so the chunk roll over is checked after every span like it is
+    // for log messages.
+    final int avgSpanSize = record.serializedValueSize() / spans.size();
+    for (Trace.Span span : spans) {
+      chunkManager.addSpans(
+          List.of(span), avgSpanSize, String.valueOf(record.partition()), record.offset());
+    }
+    return true;
+  }
+
+  /**
+   * Transform a batch of records and add the resulting messages to the chunk manager with a single
+   * call per kafka partition, instead of one call per message.
+   */
+  @Override
+  public int insertRecords(List<ConsumerRecord<String, byte[]>> records) throws IOException {
+    if (dataTransformer instanceof SpanTransformer) {
+      return insertRecords(records, this::toSpans, chunkManager::addSpans);
+    }
+    return insertRecords(records, this::toLogMessages, chunkManager::addMessages);
+  }
+
+  /** Hold the roll overs of the chunk manager, see ChunkManager.holdRollOvers. */
+  public void holdRollOvers() {
+    chunkManager.holdRollOvers();
+  }
+
+  public void releaseRollOvers() {
+    chunkManager.releaseRollOvers();
+  }
+
+  // Adds a batch of transformed records to the chunk manager.
+  @FunctionalInterface
+  private interface BatchIndexer<M> {
+    void index(List<M> batch, long totalBytes, String kafkaPartitionId, long maxOffset)
+        throws IOException;
+  }
+
+  private <M> int insertRecords(
+      List<ConsumerRecord<String, byte[]>> records,
+      Function<ConsumerRecord<String, byte[]>, List<M>> transformer,
+      BatchIndexer<M> indexer)
+      throws IOException {
+    int failedRecords = 0;
+    List<M> batch = new ArrayList<>(records.size());
+    int batchPartition = -1;
+    long batchBytes = 0;
+    long batchMaxOffset = -1;
+    for (ConsumerRecord<String, byte[]> record : records) {
+      final List<M> messages = transformer.apply(record);
+      if (messages.isEmpty()) {
+        failedRecords++;
+        continue;
+      }
+
+      // A batch is only indexed into a single partition.
+      if (!batch.isEmpty() && record.partition() != batchPartition) {
+        indexer.index(batch, batchBytes, String.valueOf(batchPartition), batchMaxOffset);
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        batchMaxOffset = -1;
+      }
+      batchPartition = record.partition();
+      batch.addAll(messages);
+      batchBytes += record.serializedValueSize();
+      batchMaxOffset = Math.max(batchMaxOffset, record.offset());
+    }
+
+    if (!batch.isEmpty()) {
+      indexer.index(batch, batchBytes, String.valueOf(batchPartition), batchMaxOffset);
+    }
+    return failedRecords;
+  }
+
+  // Returns an empty list if the record can't be transformed.
+  private List<LogMessage> toLogMessages(ConsumerRecord<String, byte[]> record) {
+    if (record == null) return Collections.emptyList();
+
+    try {
+      return this.dataTransformer.toLogMessage(record);
+    } catch (Exception e) {
+      LOG.warn("Parsing consumer record: {} failed with an exception.", record, e);
+      return Collections.emptyList();
+    }
+  }
+
+  // Returns an empty list if the record can't be transformed into spans.
+  private List<Trace.Span> toSpans(ConsumerRecord<String, byte[]> record) {
+    if (record == null) return Collections.emptyList();
+
+    try {
+      return ((SpanTransformer) this.dataTransformer).toSpans(record);
+    } catch (Exception e) {
+      LOG.warn("Parsing consumer record: {} failed with an exception.", record, e);
+      return Collections.emptyList();
+    }
+  }
 }
@@ -1,6 +1,7 @@
 package com.slack.kaldb.writer;
 
 import java.io.IOException;
+import java.util.List;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 
 /*
@@ -8,4 +9,7 @@ import org.apache.kafka.clients.consumer.ConsumerRecord;
  */
 public interface MessageWriter {
   boolean insertRecord(ConsumerRecord<String, byte[]> record) throws IOException;
+
+  // Insert a batch of records and return the number of records that failed.
+  int insertRecords(List<ConsumerRecord<String, byte[]>> records) throws IOException;
 }
@@ -0,0 +1,21 @@
+package com.slack.kaldb.writer;
+
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.service.murron.trace.Trace;
+import java.util.List;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/**
+ * A LogMessageTransformer for records that contain spans. The writer indexes the spans returned by
+ * this transformer directly, skipping the conversion of the spans into a LogMessage.
+ */
+@FunctionalInterface
+public interface SpanTransformer extends LogMessageTransformer {
+  List<Trace.Span> toSpans(ConsumerRecord<String, byte[]> record) throws Exception;
+
+  @Override
+  default List<LogMessage> toLogMessage(ConsumerRecord<String, byte[]> record) throws Exception {
+    return SpanFormatter.toLogMessage(
+        Trace.ListOfSpans.newBuilder().addAllSpans(toSpans(record)).build());
+  }
+}
@@ -4,6 +4,8 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static java.lang.Integer.parseInt;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.slack.kaldb.proto.config.KaldbConfigs;
 import com.slack.kaldb.server.KaldbConfig;
@@ -13,10 +15,12 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
@@ -29,6 +33,14 @@ import org.slf4j.LoggerFactory;
  * A simple wrapper class for Kafka Consumer. A kafka consumer is an infinite loop. So, it needs to
  * be run in a separate thread. Further, it is also important to shut down the consumer cleanly so
  * that we can guarantee that the data is indexed only once.
+ *
+ * <p>By default, the polled records are indexed on the polling thread. When more than one indexer
+ * thread is configured, the records of a poll are split into one batch per indexer thread, and the
+ * polling thread waits for all the batches to be indexed before polling again. So, the indexing of
+ * a poll is spread over the threads, but the polling doesn't overlap the indexing. That is
+ * deliberate: the chunk roll overs are held while the batches of a poll are indexed, so a chunk is
+ * only rolled over once it holds every record up to its max offset. Waiting for the poll also
+ * bounds the records in flight to a single poll, without a separate queue.
  */
 public class KaldbKafkaConsumer {
   private static final Logger LOG = LoggerFactory.getLogger(KaldbKafkaConsumer.class);
@@ -39,6 +51,14 @@ public class KaldbKafkaConsumer {
       KaldbConfigs.KafkaConfig kafkaCfg,
       LogMessageWriterImpl logMessageWriter,
       MeterRegistry meterRegistry) {
+    return fromConfig(kafkaCfg, logMessageWriter, meterRegistry, 1);
+  }
+
+  public static KaldbKafkaConsumer fromConfig(
+      KaldbConfigs.KafkaConfig kafkaCfg,
+      LogMessageWriterImpl logMessageWriter,
+      MeterRegistry meterRegistry,
+      int indexerThreads) {
     return new KaldbKafkaConsumer(
         kafkaCfg.getKafkaTopic(),
         kafkaCfg.getKafkaTopicPartition(),
@@ -48,7 +68,8 @@ public class KaldbKafkaConsumer {
         kafkaCfg.getKafkaAutoCommitInterval(),
         kafkaCfg.getKafkaSessionTimeout(),
         logMessageWriter,
-        meterRegistry);
+        meterRegistry,
+        Math.max(1, indexerThreads));
   }
 
   private static Properties makeKafkaConsumerProps(
@@ -85,7 +106,12 @@ public class KaldbKafkaConsumer {
   private final Counter recordsReceivedCounter;
   private final Counter recordsFailedCounter;
 
-  // TODO: Instead of passing each property as a field, consider defining props in config file.
+  private final int indexerThreads;
+  // Null when the records are indexed on the polling thread.
+  private final ExecutorService indexingExecutor;
+  // The first exception thrown by an indexer thread, rethrown on the polling thread.
+  private final AtomicReference<Throwable> indexingFailure = new AtomicReference<>();
+
   public KaldbKafkaConsumer(
       String kafkaTopic,
       String kafkaTopicPartitionStr,
@@ -96,6 +122,31 @@ public class KaldbKafkaConsumer {
       String kafkaSessionTimeout,
       LogMessageWriterImpl logMessageWriterImpl,
       MeterRegistry meterRegistry) {
+    this(
+        kafkaTopic,
+        kafkaTopicPartitionStr,
+        kafkaBootStrapServers,
+        kafkaClientGroup,
+        enableKafkaAutoCommit,
+        kafkaAutoCommitInterval,
+        kafkaSessionTimeout,
+        logMessageWriterImpl,
+        meterRegistry,
+        1);
+  }
+
+  // TODO: Instead of passing each property as a field, consider defining props in config file.
+  public KaldbKafkaConsumer(
+      String kafkaTopic,
+      String kafkaTopicPartitionStr,
+      String kafkaBootStrapServers,
+      String kafkaClientGroup,
+      String enableKafkaAutoCommit,
+      String kafkaAutoCommitInterval,
+      String kafkaSessionTimeout,
+      LogMessageWriterImpl logMessageWriterImpl,
+      MeterRegistry meterRegistry,
+      int indexerThreads) {
 
     checkArgument(
         kafkaTopic != null && !kafkaTopic.isEmpty(), "Kafka topic can't be null or " + "empty");
@@ -117,18 +168,20 @@ public class KaldbKafkaConsumer {
     checkArgument(
         kafkaTopicPartitionStr != null && !kafkaTopicPartitionStr.isEmpty(),
         "Kafka topic partition can't be null or empty");
+    checkArgument(indexerThreads > 0, "Indexer threads should be positive: " + indexerThreads);
 
     LOG.info(
         "Kafka params are: kafkaTopicName: {}, kafkaTopicPartition: {}, "
             + "kafkaBootstrapServers:{}, kafkaClientGroup: {}, kafkaAutoCommit:{}, "
-            + "kafkaAutoCommitInterval: {}, kafkaSessionTimeout: {}",
+            + "kafkaAutoCommitInterval: {}, kafkaSessionTimeout: {}, indexerThreads: {}",
         kafkaTopic,
         kafkaTopicPartitionStr,
         kafkaBootStrapServers,
         kafkaClientGroup,
         enableKafkaAutoCommit,
         kafkaAutoCommitInterval,
-        kafkaSessionTimeout);
+        kafkaSessionTimeout,
+        indexerThreads);
 
     int kafkaTopicPartition = parseInt(kafkaTopicPartitionStr);
     topicPartition = new TopicPartition(kafkaTopic, kafkaTopicPartition);
@@ -138,6 +191,15 @@ public class KaldbKafkaConsumer {
 
     this.logMessageWriterImpl = logMessageWriterImpl;
 
+    this.indexerThreads = indexerThreads;
+    if (indexerThreads > 1) {
+      indexingExecutor =
+          Executors.newFixedThreadPool(
+              indexerThreads, new ThreadFactoryBuilder().setNameFormat("kafka-indexer-%d").build());
+    } else {
+      indexingExecutor = null;
+    }
+
     // Create kafka consumer
     Properties consumerProps =
         makeKafkaConsumerProps(
@@ -169,6 +231,19 @@ public class KaldbKafkaConsumer {
 
   public void close() {
     LOG.info("Closing kafka consumer for partition:{}", topicPartition);
+    if (indexingExecutor != null) {
+      // Index the records that were already handed off before closing the consumer.
+      indexingExecutor.shutdown();
+      try {
+        if (!indexingExecutor.awaitTermination(
+            KaldbConfig.DEFAULT_START_STOP_DURATION.toMillis(), TimeUnit.MILLISECONDS)) {
+          LOG.warn("Timed out waiting for the indexer threads to finish for {}", topicPartition);
+        }
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted waiting for the indexer threads to finish", e);
+        Thread.currentThread().interrupt();
+      }
+    }
     kafkaConsumer.close(KaldbConfig.DEFAULT_START_STOP_DURATION);
     LOG.info("Closed kafka consumer for partition:{}", topicPartition);
   }
@@ -194,16 +269,18 @@ public class KaldbKafkaConsumer {
   }
 
   public void consumeMessages(final long kafkaPollTimeoutMs) throws IOException {
+    if (indexingExecutor != null) {
+      consumeMessagesWithIndexerThreads(kafkaPollTimeoutMs);
+      return;
+    }
+
     ConsumerRecords<String, byte[]> records =
         kafkaConsumer.poll(Duration.ofMillis(kafkaPollTimeoutMs));
     int recordCount = records.count();
     LOG.debug("Fetched records={} from partition:{}", recordCount, topicPartition.partition());
     if (recordCount > 0) {
       recordsReceivedCounter.increment(recordCount);
-      int recordFailures = 0;
-      for (ConsumerRecord<String, byte[]> record : records) {
-        if (!logMessageWriterImpl.insertRecord(record)) recordFailures++;
-      }
+      int recordFailures = logMessageWriterImpl.insertRecords(Lists.newArrayList(records));
       recordsFailedCounter.increment(recordFailures);
       LOG.debug(
           "Processed {} records. Success: {}, Failed: {}",
@@ -213,6 +290,76 @@ public class KaldbKafkaConsumer {
     }
   }
 
+  /**
+   * Poll the records, split them into one batch per indexer thread and wait until all the batches
+   * are indexed. Any exception thrown while indexing a batch is rethrown here, so the caller can
+   * treat it the same way as an exception from the polling thread.
+   *
+   * <p>Since the batches are indexed concurrently, records may be added to a chunk out of offset
+   * order. The chunk info keeps the max offset and the data time range across all the records in
+   * the chunk. A chunk snapshot is only correct if the chunk holds every record up to its max
+   * offset, so the roll overs are held while the batches of a poll are indexed. A chunk that became
+   * full is rolled over once all the batches are indexed, and the next poll goes into a new chunk.
+   * If a batch fails the roll overs stay held, since the indexer stops anyway.
+   */
+  private void consumeMessagesWithIndexerThreads(final long kafkaPollTimeoutMs) throws IOException {
+    ConsumerRecords<String, byte[]> records =
+        kafkaConsumer.poll(Duration.ofMillis(kafkaPollTimeoutMs));
+    int recordCount = records.count();
+    LOG.debug("Fetched records={} from partition:{}", recordCount, topicPartition.partition());
+    if (recordCount == 0) return;
+
+    recordsReceivedCounter.increment(recordCount);
+    int batchSize = (recordCount + indexerThreads - 1) / indexerThreads;
+    List<Future<?>> batches = new ArrayList<>(indexerThreads);
+    logMessageWriterImpl.holdRollOvers();
+    for (List<ConsumerRecord<String, byte[]>> batch :
+        Lists.partition(Lists.newArrayList(records), batchSize)) {
+      batches.add(indexingExecutor.submit(() -> indexBatch(batch)));
+    }
+    for (Future<?> batch : batches) {
+      try {
+        batch.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for the batches to be indexed", e);
+      } catch (ExecutionException e) {
+        indexingFailure.compareAndSet(null, e.getCause());
+      }
+    }
+    throwIfIndexingFailed();
+    logMessageWriterImpl.releaseRollOvers();
+  }
+
+  private void indexBatch(List<ConsumerRecord<String, byte[]>> batch) {
+    // Stop indexing once a batch failed, the polling thread will rethrow the failure.
+    if (indexingFailure.get() != null) return;
+
+    int recordFailures = 0;
+    try {
+      recordFailures = logMessageWriterImpl.insertRecords(batch);
+    } catch (Exception e) {
+      LOG.error("Encountered exception indexing a batch", e);
+      indexingFailure.compareAndSet(null, e);
+    } finally {
+      recordsFailedCounter.increment(recordFailures);
+    }
+    LOG.debug(
+        "Processed {} records. Success: {}, Failed: {}",
+        batch.size(),
+        batch.size() - recordFailures,
+        recordFailures);
+  }
+
+  private void throwIfIndexingFailed() throws IOException {
+    Throwable failure = indexingFailure.get();
+    if (failure != null) {
+      Throwables.throwIfInstanceOf(failure, IOException.class);
+      Throwables.throwIfUnchecked(failure);
+      throw new IOException(failure);
+    }
+  }
+
   /**
    * The default offer method on array blocking queue class fails an insert an element when the
    * queue is full. So, we override the offer method here to wait when inserting the item until the
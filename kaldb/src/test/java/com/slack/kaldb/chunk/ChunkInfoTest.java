@@ -3,8 +3,10 @@ package com.slack.kaldb.chunk;
 import static com.slack.kaldb.chunk.ChunkInfo.*;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.Map;
 import org.junit.Test;
 
 public class ChunkInfoTest {
@@ -347,4 +349,44 @@ public class ChunkInfoTest {
             TEST_SNAPSHOT_PATH);
     assertThat(fromSnapshotMetadata(toSnapshotMetadata(chunkInfo, ""))).isEqualTo(chunkInfo);
   }
+
+  @Test
+  public void testIndexCatalog() {
+    ChunkInfo chunkInfo =
+        new ChunkInfo(TEST_CHUNK_NAME, 1000, TEST_KAFKA_PARTITION_ID, TEST_SNAPSHOT_PATH);
+    assertThat(chunkInfo.getIndexDocCounts()).isEmpty();
+    assertThat(chunkInfo.needsIndexFilter("index1")).isFalse();
+
+    chunkInfo.updateIndexDocCounts(Map.of("index1", 10L));
+    chunkInfo.updateIndexDocCounts(Map.of("index1", 5L));
+    assertThat(chunkInfo.getIndexDocCounts()).isEqualTo(Map.of("index1", 15L));
+    assertThat(chunkInfo.needsIndexFilter("index1")).isFalse();
+    assertThat(chunkInfo.needsIndexFilter("index2")).isTrue();
+
+    chunkInfo.updateIndexDocCounts(Map.of("index2", 1L));
+    assertThat(chunkInfo.needsIndexFilter("index1")).isTrue();
+
+    // The catalog is published with the snapshot, but not with the live snapshot.
+    SnapshotMetadata snapshotMetadata = toSnapshotMetadata(chunkInfo, "", Map.of());
+    assertThat(snapshotMetadata.indexDocCounts).isEqualTo(Map.of("index1", 15L, "index2", 1L));
+    assertThat(fromSnapshotMetadata(snapshotMetadata).getIndexDocCounts())
+        .isEqualTo(snapshotMetadata.indexDocCounts);
+    assertThat(toSnapshotMetadata(chunkInfo, "LIVE_").indexDocCounts).isEmpty();
+  }
+
+  @Test
+  public void testIndexCatalogIsDroppedWhenItHasTooManyIndexes() {
+    ChunkInfo chunkInfo =
+        new ChunkInfo(TEST_CHUNK_NAME, 1000, TEST_KAFKA_PARTITION_ID, TEST_SNAPSHOT_PATH);
+    for (int i = 0; i < MAX_CATALOG_INDEXES; i++) {
+      chunkInfo.updateIndexDocCounts(Map.of("index" + i, 1L));
+    }
+    assertThat(chunkInfo.getIndexDocCounts()).hasSize(MAX_CATALOG_INDEXES);
+
+    chunkInfo.updateIndexDocCounts(Map.of("oneTooMany", 1L));
+    assertThat(chunkInfo.getIndexDocCounts()).isEmpty();
+    assertThat(chunkInfo.needsIndexFilter("index1")).isFalse();
+    chunkInfo.updateIndexDocCounts(Map.of("index1", 1L));
+    assertThat(chunkInfo.getIndexDocCounts()).isEmpty();
+  }
 }
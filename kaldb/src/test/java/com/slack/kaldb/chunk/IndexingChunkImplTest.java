@@ -4,6 +4,7 @@ import static com.slack.kaldb.chunk.ReadWriteChunk.INDEX_FILES_UPLOAD;
 import static com.slack.kaldb.chunk.ReadWriteChunk.INDEX_FILES_UPLOAD_FAILED;
 import static com.slack.kaldb.chunk.ReadWriteChunk.LIVE_SNAPSHOT_PREFIX;
 import static com.slack.kaldb.chunk.ReadWriteChunk.SNAPSHOT_TIMER;
+import static com.slack.kaldb.logstore.BlobFsUtils.createURI;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.COMMITS_TIMER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_FAILED_COUNTER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_RECEIVED_COUNTER;
@@ -17,6 +18,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import brave.Tracing;
 import com.adobe.testing.s3mock.junit4.S3MockRule;
 import com.slack.kaldb.blobfs.s3.S3BlobFs;
+import com.slack.kaldb.logstore.IdBloomFilter;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.LuceneIndexStoreImpl;
 import com.slack.kaldb.logstore.search.SearchQuery;
@@ -531,8 +533,10 @@ public class IndexingChunkImplTest {
       assertThat(chunk.snapshotToS3(bucket, "", s3BlobFs)).isTrue();
       assertThat(chunk.info().getSnapshotPath()).isNotEmpty();
 
-      assertThat(getCount(INDEX_FILES_UPLOAD, registry)).isEqualTo(4);
+      assertThat(getCount(INDEX_FILES_UPLOAD, registry)).isEqualTo(5);
       assertThat(getCount(INDEX_FILES_UPLOAD_FAILED, registry)).isEqualTo(0);
+      // The id filter of the chunk is uploaded with the index files.
+      assertThat(s3BlobFs.exists(createURI(bucket, "", IdBloomFilter.FILE_NAME))).isTrue();
       assertThat(registry.get(SNAPSHOT_TIMER).timer().totalTime(TimeUnit.SECONDS)).isGreaterThan(0);
 
       // Post snapshot cleanup.
@@ -542,7 +546,8 @@ public class IndexingChunkImplTest {
       List<SnapshotMetadata> afterSnapshots =
           snapshotMetadataStore.list().get(DEFAULT_ZK_TIMEOUT_SECS, TimeUnit.SECONDS);
       assertThat(afterSnapshots.size()).isEqualTo(2);
-      assertThat(afterSnapshots).contains(ChunkInfo.toSnapshotMetadata(chunk.info(), ""));
+      assertThat(afterSnapshots)
+          .contains(ChunkInfo.toSnapshotMetadata(chunk.info(), "", chunk.getSchema()));
       SnapshotMetadata liveSnapshot =
           afterSnapshots
               .stream()
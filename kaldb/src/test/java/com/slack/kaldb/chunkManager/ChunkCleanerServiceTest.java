@@ -111,7 +111,8 @@ public class ChunkCleanerServiceTest {
 
     List<SnapshotMetadata> afterSnapshots = snapshotMetadataStore.listSync();
     assertThat(afterSnapshots.size()).isEqualTo(2);
-    assertThat(afterSnapshots).contains(ChunkInfo.toSnapshotMetadata(chunk.info(), ""));
+    assertThat(afterSnapshots)
+        .contains(ChunkInfo.toSnapshotMetadata(chunk.info(), "", chunk.getSchema()));
     SnapshotMetadata liveSnapshot = fetchLiveSnapshot(afterSnapshots).get(0);
     assertThat(liveSnapshot.partitionId).isEqualTo(TEST_KAFKA_PARTITION_ID);
     assertThat(liveSnapshot.maxOffset).isEqualTo(9);
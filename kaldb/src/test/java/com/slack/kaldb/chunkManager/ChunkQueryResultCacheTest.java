@@ -0,0 +1,139 @@
+package com.slack.kaldb.chunkManager;
+
+import static com.slack.kaldb.chunkManager.ChunkQueryResultCache.QUERY_RESULT_CACHE_EVICTIONS;
+import static com.slack.kaldb.chunkManager.ChunkQueryResultCache.QUERY_RESULT_CACHE_HITS;
+import static com.slack.kaldb.chunkManager.ChunkQueryResultCache.QUERY_RESULT_CACHE_MISSES;
+import static com.slack.kaldb.chunkManager.ChunkQueryResultCache.QUERY_RESULT_CACHE_SIZE_BYTES;
+import static com.slack.kaldb.testlib.MetricsUtil.getCount;
+import static com.slack.kaldb.testlib.MetricsUtil.getValue;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.slack.kaldb.chunk.Chunk;
+import com.slack.kaldb.chunk.ChunkInfo;
+import com.slack.kaldb.chunkManager.ChunkQueryResultCache.QueryKey;
+import com.slack.kaldb.histogram.HistogramBucket;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.SearchQuery;
+import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.testlib.MessageUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkQueryResultCacheTest {
+  private static final long DATA_START_MS = 1000;
+  private static final long DATA_END_MS = 2000;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  @Before
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  private static Chunk<LogMessage> makeChunk(String chunkId, SearchResult<LogMessage> result) {
+    @SuppressWarnings("unchecked")
+    Chunk<LogMessage> chunk = mock(Chunk.class);
+    ChunkInfo chunkInfo =
+        new ChunkInfo(chunkId, 0, 0, DATA_START_MS, DATA_END_MS, 0, 0, "1", "snapshotPath");
+    when(chunk.info()).thenReturn(chunkInfo);
+    when(chunk.query(any())).thenReturn(result);
+    return chunk;
+  }
+
+  private static SearchResult<LogMessage> makeResult(int hitCount) {
+    List<LogMessage> hits = MessageUtil.makeMessagesWithTimeDifference(1, hitCount);
+    return new SearchResult<>(hits, 10, hitCount, List.of(), 0, 0, 1, 1);
+  }
+
+  private static SearchQuery makeQuery(String queryStr, long start, long end, int bucketCount) {
+    return new SearchQuery(MessageUtil.TEST_INDEX_NAME, queryStr, start, end, 10, bucketCount);
+  }
+
+  @Test
+  public void testRepeatedQueriesAreCached() {
+    ChunkQueryResultCache<LogMessage> cache =
+        new ChunkQueryResultCache<>(1024 * 1024, meterRegistry);
+    SearchResult<LogMessage> result = makeResult(5);
+    Chunk<LogMessage> chunk = makeChunk("chunk1", result);
+
+    assertThat(cache.query(chunk, makeQuery("a:b  AND c", 0, 5000, 0))).isEqualTo(result);
+    assertThat(getCount(QUERY_RESULT_CACHE_MISSES, meterRegistry)).isEqualTo(1);
+    assertThat(getValue(QUERY_RESULT_CACHE_SIZE_BYTES, meterRegistry)).isGreaterThan(0);
+
+    // The time ranges are clamped to the data of the chunk, and the whitespace is normalized.
+    assertThat(cache.query(chunk, makeQuery(" a:b AND c ", 500, 3000, 0))).isSameAs(result);
+    assertThat(getCount(QUERY_RESULT_CACHE_HITS, meterRegistry)).isEqualTo(1);
+    verify(chunk, times(1)).query(any());
+
+    // Histograms depend on the exact time range.
+    cache.query(chunk, makeQuery("a:b AND c", 0, 5000, 5));
+    cache.query(chunk, makeQuery("a:b AND c", 500, 5000, 5));
+    cache.query(chunk, makeQuery("a:b AND c", 500, 5000, 5));
+    assertThat(getCount(QUERY_RESULT_CACHE_MISSES, meterRegistry)).isEqualTo(3);
+    assertThat(getCount(QUERY_RESULT_CACHE_HITS, meterRegistry)).isEqualTo(2);
+
+    // The cached results of an evicted chunk are dropped.
+    cache.invalidateChunk("chunk1");
+    assertThat(cache.getSizeBytes()).isEqualTo(0);
+    cache.query(chunk, makeQuery("a:b AND c", 0, 5000, 0));
+    assertThat(getCount(QUERY_RESULT_CACHE_MISSES, meterRegistry)).isEqualTo(4);
+    assertThat(getCount(QUERY_RESULT_CACHE_EVICTIONS, meterRegistry)).isEqualTo(0);
+  }
+
+  @Test
+  public void testPartialAndFailedResultsAreNotCached() {
+    ChunkQueryResultCache<LogMessage> cache =
+        new ChunkQueryResultCache<>(1024 * 1024, meterRegistry);
+    SearchResult<LogMessage> timedOut =
+        new SearchResult<>(List.of(), 10, 0, List.of(), 0, 0, 1, 1, 1);
+    Chunk<LogMessage> timedOutChunk = makeChunk("chunk1", timedOut);
+    cache.query(timedOutChunk, makeQuery("*:*", 0, 5000, 0));
+    cache.query(timedOutChunk, makeQuery("*:*", 0, 5000, 0));
+    verify(timedOutChunk, times(2)).query(any());
+
+    Chunk<LogMessage> failedChunk =
+        makeChunk("chunk2", new SearchResult<>(List.of(), 0, 0, List.of(), 1, 1, 0, 0));
+    cache.query(failedChunk, makeQuery("*:*", 0, 5000, 0));
+    cache.query(failedChunk, makeQuery("*:*", 0, 5000, 0));
+    verify(failedChunk, times(2)).query(any());
+
+    assertThat(getCount(QUERY_RESULT_CACHE_HITS, meterRegistry)).isEqualTo(0);
+    assertThat(cache.getSizeBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCacheIsBoundedBySize() {
+    SearchResult<LogMessage> result =
+        new SearchResult<>(
+            MessageUtil.makeMessagesWithTimeDifference(1, 10),
+            10,
+            10,
+            List.of(new HistogramBucket(0, 1)),
+            0,
+            0,
+            1,
+            1);
+    // Every result is a few kilobytes, so the cache only holds a few of them.
+    ChunkQueryResultCache<LogMessage> cache = new ChunkQueryResultCache<>(64 * 1024, meterRegistry);
+    Chunk<LogMessage> chunk = makeChunk("chunk1", result);
+    for (int i = 0; i < 100; i++) {
+      cache.query(chunk, makeQuery("Message" + i, 0, 5000, 1));
+    }
+    assertThat(getCount(QUERY_RESULT_CACHE_EVICTIONS, meterRegistry)).isGreaterThan(0);
+    assertThat(cache.getSizeBytes()).isGreaterThan(0).isLessThanOrEqualTo(64 * 1024);
+  }
+
+  @Test
+  public void testNormalizeQuery() {
+    assertThat(QueryKey.normalizeQuery("  a:b \t AND\n c  ")).isEqualTo("a:b AND c");
+    assertThat(QueryKey.normalizeQuery("a:\"b  c\"  d")).isEqualTo("a:\"b  c\" d");
+    assertThat(QueryKey.normalizeQuery("")).isEqualTo("");
+  }
+}
@@ -32,6 +32,8 @@ import com.slack.kaldb.logstore.search.AlreadyClosedLogIndexSearcherImpl;
 import com.slack.kaldb.logstore.search.IllegalArgumentLogIndexSearcherImpl;
 import com.slack.kaldb.logstore.search.SearchQuery;
 import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.aggregations.MetricsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggregation;
 import com.slack.kaldb.metadata.search.SearchMetadata;
 import com.slack.kaldb.metadata.search.SearchMetadataStore;
 import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
@@ -48,6 +50,7 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
@@ -149,6 +152,20 @@ public class IndexingChunkManagerTest {
     chunkManager.awaitRunning(DEFAULT_START_STOP_DURATION);
   }
 
+  @Test
+  public void testGetForceMergeTimeout() {
+    Duration configuredTimeout = Duration.ofMinutes(5);
+    assertThat(IndexingChunkManager.getForceMergeTimeout(configuredTimeout, Duration.ofHours(1)))
+        .isEqualTo(configuredTimeout);
+    assertThat(IndexingChunkManager.getForceMergeTimeout(configuredTimeout, Duration.ofMinutes(4)))
+        .isEqualTo(Duration.ofMinutes(2));
+    assertThat(IndexingChunkManager.getForceMergeTimeout(configuredTimeout, Duration.ZERO))
+        .isEqualTo(Duration.ZERO);
+    // The clock moved back while the chunk was filled.
+    assertThat(IndexingChunkManager.getForceMergeTimeout(configuredTimeout, Duration.ofMinutes(-1)))
+        .isEqualTo(Duration.ZERO);
+  }
+
   @Test
   @Ignore
   // Todo: this test needs to be refactored as it currently does not reliably replicate the race
@@ -227,6 +244,26 @@ public class IndexingChunkManagerTest {
     SearchResult<LogMessage> results = chunkManager.query(searchQuery);
     assertThat(results.hits.size()).isEqualTo(1);
 
+    // The aggregations of the chunks are returned with their hits.
+    SearchQuery aggregationsQuery =
+        new SearchQuery(
+            MessageUtil.TEST_INDEX_NAME,
+            "Message1",
+            0,
+            MAX_TIME,
+            10,
+            1000,
+            searchQuery.timeout,
+            Collections.emptySet(),
+            new TermsAggregation(LogMessage.ReservedField.HOSTNAME.fieldName, 1, 0, false),
+            new MetricsAggregation(MessageUtil.TEST_SOURCE_LONG_PROPERTY, List.of(), false));
+    SearchResult<LogMessage> aggregationsResults = chunkManager.query(aggregationsQuery);
+    assertThat(aggregationsResults.hits.size()).isEqualTo(1);
+    assertThat(aggregationsResults.terms).hasSize(1);
+    assertThat(aggregationsResults.metrics).hasSize(1);
+    assertThat(aggregationsResults.metrics.get(0).count).isEqualTo(1);
+    assertThat(aggregationsResults.metrics.get(0).sum).isEqualTo(1);
+
     // Test chunk metadata.
     ChunkInfo chunkInfo = chunkManager.getActiveChunk().info();
     assertThat(chunkInfo.getChunkSnapshotTimeEpochMs()).isZero();
@@ -510,6 +547,83 @@ public class IndexingChunkManagerTest {
     checkMetadata(3, 2, 1, 2, 1);
   }
 
+  @Test
+  public void testAddMessagesInBatchesWithRollover() throws Exception {
+    ChunkRollOverStrategy chunkRollOverStrategy =
+        new ChunkRollOverStrategyImpl(10 * 1024 * 1024 * 1024L, 10L);
+
+    initChunkManager(
+        chunkRollOverStrategy, S3_TEST_BUCKET, MoreExecutors.newDirectExecutorService());
+
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 15);
+    // The roll over is only checked once per batch, so the first chunk holds all 12 messages.
+    chunkManager.addMessages(messages.subList(0, 6), 600, TEST_KAFKA_PARTITION_ID, 6);
+    ReadWriteChunk<LogMessage> chunk1 = chunkManager.getActiveChunk();
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(6);
+    assertThat(getValue(LIVE_BYTES_INDEXED, metricsRegistry)).isEqualTo(600);
+
+    chunkManager.addMessages(messages.subList(6, 12), 600, TEST_KAFKA_PARTITION_ID, 12);
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(0); // Roll over.
+    await().until(() -> getCount(RollOverChunkTask.ROLLOVERS_COMPLETED, metricsRegistry) == 1);
+    assertThat(chunk1.info().getMaxOffset()).isEqualTo(12);
+    assertThat(chunk1.info().getDataStartTimeEpochMs())
+        .isEqualTo(messages.get(0).timeSinceEpochMilli);
+    assertThat(chunk1.info().getDataEndTimeEpochMs())
+        .isEqualTo(messages.get(11).timeSinceEpochMilli);
+
+    chunkManager.addMessages(messages.subList(12, 15), 300, TEST_KAFKA_PARTITION_ID, 15);
+    assertThat(chunkManager.getChunkList().size()).isEqualTo(2);
+    assertThat(getCount(MESSAGES_RECEIVED_COUNTER, metricsRegistry)).isEqualTo(15);
+    assertThat(getCount(MESSAGES_FAILED_COUNTER, metricsRegistry)).isEqualTo(0);
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(3);
+    assertThat(chunkManager.getActiveChunk().info().getMaxOffset()).isEqualTo(15);
+
+    chunkManager.getActiveChunk().commit();
+    testChunkManagerSearch(chunkManager, "Message1", 1, 2, 2);
+    testChunkManagerSearch(chunkManager, "Message13", 1, 2, 2);
+  }
+
+  // The batches of a poll are indexed concurrently, so a batch with higher offsets can fill the
+  // chunk while a batch with lower offsets is still in flight. The chunk is only rolled over once
+  // both are indexed, otherwise its snapshot would cover the offsets of the records that went into
+  // the next chunk.
+  @Test
+  public void testRollOverWaitsForInFlightLowerOffsetBatch() throws Exception {
+    ChunkRollOverStrategy chunkRollOverStrategy =
+        new ChunkRollOverStrategyImpl(10 * 1024 * 1024 * 1024L, 10L);
+
+    initChunkManager(
+        chunkRollOverStrategy, S3_TEST_BUCKET, MoreExecutors.newDirectExecutorService());
+
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 15);
+    chunkManager.holdRollOvers();
+    chunkManager.addMessages(messages.subList(6, 12), 600, TEST_KAFKA_PARTITION_ID, 12);
+    chunkManager.addMessages(messages.subList(0, 6), 600, TEST_KAFKA_PARTITION_ID, 6);
+    ReadWriteChunk<LogMessage> chunk1 = chunkManager.getActiveChunk();
+    // The chunk is full, but stays active until the roll overs are released.
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(12);
+    assertThat(metricsRegistry.find(ROLLOVERS_INITIATED).counter()).isNull();
+
+    chunkManager.releaseRollOvers();
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(0);
+    assertThat(getCount(ROLLOVERS_INITIATED, metricsRegistry)).isEqualTo(1);
+    await().until(() -> getCount(RollOverChunkTask.ROLLOVERS_COMPLETED, metricsRegistry) == 1);
+    assertThat(chunk1.info().getMaxOffset()).isEqualTo(12);
+    assertThat(chunk1.info().getDataStartTimeEpochMs())
+        .isEqualTo(messages.get(0).timeSinceEpochMilli);
+
+    chunkManager.addMessages(messages.subList(12, 15), 300, TEST_KAFKA_PARTITION_ID, 15);
+    assertThat(chunkManager.getChunkList().size()).isEqualTo(2);
+    assertThat(chunkManager.getActiveChunk()).isNotSameAs(chunk1);
+    assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(3);
+
+    chunkManager.getActiveChunk().commit();
+    // The messages of the lower offset batch are all in the rolled over chunk.
+    testChunkManagerSearch(chunkManager, "Message1", 1, 2, 2);
+    testChunkManagerSearch(chunkManager, "Message6", 1, 2, 2);
+    testChunkManagerSearch(chunkManager, "Message13", 1, 2, 2);
+  }
+
   // Adding messages to an already rolled over chunk fails.
   @Test
   public void testAddMessagesToChunkWithRollover() throws Exception {
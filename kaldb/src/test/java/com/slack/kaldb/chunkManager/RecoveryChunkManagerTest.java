@@ -1,6 +1,8 @@
 package com.slack.kaldb.chunkManager;
 
 import static com.slack.kaldb.chunk.ChunkInfo.MAX_FUTURE_TIME;
+import static com.slack.kaldb.chunk.ReadWriteChunk.SNAPSHOT_SEGMENT_COUNT;
+import static com.slack.kaldb.chunk.ReadWriteChunk.SNAPSHOT_SIZE_BYTES;
 import static com.slack.kaldb.chunkManager.IndexingChunkManager.LIVE_BYTES_INDEXED;
 import static com.slack.kaldb.chunkManager.IndexingChunkManager.LIVE_MESSAGES_INDEXED;
 import static com.slack.kaldb.chunkManager.RollOverChunkTask.*;
@@ -103,6 +105,11 @@ public class RecoveryChunkManagerTest {
   }
 
   private void initChunkManager(String testS3Bucket) throws Exception {
+    initChunkManager(testS3Bucket, KaldbConfigs.LuceneConfig.getDefaultInstance());
+  }
+
+  private void initChunkManager(String testS3Bucket, KaldbConfigs.LuceneConfig luceneConfig)
+      throws Exception {
 
     KaldbConfigs.KaldbConfig kaldbCfg =
         KaldbConfigUtil.makeKaldbConfig(
@@ -120,12 +127,19 @@ public class RecoveryChunkManagerTest {
             "api_log",
             9003);
 
+    KaldbConfigs.IndexerConfig indexerConfig = kaldbCfg.getIndexerConfig();
+    indexerConfig =
+        indexerConfig
+            .toBuilder()
+            .setLuceneConfig(indexerConfig.getLuceneConfig().toBuilder().mergeFrom(luceneConfig))
+            .build();
+
     chunkManager =
         RecoveryChunkManager.fromConfig(
             metricsRegistry,
             searchMetadataStore,
             snapshotMetadataStore,
-            kaldbCfg.getIndexerConfig(),
+            indexerConfig,
             s3BlobFs,
             kaldbCfg.getS3Config());
     chunkManager.startAsync();
@@ -255,6 +269,46 @@ public class RecoveryChunkManagerTest {
     chunkManager = null;
   }
 
+  @Test
+  public void testRolloverWithForceMerge() throws Exception {
+    initChunkManager(
+        S3_TEST_BUCKET,
+        KaldbConfigs.LuceneConfig.newBuilder()
+            .setForceMergeMaxSegments(1)
+            .setForceMergeTimeoutSecs(60)
+            .build());
+
+    // Commit after every 10 messages to create multiple segments.
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 100);
+    int offset = 1;
+    for (LogMessage m : messages) {
+      chunkManager.addMessage(m, m.toString().length(), TEST_KAFKA_PARTITION_ID, offset);
+      if (offset % 10 == 0) {
+        chunkManager.getActiveChunk().commit();
+      }
+      offset++;
+    }
+    ReadWriteChunk<LogMessage> currentChunk = chunkManager.getActiveChunk();
+
+    assertThat(chunkManager.waitForRollOvers()).isTrue();
+    assertThat(getCount(ROLLOVERS_COMPLETED, metricsRegistry)).isEqualTo(1);
+    assertThat(getCount(ROLLOVER_FORCE_MERGES_COMPLETED, metricsRegistry)).isEqualTo(1);
+    assertThat(getCount(ROLLOVER_FORCE_MERGES_ABORTED, metricsRegistry)).isEqualTo(0);
+    assertThat(metricsRegistry.get(SNAPSHOT_SEGMENT_COUNT).summary().max()).isEqualTo(1);
+    assertThat(metricsRegistry.get(SNAPSHOT_SIZE_BYTES).summary().max()).isGreaterThan(0);
+    assertThat(snapshotMetadataStore.listSync().size()).isEqualTo(1);
+
+    // The merged chunk has all the messages.
+    SearchResult<LogMessage> results =
+        currentChunk.query(
+            new SearchQuery(MessageUtil.TEST_INDEX_NAME, "*:*", 0, MAX_TIME, 1000, 1000));
+    assertThat(results.totalCount).isEqualTo(100);
+
+    chunkManager.stopAsync();
+    chunkManager.awaitTerminated(DEFAULT_START_STOP_DURATION);
+    chunkManager = null;
+  }
+
   private void testChunkManagerSearch(
       ChunkManager<LogMessage> chunkManager, String searchString, int expectedHitCount) {
 
@@ -193,6 +193,36 @@ public class ElasticsearchApiServiceTest {
         .isTrue();
   }
 
+  @Test
+  public void testMoreThanOneTermsAggregationIsABadRequest() throws IOException {
+    String postBody =
+        Resources.toString(
+            Resources.getResource(
+                "elasticsearchApi/multisearch_query_two_terms_aggregations.ndjson"),
+            Charset.defaultCharset());
+    HttpResponse response = elasticsearchApiService.multiSearch(postBody);
+
+    AggregatedHttpResponse aggregatedRes = response.aggregate().join();
+    assertThat(aggregatedRes.status().code()).isEqualTo(400);
+    assertThat(aggregatedRes.content(StandardCharsets.UTF_8))
+        .contains("Only a single terms aggregation is supported");
+  }
+
+  @Test
+  public void testMetricAggregationsOfMoreThanOneFieldAreABadRequest() throws IOException {
+    String postBody =
+        Resources.toString(
+            Resources.getResource(
+                "elasticsearchApi/multisearch_query_metrics_of_two_fields.ndjson"),
+            Charset.defaultCharset());
+    HttpResponse response = elasticsearchApiService.multiSearch(postBody);
+
+    AggregatedHttpResponse aggregatedRes = response.aggregate().join();
+    assertThat(aggregatedRes.status().code()).isEqualTo(400);
+    assertThat(aggregatedRes.content(StandardCharsets.UTF_8))
+        .contains("Metric aggregations are only supported on a single field");
+  }
+
   @Test
   public void testEmptySearchGrafana7() throws IOException {
     String postBody =
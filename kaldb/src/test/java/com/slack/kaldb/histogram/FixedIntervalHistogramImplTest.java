@@ -185,6 +185,34 @@ public class FixedIntervalHistogramImplTest {
     }
   }
 
+  @Test
+  public void testMergeHistograms() {
+    FixedIntervalHistogramImpl h1 = new FixedIntervalHistogramImpl(0, 10, 5);
+    FixedIntervalHistogramImpl h2 = new FixedIntervalHistogramImpl(0, 10, 5);
+    for (int i = 0; i < 10; i++) {
+      h1.add(i);
+      h2.add(i / 2);
+    }
+
+    // The counts of histograms with the same bounds are added bucket by bucket.
+    h1.merge(h2);
+    assertThat(h1.count()).isEqualTo(20);
+    assertThat(h1.getCounts()).containsExactly(6, 6, 4, 2, 2);
+    assertThat(h2.getCounts()).containsExactly(4, 4, 2, 0, 0);
+
+    // The buckets of a histogram with other bounds are merged into the matching buckets.
+    FixedIntervalHistogramImpl h3 = new FixedIntervalHistogramImpl(0, 4, 2);
+    h3.add(1);
+    h3.add(3);
+    h1.merge(h3);
+    assertThat(h1.count()).isEqualTo(22);
+    assertThat(h1.getCounts()).containsExactly(7, 7, 4, 2, 2);
+
+    NoOpHistogramImpl noOpHistogram = new NoOpHistogramImpl();
+    noOpHistogram.merge(h1);
+    assertThat(noOpHistogram.count()).isEqualTo(22);
+  }
+
   @Test
   public void testInsertionInLastBucket() {
     FixedIntervalHistogramImpl h = new FixedIntervalHistogramImpl(0, 15, 15);
@@ -321,6 +349,23 @@ public class FixedIntervalHistogramImplTest {
     assertThat(h3.getBuckets().get(5).getCount()).isEqualTo(1);
   }
 
+  @Test
+  public void testAddCountToBucket() {
+    FixedIntervalHistogramImpl h = new FixedIntervalHistogramImpl(10, 20, 5);
+    assertThat(h.getBucketIndex(10)).isEqualTo(0);
+    assertThat(h.getBucketIndex(11)).isEqualTo(0);
+    assertThat(h.getBucketIndex(12)).isEqualTo(1);
+    assertThat(h.getBucketIndex(19)).isEqualTo(4);
+    assertThat(h.getBucketIndex(20)).isEqualTo(4);
+
+    h.add(1, 7);
+    h.add(4, 3);
+    h.add(4, 0);
+    assertThat(h.count()).isEqualTo(10);
+    assertThat(h.getBuckets().get(1).getCount()).isEqualTo(7);
+    assertThat(h.getBuckets().get(4).getCount()).isEqualTo(3);
+  }
+
   @Test(expected = IndexOutOfBoundsException.class)
   public void testOutOfBoundsHigh() {
     FixedIntervalHistogramImpl h = new FixedIntervalHistogramImpl(9, 10, 10);
@@ -1,10 +1,13 @@
 package com.slack.kaldb.logstore;
 
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_FAILED_COUNTER;
+import static com.slack.kaldb.testlib.MetricsUtil.getCount;
 import static com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule.findAllMessages;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.awaitility.Awaitility.await;
 
 import brave.Tracing;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
 import com.slack.kaldb.testlib.MessageUtil;
 import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule;
 import java.io.IOException;
@@ -239,4 +242,63 @@ public class FieldConflictsTest {
             1);
     assertThat(searchByNumberString.size()).isEqualTo(1);
   }
+
+  @Test
+  public void testConflictingValueIsIndexedAsText() {
+    final String conflictingFieldName = "conflictingField";
+    strictLogStore.logStore.addMessage(makeMessage("0", conflictingFieldName, 200));
+    strictLogStore.logStore.addMessage(makeMessage("1", conflictingFieldName, "one"));
+    strictLogStore.logStore.commit();
+    strictLogStore.logStore.refresh();
+
+    // The field is mapped by the first value, the second value is indexed as text.
+    assertThat(strictLogStore.logStore.getSchema().getFieldType(conflictingFieldName))
+        .isEqualTo(FieldType.LONG);
+    assertThat(
+            getCount(FieldSchema.DYNAMIC_FIELD_CONFLICTS_COUNTER, strictLogStore.metricsRegistry))
+        .isEqualTo(1);
+    assertThat(getCount(MESSAGES_FAILED_COUNTER, strictLogStore.metricsRegistry)).isEqualTo(0);
+
+    assertThat(
+            findAllMessages(
+                    strictLogStore.logSearcher,
+                    MessageUtil.TEST_INDEX_NAME,
+                    conflictingFieldName + ":200",
+                    1000,
+                    1)
+                .size())
+        .isEqualTo(1);
+    assertThat(
+            findAllMessages(
+                    strictLogStore.logSearcher,
+                    MessageUtil.TEST_INDEX_NAME,
+                    conflictingFieldName + ":[100 TO 300]",
+                    1000,
+                    1)
+                .size())
+        .isEqualTo(1);
+    assertThat(
+            findAllMessages(
+                    strictLogStore.logSearcher,
+                    MessageUtil.TEST_INDEX_NAME,
+                    conflictingFieldName + ":one",
+                    1000,
+                    1)
+                .size())
+        .isEqualTo(1);
+  }
+
+  private static LogMessage makeMessage(String id, String fieldName, Object value) {
+    return new LogMessage(
+        MessageUtil.TEST_INDEX_NAME,
+        "INFO",
+        id,
+        Map.of(
+            LogMessage.ReservedField.TIMESTAMP.fieldName,
+            MessageUtil.getCurrentLogDate(),
+            LogMessage.ReservedField.MESSAGE.fieldName,
+            "Test message",
+            fieldName,
+            value));
+  }
 }
@@ -0,0 +1,93 @@
+package com.slack.kaldb.logstore;
+
+import static com.slack.kaldb.testlib.MessageUtil.TEST_INDEX_NAME;
+import static com.slack.kaldb.testlib.MessageUtil.addFieldToMessage;
+import static com.slack.kaldb.testlib.MessageUtil.makeMessageWithIndexAndTimestamp;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import brave.Tracing;
+import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IdBloomFilterTest {
+  @Rule
+  public TemporaryLogStoreAndSearcherRule strictLogStore =
+      new TemporaryLogStoreAndSearcherRule(false);
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  public IdBloomFilterTest() throws IOException {}
+
+  @BeforeClass
+  public static void beforeClass() {
+    Tracing.newBuilder().build();
+  }
+
+  @Test
+  public void testFilterContainsTheIdsOfTheIndex() throws IOException {
+    IdBloomFilter filter = buildFilter();
+    assertThat(filter.mightContainTrace("trace1")).isTrue();
+    assertThat(filter.mightContainTrace("trace2")).isTrue();
+    assertThat(filter.mightContain(LogMessage.SystemField.ID.fieldName, "1")).isTrue();
+    assertThat(filter.mightContain(LogMessage.ReservedField.PARENT_ID.fieldName, "0")).isTrue();
+    assertThat(countFalsePositives(filter)).isLessThan(50);
+  }
+
+  @Test
+  public void testFilterIsReadFromItsFile() throws IOException {
+    Path directory = tempFolder.getRoot().toPath();
+    assertThat(IdBloomFilter.readFrom(directory)).isNull();
+
+    IdBloomFilter filter = buildFilter();
+    Path file = filter.writeTo(directory);
+    assertThat(file.getFileName().toString()).isEqualTo(IdBloomFilter.FILE_NAME);
+
+    IdBloomFilter readFilter = IdBloomFilter.readFrom(directory);
+    assertThat(readFilter.getSizeBytes()).isEqualTo(Files.size(file));
+    assertThat(readFilter.mightContainTrace("trace1")).isTrue();
+    assertThat(readFilter.mightContainTrace("trace2")).isTrue();
+    assertThat(countFalsePositives(readFilter)).isEqualTo(countFalsePositives(filter));
+  }
+
+  private IdBloomFilter buildFilter() throws IOException {
+    Instant time = Instant.now();
+    for (int i = 1; i <= 4; i++) {
+      LogMessage message = makeMessageWithIndexAndTimestamp(i, "span", TEST_INDEX_NAME, time);
+      String traceId = "trace" + (i % 2 + 1);
+      addFieldToMessage(message, LogMessage.ReservedField.TRACE_ID.fieldName, traceId);
+      addFieldToMessage(message, LogMessage.ReservedField.PARENT_ID.fieldName, "" + (i - 1));
+      strictLogStore.logStore.addMessage(message);
+    }
+    strictLogStore.logStore.commit();
+    strictLogStore.logStore.refresh();
+
+    SearcherManager searcherManager = strictLogStore.logStore.getSearcherManager();
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      return IdBloomFilter.build(searcher.getIndexReader());
+    } finally {
+      searcherManager.release(searcher);
+    }
+  }
+
+  // The ids that aren't in the index but match the filter, out of 1000.
+  private static int countFalsePositives(IdBloomFilter filter) {
+    int falsePositives = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (filter.mightContainTrace("missing" + i)
+          || filter.mightContain(LogMessage.ReservedField.PARENT_ID.fieldName, "trace" + i)) {
+        falsePositives++;
+      }
+    }
+    return falsePositives;
+  }
+}
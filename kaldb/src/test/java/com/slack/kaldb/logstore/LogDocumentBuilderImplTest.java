@@ -1,11 +1,27 @@
 package com.slack.kaldb.logstore;
 
+import static com.slack.kaldb.testlib.MetricsUtil.getCount;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
 import com.slack.kaldb.testlib.MessageUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexableField;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -28,6 +44,28 @@ public class LogDocumentBuilderImplTest {
     assertThat(testDocument.getFields().size()).isEqualTo(12);
   }
 
+  @Test
+  public void testReleasedDocumentsDontHoldTheMessageValues() throws IOException {
+    Document document = testBuilderAllowExceptions.fromMessage(MessageUtil.makeMessage(0), 0);
+    List<IndexableField> fields = new ArrayList<>(document.getFields());
+    IndexableField source = document.getField(LogMessage.SystemField.SOURCE.fieldName);
+    assertThat(source.binaryValue().length).isGreaterThan(0);
+
+    testBuilderAllowExceptions.releaseDocuments(1);
+    assertThat(document.getFields()).isEmpty();
+    for (IndexableField field : fields) {
+      if (field.numericValue() == null && field.stringValue() != null) {
+        assertThat(field.stringValue()).isEmpty();
+      }
+    }
+    assertThat(source.binaryValue().length).isZero();
+
+    // The document is reused for the next message.
+    assertThat(testBuilderAllowExceptions.fromMessage(MessageUtil.makeMessage(1), 0))
+        .isSameAs(document);
+    assertThat(document.getFields().size()).isEqualTo(fields.size());
+  }
+
   // TODO: Test IOException and JSONSerialization exception.
   @Test(expected = PropertyTypeMismatchException.class)
   public void testPropertyTypeMismatchFailure() throws IOException {
@@ -61,4 +99,147 @@ public class LogDocumentBuilderImplTest {
     testMessage.addProperty(key, Collections.EMPTY_LIST);
     builder.fromMessage(testMessage);
   }
+
+  @Test
+  public void testReusedDocumentHasNewValues() throws IOException {
+    LogMessage firstMessage = MessageUtil.makeMessage(1);
+    LogMessage secondMessage = MessageUtil.makeMessage(2);
+
+    Document firstDocument = testBuilderAllowExceptions.fromMessage(firstMessage, 0);
+    List<IndexableField> firstFields = new ArrayList<>(firstDocument.getFields());
+    assertThat(firstDocument.get(LogMessage.SystemField.ID.fieldName)).isEqualTo(firstMessage.id);
+
+    Document secondDocument = testBuilderAllowExceptions.fromMessage(secondMessage, 0);
+    assertThat(secondDocument).isSameAs(firstDocument);
+    assertThat(secondDocument.get(LogMessage.SystemField.ID.fieldName)).isEqualTo(secondMessage.id);
+    assertThat(fieldValues(secondDocument))
+        .containsExactlyInAnyOrderElementsOf(
+            fieldValues(testBuilderAllowExceptions.fromMessage(secondMessage)));
+
+    // The fields of the first document are reset with the values of the second message.
+    assertThat(secondDocument.getFields()).hasSameSizeAs(firstFields);
+    for (int i = 0; i < firstFields.size(); i++) {
+      assertThat(secondDocument.getFields().get(i)).isSameAs(firstFields.get(i));
+    }
+  }
+
+  @Test
+  public void testReusedDocumentsInDifferentSlots() throws IOException {
+    LogMessage firstMessage = MessageUtil.makeMessage(1);
+    LogMessage secondMessage = MessageUtil.makeMessage(2);
+
+    Document firstDocument = testBuilderAllowExceptions.fromMessage(firstMessage, 0);
+    Document secondDocument = testBuilderAllowExceptions.fromMessage(secondMessage, 1);
+    assertThat(secondDocument).isNotSameAs(firstDocument);
+    assertThat(firstDocument.get(LogMessage.SystemField.ID.fieldName)).isEqualTo(firstMessage.id);
+    assertThat(secondDocument.get(LogMessage.SystemField.ID.fieldName)).isEqualTo(secondMessage.id);
+  }
+
+  @Test
+  public void testRetainsOnlyTheDocumentsOfTheLastBatch() throws IOException {
+    LogDocumentBuilderImpl builder = LogDocumentBuilderImpl.build(false);
+    for (int slot = 0; slot < 100; slot++) {
+      builder.fromMessage(MessageUtil.makeMessage(slot), slot);
+    }
+    builder.releaseDocuments(100);
+    assertThat(builder.retainedDocuments()).isEqualTo(100);
+
+    for (int slot = 0; slot < 10; slot++) {
+      builder.fromMessage(MessageUtil.makeMessage(slot), slot);
+    }
+    builder.releaseDocuments(10);
+    assertThat(builder.retainedDocuments()).isEqualTo(10);
+
+    // Once all the documents are released, no documents are retained and reused.
+    Document document = builder.fromMessage(MessageUtil.makeMessage(1), 0);
+    builder.releaseAllDocuments();
+    assertThat(builder.retainedDocuments()).isZero();
+    assertThat(builder.fromMessage(MessageUtil.makeMessage(1), 0)).isNotSameAs(document);
+    builder.releaseDocuments(1);
+    assertThat(builder.retainedDocuments()).isZero();
+  }
+
+  @Test
+  public void testDynamicFieldMapping() throws IOException {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    FieldSchema schema = new FieldSchema(registry);
+    LogDocumentBuilderImpl builder = LogDocumentBuilderImpl.build(false, schema);
+
+    LogMessage message = MessageUtil.makeMessage(1);
+    message.addProperty("host", "host1");
+    message.addProperty("error", "connection refused");
+    Document document = builder.fromMessage(message);
+
+    assertThat(schema.getFieldTypes())
+        .containsOnly(
+            entry(MessageUtil.TEST_SOURCE_INT_PROPERTY, FieldType.LONG),
+            entry(MessageUtil.TEST_SOURCE_LONG_PROPERTY, FieldType.LONG),
+            entry(MessageUtil.TEST_SOURCE_DOUBLE_PROPERTY, FieldType.DOUBLE),
+            entry(MessageUtil.TEST_SOURCE_FLOAT_PROPERTY, FieldType.DOUBLE),
+            entry("host", FieldType.KEYWORD),
+            entry("error", FieldType.TEXT));
+    assertThat(getCount(FieldSchema.DYNAMIC_FIELDS_MAPPED_COUNTER, registry)).isEqualTo(6);
+    assertThat(document.getFields(MessageUtil.TEST_SOURCE_INT_PROPERTY))
+        .hasSize(2)
+        .hasAtLeastOneElementOfType(LongPoint.class)
+        .hasAtLeastOneElementOfType(SortedNumericDocValuesField.class);
+    assertThat(document.getFields("host"))
+        .hasSize(2)
+        .hasAtLeastOneElementOfType(StringField.class)
+        .hasAtLeastOneElementOfType(SortedSetDocValuesField.class);
+    assertThat(document.getField("error")).isInstanceOf(TextField.class);
+
+    // A value that doesn't fit the type of its field is indexed as text and the type is unchanged.
+    LogMessage conflictingMessage = MessageUtil.makeMessage(2);
+    conflictingMessage.addProperty(MessageUtil.TEST_SOURCE_INT_PROPERTY, "two");
+    Document conflictingDocument = builder.fromMessage(conflictingMessage);
+    assertThat(conflictingDocument.getField(MessageUtil.TEST_SOURCE_INT_PROPERTY))
+        .isInstanceOf(TextField.class);
+    assertThat(schema.getFieldType(MessageUtil.TEST_SOURCE_INT_PROPERTY)).isEqualTo(FieldType.LONG);
+    assertThat(getCount(FieldSchema.DYNAMIC_FIELD_CONFLICTS_COUNTER, registry)).isEqualTo(1);
+
+    // A short value with whitespace doesn't fit a keyword field either.
+    LogMessage textInKeywordMessage = MessageUtil.makeMessage(3);
+    textInKeywordMessage.addProperty("host", "host 3");
+    Document textInKeywordDocument = builder.fromMessage(textInKeywordMessage);
+    assertThat(textInKeywordDocument.getFields("host"))
+        .singleElement()
+        .isInstanceOf(TextField.class);
+    assertThat(schema.getFieldType("host")).isEqualTo(FieldType.KEYWORD);
+    assertThat(getCount(FieldSchema.DYNAMIC_FIELD_CONFLICTS_COUNTER, registry)).isEqualTo(2);
+  }
+
+  @Test
+  public void testAnalyzer() throws IOException {
+    Analyzer analyzer = LogDocumentBuilderImpl.buildAnalyzer();
+    // Identifiers are indexed as is, so they are analyzed into a single term.
+    assertThat(tokens(analyzer, LogMessage.SystemField.ID.fieldName, "Span-ID.1"))
+        .containsExactly("Span-ID.1");
+    assertThat(tokens(analyzer, LogMessage.ReservedField.TRACE_ID.fieldName, "a1-b2"))
+        .containsExactly("a1-b2");
+    assertThat(tokens(analyzer, LogMessage.ReservedField.HOSTNAME.fieldName, "host1-dc2.abc.com"))
+        .containsExactly("host1-dc2.abc.com");
+    assertThat(tokens(analyzer, LogMessage.ReservedField.MESSAGE.fieldName, "GET /api/v2 10.1.1.1"))
+        .containsExactly("get", "api", "v2", "10.1.1.1");
+    assertThat(tokens(analyzer, LogMessage.ReservedField.TAG.fieldName, "foo-bar"))
+        .containsExactly("foo", "bar");
+  }
+
+  private static List<String> tokens(Analyzer analyzer, String field, String text)
+      throws IOException {
+    List<String> tokens = new ArrayList<>();
+    try (TokenStream stream = analyzer.tokenStream(field, text)) {
+      CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+      stream.reset();
+      while (stream.incrementToken()) {
+        tokens.add(term.toString());
+      }
+      stream.end();
+    }
+    return tokens;
+  }
+
+  private static List<String> fieldValues(Document document) {
+    return document.getFields().stream().map(Object::toString).collect(Collectors.toList());
+  }
 }
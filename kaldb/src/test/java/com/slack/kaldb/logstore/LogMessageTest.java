@@ -36,4 +36,15 @@ public class LogMessageTest {
     }
     assertThat(LogMessage.ReservedField.isReservedField("test")).isFalse();
   }
+
+  @Test
+  public void testIsValidIndexName() {
+    for (int i = 0; i < 2; i++) {
+      assertThat(LogMessage.isValidIndexName("test_index")).isTrue();
+      assertThat(LogMessage.isValidIndexName("a1.b/c:d")).isTrue();
+      assertThat(LogMessage.isValidIndexName("1index")).isFalse();
+      assertThat(LogMessage.isValidIndexName("test-index")).isFalse();
+      assertThat(LogMessage.isValidIndexName("")).isFalse();
+    }
+  }
 }
@@ -1,6 +1,12 @@
 package com.slack.kaldb.logstore;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.slack.kaldb.proto.config.KaldbConfigs;
 import java.time.Duration;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.junit.Test;
 
 public class LuceneIndexStoreConfigTest {
@@ -25,4 +31,50 @@ public class LuceneIndexStoreConfigTest {
     new LuceneIndexStoreConfig(
         Duration.ofSeconds(10), Duration.ofSeconds(-100), "indexRoot", "logfile", true);
   }
+
+  @Test
+  public void testDefaultIndexWriterTuning() {
+    IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new StandardAnalyzer());
+    LuceneIndexStoreImpl.applyTuning(
+        indexWriterConfig, KaldbConfigs.LuceneConfig.getDefaultInstance());
+
+    TieredMergePolicy defaultMergePolicy = new TieredMergePolicy();
+    TieredMergePolicy mergePolicy = (TieredMergePolicy) indexWriterConfig.getMergePolicy();
+    assertThat(indexWriterConfig.getRAMBufferSizeMB())
+        .isEqualTo(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+    assertThat(indexWriterConfig.getMaxBufferedDocs())
+        .isEqualTo(IndexWriterConfig.DEFAULT_MAX_BUFFERED_DOCS);
+    assertThat(mergePolicy.getSegmentsPerTier()).isEqualTo(defaultMergePolicy.getSegmentsPerTier());
+    assertThat(mergePolicy.getMaxMergedSegmentMB())
+        .isEqualTo(defaultMergePolicy.getMaxMergedSegmentMB());
+    assertThat(indexWriterConfig.getUseCompoundFile()).isTrue();
+  }
+
+  @Test
+  public void testIndexWriterTuning() {
+    KaldbConfigs.LuceneConfig tuning =
+        KaldbConfigs.LuceneConfig.newBuilder()
+            .setRamBufferSizeMb(256)
+            .setMaxBufferedDocs(100000)
+            .setMaxMergedSegmentMb(1024)
+            .setSegmentsPerTier(30)
+            .setMaxMergeAtOnce(20)
+            .setFloorSegmentMb(8)
+            .setDisableCompoundFiles(true)
+            .setStoredFieldsCompression(
+                KaldbConfigs.LuceneConfig.StoredFieldsCompression.BEST_COMPRESSION)
+            .build();
+    IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new StandardAnalyzer());
+    LuceneIndexStoreImpl.applyTuning(indexWriterConfig, tuning);
+
+    TieredMergePolicy mergePolicy = (TieredMergePolicy) indexWriterConfig.getMergePolicy();
+    assertThat(indexWriterConfig.getRAMBufferSizeMB()).isEqualTo(256);
+    assertThat(indexWriterConfig.getMaxBufferedDocs()).isEqualTo(100000);
+    assertThat(mergePolicy.getMaxMergedSegmentMB()).isEqualTo(1024);
+    assertThat(mergePolicy.getSegmentsPerTier()).isEqualTo(30);
+    assertThat(mergePolicy.getMaxMergeAtOnce()).isEqualTo(20);
+    assertThat(mergePolicy.getFloorSegmentMB()).isEqualTo(8);
+    assertThat(mergePolicy.getNoCFSRatio()).isZero();
+    assertThat(indexWriterConfig.getUseCompoundFile()).isFalse();
+  }
 }
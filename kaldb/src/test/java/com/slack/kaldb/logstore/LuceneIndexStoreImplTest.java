@@ -5,6 +5,8 @@ import static com.slack.kaldb.logstore.BlobFsUtils.copyFromS3;
 import static com.slack.kaldb.logstore.BlobFsUtils.copyToLocalPath;
 import static com.slack.kaldb.logstore.BlobFsUtils.copyToS3;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.COMMITS_TIMER;
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.FORCE_MERGE_TIMER;
+import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.FRESHNESS_LAG_TIMER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_FAILED_COUNTER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_RECEIVED_COUNTER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.REFRESHES_TIMER;
@@ -14,6 +16,7 @@ import static com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule.MAX_TIME;
 import static com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule.addMessages;
 import static com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule.findAllMessages;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import brave.Tracing;
 import com.adobe.testing.s3mock.junit4.S3MockRule;
@@ -25,6 +28,7 @@ import com.slack.kaldb.logstore.search.LogIndexSearcherImpl;
 import com.slack.kaldb.logstore.search.SearchResult;
 import com.slack.kaldb.testlib.MessageUtil;
 import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -37,6 +41,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.search.IndexSearcher;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Rule;
@@ -77,6 +82,116 @@ public class LuceneIndexStoreImplTest {
       assertThat(getTimerCount(COMMITS_TIMER, forgivingLogStore.metricsRegistry)).isEqualTo(1);
     }
 
+    @Test
+    public void testAddMessagesInBatch() throws IOException {
+      List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 100);
+      forgivingLogStore.logStore.addMessages(messages);
+      forgivingLogStore.logStore.commit();
+      forgivingLogStore.logStore.refresh();
+
+      assertThat(
+              findAllMessages(
+                      forgivingLogStore.logSearcher, MessageUtil.TEST_INDEX_NAME, "", 1000, 1)
+                  .size())
+          .isEqualTo(100);
+      assertThat(
+              findAllMessages(
+                      forgivingLogStore.logSearcher, MessageUtil.TEST_INDEX_NAME, "Message1", 10, 1)
+                  .size())
+          .isEqualTo(1);
+      assertThat(getCount(MESSAGES_RECEIVED_COUNTER, forgivingLogStore.metricsRegistry))
+          .isEqualTo(100);
+      assertThat(getCount(MESSAGES_FAILED_COUNTER, forgivingLogStore.metricsRegistry)).isEqualTo(0);
+    }
+
+    @Test
+    public void testAddMessagesThrowsIOException() throws IOException {
+      DocumentBuilder<LogMessage> failingBuilder =
+          message -> {
+            throw new IOException("Failed to build the document");
+          };
+      LuceneIndexStoreImpl logStore =
+          new LuceneIndexStoreImpl(
+              TemporaryLogStoreAndSearcherRule.getIndexStoreConfig(
+                  Duration.ofMinutes(5),
+                  Duration.ofMinutes(5),
+                  new File(forgivingLogStore.tempFolder, "failing")),
+              failingBuilder,
+              new SimpleMeterRegistry());
+      try {
+        assertThatThrownBy(
+                () -> logStore.addMessages(MessageUtil.makeMessagesWithTimeDifference(1, 10)))
+            .isInstanceOf(IOException.class);
+      } finally {
+        logStore.close();
+      }
+    }
+
+    @Test
+    public void testRefreshIfStale() throws IOException {
+      forgivingLogStore.logStore.addMessages(MessageUtil.makeMessagesWithTimeDifference(1, 10));
+
+      // The documents were added less than a refresh interval ago, so the store isn't refreshed.
+      forgivingLogStore.logStore.refreshIfStale();
+      assertThat(getTimerCount(REFRESHES_TIMER, forgivingLogStore.metricsRegistry)).isEqualTo(0);
+      assertThat(
+              findAllMessages(
+                  forgivingLogStore.logSearcher, MessageUtil.TEST_INDEX_NAME, "", 100, 1))
+          .isEmpty();
+
+      forgivingLogStore.logStore.refresh();
+      assertThat(getTimerCount(REFRESHES_TIMER, forgivingLogStore.metricsRegistry)).isEqualTo(1);
+      assertThat(getTimerCount(FRESHNESS_LAG_TIMER, forgivingLogStore.metricsRegistry))
+          .isEqualTo(1);
+
+      // All the documents are searchable, so a refresh doesn't record a lag.
+      forgivingLogStore.logStore.refresh();
+      assertThat(getTimerCount(FRESHNESS_LAG_TIMER, forgivingLogStore.metricsRegistry))
+          .isEqualTo(1);
+      assertThat(
+              findAllMessages(
+                  forgivingLogStore.logSearcher, MessageUtil.TEST_INDEX_NAME, "", 100, 1))
+          .hasSize(10);
+    }
+
+    @Test
+    public void testForceMerge() throws IOException {
+      // Each commit flushes the added documents into a new segment.
+      for (int i = 0; i < 5; i++) {
+        forgivingLogStore.logStore.addMessages(
+            MessageUtil.makeMessagesWithTimeDifference(i * 10 + 1, i * 10 + 10));
+        forgivingLogStore.logStore.commit();
+      }
+      forgivingLogStore.logStore.refresh();
+      assertThat(getSegmentCount(forgivingLogStore.logStore)).isGreaterThan(1);
+
+      assertThat(forgivingLogStore.logStore.forceMerge(1, Duration.ofMinutes(1))).isTrue();
+      assertThat(getTimerCount(FORCE_MERGE_TIMER, forgivingLogStore.metricsRegistry)).isEqualTo(1);
+      assertThat(getSegmentCount(forgivingLogStore.logStore)).isEqualTo(1);
+      IndexCommit indexCommit = forgivingLogStore.logStore.getIndexCommit();
+      try {
+        assertThat(indexCommit.getSegmentCount()).isEqualTo(1);
+      } finally {
+        forgivingLogStore.logStore.releaseIndexCommit(indexCommit);
+      }
+      assertThat(
+              findAllMessages(
+                  forgivingLogStore.logSearcher, MessageUtil.TEST_INDEX_NAME, "", 100, 1))
+          .hasSize(50);
+
+      forgivingLogStore.logStore.close();
+      assertThat(forgivingLogStore.logStore.forceMerge(1, Duration.ofMinutes(1))).isFalse();
+    }
+
+    private static int getSegmentCount(LuceneIndexStoreImpl logStore) throws IOException {
+      IndexSearcher searcher = logStore.getSearcherManager().acquire();
+      try {
+        return searcher.getIndexReader().leaves().size();
+      } finally {
+        logStore.getSearcherManager().release(searcher);
+      }
+    }
+
     @Test
     public void testSearchAndQueryDocsWithNestedJson() throws InterruptedException {
       // TODO: Use ImmutableMap from Guava instead of Map.of which is Java 9 only?
@@ -287,7 +402,8 @@ public class LuceneIndexStoreImplTest {
       Collection<LogMessage> results6 =
           findAllMessages(
               strictLogStore.logSearcher, MessageUtil.TEST_INDEX_NAME, "hostname:abc.com", 1000, 1);
-      assertThat(results6.size()).isEqualTo(1);
+      // Host names are identifiers, so they are only matched as a whole.
+      assertThat(results6.size()).isEqualTo(0);
 
       Collection<LogMessage> results7 =
           findAllMessages(
@@ -296,7 +412,16 @@ public class LuceneIndexStoreImplTest {
               "hostname:host1-dc2",
               1000,
               1);
-      assertThat(results7.size()).isEqualTo(1);
+      assertThat(results7.size()).isEqualTo(0);
+
+      Collection<LogMessage> results7Prefix =
+          findAllMessages(
+              strictLogStore.logSearcher,
+              MessageUtil.TEST_INDEX_NAME,
+              "hostname:host1-dc2*",
+              1000,
+              1);
+      assertThat(results7Prefix.size()).isEqualTo(1);
 
       Collection<LogMessage> results8 =
           findAllMessages(
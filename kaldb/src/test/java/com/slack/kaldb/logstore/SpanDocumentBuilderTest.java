@@ -0,0 +1,153 @@
+package com.slack.kaldb.logstore;
+
+import static com.slack.kaldb.testlib.SpanUtil.makeSpan;
+import static com.slack.kaldb.testlib.SpanUtil.makeSpanBuilder;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.slack.kaldb.writer.SpanFormatter;
+import com.slack.service.murron.trace.Trace;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.lucene.document.Document;
+import org.junit.Test;
+
+public class SpanDocumentBuilderTest {
+  private final SpanDocumentBuilder spanDocumentBuilder = SpanDocumentBuilder.build(false);
+  private final LogDocumentBuilderImpl logDocumentBuilder = LogDocumentBuilderImpl.build(false);
+
+  private static final String SOURCE_FIELD = LogMessage.SystemField.SOURCE.fieldName;
+
+  @Test
+  public void testSpanDocumentMatchesLogMessageDocument() throws IOException {
+    Trace.Span span =
+        makeSpan("t1", "i1", "p1", 1612550512340953L, 5000L, "testSpan", "test-service", "INFO");
+    assertSameDocument(span);
+  }
+
+  @Test
+  public void testSpanWithoutTags() throws IOException {
+    Trace.Span span =
+        Trace.Span.newBuilder()
+            .setStartTimestampMicros(1612550512340953L)
+            .setDurationMicros(100L)
+            .build();
+    assertSameDocument(span);
+
+    Document document = spanDocumentBuilder.fromMessage(span);
+    assertThat(document.get(LogMessage.SystemField.TYPE.fieldName))
+        .isEqualTo(SpanFormatter.DEFAULT_LOG_MESSAGE_TYPE);
+  }
+
+  @Test
+  public void testTagOverridesReservedField() throws IOException {
+    Trace.Span span =
+        makeSpanBuilder("t1", "i1", "p1", 1612550512340953L, 5000L, "testSpan", "service", "INFO")
+            .addTags(
+                Trace.KeyValue.newBuilder()
+                    .setKey(LogMessage.ReservedField.NAME.fieldName)
+                    .setVType(Trace.ValueType.STRING)
+                    .setVStr("tagName")
+                    .build())
+            .build();
+    assertSameDocument(span);
+
+    LogWireMessage source = readSource(spanDocumentBuilder.fromMessage(span));
+    assertThat(source.source.get(LogMessage.ReservedField.NAME.fieldName)).isEqualTo("tagName");
+  }
+
+  @Test
+  public void testLastTagWithAKeyWins() throws IOException {
+    Trace.Span span =
+        makeSpanBuilder("t1", "i1", "p1", 1612550512340953L, 5000L, "testSpan", "service", "INFO")
+            .addTags(
+                Trace.KeyValue.newBuilder()
+                    .setKey("http_status")
+                    .setVType(Trace.ValueType.STRING)
+                    .setVStr("ok")
+                    .build())
+            .addTags(
+                Trace.KeyValue.newBuilder()
+                    .setKey("http_status")
+                    .setVType(Trace.ValueType.STRING)
+                    .setVStr("error")
+                    .build())
+            .build();
+    assertSameDocument(span);
+
+    Document document = spanDocumentBuilder.fromMessage(span);
+    assertThat(document.getValues("http_status")).containsExactly("error");
+    assertThat(readSource(document).source.get("http_status")).isEqualTo("error");
+  }
+
+  @Test
+  public void testConsecutiveSpansDontShareTags() throws IOException {
+    Trace.Span.Builder largeSpan =
+        makeSpanBuilder("t1", "i1", "p1", 1612550512340953L, 5000L, "large", "service", "INFO");
+    for (int i = 0; i < 1000; i++) {
+      largeSpan.addTags(
+          Trace.KeyValue.newBuilder()
+              .setKey("tag" + i)
+              .setVType(Trace.ValueType.STRING)
+              .setVStr("value" + i)
+              .build());
+    }
+    assertSameDocument(largeSpan.build());
+
+    Trace.Span smallSpan =
+        makeSpan("t2", "i2", "p2", 1612550512340953L, 5000L, "small", "service", "INFO");
+    assertSameDocument(smallSpan);
+    Document document = spanDocumentBuilder.fromMessage(smallSpan);
+    assertThat(document.getField("tag0")).isNull();
+    assertThat(readSource(document).source).doesNotContainKey("tag0");
+  }
+
+  @Test(expected = PropertyTypeMismatchException.class)
+  public void testPropertyTypeMismatchFailure() throws IOException {
+    Trace.Span span =
+        makeSpanBuilder("t1", "i1", "p1", 1612550512340953L, 5000L, "testSpan", "service", "INFO")
+            .addTags(
+                Trace.KeyValue.newBuilder()
+                    .setKey(LogMessage.ReservedField.HOSTNAME.fieldName)
+                    .setVType(Trace.ValueType.INT64)
+                    .setVInt64(1)
+                    .build())
+            .build();
+    spanDocumentBuilder.fromMessage(span);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidIndexName() throws IOException {
+    Trace.Span span =
+        makeSpan("t1", "i1", "p1", 1612550512340953L, 5000L, "testSpan", "1service", "INFO");
+    spanDocumentBuilder.fromMessage(span);
+  }
+
+  private void assertSameDocument(Trace.Span span) throws IOException {
+    Document spanDocument = spanDocumentBuilder.fromMessage(span);
+    Document logMessageDocument = logDocumentBuilder.fromMessage(SpanFormatter.toLogMessage(span));
+
+    assertThat(indexedFields(spanDocument))
+        .containsExactlyInAnyOrderElementsOf(indexedFields(logMessageDocument));
+
+    LogWireMessage spanSource = readSource(spanDocument);
+    LogWireMessage logMessageSource = readSource(logMessageDocument);
+    assertThat(spanSource.getIndex()).isEqualTo(logMessageSource.getIndex());
+    assertThat(spanSource.getType()).isEqualTo(logMessageSource.getType());
+    assertThat(spanSource.id).isEqualTo(logMessageSource.id);
+    assertThat(spanSource.source).isEqualTo(logMessageSource.source);
+  }
+
+  private static List<String> indexedFields(Document document) {
+    return document
+        .getFields()
+        .stream()
+        .filter(field -> !field.name().equals(SOURCE_FIELD))
+        .map(Object::toString)
+        .collect(Collectors.toList());
+  }
+
+  private static LogWireMessage readSource(Document document) throws IOException {
+    return StoredSource.decode(document.getField(SOURCE_FIELD), 0);
+  }
+}
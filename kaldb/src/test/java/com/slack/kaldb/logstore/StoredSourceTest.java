@@ -0,0 +1,112 @@
+package com.slack.kaldb.logstore;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.slack.kaldb.testlib.MessageUtil;
+import com.slack.kaldb.util.JsonUtil;
+import java.io.IOException;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+public class StoredSourceTest {
+
+  @Test
+  public void testSmileSourceRoundTrip() throws IOException {
+    LogMessage message = MessageUtil.makeMessage(1);
+    Object value = StoredSource.encode(message.toWireMessage(), StoredSource.Format.SMILE);
+    assertThat(value).isInstanceOf(BytesRef.class);
+
+    LogMessage decoded =
+        StoredSource.decode(
+            new StoredField(LogMessage.SystemField.SOURCE.fieldName, (BytesRef) value),
+            message.timeSinceEpochMilli);
+    assertThat(decoded).isEqualTo(message);
+    assertThat(decoded.getIndex()).isEqualTo(message.getIndex());
+    assertThat(decoded.getType()).isEqualTo(message.getType());
+    assertThat(asStrings(decoded.source)).isEqualTo(asStrings(message.source));
+    assertThat(decoded.getMillisecondsSinceEpoch()).isEqualTo(message.timeSinceEpochMilli);
+  }
+
+  @Test
+  public void testSmileSourceIsSmallerThanJson() throws IOException {
+    LogWireMessage message = MessageUtil.makeMessage(1).toWireMessage();
+    BytesRef smile = (BytesRef) StoredSource.encode(message, StoredSource.Format.SMILE);
+    String json = (String) StoredSource.encode(message, StoredSource.Format.JSON);
+    assertThat(smile.length).isLessThan(json.length());
+  }
+
+  @Test
+  public void testReadJsonSource() throws IOException {
+    LogMessage message = MessageUtil.makeMessage(2);
+    // Chunks indexed before the binary formats were added store the source as a json string.
+    String json = JsonUtil.writeAsString(message.toWireMessage());
+
+    LogMessage decoded =
+        StoredSource.decode(
+            new StoredField(LogMessage.SystemField.SOURCE.fieldName, json),
+            message.timeSinceEpochMilli);
+    assertThat(decoded).isEqualTo(message);
+    assertThat(asStrings(decoded.source)).isEqualTo(asStrings(message.source));
+
+    String encodedJson =
+        (String) StoredSource.encode(message.toWireMessage(), StoredSource.Format.JSON);
+    LogMessage decodedJson =
+        StoredSource.decode(
+            new StoredField(LogMessage.SystemField.SOURCE.fieldName, encodedJson),
+            message.timeSinceEpochMilli);
+    assertThat(asStrings(decodedJson.source)).isEqualTo(asStrings(message.source));
+  }
+
+  @Test
+  public void testSourceJsonOfUndecodedSmileSource() throws IOException {
+    LogMessage message = MessageUtil.makeMessage(3);
+    BytesRef smile =
+        (BytesRef) StoredSource.encode(message.toWireMessage(), StoredSource.Format.SMILE);
+    LogMessage decoded =
+        StoredSource.decode(
+            new StoredField(LogMessage.SystemField.SOURCE.fieldName, smile),
+            message.timeSinceEpochMilli);
+
+    // The smile source is transcoded into the same json as the source map is encoded into.
+    String transcodedJson = new String(StoredSource.toSourceJson(decoded.source), UTF_8);
+    Map<String, Object> source =
+        JsonUtil.read(transcodedJson, new TypeReference<Map<String, Object>>() {});
+    assertThat(asStrings(source)).isEqualTo(asStrings(message.source));
+    assertThat(transcodedJson)
+        .isEqualTo(new String(StoredSource.toSourceJson(decoded.getSource()), UTF_8));
+  }
+
+  @Test
+  public void testStoredSizeOfSmileSource() throws IOException {
+    LogMessage message = MessageUtil.makeMessage(4);
+    BytesRef smile =
+        (BytesRef) StoredSource.encode(message.toWireMessage(), StoredSource.Format.SMILE);
+    LogMessage decoded =
+        StoredSource.decode(
+            new StoredField(LogMessage.SystemField.SOURCE.fieldName, smile),
+            message.timeSinceEpochMilli);
+
+    assertThat(StoredSource.storedSizeBytes(decoded.source)).isEqualTo(smile.length);
+    assertThat(StoredSource.storedSizeBytes(message.source)).isEqualTo(-1);
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownSourceFormat() throws IOException {
+    StoredSource.decode(
+        new StoredField(LogMessage.SystemField.SOURCE.fieldName, new BytesRef(new byte[] {42})), 0);
+  }
+
+  // Numbers may be decoded into a different boxed type than they were encoded from, like an int for
+  // a small long. So, compare the values by their string representation.
+  private static Map<String, String> asStrings(Map<String, Object> source) {
+    return source
+        .entrySet()
+        .stream()
+        .collect(Collectors.toMap(Map.Entry::getKey, e -> String.valueOf(e.getValue())));
+  }
+}
@@ -0,0 +1,131 @@
+package com.slack.kaldb.logstore.analysis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.junit.Test;
+
+public class LogLineTokenizerTest {
+  private final Analyzer analyzer = new LogLineAnalyzer();
+
+  @Test
+  public void testWords() throws IOException {
+    assertThat(tokens("The identifier in this message is Message1."))
+        .containsExactly("the", "identifier", "in", "this", "message", "is", "message1");
+    assertThat(tokens("")).isEmpty();
+    assertThat(tokens("  ... --- ")).isEmpty();
+  }
+
+  @Test
+  public void testIdentifiersAreSingleTokens() throws IOException {
+    assertThat(tokens("connected to 10.10.1.1 from host1-dc2.abc.com"))
+        .containsExactly("connected", "to", "10.10.1.1", "from", "host1-dc2.abc.com");
+    assertThat(tokens("request 3F2504E0-4F89-11D3-9A0C-0305E82C3301 failed"))
+        .containsExactly("request", "3f2504e0-4f89-11d3-9a0c-0305e82c3301", "failed");
+    assertThat(tokens("php_version=5.11.0")).containsExactly("php_version", "5.11.0");
+  }
+
+  @Test
+  public void testSeparators() throws IOException {
+    assertThat(tokens("GET /api/v2/spans?limit=10&user=U123"))
+        .containsExactly("get", "api", "v2", "spans", "limit", "10", "user", "u123");
+    assertThat(tokens("error: \"timed out\" (after 5s), retrying..."))
+        .containsExactly("error", "timed", "out", "after", "5s", "retrying");
+    assertThat(tokens("-leading and trailing-")).containsExactly("leading", "and", "trailing");
+  }
+
+  @Test
+  public void testUnicode() throws IOException {
+    assertThat(tokens("Über café, naïve")).containsExactly("über", "café", "naïve");
+  }
+
+  @Test
+  public void testSupplementaryCharacters() throws IOException {
+    // Letters outside of the basic multilingual plane are kept and lower cased, while other
+    // characters, like emojis, separate tokens.
+    assertThat(
+            tokens("\uD801\uDC00\uD801\uDC01 logged in \uD83D\uDE00 as \uD840\uDC00\uD840\uDC01"))
+        .containsExactly(
+            "\uD801\uDC28\uD801\uDC29", "logged", "in", "as", "\uD840\uDC00\uD840\uDC01");
+
+    // A surrogate pair split by the reads of the input buffer is read as one code point.
+    String text = " ".repeat(4095) + "\uD840\uDC00\uD840\uDC01 a";
+    assertThat(tokens(text)).containsExactly("\uD840\uDC00\uD840\uDC01", "a");
+    try (TokenStream stream = analyzer.tokenStream("message", text)) {
+      OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+      stream.reset();
+      assertThat(stream.incrementToken()).isTrue();
+      assertThat(offset.startOffset()).isEqualTo(4095);
+      assertThat(offset.endOffset()).isEqualTo(4099);
+      assertThat(stream.incrementToken()).isTrue();
+      assertThat(offset.startOffset()).isEqualTo(4100);
+      assertThat(offset.endOffset()).isEqualTo(4101);
+      assertThat(stream.incrementToken()).isFalse();
+      stream.end();
+    }
+  }
+
+  @Test
+  public void testLongTokensAreSplit() throws IOException {
+    String longToken = "a".repeat(LogLineTokenizer.MAX_TOKEN_LENGTH + 10);
+    assertThat(tokens(longToken))
+        .containsExactly("a".repeat(LogLineTokenizer.MAX_TOKEN_LENGTH), "a".repeat(10));
+  }
+
+  @Test
+  public void testLongInput() throws IOException {
+    // The input is longer than the read buffer of the tokenizer, so tokens span buffer reads.
+    StringBuilder line = new StringBuilder();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      line.append("key").append(i).append("=value-").append(i).append(' ');
+      expected.add("key" + i);
+      expected.add("value-" + i);
+    }
+    assertThat(tokens(line.toString())).containsExactlyElementsOf(expected);
+  }
+
+  @Test
+  public void testOffsets() throws IOException {
+    try (TokenStream stream = analyzer.tokenStream("message", "a .b.c. d")) {
+      OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+      stream.reset();
+      assertThat(stream.incrementToken()).isTrue();
+      assertThat(offset.startOffset()).isEqualTo(0);
+      assertThat(offset.endOffset()).isEqualTo(1);
+      assertThat(stream.incrementToken()).isTrue();
+      assertThat(offset.startOffset()).isEqualTo(3);
+      assertThat(offset.endOffset()).isEqualTo(6);
+      assertThat(stream.incrementToken()).isTrue();
+      assertThat(offset.startOffset()).isEqualTo(8);
+      assertThat(offset.endOffset()).isEqualTo(9);
+      assertThat(stream.incrementToken()).isFalse();
+      stream.end();
+      assertThat(offset.endOffset()).isEqualTo(9);
+    }
+  }
+
+  @Test
+  public void testNormalize() {
+    assertThat(analyzer.normalize("message", "Host1-DC2*").utf8ToString()).isEqualTo("host1-dc2*");
+  }
+
+  private List<String> tokens(String text) throws IOException {
+    List<String> tokens = new ArrayList<>();
+    try (TokenStream stream = analyzer.tokenStream("message", text)) {
+      CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+      stream.reset();
+      while (stream.incrementToken()) {
+        tokens.add(term.toString());
+      }
+      stream.end();
+    }
+    return tokens;
+  }
+}
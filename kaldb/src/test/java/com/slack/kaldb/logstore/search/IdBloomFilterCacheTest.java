@@ -0,0 +1,96 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.testlib.MessageUtil.TEST_INDEX_NAME;
+import static com.slack.kaldb.testlib.MessageUtil.addFieldToMessage;
+import static com.slack.kaldb.testlib.MessageUtil.makeMessageWithIndexAndTimestamp;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import brave.Tracing;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.slack.kaldb.blobfs.LocalBlobFs;
+import com.slack.kaldb.logstore.IdBloomFilter;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.metadata.snapshot.SnapshotMetadata;
+import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IdBloomFilterCacheTest {
+  @Rule
+  public TemporaryLogStoreAndSearcherRule strictLogStore =
+      new TemporaryLogStoreAndSearcherRule(false);
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  public IdBloomFilterCacheTest() throws IOException {}
+
+  @BeforeClass
+  public static void beforeClass() {
+    Tracing.newBuilder().build();
+  }
+
+  @Test
+  public void testSnapshotsWithoutTheTraceAreSkipped() throws IOException {
+    Path snapshotDir = tempFolder.newFolder("snapshot").toPath();
+    buildFilter("trace1").writeTo(snapshotDir);
+    SnapshotMetadata snapshot =
+        new SnapshotMetadata("snapshot", snapshotDir.toUri().toString(), 1, 100, 1, "1");
+
+    IdBloomFilterCache idFilterCache =
+        new IdBloomFilterCache(new LocalBlobFs(), 1024 * 1024, MoreExecutors.directExecutor());
+    // The snapshot is searched until its filter is loaded.
+    assertThat(idFilterCache.mayContainTrace(snapshot, "missing")).isTrue();
+    assertThat(idFilterCache.getCachedFilterCount()).isEqualTo(1);
+
+    assertThat(idFilterCache.mayContainTrace(snapshot, "trace1")).isTrue();
+    int falsePositives = 0;
+    for (int i = 0; i < 100; i++) {
+      if (idFilterCache.mayContainTrace(snapshot, "missing" + i)) {
+        falsePositives++;
+      }
+    }
+    assertThat(falsePositives).isLessThan(10);
+  }
+
+  @Test
+  public void testSnapshotsWithoutFilterAreAlwaysSearched() throws IOException {
+    Path snapshotDir = tempFolder.newFolder("snapshot").toPath();
+    SnapshotMetadata snapshot =
+        new SnapshotMetadata("snapshot", snapshotDir.toUri().toString(), 1, 100, 1, "1");
+    SnapshotMetadata liveSnapshot =
+        new SnapshotMetadata("live", SnapshotMetadata.LIVE_SNAPSHOT_PATH, 1, 100, 1, "1");
+
+    IdBloomFilterCache idFilterCache =
+        new IdBloomFilterCache(new LocalBlobFs(), 1024 * 1024, MoreExecutors.directExecutor());
+    assertThat(idFilterCache.mayContainTrace(snapshot, "trace1")).isTrue();
+    assertThat(idFilterCache.mayContainTrace(snapshot, "trace1")).isTrue();
+    assertThat(idFilterCache.getCachedFilterCount()).isEqualTo(1);
+
+    assertThat(idFilterCache.mayContainTrace(liveSnapshot, "trace1")).isTrue();
+    assertThat(idFilterCache.getCachedFilterCount()).isEqualTo(1);
+  }
+
+  private IdBloomFilter buildFilter(String traceId) throws IOException {
+    LogMessage message =
+        makeMessageWithIndexAndTimestamp(1, "span", TEST_INDEX_NAME, Instant.now());
+    addFieldToMessage(message, LogMessage.ReservedField.TRACE_ID.fieldName, traceId);
+    strictLogStore.logStore.addMessage(message);
+    strictLogStore.logStore.commit();
+    strictLogStore.logStore.refresh();
+
+    SearcherManager searcherManager = strictLogStore.logStore.getSearcherManager();
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      return IdBloomFilter.build(searcher.getIndexReader());
+    } finally {
+      searcherManager.release(searcher);
+    }
+  }
+}
@@ -1,11 +1,19 @@
 package com.slack.kaldb.logstore.search;
 
 import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.aggregations.MetricsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggregation;
+import java.time.Duration;
 
 public class IllegalArgumentLogIndexSearcherImpl implements LogIndexSearcher<LogMessage> {
   @Override
   public SearchResult<LogMessage> search(
-      String indexName, String query, long minTime, long maxTime, int howMany, int bucketCount) {
+      QueryPlan queryPlan,
+      int howMany,
+      int bucketCount,
+      TermsAggregation termsAggregation,
+      MetricsAggregation metricsAggregation,
+      Duration timeout) {
     throw new IllegalArgumentException("Failed to acquire an index searcher");
   }
 
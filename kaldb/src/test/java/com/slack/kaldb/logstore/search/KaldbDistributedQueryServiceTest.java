@@ -5,12 +5,20 @@ import static com.slack.kaldb.chunk.ReadWriteChunk.LIVE_SNAPSHOT_PREFIX;
 import static com.slack.kaldb.chunk.ReadWriteChunk.toSearchMetadata;
 import static com.slack.kaldb.logstore.search.KaldbDistributedQueryService.findPartitionsToQuery;
 import static com.slack.kaldb.logstore.search.KaldbDistributedQueryService.getSearchNodesToQuery;
+import static com.slack.kaldb.logstore.search.KaldbDistributedQueryService.getSearchNodesToQueryForTrace;
+import static com.slack.kaldb.logstore.search.KaldbDistributedQueryService.getSnapshotReplicasToQuery;
 import static com.slack.kaldb.metadata.snapshot.SnapshotMetadata.LIVE_SNAPSHOT_PATH;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.awaitility.Awaitility.await;
 import static org.mockito.Mockito.spy;
 
 import brave.Tracing;
+import com.linecorp.armeria.common.HttpMethod;
+import com.linecorp.armeria.common.HttpRequest;
+import com.linecorp.armeria.common.util.SafeCloseable;
+import com.linecorp.armeria.server.Server;
+import com.linecorp.armeria.server.ServiceRequestContext;
+import com.linecorp.armeria.server.grpc.GrpcService;
 import com.slack.kaldb.chunk.ChunkInfo;
 import com.slack.kaldb.chunk.ReadOnlyChunkImpl;
 import com.slack.kaldb.chunk.SearchContext;
@@ -24,6 +32,10 @@ import com.slack.kaldb.metadata.snapshot.SnapshotMetadataStore;
 import com.slack.kaldb.metadata.zookeeper.MetadataStore;
 import com.slack.kaldb.metadata.zookeeper.ZookeeperMetadataStoreImpl;
 import com.slack.kaldb.proto.config.KaldbConfigs;
+import com.slack.kaldb.proto.service.KaldbSearch;
+import com.slack.kaldb.proto.service.KaldbServiceGrpc;
+import com.slack.kaldb.testlib.MessageUtil;
+import io.grpc.stub.StreamObserver;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.time.Instant;
 import java.util.*;
@@ -411,6 +423,159 @@ public class KaldbDistributedQueryServiceTest {
         .isTrue();
   }
 
+  @Test
+  public void testSnapshotReplicasAreOrderedForFailover() throws Exception {
+    String indexName = "testIndex";
+    Instant chunkCreationTime = Instant.ofEpochMilli(100);
+    Instant chunkEndTime = Instant.ofEpochMilli(200);
+    String snapshotName =
+        createIndexerZKMetadata(chunkCreationTime, chunkEndTime, "1", indexer1SearchContext);
+    ReadOnlyChunkImpl.registerSearchMetadata(
+        searchMetadataStore, cache1SearchContext, snapshotName);
+    ReadOnlyChunkImpl.registerSearchMetadata(
+        searchMetadataStore, cache2SearchContext, snapshotName);
+    await().until(() -> searchMetadataStore.listSync().size() == 3);
+
+    ServicePartitionMetadata partition = new ServicePartitionMetadata(1, 500, List.of("1"));
+    serviceMetadataStore.createSync(
+        new ServiceMetadata(indexName, "testOwner", 1, List.of(partition)));
+    await().until(() -> serviceMetadataStore.listSync().size() == 1);
+
+    // The replicas are keyed by the id of the chunk they hold, with the cache nodes first.
+    Map<String, List<String>> snapshotReplicas =
+        getSnapshotReplicasToQuery(
+            snapshotMetadataStore,
+            searchMetadataStore,
+            serviceMetadataStore,
+            chunkCreationTime.toEpochMilli(),
+            chunkEndTime.toEpochMilli(),
+            indexName,
+            url -> 0);
+    assertThat(snapshotReplicas.keySet()).containsExactly(snapshotName);
+    List<String> replicaUrls = snapshotReplicas.get(snapshotName);
+    assertThat(replicaUrls.subList(0, 2))
+        .containsExactlyInAnyOrder(cache1SearchContext.toString(), cache2SearchContext.toString());
+    assertThat(replicaUrls.get(2)).isEqualTo(indexer1SearchContext.toString());
+
+    // Of two cache nodes, the one with the better latency score is always searched first.
+    for (int i = 0; i < 10; i++) {
+      assertThat(
+              getSnapshotReplicasToQuery(
+                      snapshotMetadataStore,
+                      searchMetadataStore,
+                      serviceMetadataStore,
+                      chunkCreationTime.toEpochMilli(),
+                      chunkEndTime.toEpochMilli(),
+                      indexName,
+                      url -> url.equals(cache2SearchContext.toString()) ? 1 : 2)
+                  .get(snapshotName))
+          .containsExactly(
+              cache2SearchContext.toString(),
+              cache1SearchContext.toString(),
+              indexer1SearchContext.toString());
+    }
+  }
+
+  @Test
+  public void testSlowNodeIsFailedOverWithinTheQueryTimeout() throws Exception {
+    // The cache node never answers, so its snapshot is searched on the indexer once it times out.
+    List<KaldbSearch.SearchRequest> slowNodeRequests =
+        Collections.synchronizedList(new ArrayList<>());
+    Server slowNode =
+        startSearchNode(
+            new KaldbServiceGrpc.KaldbServiceImplBase() {
+              @Override
+              public void search(
+                  KaldbSearch.SearchRequest request,
+                  StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+                slowNodeRequests.add(request);
+              }
+            });
+    Server replicaNode =
+        startSearchNode(
+            new KaldbServiceGrpc.KaldbServiceImplBase() {
+              @Override
+              public void search(
+                  KaldbSearch.SearchRequest request,
+                  StreamObserver<KaldbSearch.SearchResult> responseObserver) {
+                responseObserver.onNext(
+                    SearchResultUtils.toSearchResultProto(
+                        new SearchResult<>(
+                            List.of(MessageUtil.makeMessage(1)), 1, 1, List.of(), 0, 1, 1, 0)));
+                responseObserver.onCompleted();
+              }
+            });
+    try {
+      String indexName = "testIndex";
+      Instant chunkCreationTime = Instant.ofEpochMilli(100);
+      Instant chunkEndTime = Instant.ofEpochMilli(200);
+      String snapshotName =
+          createIndexerZKMetadata(
+              chunkCreationTime,
+              chunkEndTime,
+              "1",
+              new SearchContext("localhost", replicaNode.activeLocalPort()));
+      ReadOnlyChunkImpl.registerSearchMetadata(
+          searchMetadataStore,
+          new SearchContext("localhost", slowNode.activeLocalPort()),
+          snapshotName);
+      serviceMetadataStore.createSync(
+          new ServiceMetadata(
+              indexName,
+              "testOwner",
+              1,
+              List.of(new ServicePartitionMetadata(1, 500, List.of("1")))));
+      await().until(() -> searchMetadataStore.getCached().size() == 2);
+      await().until(() -> serviceMetadataStore.getCached().size() == 1);
+
+      KaldbDistributedQueryService queryService =
+          new KaldbDistributedQueryService(
+              searchMetadataStore, snapshotMetadataStore, serviceMetadataStore, metricsRegistry);
+      KaldbSearch.SearchResult result;
+      long startTimeMs = System.currentTimeMillis();
+      try (SafeCloseable ignored =
+          ServiceRequestContext.of(HttpRequest.of(HttpMethod.POST, "/search")).push()) {
+        result =
+            queryService.doSearch(
+                KaldbSearch.SearchRequest.newBuilder()
+                    .setIndexName(indexName)
+                    .setQueryString("*:*")
+                    .setStartTimeEpochMs(chunkCreationTime.toEpochMilli())
+                    .setEndTimeEpochMs(chunkEndTime.toEpochMilli())
+                    .setHowMany(10)
+                    .setBucketCount(2)
+                    .build());
+      }
+
+      assertThat(System.currentTimeMillis() - startTimeMs)
+          .isLessThan(KaldbDistributedQueryService.READ_TIMEOUT_MS);
+      assertThat(result.getHitsCount()).isEqualTo(1);
+      assertThat(result.getFailedNodes()).isZero();
+      assertThat(
+              metricsRegistry
+                  .counter(KaldbDistributedQueryService.DISTRIBUTED_QUERY_FAILOVER_NODES)
+                  .count())
+          .isEqualTo(1);
+      // The slow node only had to leave the failover timeout for the replica, not half the query.
+      assertThat(slowNodeRequests).hasSize(1);
+      assertThat(slowNodeRequests.get(0).getTimeoutMs())
+          .isGreaterThan(KaldbDistributedQueryService.READ_TIMEOUT_MS / 2)
+          .isLessThan(
+              KaldbDistributedQueryService.READ_TIMEOUT_MS
+                  - KaldbDistributedQueryService.FAILOVER_TIMEOUT_MS);
+    } finally {
+      slowNode.stop().join();
+      replicaNode.stop().join();
+    }
+  }
+
+  private static Server startSearchNode(KaldbServiceGrpc.KaldbServiceImplBase service) {
+    Server server =
+        Server.builder().http(0).service(GrpcService.builder().addService(service).build()).build();
+    server.start().join();
+    return server;
+  }
+
   @Test
   public void testMultipleServicesMultipleTimeRange() throws Exception {
 
@@ -572,6 +737,107 @@ public class KaldbDistributedQueryServiceTest {
     assertThat(searchNodes.size()).isEqualTo(0);
   }
 
+  @Test
+  public void testSnapshotsWithoutTheIndexAreSkipped() throws Exception {
+    Instant chunkCreationTime = Instant.ofEpochMilli(100);
+    Instant chunkEndTime = Instant.ofEpochMilli(200);
+
+    // Both services share the partition.
+    ServicePartitionMetadata partition = new ServicePartitionMetadata(1, 500, List.of("1"));
+    serviceMetadataStore.createSync(
+        new ServiceMetadata("service1", "testOwner", 1, List.of(partition)));
+    serviceMetadataStore.createSync(
+        new ServiceMetadata("service2", "testOwner", 1, List.of(partition)));
+    await().until(() -> serviceMetadataStore.listSync().size() == 2);
+
+    createCacheSnapshot(
+        "snapshot1", chunkCreationTime, chunkEndTime, Map.of("service1", 10L), cache1SearchContext);
+    createCacheSnapshot(
+        "snapshot2", chunkCreationTime, chunkEndTime, Map.of("service2", 5L), cache2SearchContext);
+    // A snapshot without a catalog may contain any index.
+    createCacheSnapshot(
+        "snapshot3", chunkCreationTime, chunkEndTime, Map.of(), cache3SearchContext);
+    await().until(() -> snapshotMetadataStore.listSync().size() == 3);
+    await().until(() -> searchMetadataStore.listSync().size() == 3);
+
+    Collection<String> searchNodes =
+        getSearchNodesToQuery(
+            snapshotMetadataStore,
+            searchMetadataStore,
+            serviceMetadataStore,
+            chunkCreationTime.toEpochMilli(),
+            chunkEndTime.toEpochMilli(),
+            "service1");
+    assertThat(searchNodes)
+        .containsExactlyInAnyOrder(cache1SearchContext.toString(), cache3SearchContext.toString());
+
+    searchNodes =
+        getSearchNodesToQuery(
+            snapshotMetadataStore,
+            searchMetadataStore,
+            serviceMetadataStore,
+            chunkCreationTime.toEpochMilli(),
+            chunkEndTime.toEpochMilli(),
+            "service2");
+    assertThat(searchNodes)
+        .containsExactlyInAnyOrder(cache2SearchContext.toString(), cache3SearchContext.toString());
+  }
+
+  @Test
+  public void testTraceLookupsSkipSnapshotsWithoutTheTrace() throws Exception {
+    Instant chunkCreationTime = Instant.ofEpochMilli(100);
+    Instant chunkEndTime = Instant.ofEpochMilli(200);
+
+    // Trace lookups search all the indexes, so they don't need the partitions of a service.
+    createCacheSnapshot(
+        "snapshot1", chunkCreationTime, chunkEndTime, Map.of("service1", 10L), cache1SearchContext);
+    createCacheSnapshot(
+        "snapshot2", chunkCreationTime, chunkEndTime, Map.of("service2", 5L), cache2SearchContext);
+    createCacheSnapshot(
+        "snapshot3", chunkCreationTime, chunkEndTime, Map.of(), cache3SearchContext);
+    await().until(() -> snapshotMetadataStore.listSync().size() == 3);
+    await().until(() -> searchMetadataStore.listSync().size() == 3);
+
+    Collection<String> searchNodes =
+        getSearchNodesToQueryForTrace(
+            snapshotMetadataStore,
+            searchMetadataStore,
+            chunkCreationTime.toEpochMilli(),
+            chunkEndTime.toEpochMilli(),
+            snapshotMetadata -> !snapshotMetadata.name.equals("snapshot2"));
+    assertThat(searchNodes)
+        .containsExactlyInAnyOrder(cache1SearchContext.toString(), cache3SearchContext.toString());
+
+    searchNodes =
+        getSearchNodesToQueryForTrace(
+            snapshotMetadataStore,
+            searchMetadataStore,
+            chunkEndTime.plusMillis(1).toEpochMilli(),
+            chunkEndTime.plusMillis(100).toEpochMilli(),
+            snapshotMetadata -> true);
+    assertThat(searchNodes).isEmpty();
+  }
+
+  private void createCacheSnapshot(
+      String snapshotName,
+      Instant chunkCreationTime,
+      Instant chunkEndTime,
+      Map<String, Long> indexDocCounts,
+      SearchContext searchContext)
+      throws Exception {
+    snapshotMetadataStore.createSync(
+        new SnapshotMetadata(
+            snapshotName,
+            "cacheSnapshotPath",
+            chunkCreationTime.toEpochMilli(),
+            chunkEndTime.toEpochMilli(),
+            1234,
+            "1",
+            Map.of(),
+            indexDocCounts));
+    ReadOnlyChunkImpl.registerSearchMetadata(searchMetadataStore, searchContext, snapshotName);
+  }
+
   private String createIndexerZKMetadata(
       Instant chunkCreationTime,
       Instant chunkEndTime,
@@ -9,17 +9,15 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import brave.Tracing;
 import com.adobe.testing.s3mock.junit4.S3MockRule;
-import com.google.protobuf.ByteString;
 import com.slack.kaldb.chunkManager.IndexingChunkManager;
 import com.slack.kaldb.chunkManager.RollOverChunkTask;
+import com.slack.kaldb.histogram.HistogramBucket;
 import com.slack.kaldb.logstore.LogMessage;
-import com.slack.kaldb.logstore.LogWireMessage;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.proto.service.KaldbServiceGrpc;
 import com.slack.kaldb.testlib.ChunkManagerUtil;
 import com.slack.kaldb.testlib.KaldbConfigUtil;
 import com.slack.kaldb.testlib.MessageUtil;
-import com.slack.kaldb.util.JsonUtil;
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
@@ -29,6 +27,8 @@ import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 import org.junit.*;
@@ -110,11 +110,10 @@ public class KaldbLocalQueryServiceTest {
     assertThat(response.getSnapshotsWithReplicas()).isEqualTo(1);
 
     // Test hit contents
-    assertThat(response.getHits(0)).contains("Message100");
-    List<ByteString> hits = response.getHitsList().asByteStringList();
+    assertThat(response.getHits(0).getSource().toStringUtf8()).contains("Message100");
+    List<KaldbSearch.SearchHit> hits = response.getHitsList();
     assertThat(hits.size()).isEqualTo(1);
-    LogWireMessage hit = JsonUtil.read(hits.get(0).toStringUtf8(), LogWireMessage.class);
-    LogMessage m = LogMessage.fromWireMessage(hit);
+    LogMessage m = SearchResultUtils.fromSearchHitProto(hits.get(0));
     assertThat(m.getType()).isEqualTo(MessageUtil.TEST_MESSAGE_TYPE);
     assertThat(m.getIndex()).isEqualTo(MessageUtil.TEST_INDEX_NAME);
     assertThat(m.source.get(MessageUtil.TEST_SOURCE_LONG_PROPERTY)).isEqualTo(100);
@@ -124,18 +123,57 @@ public class KaldbLocalQueryServiceTest {
     assertThat((String) m.source.get("message")).contains("Message100");
 
     // Test histogram buckets
-    assertThat(response.getBucketsList().size()).isEqualTo(2);
-    KaldbSearch.HistogramBucket bucket1 = response.getBuckets(0);
+    List<HistogramBucket> buckets =
+        SearchResultUtils.fromPackedHistogramProto(response.getHistogram());
+    assertThat(buckets.size()).isEqualTo(2);
+    HistogramBucket bucket1 = buckets.get(0);
     assertThat(bucket1.getCount()).isEqualTo(0);
     assertThat(bucket1.getLow()).isEqualTo(chunk1StartTimeMs);
     assertThat(bucket1.getHigh()).isEqualTo((chunk1StartTimeMs + chunk1EndTimeMs) / 2.0);
-    KaldbSearch.HistogramBucket bucket2 = response.getBuckets(1);
+    HistogramBucket bucket2 = buckets.get(1);
     assertThat(bucket2.getCount()).isEqualTo(1);
     assertThat(bucket2.getHigh()).isEqualTo(chunk1EndTimeMs);
 
     // TODO: Query multiple chunks.
   }
 
+  @Test
+  public void testKalDbSearchTargetsChunks() throws IOException {
+    IndexingChunkManager<LogMessage> chunkManager = chunkManagerUtil.chunkManager;
+
+    final Instant startTime =
+        LocalDateTime.of(2020, 10, 1, 10, 10, 0).atZone(ZoneOffset.UTC).toInstant();
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 100, 1000, startTime);
+    int offset = 1;
+    for (LogMessage m : messages) {
+      chunkManager.addMessage(m, m.toString().length(), TEST_KAFKA_PARITION_ID, offset);
+      offset++;
+    }
+    assertThat(chunkManager.getChunkList().size()).isEqualTo(1);
+
+    final long chunk1StartTimeMs = startTime.toEpochMilli();
+    KaldbSearch.SearchRequest searchRequest =
+        KaldbSearch.SearchRequest.newBuilder()
+            .setIndexName(MessageUtil.TEST_INDEX_NAME)
+            .setQueryString("Message100")
+            .setStartTimeEpochMs(chunk1StartTimeMs)
+            .setEndTimeEpochMs(chunk1StartTimeMs + (100 * 1000))
+            .setHowMany(10)
+            .build();
+
+    String chunkId = chunkManager.getChunkList().get(0).id();
+    KaldbSearch.SearchResult response =
+        kaldbLocalQueryService.doSearch(searchRequest.toBuilder().addChunkIds(chunkId).build());
+    assertThat(response.getHitsCount()).isEqualTo(1);
+    assertThat(response.getTotalSnapshots()).isEqualTo(1);
+
+    // The chunks that aren't listed aren't searched.
+    response =
+        kaldbLocalQueryService.doSearch(searchRequest.toBuilder().addChunkIds("missing").build());
+    assertThat(response.getHitsCount()).isZero();
+    assertThat(response.getTotalSnapshots()).isZero();
+  }
+
   @Test
   public void testKalDbSearchNoData() throws IOException {
     IndexingChunkManager<LogMessage> chunkManager = chunkManagerUtil.chunkManager;
@@ -170,19 +208,21 @@ public class KaldbLocalQueryServiceTest {
     assertThat(response.getTotalCount()).isZero();
     assertThat(response.getTookMicros()).isNotZero();
     assertThat(response.getTotalCount()).isZero();
-    assertThat(response.getHitsList().asByteStringList().size()).isZero();
+    assertThat(response.getHitsList().size()).isZero();
     assertThat(response.getFailedNodes()).isZero();
     assertThat(response.getTotalNodes()).isEqualTo(1);
     assertThat(response.getTotalSnapshots()).isEqualTo(1);
     assertThat(response.getSnapshotsWithReplicas()).isEqualTo(1);
 
     // Test histogram buckets
-    assertThat(response.getBucketsList().size()).isEqualTo(2);
-    KaldbSearch.HistogramBucket bucket1 = response.getBuckets(0);
+    List<HistogramBucket> buckets =
+        SearchResultUtils.fromPackedHistogramProto(response.getHistogram());
+    assertThat(buckets.size()).isEqualTo(2);
+    HistogramBucket bucket1 = buckets.get(0);
     assertThat(bucket1.getCount()).isEqualTo(0);
     assertThat(bucket1.getLow()).isEqualTo(chunk1StartTimeMs);
     assertThat(bucket1.getHigh()).isEqualTo((chunk1StartTimeMs + chunk1EndTimeMs) / 2.0);
-    KaldbSearch.HistogramBucket bucket2 = response.getBuckets(1);
+    HistogramBucket bucket2 = buckets.get(1);
     assertThat(bucket2.getCount()).isEqualTo(0);
     assertThat(bucket2.getHigh()).isEqualTo(chunk1EndTimeMs);
   }
@@ -226,15 +266,17 @@ public class KaldbLocalQueryServiceTest {
     assertThat(response.getTotalNodes()).isEqualTo(1);
     assertThat(response.getTotalSnapshots()).isEqualTo(1);
     assertThat(response.getSnapshotsWithReplicas()).isEqualTo(1);
-    assertThat(response.getHitsList().asByteStringList().size()).isZero();
+    assertThat(response.getHitsList().size()).isZero();
 
     // Test histogram buckets
-    assertThat(response.getBucketsList().size()).isEqualTo(2);
-    KaldbSearch.HistogramBucket bucket1 = response.getBuckets(0);
+    List<HistogramBucket> buckets =
+        SearchResultUtils.fromPackedHistogramProto(response.getHistogram());
+    assertThat(buckets.size()).isEqualTo(2);
+    HistogramBucket bucket1 = buckets.get(0);
     assertThat(bucket1.getCount()).isEqualTo(1);
     assertThat(bucket1.getLow()).isEqualTo(chunk1StartTimeMs);
     assertThat(bucket1.getHigh()).isEqualTo((chunk1StartTimeMs + chunk1EndTimeMs) / 2.0);
-    KaldbSearch.HistogramBucket bucket2 = response.getBuckets(1);
+    HistogramBucket bucket2 = buckets.get(1);
     assertThat(bucket2.getCount()).isEqualTo(0);
     assertThat(bucket2.getHigh()).isEqualTo(chunk1EndTimeMs);
   }
@@ -278,12 +320,11 @@ public class KaldbLocalQueryServiceTest {
     assertThat(response.getSnapshotsWithReplicas()).isEqualTo(1);
 
     // Test hit contents
-    assertThat(response.getHitsList().asByteStringList().size()).isEqualTo(1);
-    assertThat(response.getHits(0)).contains("Message1");
-    List<ByteString> hits = response.getHitsList().asByteStringList();
+    assertThat(response.getHitsList().size()).isEqualTo(1);
+    assertThat(response.getHits(0).getSource().toStringUtf8()).contains("Message1");
+    List<KaldbSearch.SearchHit> hits = response.getHitsList();
     assertThat(hits.size()).isEqualTo(1);
-    LogWireMessage hit = JsonUtil.read(hits.get(0).toStringUtf8(), LogWireMessage.class);
-    LogMessage m = LogMessage.fromWireMessage(hit);
+    LogMessage m = SearchResultUtils.fromSearchHitProto(hits.get(0));
     assertThat(m.getType()).isEqualTo(MessageUtil.TEST_MESSAGE_TYPE);
     assertThat(m.getIndex()).isEqualTo(MessageUtil.TEST_INDEX_NAME);
     assertThat(m.source.get(MessageUtil.TEST_SOURCE_LONG_PROPERTY)).isEqualTo(1);
@@ -293,7 +334,9 @@ public class KaldbLocalQueryServiceTest {
     assertThat((String) m.source.get("message")).contains("Message1");
 
     // Test histogram buckets
-    assertThat(response.getBucketsList().size()).isEqualTo(0);
+    List<HistogramBucket> buckets =
+        SearchResultUtils.fromPackedHistogramProto(response.getHistogram());
+    assertThat(buckets.size()).isEqualTo(0);
   }
 
   @Test(expected = RuntimeException.class)
@@ -384,11 +427,10 @@ public class KaldbLocalQueryServiceTest {
     assertThat(response.getSnapshotsWithReplicas()).isEqualTo(1);
 
     // Test hit contents
-    assertThat(response.getHits(0)).contains("Message1");
-    List<ByteString> hits = response.getHitsList().asByteStringList();
+    assertThat(response.getHits(0).getSource().toStringUtf8()).contains("Message1");
+    List<KaldbSearch.SearchHit> hits = response.getHitsList();
     assertThat(hits.size()).isEqualTo(1);
-    LogWireMessage hit = JsonUtil.read(hits.get(0).toStringUtf8(), LogWireMessage.class);
-    LogMessage m = LogMessage.fromWireMessage(hit);
+    LogMessage m = SearchResultUtils.fromSearchHitProto(hits.get(0));
     assertThat(m.getType()).isEqualTo(MessageUtil.TEST_MESSAGE_TYPE);
     assertThat(m.getIndex()).isEqualTo(MessageUtil.TEST_INDEX_NAME);
     assertThat(m.source.get(MessageUtil.TEST_SOURCE_LONG_PROPERTY)).isEqualTo(1);
@@ -398,16 +440,74 @@ public class KaldbLocalQueryServiceTest {
     assertThat((String) m.source.get("message")).contains("Message1");
 
     // Test histogram buckets
-    assertThat(response.getBucketsList().size()).isEqualTo(2);
-    KaldbSearch.HistogramBucket bucket1 = response.getBuckets(0);
+    List<HistogramBucket> buckets =
+        SearchResultUtils.fromPackedHistogramProto(response.getHistogram());
+    assertThat(buckets.size()).isEqualTo(2);
+    HistogramBucket bucket1 = buckets.get(0);
     assertThat(bucket1.getCount()).isEqualTo(1);
     assertThat(bucket1.getLow()).isEqualTo(chunk1StartTimeMs);
     assertThat(bucket1.getHigh()).isEqualTo((chunk1StartTimeMs + chunk1EndTimeMs) / 2.0);
-    KaldbSearch.HistogramBucket bucket2 = response.getBuckets(1);
+    HistogramBucket bucket2 = buckets.get(1);
     assertThat(bucket2.getCount()).isEqualTo(0);
     assertThat(bucket2.getHigh()).isEqualTo(chunk1EndTimeMs);
   }
 
+  @Test
+  public void testKalDbGrpcSearchStream() throws IOException {
+    IndexingChunkManager<LogMessage> chunkManager = chunkManagerUtil.chunkManager;
+
+    final Instant startTime =
+        LocalDateTime.of(2020, 10, 1, 10, 10, 0).atZone(ZoneOffset.UTC).toInstant();
+    List<LogMessage> messages = MessageUtil.makeMessagesWithTimeDifference(1, 100, 1000, startTime);
+    int offset = 1;
+    for (LogMessage m : messages) {
+      chunkManager.addMessage(m, m.toString().length(), TEST_KAFKA_PARITION_ID, offset);
+      offset++;
+    }
+
+    String serverName = InProcessServerBuilder.generateName();
+    grpcCleanup.register(
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(new KaldbLocalQueryService<>(chunkManager))
+            .build()
+            .start());
+    KaldbServiceGrpc.KaldbServiceBlockingStub blockingKaldbClient =
+        KaldbServiceGrpc.newBlockingStub(
+            grpcCleanup.register(
+                InProcessChannelBuilder.forName(serverName).directExecutor().build()));
+
+    final long chunk1StartTimeMs = startTime.toEpochMilli();
+    KaldbSearch.SearchStreamRequest request =
+        KaldbSearch.SearchStreamRequest.newBuilder()
+            .setIndexName(MessageUtil.TEST_INDEX_NAME)
+            .setQueryString("")
+            .setStartTimeEpochMs(chunk1StartTimeMs)
+            .setEndTimeEpochMs(chunk1StartTimeMs + (100 * 1000))
+            .setPageSize(30)
+            .build();
+    List<KaldbSearch.SearchResult> pages = new ArrayList<>();
+    blockingKaldbClient.searchStream(request).forEachRemaining(pages::add);
+
+    // The pages hold every hit once, newest first.
+    assertThat(pages.stream().map(KaldbSearch.SearchResult::getHitsCount))
+        .containsExactly(30, 30, 30, 10);
+    List<Long> timestamps = new ArrayList<>();
+    for (KaldbSearch.SearchResult page : pages) {
+      for (LogMessage hit : SearchResultUtils.fromSearchResultProto(page).hits) {
+        timestamps.add(hit.timeSinceEpochMilli);
+      }
+    }
+    assertThat(timestamps).hasSize(100).doesNotHaveDuplicates();
+    assertThat(timestamps).isSortedAccordingTo(Comparator.reverseOrder());
+
+    // A stream resumes from the cursor of its last page.
+    KaldbSearch.SearchResult resumedPage =
+        blockingKaldbClient.searchPage(
+            request.toBuilder().setCursor(pages.get(1).getCursor()).build());
+    assertThat(resumedPage.getHitsList()).isEqualTo(pages.get(2).getHitsList());
+  }
+
   @Test(expected = StatusRuntimeException.class)
   public void testKalDbGrpcSearchThrowsException() throws IOException {
     // Load test data into chunk manager.
@@ -13,16 +13,20 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import brave.Tracing;
 import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.aggregations.TermsAggregation;
+import com.slack.kaldb.logstore.search.aggregations.TermsResult;
+import com.slack.kaldb.testlib.MessageUtil;
 import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule;
 import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import org.junit.BeforeClass;
-import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 
@@ -135,7 +139,6 @@ public class LogIndexSearcherImplTest {
   }
 
   @Test
-  @Ignore // todo - re-enable when multi-tenancy is supported - slackhq/kaldb/issues/223
   public void testIndexBoundSearch() {
     Instant time = Instant.ofEpochSecond(1593365471);
     strictLogStore.logStore.addMessage(makeMessageWithIndexAndTimestamp(1, "test1", "idx", time));
@@ -356,6 +359,138 @@ public class LogIndexSearcherImplTest {
     assertThat(allIndexItems.buckets.get(0).getCount()).isEqualTo(4);
   }
 
+  @Test
+  public void testTimeRangeOnlyHistogram() throws IOException {
+    Instant time = Instant.ofEpochSecond(1593365471);
+    // Index 100 messages, 1 second apart, in 4 segments.
+    for (int i = 0; i < 4; i++) {
+      strictLogStore.logStore.addMessages(
+          MessageUtil.makeMessagesWithTimeDifference(
+              i * 25 + 1, i * 25 + 25, 1000, time.plusSeconds(i * 25)));
+      strictLogStore.logStore.commit();
+    }
+    strictLogStore.logStore.refresh();
+
+    long start = time.plusSeconds(10).toEpochMilli();
+    long end = time.plusSeconds(70).toEpochMilli();
+    // Every message matches the identifier query, but it's counted by visiting the documents.
+    SearchResult<LogMessage> collected =
+        strictLogStore.logSearcher.search(TEST_INDEX_NAME, "identifier", start, end, 10, 7);
+    assertThat(collected.totalCount).isEqualTo(61);
+
+    for (String query : List.of("", "*:*")) {
+      SearchResult<LogMessage> counted =
+          strictLogStore.logSearcher.search(TEST_INDEX_NAME, query, start, end, 10, 7);
+      assertThat(counted.totalCount).isEqualTo(61);
+      assertThat(counted.buckets).isEqualTo(collected.buckets);
+      assertThat(counted.hits.stream().map(m -> m.id).collect(Collectors.toList()))
+          .isEqualTo(collected.hits.stream().map(m -> m.id).collect(Collectors.toList()));
+
+      SearchResult<LogMessage> histogramOnly =
+          strictLogStore.logSearcher.search(TEST_INDEX_NAME, query, start, end, 0, 7);
+      assertThat(histogramOnly.hits).isEmpty();
+      assertThat(histogramOnly.buckets).isEqualTo(collected.buckets);
+    }
+
+    // A range that covers all the segments.
+    SearchResult<LogMessage> all =
+        strictLogStore.logSearcher.search(TEST_INDEX_NAME, "*:*", 0, MAX_TIME, 0, 1);
+    assertThat(all.totalCount).isEqualTo(100);
+    assertThat(all.buckets.get(0).getCount()).isEqualTo(100);
+
+    // A range that covers none of the documents.
+    SearchResult<LogMessage> none =
+        strictLogStore.logSearcher.search(
+            TEST_INDEX_NAME, "*:*", 0, time.minusSeconds(1).toEpochMilli(), 0, 3);
+    assertThat(none.totalCount).isEqualTo(0);
+  }
+
+  @Test
+  public void testTermsAggregation() {
+    Instant time = Instant.ofEpochSecond(1593365471);
+    for (int i = 1; i <= 8; i++) {
+      LogMessage message =
+          makeMessageWithIndexAndTimestamp(i, "apple", TEST_INDEX_NAME, time.plusSeconds(i));
+      MessageUtil.addFieldToMessage(
+          message, LogMessage.ReservedField.HOSTNAME.fieldName, i <= 5 ? "host1" : "host2");
+      strictLogStore.logStore.addMessage(message);
+      if (i == 4) {
+        strictLogStore.logStore.commit();
+      }
+    }
+    strictLogStore.logStore.commit();
+    strictLogStore.logStore.refresh();
+
+    SearchResult<LogMessage> result =
+        strictLogStore.logSearcher.search(
+            QueryPlan.compile(TEST_INDEX_NAME, "apple", 0, MAX_TIME).withIndexFilter(),
+            0,
+            1,
+            new TermsAggregation(LogMessage.ReservedField.HOSTNAME.fieldName, 1, 0, false),
+            LogIndexSearcher.NO_TIMEOUT);
+    assertThat(result.totalCount).isEqualTo(8);
+    assertThat(result.hits).isEmpty();
+    assertThat(result.terms).hasSize(1);
+    assertThat(result.terms.get(0).terms)
+        .containsExactly(
+            new TermsResult.TermCount("host1", 5, 0), new TermsResult.TermCount("host2", 3, 0));
+
+    // Fields without doc values have no terms.
+    SearchResult<LogMessage> noTerms =
+        strictLogStore.logSearcher.search(
+            QueryPlan.compile(TEST_INDEX_NAME, "apple", 0, MAX_TIME).withIndexFilter(),
+            0,
+            0,
+            new TermsAggregation(LogMessage.ReservedField.MESSAGE.fieldName, 1, 0, false),
+            LogIndexSearcher.NO_TIMEOUT);
+    assertThat(noTerms.terms.get(0).terms).isEmpty();
+  }
+
+  @Test
+  public void testSearchTimeout() throws IOException {
+    Instant time = Instant.ofEpochSecond(1593365471);
+    for (int i = 0; i < 4; i++) {
+      strictLogStore.logStore.addMessages(
+          MessageUtil.makeMessagesWithTimeDifference(
+              i * 25 + 1, i * 25 + 25, 1000, time.plusSeconds(i * 25)));
+      strictLogStore.logStore.commit();
+    }
+    strictLogStore.logStore.refresh();
+
+    SearchResult<LogMessage> complete =
+        strictLogStore.logSearcher.search(
+            TEST_INDEX_NAME, "identifier", 0, MAX_TIME, 10, 5, Duration.ofMinutes(1));
+    assertThat(complete.totalCount).isEqualTo(100);
+    assertThat(complete.hits.size()).isEqualTo(10);
+    assertThat(complete.timedOutSnapshots).isEqualTo(0);
+
+    // The timeout passes before the search starts, so it returns an empty partial result for
+    // queries that enumerate terms as well as for queries that only collect documents. The store
+    // only has the documents of one index, so the queries aren't filtered by index, like the
+    // queries of a chunk with a single index.
+    for (String query : List.of("identifier", "Message1*", "*:*")) {
+      QueryPlan queryPlan = QueryPlan.compile(TEST_INDEX_NAME, query, 0, MAX_TIME);
+      SearchResult<LogMessage> timedOut =
+          strictLogStore.logSearcher.search(queryPlan, 10, 0, Duration.ZERO);
+      assertThat(timedOut.timedOutSnapshots).isEqualTo(1);
+      assertThat(timedOut.totalSnapshots).isEqualTo(1);
+      assertThat(timedOut.hits).isEmpty();
+      assertThat(timedOut.totalCount).isEqualTo(0);
+
+      SearchResult<LogMessage> histogramOnly =
+          strictLogStore.logSearcher.search(queryPlan, 0, 5, Duration.ZERO);
+      if (query.equals("*:*")) {
+        // The histogram of a time range is counted without collecting the documents.
+        assertThat(histogramOnly.timedOutSnapshots).isEqualTo(0);
+        assertThat(histogramOnly.totalCount).isEqualTo(100);
+      } else {
+        assertThat(histogramOnly.timedOutSnapshots).isEqualTo(1);
+        assertThat(histogramOnly.totalCount).isEqualTo(0);
+        assertThat(histogramOnly.buckets.size()).isEqualTo(5);
+      }
+    }
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testNullSearchString() {
     Instant time = Instant.ofEpochSecond(1593365471);
@@ -365,7 +500,6 @@ public class LogIndexSearcherImplTest {
   }
 
   @Test
-  @Ignore // todo - re-enable when multi-tenancy is supported - slackhq/kaldb/issues/223
   public void testMissingIndexSearch() {
     Instant time = Instant.ofEpochSecond(1593365471);
     loadTestData(time);
@@ -0,0 +1,96 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.logstore.search.NodeLatencyTracker.NODE_SCORE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NodeLatencyTrackerTest {
+  private SimpleMeterRegistry meterRegistry;
+  private NodeLatencyTracker nodeLatencyTracker;
+
+  @Before
+  public void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    nodeLatencyTracker = new NodeLatencyTracker(meterRegistry);
+  }
+
+  @Test
+  public void testScoreGrowsWithLatencyAndRequestsInFlight() {
+    assertThat(nodeLatencyTracker.getScore("node1")).isEqualTo(0);
+
+    respond("node1", 10, false);
+    respond("node2", 20, false);
+    assertThat(nodeLatencyTracker.getScore("node1"))
+        .isLessThan(nodeLatencyTracker.getScore("node2"));
+    assertThat(meterRegistry.get(NODE_SCORE).tag("node", "node1").gauge().value())
+        .isEqualTo(nodeLatencyTracker.getScore("node1"));
+
+    // Three requests in flight make the faster node score worse than the idle one.
+    for (int i = 0; i < 3; i++) {
+      nodeLatencyTracker.onRequest("node1");
+    }
+    assertThat(nodeLatencyTracker.getInFlight("node1")).isEqualTo(3);
+    assertThat(nodeLatencyTracker.getScore("node1"))
+        .isGreaterThan(nodeLatencyTracker.getScore("node2"));
+
+    nodeLatencyTracker.onCancel("node1", TimeUnit.MILLISECONDS.toNanos(10));
+    assertThat(nodeLatencyTracker.getInFlight("node1")).isEqualTo(2);
+  }
+
+  @Test
+  public void testFailuresCountAsTheSlowestResponse() {
+    respond("node1", 100, false);
+    respond("node2", 1, false);
+    respond("node2", 1, true);
+    assertThat(nodeLatencyTracker.getScore("node2")).isGreaterThan(1000);
+  }
+
+  @Test
+  public void testHedgeDelayIsAPercentileOfTheLatencies() {
+    for (int i = 1; i < 100; i++) {
+      respond("node1", i, false);
+    }
+    assertThat(nodeLatencyTracker.getHedgeDelayMs()).isEqualTo(Long.MAX_VALUE);
+
+    respond("node1", 100, false);
+    assertThat(nodeLatencyTracker.getHedgeDelayMs()).isEqualTo(95);
+
+    // Failures and cancellations don't count for the hedge delay.
+    respond("node1", 1000, true);
+    nodeLatencyTracker.onRequest("node1");
+    nodeLatencyTracker.onCancel("node1", TimeUnit.MILLISECONDS.toNanos(1000));
+    assertThat(nodeLatencyTracker.getHedgeDelayMs()).isEqualTo(95);
+  }
+
+  @Test
+  public void testRemoveNode() {
+    respond("node1", 10, false);
+    assertThat(meterRegistry.find(NODE_SCORE).gauges()).hasSize(1);
+
+    nodeLatencyTracker.removeNode("node1");
+    assertThat(nodeLatencyTracker.getScore("node1")).isEqualTo(0);
+    assertThat(meterRegistry.find(NODE_SCORE).gauges()).isEmpty();
+  }
+
+  @Test
+  public void testRequestsInFlightToARemovedNodeDontAddItBack() {
+    nodeLatencyTracker.onRequest("node1");
+    nodeLatencyTracker.onRequest("node1");
+    nodeLatencyTracker.removeNode("node1");
+
+    nodeLatencyTracker.onResponse("node1", TimeUnit.MILLISECONDS.toNanos(10), false);
+    nodeLatencyTracker.onCancel("node1", TimeUnit.MILLISECONDS.toNanos(10));
+    assertThat(nodeLatencyTracker.getScore("node1")).isEqualTo(0);
+    assertThat(nodeLatencyTracker.getInFlight("node1")).isEqualTo(0);
+    assertThat(meterRegistry.find(NODE_SCORE).gauges()).isEmpty();
+  }
+
+  private void respond(String url, long latencyMs, boolean failed) {
+    nodeLatencyTracker.onRequest(url);
+    nodeLatencyTracker.onResponse(url, TimeUnit.MILLISECONDS.toNanos(latencyMs), failed);
+  }
+}
@@ -0,0 +1,115 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.testlib.MessageUtil.TEST_INDEX_NAME;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import com.slack.kaldb.logstore.LogDocumentBuilderImpl;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import java.time.Duration;
+import java.util.Map;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryPlanTest {
+
+  @Before
+  public void setUp() {
+    QueryPlan.clearCache();
+  }
+
+  @Test
+  public void testQueryIsParsedOnce() {
+    QueryPlan plan = QueryPlan.compile(TEST_INDEX_NAME, "message:apple", 1000, 2000);
+    Query query = plan.getQuery(Map.of());
+    assertThat(plan.getQuery(Map.of("other", FieldType.LONG))).isSameAs(query);
+    assertThat(QueryPlan.getCachedQueryCount()).isEqualTo(1);
+
+    // The same query on another time range reuses the parsed query.
+    QueryPlan laterPlan = QueryPlan.compile(TEST_INDEX_NAME, "message:apple", 3000, 4000);
+    assertThat(QueryPlan.getCachedQueryCount()).isEqualTo(1);
+    Query laterQuery = laterPlan.getQuery(Map.of());
+    assertThat(userQuery(laterQuery)).isSameAs(userQuery(query));
+    assertThat(laterQuery).isNotEqualTo(query);
+  }
+
+  @Test
+  public void testQueryDependsOnTheTypesOfItsFields() {
+    QueryPlan plan = QueryPlan.compile(TEST_INDEX_NAME, "status:500 AND message:apple", 1000, 2000);
+    Query textQuery = plan.getQuery(Map.of());
+    Query longQuery = plan.getQuery(Map.of("status", FieldType.LONG));
+    assertThat(longQuery).isNotEqualTo(textQuery);
+    assertThat(longQuery.toString()).contains(LongPoint.newExactQuery("status", 500).toString());
+
+    // Chunks with the same types for the fields of the query share the typed query.
+    assertThat(plan.getQuery(Map.of("status", FieldType.LONG, "other", FieldType.KEYWORD)))
+        .isSameAs(longQuery);
+    assertThat(plan.getQuery(Map.of("other", FieldType.KEYWORD))).isSameAs(textQuery);
+  }
+
+  @Test
+  public void testQueryDependsOnTheAnalyzerVersion() {
+    String hostname = LogMessage.ReservedField.HOSTNAME.fieldName;
+    QueryPlan plan =
+        QueryPlan.compile(TEST_INDEX_NAME, hostname + ":host1-dc2.abc.com", 1000, 2000);
+    Query query = plan.getQuery(Map.of());
+    assertThat(userQuery(query)).isEqualTo(new TermQuery(new Term(hostname, "host1-dc2.abc.com")));
+    assertThat(plan.getQuery(Map.of(), LogDocumentBuilderImpl.ANALYZER_VERSION)).isSameAs(query);
+
+    // The host names of the chunks indexed with the standard analyzer were split into words.
+    Query standardQuery = plan.getQuery(Map.of(), LogDocumentBuilderImpl.STANDARD_ANALYZER_VERSION);
+    assertThat(userQuery(standardQuery)).isInstanceOf(BooleanQuery.class);
+    assertThat(userQuery(standardQuery).toString())
+        .contains(new Term(hostname, "host1").toString());
+    assertThat(plan.getQuery(Map.of(), LogDocumentBuilderImpl.STANDARD_ANALYZER_VERSION))
+        .isSameAs(standardQuery);
+  }
+
+  @Test
+  public void testTimeRangeOnlyQueries() {
+    QueryPlan emptyQuery = QueryPlan.compile(TEST_INDEX_NAME, "", 1000, 2000);
+    assertThat(emptyQuery.isTimeRangeOnly()).isTrue();
+    assertThat(emptyQuery.getQuery(Map.of())).isInstanceOf(PointRangeQuery.class);
+    assertThat(QueryPlan.compile(TEST_INDEX_NAME, "*:*", 1000, 2000).isTimeRangeOnly()).isTrue();
+    assertThat(QueryPlan.compile(TEST_INDEX_NAME, "apple", 1000, 2000).isTimeRangeOnly()).isFalse();
+  }
+
+  @Test
+  public void testTraceQueriesSearchAllTheIndexes() {
+    SearchQuery traceQuery = SearchQuery.forTrace("a1:b2", 1000, 2000, 100, Duration.ofSeconds(1));
+    QueryPlan plan = traceQuery.getQueryPlan();
+    assertThat(plan.indexName).isEqualTo(QueryPlan.ALL_INDEXES);
+    assertThat(plan.withIndexFilter()).isSameAs(plan);
+    assertThat(userQuery(plan.getQuery(Map.of())))
+        .isEqualTo(new TermQuery(new Term(LogMessage.ReservedField.TRACE_ID.fieldName, "a1:b2")));
+  }
+
+  @Test
+  public void testInvalidQueries() {
+    assertThat(catchThrowable(() -> QueryPlan.compile(TEST_INDEX_NAME, "a:(b", 1000, 2000)))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThat(QueryPlan.getCachedQueryCount()).isEqualTo(0);
+    assertThat(catchThrowable(() -> QueryPlan.compile(TEST_INDEX_NAME, "apple", 2000, 1000)))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThat(catchThrowable(() -> QueryPlan.compile("", "apple", 1000, 2000)))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static Query userQuery(Query query) {
+    return ((BooleanQuery) query)
+        .clauses()
+        .stream()
+        .map(BooleanClause::getQuery)
+        .filter(clause -> !(clause instanceof PointRangeQuery))
+        .findFirst()
+        .orElseThrow();
+  }
+}
@@ -14,7 +14,10 @@ import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -412,4 +415,68 @@ public class SearchResultAggregatorImplTest {
       assertThat(b.getCount() == 10 || b.getCount() == 0).isTrue();
     }
   }
+
+  @Test
+  public void testSearchResultsAggCountsTimedOutSnapshots() {
+    Instant startTime = LocalDateTime.of(2020, 1, 1, 1, 0, 0).atZone(ZoneOffset.UTC).toInstant();
+    List<LogMessage> messages1 =
+        MessageUtil.makeMessagesWithTimeDifference(1, 10, 1000 * 60, startTime);
+    List<LogMessage> messages2 =
+        MessageUtil.makeMessagesWithTimeDifference(11, 15, 1000 * 60, startTime);
+
+    SearchResult<LogMessage> complete =
+        new SearchResult<>(messages1, 10, 10, Collections.emptyList(), 0, 1, 1, 1, 0);
+    SearchResult<LogMessage> partial =
+        new SearchResult<>(messages2, 20, 5, Collections.emptyList(), 0, 1, 2, 2, 1);
+
+    SearchQuery searchQuery =
+        new SearchQuery(
+            MessageUtil.TEST_INDEX_NAME,
+            "Message1",
+            startTime.toEpochMilli(),
+            startTime.plus(1, ChronoUnit.HOURS).toEpochMilli(),
+            20,
+            0);
+    SearchResult<LogMessage> aggSearchResult =
+        new SearchResultAggregatorImpl<>(searchQuery).aggregate(List.of(complete, partial));
+
+    assertThat(aggSearchResult.hits.size()).isEqualTo(15);
+    assertThat(aggSearchResult.totalCount).isEqualTo(15);
+    assertThat(aggSearchResult.totalSnapshots).isEqualTo(3);
+    assertThat(aggSearchResult.timedOutSnapshots).isEqualTo(1);
+  }
+
+  @Test
+  public void testMergeHitsMatchesAStableSort() {
+    Instant startTime = LocalDateTime.of(2020, 1, 1, 1, 0, 0).atZone(ZoneOffset.UTC).toInstant();
+    Random random = new Random(42);
+    List<SearchResult<LogMessage>> searchResults = new ArrayList<>();
+    int id = 0;
+    for (int i = 0; i < 20; i++) {
+      // Few distinct timestamps, so many hits of different results share one.
+      List<LogMessage> messages = new ArrayList<>();
+      for (int j = random.nextInt(30); j > 0; j--) {
+        messages.add(
+            MessageUtil.makeMessageWithIndexAndTimestamp(
+                ++id,
+                "Message" + id,
+                MessageUtil.TEST_INDEX_NAME,
+                startTime.plusSeconds(random.nextInt(50))));
+      }
+      messages.sort(Comparator.comparing((LogMessage m) -> m.timeSinceEpochMilli).reversed());
+      searchResults.add(new SearchResult<>(messages, 1, messages.size(), List.of(), 0, 1, 1, 0));
+    }
+
+    for (int howMany : List.of(0, 1, 10, 100, 1000)) {
+      List<LogMessage> expectedHits =
+          searchResults
+              .stream()
+              .flatMap(searchResult -> searchResult.hits.stream())
+              .sorted(Comparator.comparing((LogMessage m) -> m.timeSinceEpochMilli).reversed())
+              .limit(howMany)
+              .collect(Collectors.toList());
+      assertThat(SearchResultAggregatorImpl.mergeHits(searchResults, howMany))
+          .containsExactlyElementsOf(expectedHits);
+    }
+  }
 }
@@ -0,0 +1,71 @@
+package com.slack.kaldb.logstore.search;
+
+import static com.slack.kaldb.testlib.MessageUtil.TEST_INDEX_NAME;
+import static com.slack.kaldb.testlib.MessageUtil.makeMessageWithIndexAndTimestamp;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.proto.service.KaldbSearch;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class SearchStreamPagerTest {
+  @Test
+  public void testPagesSplitTheHitsWithTheSameTimestamp() {
+    Instant time = Instant.parse("2021-01-01T10:00:00Z");
+    List<LogMessage> messages = new ArrayList<>();
+    for (int i = 1; i <= 5; i++) {
+      messages.add(makeMessageWithIndexAndTimestamp(i, "Message" + i, TEST_INDEX_NAME, time));
+    }
+    messages.add(
+        makeMessageWithIndexAndTimestamp(6, "Message6", TEST_INDEX_NAME, time.minusSeconds(1)));
+    Collections.shuffle(messages);
+
+    KaldbSearch.SearchCursor cursor =
+        KaldbSearch.SearchCursor.newBuilder().setTimestampEpochMs(time.toEpochMilli()).build();
+    List<String> returnedIds = new ArrayList<>();
+    List<Integer> pageSizes = new ArrayList<>();
+    List<LogMessage> page;
+    do {
+      page = SearchStreamPager.nextPage(searchAfter(messages, cursor), cursor, 2);
+      pageSizes.add(page.size());
+      page.forEach(hit -> returnedIds.add(hit.id));
+      cursor = SearchStreamPager.nextCursor(page, cursor);
+    } while (page.size() == 2);
+
+    assertThat(pageSizes).containsExactly(2, 2, 2, 0);
+    assertThat(returnedIds).containsExactly("1", "2", "3", "4", "5", "6");
+    assertThat(cursor.getTimestampEpochMs()).isEqualTo(time.minusSeconds(1).toEpochMilli());
+    assertThat(cursor.getIdsList()).containsExactly("6");
+  }
+
+  @Test
+  public void testCursorKeepsTheIdsOfItsTimestamp() {
+    Instant time = Instant.parse("2021-01-01T10:00:00Z");
+    KaldbSearch.SearchCursor cursor =
+        KaldbSearch.SearchCursor.newBuilder()
+            .setTimestampEpochMs(time.toEpochMilli())
+            .addIds("1")
+            .build();
+    List<LogMessage> page =
+        List.of(makeMessageWithIndexAndTimestamp(2, "Message2", TEST_INDEX_NAME, time));
+
+    KaldbSearch.SearchCursor nextCursor = SearchStreamPager.nextCursor(page, cursor);
+    assertThat(nextCursor.getTimestampEpochMs()).isEqualTo(time.toEpochMilli());
+    assertThat(nextCursor.getIdsList()).containsExactly("1", "2");
+    assertThat(SearchStreamPager.nextCursor(List.of(), cursor)).isEqualTo(cursor);
+  }
+
+  // The hits a search of the page after the cursor matches, like the time range bound of its query.
+  private static List<LogMessage> searchAfter(
+      List<LogMessage> messages, KaldbSearch.SearchCursor cursor) {
+    return messages
+        .stream()
+        .filter(message -> message.timeSinceEpochMilli <= cursor.getTimestampEpochMs())
+        .collect(Collectors.toList());
+  }
+}
@@ -1,5 +1,6 @@
 package com.slack.kaldb.logstore.search;
 
+import static com.slack.kaldb.logstore.LogMessage.SystemField.TIME_SINCE_EPOCH;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.COMMITS_TIMER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_FAILED_COUNTER;
 import static com.slack.kaldb.logstore.LuceneIndexStoreImpl.MESSAGES_RECEIVED_COUNTER;
@@ -10,11 +11,20 @@ import static com.slack.kaldb.testlib.MetricsUtil.getCount;
 import static com.slack.kaldb.testlib.MetricsUtil.getTimerCount;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import brave.Tracing;
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
+import com.slack.kaldb.histogram.Histogram;
 import com.slack.kaldb.histogram.HistogramBucket;
 import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.testlib.SegmentedIndex;
 import com.slack.kaldb.testlib.TemporaryLogStoreAndSearcherRule;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Random;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 
@@ -25,6 +35,11 @@ public class StatsCollectorTest {
 
   public StatsCollectorTest() throws IOException {}
 
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    Tracing.newBuilder().build();
+  }
+
   @Test
   public void testStatsCollectorWithPerMinuteMessages() {
     Instant time = Instant.ofEpochSecond(1593365471);
@@ -70,4 +85,34 @@ public class StatsCollectorTest {
     assertThat(getTimerCount(REFRESHES_TIMER, strictLogStore.metricsRegistry)).isEqualTo(1);
     assertThat(getTimerCount(COMMITS_TIMER, strictLogStore.metricsRegistry)).isEqualTo(1);
   }
+
+  @Test
+  public void testConcurrentCollectorsCountIntoTheirOwnHistograms() throws Exception {
+    long startTimeMs = 1593365471000L;
+    long endTimeMs = startTimeMs + 60 * 60 * 1000;
+    int bucketCount = 60;
+    FixedIntervalHistogramImpl expectedHistogram =
+        new FixedIntervalHistogramImpl(startTimeMs, endTimeMs, bucketCount);
+
+    Random random = new Random(0);
+    try (SegmentedIndex index =
+        new SegmentedIndex(
+            16,
+            1000,
+            () -> {
+              long timestamp =
+                  startTimeMs + (long) (random.nextDouble() * (endTimeMs - startTimeMs));
+              Document document = new Document();
+              document.add(new NumericDocValuesField(TIME_SINCE_EPOCH.fieldName, timestamp));
+              expectedHistogram.add(timestamp);
+              return document;
+            })) {
+      Histogram histogram =
+          index.searcher.search(
+              new MatchAllDocsQuery(),
+              StatsCollector.collectorManager(bucketCount, startTimeMs, endTimeMs));
+      assertThat(histogram.count()).isEqualTo(16000);
+      assertThat(histogram.getBuckets()).isEqualTo(expectedHistogram.getBuckets());
+    }
+  }
 }
@@ -0,0 +1,104 @@
+package com.slack.kaldb.logstore.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import com.slack.kaldb.testlib.SegmentedIndex;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.search.WildcardQuery;
+import org.junit.Test;
+
+public class TimeLimitedCollectorManagerTest {
+  private static final int DOCUMENTS_PER_SEGMENT = 10;
+
+  @Test
+  public void testReaderTimeoutAfterTheFirstSegmentReportsItsDocuments() throws IOException {
+    AtomicInteger docs = new AtomicInteger();
+    try (SegmentedIndex index =
+        new SegmentedIndex(
+            2,
+            DOCUMENTS_PER_SEGMENT,
+            () -> {
+              Document document = new Document();
+              document.add(
+                  new StringField("word", "word" + docs.getAndIncrement(), Field.Store.NO));
+              return document;
+            })) {
+      SettableQueryTimeout queryTimeout = new SettableQueryTimeout();
+      IndexSearcher searcher =
+          new IndexSearcher(ExitableDirectoryReader.wrap(index.reader, queryTimeout));
+      TimeLimitedCollectorManager<TotalHitCountCollector, Integer> collectorManager =
+          new TimeLimitedCollectorManager<>(
+              new TimeoutOnSecondSegmentCollectorManager(queryTimeout), queryTimeout);
+
+      // The wildcard query enumerates the terms of each segment when it's scored, so the reader
+      // times out on the second segment after the first one was collected.
+      Throwable thrown =
+          catchThrowable(
+              () ->
+                  searcher.search(new WildcardQuery(new Term("word", "word*")), collectorManager));
+      assertThat(thrown).isInstanceOf(ExitableDirectoryReader.ExitingReaderException.class);
+
+      assertThat(collectorManager.reduceTimedOut()).isEqualTo(DOCUMENTS_PER_SEGMENT);
+      assertThat(collectorManager.isTimedOut()).isTrue();
+    }
+  }
+
+  private static class SettableQueryTimeout implements QueryTimeout {
+    private volatile boolean exit = false;
+
+    @Override
+    public boolean shouldExit() {
+      return exit;
+    }
+
+    @Override
+    public boolean isTimeoutEnabled() {
+      return true;
+    }
+  }
+
+  // Counts the hits, and times out the query once the collection of the second segment starts.
+  private static class TimeoutOnSecondSegmentCollectorManager
+      implements CollectorManager<TotalHitCountCollector, Integer> {
+    private final SettableQueryTimeout queryTimeout;
+
+    private TimeoutOnSecondSegmentCollectorManager(SettableQueryTimeout queryTimeout) {
+      this.queryTimeout = queryTimeout;
+    }
+
+    @Override
+    public TotalHitCountCollector newCollector() {
+      return new TotalHitCountCollector() {
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+          if (context.ord == 1) {
+            queryTimeout.exit = true;
+          }
+          super.doSetNextReader(context);
+        }
+      };
+    }
+
+    @Override
+    public Integer reduce(Collection<TotalHitCountCollector> collectors) {
+      int totalHits = 0;
+      for (TotalHitCountCollector collector : collectors) {
+        totalHits += collector.getTotalHits();
+      }
+      return totalHits;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import static com.slack.kaldb.logstore.LogMessage.SystemField.TIME_SINCE_EPOCH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
+import com.slack.kaldb.testlib.SegmentedIndex;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.util.NumericUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsCollectorTest {
+  private static final String LONG_FIELD = "duration_ms";
+  private static final String DOUBLE_FIELD = "ratio";
+  private static final long START_TIME_MS = 1593365471000L;
+  private static final long END_TIME_MS = START_TIME_MS + 60 * 60 * 1000;
+  private static final int BUCKET_COUNT = 60;
+
+  private final FixedIntervalHistogramImpl histogram =
+      new FixedIntervalHistogramImpl(START_TIME_MS, END_TIME_MS, BUCKET_COUNT);
+  private final List<Long> longValues = new ArrayList<>();
+  private final List<Double> doubleValues = new ArrayList<>();
+  // The expected counts of the long values, by bucket.
+  private final long[] expectedCounts = new long[BUCKET_COUNT];
+
+  private SegmentedIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    Random random = new Random(0);
+    index =
+        new SegmentedIndex(
+            8,
+            1000,
+            () -> {
+              long timestamp =
+                  START_TIME_MS + (long) (random.nextDouble() * (END_TIME_MS - START_TIME_MS));
+              Document document = new Document();
+              document.add(new NumericDocValuesField(TIME_SINCE_EPOCH.fieldName, timestamp));
+              // Some documents don't have the fields, and the values have a long tail.
+              if (random.nextInt(10) > 0) {
+                long value = (long) (1 + Math.exp(random.nextGaussian() * 2 + 3));
+                document.add(new SortedNumericDocValuesField(LONG_FIELD, value));
+                longValues.add(value);
+                expectedCounts[histogram.getBucketIndex(timestamp)]++;
+              }
+              if (random.nextInt(10) > 0) {
+                double value = random.nextGaussian();
+                document.add(
+                    new SortedNumericDocValuesField(
+                        DOUBLE_FIELD, NumericUtils.doubleToSortableLong(value)));
+                doubleValues.add(value);
+              }
+              return document;
+            });
+    Collections.sort(longValues);
+    Collections.sort(doubleValues);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    index.close();
+  }
+
+  @Test
+  public void testConcurrentCollectorsComputeTheMetricsOfAllDocuments() throws Exception {
+    List<MetricsResult> results =
+        search(new MetricsAggregation(LONG_FIELD, List.of(50.0, 99.0), false), false);
+
+    assertThat(results).hasSize(1);
+    MetricsResult result = results.get(0);
+    assertThat(result.count).isEqualTo(longValues.size());
+    assertThat(result.sum).isEqualTo(longValues.stream().mapToLong(Long::longValue).sum());
+    assertThat(result.min).isEqualTo(longValues.get(0).doubleValue());
+    assertThat(result.max).isEqualTo(longValues.get(longValues.size() - 1).doubleValue());
+    assertThat(result.sketch.count()).isEqualTo(longValues.size());
+    for (double percentile : List.of(50.0, 99.0)) {
+      double expected = longValues.get((int) (percentile / 100 * (longValues.size() - 1)));
+      assertThat(result.percentile(percentile)).isCloseTo(expected, within(expected * 0.01));
+    }
+  }
+
+  @Test
+  public void testDoubleValuesAreReadFromSortableLongs() throws Exception {
+    List<MetricsResult> results =
+        search(new MetricsAggregation(DOUBLE_FIELD, List.of(), false), true);
+
+    MetricsResult result = results.get(0);
+    assertThat(result.count).isEqualTo(doubleValues.size());
+    assertThat(result.sum)
+        .isCloseTo(doubleValues.stream().mapToDouble(Double::doubleValue).sum(), within(1e-6));
+    assertThat(result.min).isEqualTo(doubleValues.get(0));
+    assertThat(result.max).isEqualTo(doubleValues.get(doubleValues.size() - 1));
+    assertThat(result.sketch).isNull();
+    assertThat(result.percentile(50)).isNaN();
+  }
+
+  @Test
+  public void testMetricsAreComputedPerHistogramBucket() throws Exception {
+    List<MetricsResult> results =
+        search(new MetricsAggregation(LONG_FIELD, List.of(50.0), true), false);
+
+    assertThat(results).hasSize(BUCKET_COUNT);
+    long count = 0;
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      MetricsResult result = results.get(bucket);
+      assertThat(result.count).isEqualTo(expectedCounts[bucket]);
+      assertThat(result.sketch.count()).isEqualTo(expectedCounts[bucket]);
+      count += result.count;
+    }
+    assertThat(count).isEqualTo(longValues.size());
+  }
+
+  @Test
+  public void testFieldWithoutValuesHasEmptyMetrics() throws Exception {
+    List<MetricsResult> results =
+        search(new MetricsAggregation("missing", List.of(), false), false);
+
+    assertThat(results).containsExactly(MetricsResult.EMPTY);
+    assertThat(results.get(0).avg()).isNaN();
+  }
+
+  private List<MetricsResult> search(MetricsAggregation aggregation, boolean doubleValues)
+      throws Exception {
+    return index.searcher.search(
+        new MatchAllDocsQuery(),
+        MetricsCollector.collectorManager(
+            aggregation, doubleValues, BUCKET_COUNT, START_TIME_MS, END_TIME_MS));
+  }
+}
@@ -0,0 +1,84 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+  @Test
+  public void testQuantilesAreWithinTheRelativeAccuracy() {
+    Random random = new Random(0);
+    double[] values = new double[10000];
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < values.length; i++) {
+      // Latency like values, which span a few orders of magnitude.
+      values[i] = Math.exp(random.nextGaussian() * 2 + 3);
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+
+    assertThat(sketch.count()).isEqualTo(values.length);
+    for (double quantile : new double[] {0, 0.01, 0.25, 0.5, 0.75, 0.95, 0.99, 1}) {
+      double expected = values[(int) (quantile * (values.length - 1))];
+      assertThat(sketch.quantile(quantile))
+          .isCloseTo(expected, within(expected * QuantileSketch.RELATIVE_ACCURACY));
+    }
+  }
+
+  @Test
+  public void testNegativeAndZeroValues() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = -50; i <= 50; i++) {
+      sketch.add(i);
+    }
+
+    assertThat(sketch.count()).isEqualTo(101);
+    assertThat(sketch.getZeroCount()).isEqualTo(1);
+    assertThat(sketch.quantile(0)).isCloseTo(-50, within(0.5));
+    assertThat(sketch.quantile(0.25)).isCloseTo(-25, within(0.25));
+    assertThat(sketch.quantile(0.5)).isEqualTo(0);
+    assertThat(sketch.quantile(1)).isCloseTo(50, within(0.5));
+    assertThat(new QuantileSketch().quantile(0.5)).isNaN();
+  }
+
+  @Test
+  public void testMergeIsTheSameAsAddingAllTheValues() {
+    Random random = new Random(0);
+    QuantileSketch all = new QuantileSketch();
+    QuantileSketch merged = new QuantileSketch();
+    for (int i = 0; i < 10; i++) {
+      QuantileSketch part = new QuantileSketch();
+      // Every part has values of a different range, so the merged range grows in both directions.
+      double scale = Math.pow(10, (i % 2 == 0 ? i : -i) / 2.0);
+      for (int j = 0; j < 1000; j++) {
+        double value = random.nextDouble() * scale;
+        part.add(value);
+        all.add(value);
+      }
+      merged.merge(part);
+    }
+
+    assertThat(merged).isEqualTo(all);
+    assertThat(merged.count()).isEqualTo(10000);
+    assertThat(merged.quantile(0.9)).isEqualTo(all.quantile(0.9));
+  }
+
+  @Test
+  public void testLowestBucketsAreCollapsedWhenTheRangeIsFull() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (int exponent = -200; exponent <= 200; exponent++) {
+      sketch.add(Math.pow(10, exponent));
+    }
+
+    assertThat(sketch.count()).isEqualTo(401);
+    assertThat(sketch.getPositive().getCounts().length).isEqualTo(QuantileSketch.MAX_BUCKETS);
+    // The highest values keep their accuracy, and the lowest ones are counted in the lowest bucket.
+    assertThat(sketch.quantile(1)).isCloseTo(1e200, within(1e200 * 0.01));
+    assertThat(sketch.quantile(0.99)).isCloseTo(1e196, within(1e196 * 0.01));
+    assertThat(sketch.quantile(0)).isEqualTo(sketch.quantile(0.5));
+  }
+}
@@ -0,0 +1,177 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import static com.slack.kaldb.logstore.LogMessage.SystemField.TIME_SINCE_EPOCH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import com.google.common.base.Throwables;
+import com.slack.kaldb.histogram.FixedIntervalHistogramImpl;
+import com.slack.kaldb.logstore.search.aggregations.TermsResult.TermCount;
+import com.slack.kaldb.testlib.SegmentedIndex;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TermsCollectorTest {
+  private static final String FIELD = "hostname";
+  private static final long START_TIME_MS = 1593365471000L;
+  private static final long END_TIME_MS = START_TIME_MS + 60 * 60 * 1000;
+  private static final int BUCKET_COUNT = 60;
+  private static final int HOST_COUNT = 5;
+
+  private final FixedIntervalHistogramImpl histogram =
+      new FixedIntervalHistogramImpl(START_TIME_MS, END_TIME_MS, BUCKET_COUNT);
+  // The expected counts of the hosts, by host and bucket.
+  private final Map<String, long[]> expectedCounts = new HashMap<>();
+
+  private SegmentedIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    Random random = new Random(0);
+    index =
+        new SegmentedIndex(
+            8,
+            1000,
+            () -> {
+              long timestamp =
+                  START_TIME_MS + (long) (random.nextDouble() * (END_TIME_MS - START_TIME_MS));
+              Document document = new Document();
+              document.add(new NumericDocValuesField(TIME_SINCE_EPOCH.fieldName, timestamp));
+              // Some documents don't have the field, and hosts have skewed counts.
+              int host = (int) (random.nextDouble() * random.nextDouble() * (HOST_COUNT + 1));
+              if (host < HOST_COUNT) {
+                document.add(new SortedSetDocValuesField(FIELD, new BytesRef("host" + host)));
+                long[] counts =
+                    expectedCounts.computeIfAbsent("host" + host, key -> new long[BUCKET_COUNT]);
+                counts[histogram.getBucketIndex(timestamp)]++;
+              }
+              return document;
+            });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    index.close();
+  }
+
+  @Test
+  public void testConcurrentCollectorsCountTheTermsOfAllDocuments() throws Exception {
+    List<TermsResult> results = search(new TermsAggregation(FIELD, 2, 0, false));
+
+    assertThat(results).hasSize(1);
+    TermsResult result = results.get(0);
+    assertThat(result.terms).hasSize(HOST_COUNT);
+    assertThat(result.otherDocCount).isEqualTo(0);
+    assertThat(result.docCountErrorUpperBound).isEqualTo(0);
+    for (TermCount termCount : result.terms) {
+      assertThat(termCount.count).isEqualTo(sum(expectedCounts.get(termCount.term)));
+      assertThat(termCount.docCountError).isEqualTo(0);
+    }
+    assertThat(result.terms.get(0).count).isGreaterThan(result.terms.get(HOST_COUNT - 1).count);
+  }
+
+  @Test
+  public void testTermsAreCountedPerHistogramBucket() throws Exception {
+    List<TermsResult> results = search(new TermsAggregation(FIELD, 2, 0, true));
+
+    assertThat(results).hasSize(BUCKET_COUNT);
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      Map<String, Long> bucketCounts = new HashMap<>();
+      for (TermCount termCount : results.get(bucket).terms) {
+        bucketCounts.put(termCount.term, termCount.count);
+      }
+      for (Map.Entry<String, long[]> entry : expectedCounts.entrySet()) {
+        long expected = entry.getValue()[bucket];
+        if (expected > 0) {
+          assertThat(bucketCounts).containsEntry(entry.getKey(), expected);
+        } else {
+          assertThat(bucketCounts).doesNotContainKey(entry.getKey());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testShardSizeLimitsTheTermsOfAResult() throws Exception {
+    List<TermsResult> results = search(new TermsAggregation(FIELD, 1, 2, false));
+
+    TermsResult result = results.get(0);
+    assertThat(result.terms).hasSize(2);
+    long allCount = 0;
+    for (long[] counts : expectedCounts.values()) {
+      allCount += sum(counts);
+    }
+    assertThat(result.terms.get(0).count + result.terms.get(1).count + result.otherDocCount)
+        .isEqualTo(allCount);
+    assertThat(result.docCountErrorUpperBound).isEqualTo(result.terms.get(1).count);
+  }
+
+  @Test
+  public void testFieldWithTooManyTermsFailsTheSearch() throws Exception {
+    // The terms of every document are distinct, so the counts of two segments are over the limit.
+    int documentsPerSegment = (int) (TermsCollector.MAX_TERM_COUNTS / BUCKET_COUNT / 2 + 1);
+    AtomicInteger term = new AtomicInteger();
+    try (SegmentedIndex manyTermsIndex =
+        new SegmentedIndex(
+            2,
+            documentsPerSegment,
+            () -> {
+              Document document = new Document();
+              document.add(new NumericDocValuesField(TIME_SINCE_EPOCH.fieldName, START_TIME_MS));
+              document.add(
+                  new SortedSetDocValuesField(
+                      FIELD, new BytesRef("term" + term.getAndIncrement())));
+              return document;
+            })) {
+      Throwable error =
+          catchThrowable(
+              () ->
+                  manyTermsIndex.searcher.search(
+                      new MatchAllDocsQuery(),
+                      TermsCollector.collectorManager(
+                          new TermsAggregation(FIELD, 2, 0, true),
+                          BUCKET_COUNT,
+                          START_TIME_MS,
+                          END_TIME_MS)));
+      assertThat(Throwables.getRootCause(error))
+          .isInstanceOf(IllegalArgumentException.class)
+          .hasMessageContaining("too many terms");
+
+      // The same terms are fine when they aren't counted per bucket.
+      assertThat(
+              manyTermsIndex.searcher.search(
+                  new MatchAllDocsQuery(),
+                  TermsCollector.collectorManager(
+                      new TermsAggregation(FIELD, 2, 0, false),
+                      BUCKET_COUNT,
+                      START_TIME_MS,
+                      END_TIME_MS)))
+          .hasSize(1);
+    }
+  }
+
+  private List<TermsResult> search(TermsAggregation aggregation) throws Exception {
+    return index.searcher.search(
+        new MatchAllDocsQuery(),
+        TermsCollector.collectorManager(aggregation, BUCKET_COUNT, START_TIME_MS, END_TIME_MS));
+  }
+
+  private static long sum(long[] counts) {
+    long sum = 0;
+    for (long count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,72 @@
+package com.slack.kaldb.logstore.search.aggregations;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import com.slack.kaldb.logstore.search.aggregations.TermsResult.TermCount;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TermsResultTest {
+
+  @Test
+  public void testTopTermsOfCounts() {
+    List<TermCount> counts =
+        new ArrayList<>(
+            List.of(
+                new TermCount("c", 1, 0),
+                new TermCount("b", 3, 0),
+                new TermCount("a", 3, 0),
+                new TermCount("d", 2, 0)));
+
+    TermsResult result = TermsResult.fromCounts(counts, 2);
+    assertThat(result.terms).containsExactly(new TermCount("a", 3, 0), new TermCount("b", 3, 0));
+    assertThat(result.otherDocCount).isEqualTo(3);
+    assertThat(result.docCountErrorUpperBound).isEqualTo(3);
+
+    TermsResult allTerms = TermsResult.fromCounts(new ArrayList<>(counts), 10);
+    assertThat(allTerms.terms).hasSize(4);
+    assertThat(allTerms.otherDocCount).isEqualTo(0);
+    assertThat(allTerms.docCountErrorUpperBound).isEqualTo(0);
+  }
+
+  @Test
+  public void testMergeAddsTheErrorBoundsOfTheResultsMissingATerm() {
+    TermsResult first =
+        new TermsResult(List.of(new TermCount("a", 10, 0), new TermCount("b", 5, 0)), 3, 5);
+    TermsResult second =
+        new TermsResult(List.of(new TermCount("a", 8, 0), new TermCount("c", 6, 0)), 4, 6);
+
+    TermsResult merged = TermsResult.merge(List.of(first, second), 3);
+    assertThat(merged.terms)
+        .containsExactly(
+            new TermCount("a", 18, 0), new TermCount("c", 6, 5), new TermCount("b", 5, 6));
+    assertThat(merged.otherDocCount).isEqualTo(7);
+    assertThat(merged.docCountErrorUpperBound).isEqualTo(11);
+
+    TermsResult top = TermsResult.merge(List.of(first, second), 2);
+    assertThat(top.terms).containsExactly(new TermCount("a", 18, 0), new TermCount("c", 6, 5));
+    assertThat(top.otherDocCount).isEqualTo(12);
+    assertThat(top.docCountErrorUpperBound).isEqualTo(17);
+  }
+
+  @Test
+  public void testMergeOfExactResultsIsExact() {
+    TermsResult first = new TermsResult(List.of(new TermCount("a", 2, 0)), 0, 0);
+    TermsResult second = new TermsResult(List.of(new TermCount("b", 1, 0)), 0, 0);
+
+    TermsResult merged = TermsResult.merge(List.of(first, second), 2);
+    assertThat(merged.terms).containsExactly(new TermCount("a", 2, 0), new TermCount("b", 1, 0));
+    assertThat(merged.otherDocCount).isEqualTo(0);
+    assertThat(merged.docCountErrorUpperBound).isEqualTo(0);
+
+    assertThat(TermsResult.merge(List.of(), 2)).isEqualTo(TermsResult.EMPTY);
+  }
+
+  @Test
+  public void testSizeShouldBePositive() {
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> TermsResult.merge(List.of(new TermsResult(new ArrayList<>(), 0, 0)), 0));
+  }
+}
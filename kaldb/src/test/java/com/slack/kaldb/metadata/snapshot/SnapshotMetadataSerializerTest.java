@@ -3,6 +3,9 @@ package com.slack.kaldb.metadata.snapshot;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.slack.kaldb.logstore.LogDocumentBuilderImpl;
+import com.slack.kaldb.proto.metadata.Metadata.SnapshotMetadata.FieldType;
+import java.util.Map;
 import org.junit.Test;
 
 public class SnapshotMetadataSerializerTest {
@@ -35,6 +38,60 @@ public class SnapshotMetadataSerializerTest {
     assertThat(deserializedSnapshotMetadata.partitionId).isEqualTo(partitionId);
   }
 
+  @Test
+  public void testSnapshotMetadataWithSchema() throws InvalidProtocolBufferException {
+    Map<String, FieldType> schema =
+        Map.of("duration", FieldType.LONG, "host", FieldType.KEYWORD, "error", FieldType.TEXT);
+    SnapshotMetadata snapshotMetadata =
+        new SnapshotMetadata("testSnapshotId", "/testPath", 1, 100, 123, "1", schema);
+
+    SnapshotMetadata deserializedSnapshotMetadata =
+        serDe.fromJsonStr(serDe.toJsonStr(snapshotMetadata));
+    assertThat(deserializedSnapshotMetadata).isEqualTo(snapshotMetadata);
+    assertThat(deserializedSnapshotMetadata.schema).isEqualTo(schema);
+  }
+
+  @Test
+  public void testSnapshotMetadataWithIndexDocCounts() throws InvalidProtocolBufferException {
+    Map<String, Long> indexDocCounts = Map.of("service1", 100L, "service2", 5L);
+    SnapshotMetadata snapshotMetadata =
+        new SnapshotMetadata(
+            "testSnapshotId", "/testPath", 1, 100, 123, "1", Map.of(), indexDocCounts);
+
+    SnapshotMetadata deserializedSnapshotMetadata =
+        serDe.fromJsonStr(serDe.toJsonStr(snapshotMetadata));
+    assertThat(deserializedSnapshotMetadata).isEqualTo(snapshotMetadata);
+    assertThat(deserializedSnapshotMetadata.indexDocCounts).isEqualTo(indexDocCounts);
+    assertThat(deserializedSnapshotMetadata.mayContainIndex("service1")).isTrue();
+    assertThat(deserializedSnapshotMetadata.mayContainIndex("service3")).isFalse();
+
+    // A snapshot without a catalog may contain any index.
+    assertThat(
+            new SnapshotMetadata("testSnapshotId", "/testPath", 1, 100, 123, "1")
+                .mayContainIndex("service3"))
+        .isTrue();
+  }
+
+  @Test
+  public void testSnapshotMetadataWithAnalyzerVersion() throws InvalidProtocolBufferException {
+    SnapshotMetadata snapshotMetadata =
+        new SnapshotMetadata("testSnapshotId", "/testPath", 1, 100, 123, "1");
+    assertThat(snapshotMetadata.analyzerVersion).isEqualTo(LogDocumentBuilderImpl.ANALYZER_VERSION);
+    assertThat(serDe.fromJsonStr(serDe.toJsonStr(snapshotMetadata)).analyzerVersion)
+        .isEqualTo(LogDocumentBuilderImpl.ANALYZER_VERSION);
+
+    // The snapshots created before the analyzer version was added were indexed with the standard
+    // analyzer.
+    String snapshotWithoutVersion =
+        "{\"name\":\"testSnapshotId\",\"snapshotId\":\"testSnapshotId\","
+            + "\"snapshotPath\":\"/testPath\",\"startTimeEpochMs\":\"1\","
+            + "\"endTimeEpochMs\":\"100\",\"partitionId\":\"1\",\"maxOffset\":\"123\"}";
+    SnapshotMetadata deserializedSnapshotMetadata = serDe.fromJsonStr(snapshotWithoutVersion);
+    assertThat(deserializedSnapshotMetadata.analyzerVersion)
+        .isEqualTo(LogDocumentBuilderImpl.STANDARD_ANALYZER_VERSION);
+    assertThat(deserializedSnapshotMetadata).isNotEqualTo(snapshotMetadata);
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void serializeNullObject() throws InvalidProtocolBufferException {
     serDe.toJsonStr(null);
@@ -192,6 +192,7 @@ public class KaldbConfigTest {
     assertThat(indexerConfig.getServerConfig().getServerPort()).isEqualTo(8080);
     assertThat(indexerConfig.getServerConfig().getServerAddress()).isEqualTo("localhost");
     assertThat(indexerConfig.getMaxOffsetDelayMessages()).isEqualTo(10002);
+    assertThat(indexerConfig.getIndexerThreads()).isEqualTo(2);
 
     final KaldbConfigs.QueryServiceConfig queryServiceConfig = config.getQueryConfig();
     assertThat(queryServiceConfig.getServerConfig().getServerPort()).isEqualTo(8081);
@@ -209,6 +210,7 @@ public class KaldbConfigTest {
     final KaldbConfigs.ServerConfig cacheServerConfig = cacheConfig.getServerConfig();
     assertThat(cacheConfig.getSlotsPerInstance()).isEqualTo(10);
     assertThat(cacheConfig.getMaxParallelCacheSlotDownloads()).isEqualTo(3);
+    assertThat(cacheConfig.getQueryResultCacheSizeBytes()).isEqualTo(2097152);
     assertThat(cacheConfig.getDataDirectory()).isEqualTo("/tmp");
     assertThat(cacheServerConfig.getServerPort()).isEqualTo(8082);
     assertThat(cacheServerConfig.getServerAddress()).isEqualTo("localhost");
@@ -328,6 +330,7 @@ public class KaldbConfigTest {
     assertThat(indexerConfig.getDataTransformer()).isEqualTo("api_log");
     assertThat(indexerConfig.getDataDirectory()).isEqualTo("/tmp");
     assertThat(indexerConfig.getMaxOffsetDelayMessages()).isEqualTo(10001);
+    assertThat(indexerConfig.getIndexerThreads()).isEqualTo(2);
     assertThat(indexerConfig.getServerConfig().getServerPort()).isEqualTo(8080);
     assertThat(indexerConfig.getServerConfig().getServerAddress()).isEqualTo("localhost");
 
@@ -347,6 +350,7 @@ public class KaldbConfigTest {
     final KaldbConfigs.ServerConfig cacheServerConfig = cacheConfig.getServerConfig();
     assertThat(cacheConfig.getSlotsPerInstance()).isEqualTo(10);
     assertThat(cacheConfig.getMaxParallelCacheSlotDownloads()).isEqualTo(6);
+    assertThat(cacheConfig.getQueryResultCacheSizeBytes()).isEqualTo(1048576);
     assertThat(cacheServerConfig.getServerPort()).isEqualTo(8082);
     assertThat(cacheConfig.getDataDirectory()).isEqualTo("/tmp");
     assertThat(cacheServerConfig.getServerAddress()).isEqualTo("localhost");
@@ -395,6 +399,15 @@ public class KaldbConfigTest {
     final KaldbConfigs.ServerConfig recoveryServerConfig = recoveryConfig.getServerConfig();
     assertThat(recoveryServerConfig.getServerPort()).isEqualTo(8084);
     assertThat(recoveryServerConfig.getServerAddress()).isEqualTo("localhost");
+    final KaldbConfigs.LuceneConfig recoveryLuceneConfig = recoveryConfig.getLuceneConfig();
+    assertThat(recoveryLuceneConfig.getRamBufferSizeMb()).isEqualTo(256);
+    assertThat(recoveryLuceneConfig.getSegmentsPerTier()).isEqualTo(30);
+    assertThat(recoveryLuceneConfig.getMaxMergeAtOnce()).isZero();
+    assertThat(recoveryLuceneConfig.getDisableCompoundFiles()).isTrue();
+    assertThat(recoveryLuceneConfig.getStoredFieldsCompression())
+        .isEqualTo(KaldbConfigs.LuceneConfig.StoredFieldsCompression.BEST_COMPRESSION);
+    assertThat(recoveryLuceneConfig.getForceMergeMaxSegments()).isEqualTo(1);
+    assertThat(recoveryLuceneConfig.getForceMergeTimeoutSecs()).isEqualTo(300);
 
     final KaldbConfigs.PreprocessorConfig preprocessorConfig = config.getPreprocessorConfig();
     assertThat(preprocessorConfig.getPreprocessorInstanceCount()).isEqualTo(1);
@@ -472,6 +485,7 @@ public class KaldbConfigTest {
     assertThat(indexerConfig.getDataDirectory()).isEmpty();
     assertThat(indexerConfig.getDataTransformer()).isEqualTo("api_log");
     assertThat(indexerConfig.getMaxOffsetDelayMessages()).isZero();
+    assertThat(indexerConfig.getIndexerThreads()).isZero();
     assertThat(indexerConfig.getServerConfig().getServerPort()).isZero();
     assertThat(indexerConfig.getServerConfig().getServerAddress()).isEmpty();
 
@@ -596,6 +610,7 @@ public class KaldbConfigTest {
     assertThat(indexerConfig.getDataDirectory()).isEmpty();
     assertThat(indexerConfig.getDataTransformer()).isEqualTo("api_log");
     assertThat(indexerConfig.getMaxOffsetDelayMessages()).isZero();
+    assertThat(indexerConfig.getIndexerThreads()).isZero();
     assertThat(indexerConfig.getServerConfig().getServerPort()).isZero();
     assertThat(indexerConfig.getServerConfig().getServerAddress()).isEmpty();
 
@@ -33,6 +33,7 @@ import com.slack.kaldb.metadata.zookeeper.MetadataStore;
 import com.slack.kaldb.metadata.zookeeper.ZookeeperMetadataStoreImpl;
 import com.slack.kaldb.proto.config.KaldbConfigs;
 import com.slack.kaldb.testlib.ChunkManagerUtil;
+import com.slack.kaldb.testlib.MessageUtil;
 import com.slack.kaldb.testlib.TestKafkaServer;
 import com.slack.kaldb.writer.kafka.KaldbKafkaConsumer;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
@@ -597,7 +598,12 @@ public class KaldbIndexerTest {
     SearchResult<LogMessage> searchResult =
         chunkManagerUtil.chunkManager.query(
             new SearchQuery(
-                "test", "Message100", chunk1StartTimeMs, chunk1StartTimeMs + (100 * 1000), 10, 2));
+                MessageUtil.TEST_INDEX_NAME,
+                "Message100",
+                chunk1StartTimeMs,
+                chunk1StartTimeMs + (100 * 1000),
+                10,
+                2));
 
     // Validate search response
     assertThat(searchResult.hits.size()).isEqualTo(1);
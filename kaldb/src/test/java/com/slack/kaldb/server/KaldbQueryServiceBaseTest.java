@@ -0,0 +1,137 @@
+package com.slack.kaldb.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import brave.Tracing;
+import com.slack.kaldb.logstore.LogMessage;
+import com.slack.kaldb.logstore.search.SearchResult;
+import com.slack.kaldb.logstore.search.SearchResultUtils;
+import com.slack.kaldb.logstore.search.SearchStreamPager;
+import com.slack.kaldb.proto.service.KaldbSearch;
+import com.slack.kaldb.proto.service.KaldbServiceGrpc;
+import com.slack.kaldb.testlib.MessageUtil;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.testing.GrpcCleanupRule;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class KaldbQueryServiceBaseTest {
+  private static final Instant START_TIME =
+      LocalDateTime.of(2020, 10, 1, 10, 10, 0).atZone(ZoneOffset.UTC).toInstant();
+  private static final int PAGE_SIZE = 30;
+
+  @Rule public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+  private final List<LogMessage> messages =
+      MessageUtil.makeMessagesWithTimeDifference(1, 100, 1000, START_TIME);
+
+  @Before
+  public void setUp() {
+    Tracing.newBuilder().build();
+  }
+
+  @Test
+  public void testPartialPagesAreSearchedAgain() throws Exception {
+    FailingSnapshotQueryService service =
+        new FailingSnapshotQueryService(KaldbQueryServiceBase.MAX_SEARCH_PAGE_ATTEMPTS - 1);
+    List<KaldbSearch.SearchResult> pages = new ArrayList<>();
+    makeClient(service).searchStream(makeRequest()).forEachRemaining(pages::add);
+
+    assertThat(pages.stream().map(KaldbSearch.SearchResult::getHitsCount))
+        .containsExactly(30, 30, 30, 10);
+    List<String> ids = new ArrayList<>();
+    for (KaldbSearch.SearchResult page : pages) {
+      assertThat(page.getFailedNodes()).isZero();
+      for (LogMessage hit : SearchResultUtils.fromSearchResultProto(page).hits) {
+        ids.add(hit.id);
+      }
+    }
+    assertThat(ids).hasSize(messages.size()).doesNotHaveDuplicates();
+  }
+
+  @Test
+  public void testStreamFailsWhenAPageIsStillPartial() throws Exception {
+    FailingSnapshotQueryService service =
+        new FailingSnapshotQueryService(KaldbQueryServiceBase.MAX_SEARCH_PAGE_ATTEMPTS);
+    List<KaldbSearch.SearchResult> pages = new ArrayList<>();
+    Throwable error =
+        catchThrowable(
+            () -> makeClient(service).searchStream(makeRequest()).forEachRemaining(pages::add));
+
+    assertThat(error).isInstanceOf(StatusRuntimeException.class);
+    assertThat(((StatusRuntimeException) error).getStatus().getCode())
+        .isEqualTo(Status.Code.UNAVAILABLE);
+    // Only the complete first page was sent, the partial second page wasn't.
+    assertThat(pages).hasSize(1);
+    assertThat(pages.get(0).getHitsCount()).isEqualTo(PAGE_SIZE);
+  }
+
+  private KaldbSearch.SearchStreamRequest makeRequest() {
+    return KaldbSearch.SearchStreamRequest.newBuilder()
+        .setIndexName(MessageUtil.TEST_INDEX_NAME)
+        .setQueryString("")
+        .setStartTimeEpochMs(START_TIME.toEpochMilli())
+        .setEndTimeEpochMs(START_TIME.toEpochMilli() + 100 * 1000)
+        .setPageSize(PAGE_SIZE)
+        .build();
+  }
+
+  private KaldbServiceGrpc.KaldbServiceBlockingStub makeClient(KaldbQueryServiceBase service)
+      throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    grpcCleanup.register(
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(service)
+            .build()
+            .start());
+    return KaldbServiceGrpc.newBlockingStub(
+        grpcCleanup.register(InProcessChannelBuilder.forName(serverName).directExecutor().build()));
+  }
+
+  // Searches the messages as if they were in two snapshots, the second of which fails to search
+  // the given number of times starting with the second page.
+  private class FailingSnapshotQueryService extends KaldbQueryServiceBase {
+    private int failures;
+
+    private FailingSnapshotQueryService(int failures) {
+      this.failures = failures;
+    }
+
+    @Override
+    public KaldbSearch.SearchResult doSearch(KaldbSearch.SearchRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public KaldbSearch.SearchResult doGetTrace(KaldbSearch.GetTraceRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public KaldbSearch.SearchResult doSearchPage(KaldbSearch.SearchStreamRequest request) {
+      SearchResult<LogMessage> result;
+      if (request.hasCursor() && failures > 0) {
+        failures--;
+        List<LogMessage> firstSnapshotHits = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i += 2) {
+          firstSnapshotHits.add(messages.get(i));
+        }
+        result = new SearchResult<>(firstSnapshotHits, 1, 0, List.of(), 1, 2, 2, 0, 0);
+      } else {
+        result = new SearchResult<>(messages, 1, 0, List.of(), 0, 2, 2, 0, 0);
+      }
+      return SearchStreamPager.toPage(result, SearchStreamPager.getCursor(request), PAGE_SIZE);
+    }
+  }
+}
@@ -7,8 +7,11 @@ import com.slack.kaldb.histogram.HistogramBucket;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.search.SearchResult;
 import com.slack.kaldb.logstore.search.SearchResultUtils;
+import com.slack.kaldb.logstore.search.aggregations.MetricsResult;
+import com.slack.kaldb.logstore.search.aggregations.QuantileSketch;
 import com.slack.kaldb.proto.service.KaldbSearch;
 import com.slack.kaldb.testlib.MessageUtil;
+import com.slack.kaldb.util.JsonUtil;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -35,7 +38,7 @@ public class SearchResultTest {
     buckets.add(new HistogramBucket(1, 2));
 
     SearchResult<LogMessage> searchResult =
-        new SearchResult<>(logMessages, 1, 1000, buckets, 1, 5, 7, 7);
+        new SearchResult<>(logMessages, 1, 1000, buckets, 1, 5, 7, 7, 2);
     KaldbSearch.SearchResult protoSearchResult =
         SearchResultUtils.toSearchResultProto(searchResult);
 
@@ -46,11 +49,94 @@ public class SearchResultTest {
     assertThat(protoSearchResult.getTotalNodes()).isEqualTo(5);
     assertThat(protoSearchResult.getTotalSnapshots()).isEqualTo(7);
     assertThat(protoSearchResult.getSnapshotsWithReplicas()).isEqualTo(7);
-    assertThat(protoSearchResult.getBucketsCount()).isEqualTo(1);
+    assertThat(protoSearchResult.getTimedOutSnapshots()).isEqualTo(2);
+    assertThat(protoSearchResult.getHistogram().getCountsCount()).isEqualTo(1);
 
     SearchResult<LogMessage> convertedSearchResult =
         SearchResultUtils.fromSearchResultProto(protoSearchResult);
 
     assertThat(convertedSearchResult).isEqualTo(searchResult);
+    for (int i = 0; i < numDocs; i++) {
+      assertThat(convertedSearchResult.hits.get(i).getType())
+          .isEqualTo(MessageUtil.TEST_MESSAGE_TYPE);
+      assertThat(convertedSearchResult.hits.get(i).source.get("message"))
+          .isEqualTo(logMessages.get(i).source.get("message"));
+    }
+
+    // The sources of the converted hits are passed through as is when they are converted again.
+    assertThat(SearchResultUtils.toSearchResultProto(convertedSearchResult).getHitsList())
+        .isEqualTo(protoSearchResult.getHitsList());
+  }
+
+  @Test
+  public void testLegacyHitsAreRead() throws Exception {
+    LogMessage logMessage = MessageUtil.makeMessage(1);
+    KaldbSearch.SearchResult protoSearchResult =
+        KaldbSearch.SearchResult.newBuilder()
+            .setTotalCount(1)
+            .addLegacyHits(JsonUtil.writeAsString(logMessage))
+            .build();
+
+    SearchResult<LogMessage> searchResult =
+        SearchResultUtils.fromSearchResultProto(protoSearchResult);
+
+    assertThat(searchResult.hits).hasSize(1);
+    LogMessage hit = searchResult.hits.get(0);
+    assertThat(hit.id).isEqualTo(logMessage.id);
+    assertThat(hit.getIndex()).isEqualTo(logMessage.getIndex());
+    assertThat(hit.timeSinceEpochMilli).isEqualTo(logMessage.timeSinceEpochMilli);
+    assertThat(hit.source.get("message")).isEqualTo(logMessage.source.get("message"));
+
+    // The hits are sent on as search hits.
+    assertThat(SearchResultUtils.toSearchResultProto(searchResult).getHits(0).getId())
+        .isEqualTo(logMessage.id);
+  }
+
+  @Test
+  public void testLegacyHistogramBucketsAreRead() {
+    KaldbSearch.SearchResult protoSearchResult =
+        KaldbSearch.SearchResult.newBuilder()
+            .setTotalCount(5)
+            .addLegacyBuckets(
+                KaldbSearch.HistogramBucket.newBuilder().setLow(0).setHigh(10).setCount(2))
+            .addLegacyBuckets(
+                KaldbSearch.HistogramBucket.newBuilder().setLow(10).setHigh(20).setCount(3))
+            .build();
+
+    SearchResult<LogMessage> searchResult =
+        SearchResultUtils.fromSearchResultProto(protoSearchResult);
+
+    assertThat(searchResult.buckets)
+        .containsExactly(new HistogramBucket(0, 10, 2), new HistogramBucket(10, 20, 3));
+    // The buckets are sent on as a packed histogram.
+    assertThat(SearchResultUtils.toSearchResultProto(searchResult).getHistogram().getCountsList())
+        .containsExactly(2L, 3L);
+  }
+
+  @Test
+  public void testMetricsResultConversions() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = -10; i <= 1000; i++) {
+      sketch.add(i * 1.5);
+    }
+    List<MetricsResult> metrics =
+        List.of(
+            new MetricsResult(sketch.count(), 750667.5, -15, 1500, sketch),
+            new MetricsResult(3, 6, 1, 3, null),
+            MetricsResult.EMPTY);
+    SearchResult<LogMessage> searchResult =
+        new SearchResult<>(new ArrayList<>(), 1, 0, List.of(), 0, 1, 1, 1, 0, List.of(), metrics);
+
+    KaldbSearch.SearchResult protoSearchResult =
+        SearchResultUtils.toSearchResultProto(searchResult);
+    assertThat(protoSearchResult.getMetricsCount()).isEqualTo(3);
+    assertThat(protoSearchResult.getMetrics(0).hasSketch()).isTrue();
+    assertThat(protoSearchResult.getMetrics(1).hasSketch()).isFalse();
+
+    SearchResult<LogMessage> convertedSearchResult =
+        SearchResultUtils.fromSearchResultProto(protoSearchResult);
+    assertThat(convertedSearchResult).isEqualTo(searchResult);
+    assertThat(convertedSearchResult.metrics.get(0).percentile(50))
+        .isEqualTo(searchResult.metrics.get(0).percentile(50));
   }
 }
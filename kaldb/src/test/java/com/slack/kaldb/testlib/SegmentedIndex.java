@@ -0,0 +1,70 @@
+package com.slack.kaldb.testlib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.ByteBuffersDirectory;
+
+/**
+ * An in memory index with a fixed number of segments, and a searcher that searches every segment
+ * with its own collector on a pool of threads. Tests of collector managers use it to check that the
+ * results of concurrent collectors are reduced correctly.
+ */
+public class SegmentedIndex implements Closeable {
+  public final DirectoryReader reader;
+  public final IndexSearcher searcher;
+
+  private final ByteBuffersDirectory directory;
+  private final ExecutorService executor;
+
+  public SegmentedIndex(int segmentCount, int documentsPerSegment, Supplier<Document> documents)
+      throws IOException {
+    directory = new ByteBuffersDirectory();
+    try (IndexWriter writer =
+        new IndexWriter(
+            directory, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+      // Every commit makes a segment.
+      for (int segment = 0; segment < segmentCount; segment++) {
+        for (int i = 0; i < documentsPerSegment; i++) {
+          writer.addDocument(documents.get());
+        }
+        writer.commit();
+      }
+    }
+
+    reader = DirectoryReader.open(directory);
+    if (reader.leaves().size() != segmentCount) {
+      throw new IllegalStateException(
+          "Expected " + segmentCount + " segments but found " + reader.leaves().size());
+    }
+    executor = Executors.newFixedThreadPool(4);
+    searcher =
+        new IndexSearcher(reader, executor) {
+          @Override
+          protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+            LeafSlice[] slices = new LeafSlice[leaves.size()];
+            for (int i = 0; i < slices.length; i++) {
+              slices[i] = new LeafSlice(leaves.get(i));
+            }
+            return slices;
+          }
+        };
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdownNow();
+    reader.close();
+    directory.close();
+  }
+}
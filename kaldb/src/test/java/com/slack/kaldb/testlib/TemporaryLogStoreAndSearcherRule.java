@@ -1,10 +1,12 @@
 package com.slack.kaldb.testlib;
 
 import com.google.common.io.Files;
+import com.slack.kaldb.logstore.FieldSchema;
 import com.slack.kaldb.logstore.LogDocumentBuilderImpl;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.logstore.LuceneIndexStoreConfig;
 import com.slack.kaldb.logstore.LuceneIndexStoreImpl;
+import com.slack.kaldb.logstore.SpanDocumentBuilder;
 import com.slack.kaldb.logstore.search.LogIndexSearcherImpl;
 import com.slack.kaldb.logstore.search.SearchResult;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
@@ -62,12 +64,17 @@ public class TemporaryLogStoreAndSearcherRule implements TestRule {
     this.tempFolder = Files.createTempDir(); // TODO: don't use beta func.
     LuceneIndexStoreConfig indexStoreCfg =
         getIndexStoreConfig(commitInterval, refreshInterval, tempFolder);
+    FieldSchema schema = new FieldSchema(metricsRegistry);
+    LogDocumentBuilderImpl documentBuilder =
+        LogDocumentBuilderImpl.build(ignorePropertyTypeExceptions, schema);
     logStore =
         new LuceneIndexStoreImpl(
             indexStoreCfg,
-            LogDocumentBuilderImpl.build(ignorePropertyTypeExceptions),
+            documentBuilder,
+            new SpanDocumentBuilder(documentBuilder),
+            schema,
             metricsRegistry);
-    logSearcher = new LogIndexSearcherImpl(logStore.getSearcherManager());
+    logSearcher = new LogIndexSearcherImpl(logStore.getSearcherManager(), schema.getFieldTypes());
   }
 
   public static LuceneIndexStoreConfig getIndexStoreConfig(
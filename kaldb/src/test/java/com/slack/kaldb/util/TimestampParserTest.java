@@ -0,0 +1,66 @@
+package com.slack.kaldb.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+import org.junit.Test;
+
+public class TimestampParserTest {
+
+  @Test
+  public void testUtcTimestamps() {
+    assertThat(TimestampParser.parseEpochMillis("1970-01-01T00:00:00Z")).isEqualTo(0);
+    assertThat(TimestampParser.parseEpochMillis("2021-02-05T18:41:52.340Z"))
+        .isEqualTo(1612550512340L);
+    assertThat(TimestampParser.parseEpochMillis("2021-02-05t18:41:52.340z"))
+        .isEqualTo(1612550512340L);
+    assertThat(TimestampParser.parseEpochMillis("2021-02-05T18:41:52.3Z"))
+        .isEqualTo(1612550512300L);
+    assertThat(TimestampParser.parseEpochMillis("2021-02-05T18:41:52.340953123Z"))
+        .isEqualTo(1612550512340L);
+    assertThat(TimestampParser.parseEpochMillis("1969-12-31T23:59:59.999Z")).isEqualTo(-1);
+    assertThat(TimestampParser.parseEpochMillis("2020-02-29T00:00:00Z"))
+        .isEqualTo(Instant.parse("2020-02-29T00:00:00Z").toEpochMilli());
+  }
+
+  @Test
+  public void testMatchesInstantParse() {
+    Random random = new Random(0);
+    long maxSeconds = Instant.parse("9999-12-31T23:59:59Z").getEpochSecond();
+    long minSeconds = Instant.parse("0000-01-01T00:00:00Z").getEpochSecond();
+    for (int i = 0; i < 100_000; i++) {
+      long seconds = minSeconds + (long) (random.nextDouble() * (maxSeconds - minSeconds));
+      String timestamp = Instant.ofEpochSecond(seconds, random.nextInt(1_000_000_000)).toString();
+      assertThat(TimestampParser.parseEpochMillis(timestamp))
+          .isEqualTo(Instant.parse(timestamp).toEpochMilli());
+    }
+  }
+
+  @Test
+  public void testUnusualTimestampsFallBackToInstantParse() {
+    // A leap second is parsed as the last second of the minute by Instant.parse.
+    assertThat(TimestampParser.parseEpochMillis("2016-12-31T23:59:60Z"))
+        .isEqualTo(Instant.parse("2016-12-31T23:59:60Z").toEpochMilli());
+    // The end of the day is parsed as the start of the next day.
+    assertThat(TimestampParser.parseEpochMillis("2021-02-05T24:00:00Z"))
+        .isEqualTo(Instant.parse("2021-02-06T00:00:00Z").toEpochMilli());
+    assertThat(TimestampParser.parseEpochMillis("+10000-01-01T00:00:00Z"))
+        .isEqualTo(Instant.parse("+10000-01-01T00:00:00Z").toEpochMilli());
+  }
+
+  @Test
+  public void testInvalidTimestamps() {
+    assertInvalid("2021-02-29T00:00:00Z");
+    assertInvalid("2021-02-05 18:41:52Z");
+    assertInvalid("2021-02-05T18:41:52");
+    assertInvalid("not a timestamp");
+  }
+
+  private static void assertInvalid(String timestamp) {
+    assertThat(catchThrowable(() -> TimestampParser.parseEpochMillis(timestamp)))
+        .isInstanceOf(DateTimeParseException.class);
+  }
+}
@@ -603,6 +603,51 @@ public class LogMessageWriterImplTest {
         .isEqualTo(1);
   }
 
+  @Test
+  public void testInsertTraceSpanRecords() throws IOException {
+    final String serviceName = "test_service";
+    List<ConsumerRecord<String, byte[]>> records =
+        IntStream.range(0, 3)
+            .mapToObj(
+                i ->
+                    new ConsumerRecord<>(
+                        "testTopic",
+                        1,
+                        10 + i,
+                        0L,
+                        TimestampType.CREATE_TIME,
+                        0L,
+                        0,
+                        0,
+                        "testKey",
+                        i == 1
+                            ? "malformedSpan".getBytes()
+                            : makeSpan(
+                                    "t1",
+                                    "i" + i,
+                                    "p1",
+                                    1612550512340953L + i,
+                                    500000L,
+                                    "testSpanName",
+                                    serviceName,
+                                    "test_message_type")
+                                .toByteArray()))
+            .collect(Collectors.toList());
+
+    LogMessageWriterImpl messageWriter =
+        new LogMessageWriterImpl(
+            chunkManagerUtil.chunkManager, LogMessageWriterImpl.traceSpanTransformer);
+
+    assertThat(messageWriter.insertRecords(records)).isEqualTo(1);
+    assertThat(getCount(MESSAGES_RECEIVED_COUNTER, metricsRegistry)).isEqualTo(2);
+    assertThat(getCount(MESSAGES_FAILED_COUNTER, metricsRegistry)).isEqualTo(0);
+    assertThat(chunkManagerUtil.chunkManager.getActiveChunk().info().getMaxOffset()).isEqualTo(12);
+    chunkManagerUtil.chunkManager.getActiveChunk().commit();
+
+    assertThat(searchChunkManager(serviceName, "").hits.size()).isEqualTo(2);
+    assertThat(searchChunkManager(serviceName, "id:i2").hits.size()).isEqualTo(1);
+  }
+
   @Test
   public void testNullTraceSpan() throws IOException {
     LogMessageWriterImpl messageWriter =
@@ -7,6 +7,7 @@ import static com.slack.kaldb.testlib.ChunkManagerUtil.makeChunkManagerUtil;
 import static com.slack.kaldb.testlib.MetricsUtil.getCount;
 import static com.slack.kaldb.testlib.MetricsUtil.getValue;
 import static com.slack.kaldb.writer.kafka.KaldbKafkaConsumer.KAFKA_POLL_TIMEOUT_MS;
+import static com.slack.kaldb.writer.kafka.KaldbKafkaConsumer.RECORDS_FAILED_COUNTER;
 import static com.slack.kaldb.writer.kafka.KaldbKafkaConsumer.RECORDS_RECEIVED_COUNTER;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -18,6 +19,7 @@ import static org.mockito.Mockito.spy;
 
 import com.adobe.testing.s3mock.junit4.S3MockRule;
 import com.github.charithe.kafka.EphemeralKafkaBroker;
+import com.slack.kaldb.chunk.ChunkInfo;
 import com.slack.kaldb.logstore.LogMessage;
 import com.slack.kaldb.testlib.ChunkManagerUtil;
 import com.slack.kaldb.testlib.KaldbConfigUtil;
@@ -156,6 +158,51 @@ public class KaldbKafkaConsumerTest {
       // Assign doesn't create a consumer group.
       assertThat(kafkaServer.getConnectedConsumerGroups()).isEqualTo(0);
     }
+
+    @Test
+    public void testConsumeMessagesWithIndexerThreads() throws Exception {
+      EphemeralKafkaBroker broker = kafkaServer.getBroker();
+      assertThat(broker.isRunning()).isTrue();
+      final Instant startTime =
+          LocalDateTime.of(2020, 10, 1, 10, 10, 0).atZone(ZoneOffset.UTC).toInstant();
+
+      TestKafkaServer.produceMessagesToKafka(broker, startTime);
+      await().until(() -> testConsumer.getEndOffSetForPartition() == 100);
+
+      LogMessageWriterImpl logMessageWriter =
+          new LogMessageWriterImpl(
+              chunkManagerUtil.chunkManager, INDEXER_DATA_TRANSFORMER_MAP.get("trace_span"));
+      KaldbKafkaConsumer pipelinedConsumer =
+          new KaldbKafkaConsumer(
+              TestKafkaServer.TEST_KAFKA_TOPIC,
+              "0",
+              kafkaServer.getBroker().getBrokerList().get(),
+              TEST_KAFKA_CLIENT_GROUP,
+              "true",
+              "5000",
+              "5000",
+              logMessageWriter,
+              metricsRegistry,
+              4);
+      pipelinedConsumer.prepConsumerForConsumption(0);
+      await()
+          .until(
+              () -> {
+                pipelinedConsumer.consumeMessages();
+                return pipelinedConsumer.getConsumerPositionForPartition() == 100;
+              });
+      // Closing the consumer waits for the handed off batches to be indexed.
+      pipelinedConsumer.close();
+
+      assertThat(getCount(RECORDS_RECEIVED_COUNTER, metricsRegistry)).isEqualTo(100);
+      assertThat(getCount(RECORDS_FAILED_COUNTER, metricsRegistry)).isZero();
+      assertThat(getValue(LIVE_MESSAGES_INDEXED, metricsRegistry)).isEqualTo(100);
+      ChunkInfo chunkInfo = chunkManagerUtil.chunkManager.getActiveChunk().info();
+      assertThat(chunkInfo.getMaxOffset()).isEqualTo(99);
+      assertThat(chunkInfo.getDataStartTimeEpochMs())
+          .isLessThanOrEqualTo(chunkInfo.getDataEndTimeEpochMs());
+    }
+
     // TODO: Test batch ingestion with roll over. Not adding a test, since this functionality is
     // not needed by the recovery indexer yet.
   }